@@ -30,6 +30,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
+
 import static junit.framework.Assert.assertNotNull;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
@@ -172,6 +174,21 @@ public class CameraViewCallbacksTest extends BaseTest {
         verify(listener, times(1)).onVideoTaken(any(VideoResult.class));
     }
 
+    @Test
+    public void testDispatchOnVideoSegmentTaken() {
+        VideoResult.Stub stub = new VideoResult.Stub();
+        stub.file = new File("video_2.mp4");
+        File segment = new File("video_1.mp4");
+        Op<VideoResult> resultOp = new Op<>();
+        doEndOp(resultOp, 0).when(listener).onVideoSegmentTaken(any(VideoResult.class));
+        camera.mCameraCallbacks.dispatchOnVideoSegmentTaken(stub, segment);
+
+        VideoResult result = resultOp.await(DELAY);
+        assertNotNull(result);
+        assertEquals(segment, result.getFile());
+        verify(listener, times(1)).onVideoSegmentTaken(any(VideoResult.class));
+    }
+
     @Test
     public void testDispatchOnPictureTaken() {
         PictureResult.Stub stub = new PictureResult.Stub();
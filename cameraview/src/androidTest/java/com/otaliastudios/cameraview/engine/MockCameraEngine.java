@@ -9,6 +9,7 @@ import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.Tasks;
 import com.otaliastudios.cameraview.CameraOptions;
 import com.otaliastudios.cameraview.PictureResult;
+import com.otaliastudios.cameraview.SettingsEditor;
 import com.otaliastudios.cameraview.VideoResult;
 import com.otaliastudios.cameraview.controls.Facing;
 import com.otaliastudios.cameraview.controls.Flash;
@@ -212,4 +213,21 @@ public class MockCameraEngine extends CameraBaseEngine {
     @Override public void setPreviewFrameRate(float previewFrameRate) {
         mPreviewFrameRate = previewFrameRate;
     }
+
+    @Override
+    public void applySettings(@NonNull SettingsEditor.Stub settings) {
+        if (settings.flash != null) mFlash = settings.flash;
+        if (settings.whiteBalance != null) mWhiteBalance = settings.whiteBalance;
+        if (settings.hdr != null) mHdr = settings.hdr;
+        if (settings.zoom != null) {
+            mZoomValue = settings.zoom;
+            mZoomChanged = true;
+        }
+        if (settings.exposureCorrection != null) {
+            mExposureCorrectionValue = settings.exposureCorrection;
+            mExposureCorrectionChanged = true;
+        }
+        if (settings.previewFrameRate != null) mPreviewFrameRate = settings.previewFrameRate;
+        if (settings.hasLocation) mLocation = settings.location;
+    }
 }
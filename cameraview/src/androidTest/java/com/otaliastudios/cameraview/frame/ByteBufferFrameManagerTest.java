@@ -15,7 +15,12 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -109,4 +114,150 @@ public class ByteBufferFrameManagerTest extends BaseTest {
         reset(callback);
         verify(callback, never()).onBufferAvailable(picture);
     }
+
+    @Test
+    public void testFreeze_recycle() {
+        ByteBufferFrameManager manager = new ByteBufferFrameManager(1, callback);
+        int length = 50 * 50 * 3 / 2;
+        manager.setFrozenFrameBudget(2 * length);
+        manager.setUp(ImageFormat.NV21, new Size(50, 50), angles);
+        byte[] data = new byte[length];
+        data[0] = 1;
+        Frame frame = manager.getFrame(data, 0);
+        assertNotNull(frame);
+
+        Frame frozen1 = frame.freeze();
+        byte[] buffer = frozen1.getData();
+        assertEquals(length, manager.getFrozenBytes());
+        frozen1.release();
+        // Released buffers still count against the budget, until reused.
+        assertEquals(length, manager.getFrozenBytes());
+
+        data[0] = 2;
+        Frame frozen2 = frame.freeze();
+        assertSame(buffer, frozen2.getData());
+        assertArrayEquals(data, (byte[]) frozen2.getData());
+        assertEquals(length, manager.getFrozenBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFreeze_fail() {
+        ByteBufferFrameManager manager = new ByteBufferFrameManager(1, callback);
+        int length = 50 * 50 * 3 / 2;
+        manager.setFrozenFrameBudget(length);
+        manager.setFrozenFramePolicy(FrozenFramePolicy.FAIL);
+        manager.setUp(ImageFormat.NV21, new Size(50, 50), angles);
+        Frame frame = manager.getFrame(new byte[length], 0);
+        assertNotNull(frame);
+        assertNotNull(frame.freeze());
+        frame.freeze();
+    }
+
+    @Test
+    public void testFreeze_drop() {
+        ByteBufferFrameManager manager = new ByteBufferFrameManager(1, callback);
+        int length = 50 * 50 * 3 / 2;
+        manager.setFrozenFrameBudget(length);
+        manager.setFrozenFramePolicy(FrozenFramePolicy.DROP);
+        manager.setUp(ImageFormat.NV21, new Size(50, 50), angles);
+        Frame frame = manager.getFrame(new byte[length], 0);
+        assertNotNull(frame);
+
+        Frame frozen = frame.tryFreeze();
+        assertNotNull(frozen);
+        assertNull(frame.tryFreeze());
+        frozen.release();
+        assertNotNull(frame.tryFreeze());
+    }
+
+    @Test
+    public void testFreeze_zeroBudget_fail() {
+        // Pooling is disabled: there is no budget to exceed, and the policy is not used.
+        ByteBufferFrameManager manager = new ByteBufferFrameManager(1, callback);
+        FrameMetricsRecorder metrics = new FrameMetricsRecorder();
+        manager.setMetrics(metrics);
+        manager.setFrozenFramePolicy(FrozenFramePolicy.FAIL);
+        manager.setUp(ImageFormat.NV21, new Size(50, 50), angles);
+        int length = 50 * 50 * 3 / 2;
+        Frame frame = manager.getFrame(new byte[length], 0);
+        assertNotNull(frame);
+
+        Frame frozen1 = frame.freeze();
+        Frame frozen2 = frame.freeze();
+        assertNotSame(frozen1.getData(), frozen2.getData());
+        assertEquals(0, manager.getFrozenBytes());
+        FrameMetrics snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getFrozenFrames());
+        assertEquals(0, snapshot.getFrozenBudgetExceeded());
+    }
+
+    @Test
+    public void testFreeze_zeroBudget_drop() {
+        ByteBufferFrameManager manager = new ByteBufferFrameManager(1, callback);
+        FrameMetricsRecorder metrics = new FrameMetricsRecorder();
+        manager.setMetrics(metrics);
+        manager.setFrozenFramePolicy(FrozenFramePolicy.DROP);
+        manager.setUp(ImageFormat.NV21, new Size(50, 50), angles);
+        int length = 50 * 50 * 3 / 2;
+        Frame frame = manager.getFrame(new byte[length], 0);
+        assertNotNull(frame);
+
+        Frame frozen = frame.tryFreeze();
+        assertNotNull(frozen);
+        byte[] buffer = frozen.getData();
+        frozen.release();
+        // Released buffers are not reused.
+        frozen = frame.tryFreeze();
+        assertNotNull(frozen);
+        assertNotSame(buffer, frozen.getData());
+        FrameMetrics snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getFrozenFrames());
+        assertEquals(0, snapshot.getFrozenRecycledFrames());
+        assertEquals(0, snapshot.getFrozenBudgetExceeded());
+    }
+
+    @Test
+    public void testFreeze_allocate() {
+        ByteBufferFrameManager manager = new ByteBufferFrameManager(1, callback);
+        int length = 50 * 50 * 3 / 2;
+        manager.setFrozenFrameBudget(length);
+        manager.setUp(ImageFormat.NV21, new Size(50, 50), angles);
+        Frame frame = manager.getFrame(new byte[length], 0);
+        assertNotNull(frame);
+
+        Frame frozen1 = frame.freeze();
+        Frame frozen2 = frame.freeze();
+        byte[] buffer1 = frozen1.getData();
+        byte[] buffer2 = frozen2.getData();
+        assertNotSame(buffer1, buffer2);
+        assertEquals(length, manager.getFrozenBytes());
+
+        // The second buffer is out of budget: it is not recycled.
+        frozen2.release();
+        frozen1.release();
+        assertSame(buffer1, frame.freeze().getData());
+        assertNotSame(buffer1, frame.freeze().getData());
+    }
+
+    @Test
+    public void testFreeze_afterRelease() {
+        ByteBufferFrameManager manager = new ByteBufferFrameManager(1, callback);
+        int length = 50 * 50 * 3 / 2;
+        manager.setFrozenFrameBudget(length);
+        manager.setUp(ImageFormat.NV21, new Size(50, 50), angles);
+        Frame frame = manager.getFrame(new byte[length], 0);
+        assertNotNull(frame);
+        Frame frozen = frame.freeze();
+        byte[] buffer = frozen.getData();
+        frame.release();
+        manager.release();
+
+        // Buffers of the old setup are not reused.
+        manager.setUp(ImageFormat.NV21, new Size(50, 50), angles);
+        frozen.release();
+        assertEquals(0, manager.getFrozenBytes());
+        frame = manager.getFrame(new byte[length], 0);
+        assertNotNull(frame);
+        assertNotSame(buffer, frame.freeze().getData());
+    }
 }
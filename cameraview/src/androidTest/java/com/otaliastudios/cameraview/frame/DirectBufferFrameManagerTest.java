@@ -0,0 +1,154 @@
+package com.otaliastudios.cameraview.frame;
+
+
+import android.graphics.ImageFormat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.otaliastudios.cameraview.BaseTest;
+import com.otaliastudios.cameraview.engine.offset.Angles;
+import com.otaliastudios.cameraview.size.Size;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class DirectBufferFrameManagerTest extends BaseTest {
+
+    private final Angles angles = new Angles();
+    private ByteBufferFrameManager.BufferCallback callback;
+
+    @Before
+    public void setUp() {
+        callback = mock(ByteBufferFrameManager.BufferCallback.class);
+    }
+
+    @After
+    public void tearDown() {
+        callback = null;
+    }
+
+    @Test
+    public void testAllocate() {
+        DirectBufferFrameManager manager = new DirectBufferFrameManager(2, callback);
+        manager.setUp(ImageFormat.NV21, new Size(50, 50), angles);
+        verify(callback, times(2)).onBufferAvailable(any(byte[].class));
+        ByteBuffer buffer = manager.getBuffer();
+        assertNotNull(buffer);
+        assertTrue(buffer.isDirect());
+        assertEquals(manager.getFrameBytes(), buffer.capacity());
+        assertNotNull(manager.getBuffer());
+        assertNull(manager.getBuffer());
+    }
+
+    @Test
+    public void testGetFrame_copy() {
+        DirectBufferFrameManager manager = new DirectBufferFrameManager(1, callback);
+        manager.setUp(ImageFormat.NV21, new Size(50, 50), angles);
+        byte[] data = new byte[manager.getFrameBytes()];
+        data[0] = 5;
+        data[data.length - 1] = 10;
+        reset(callback);
+
+        Frame frame = manager.getFrame(data, 0);
+        assertNotNull(frame);
+        assertEquals(ByteBuffer.class, frame.getDataClass());
+        ByteBuffer buffer = frame.getData();
+        assertTrue(buffer.isDirect());
+        assertEquals(0, buffer.position());
+        assertEquals(data.length, buffer.limit());
+        assertEquals(5, buffer.get(0));
+        assertEquals(10, buffer.get(data.length - 1));
+        // The array can be reused right away.
+        verify(callback, times(1)).onBufferAvailable(data);
+
+        // The buffer is recycled on release.
+        frame.release();
+        Frame next = manager.getFrame(data, 1);
+        assertNotNull(next);
+        assertSame(buffer, next.getData());
+    }
+
+    @Test
+    public void testGetFrame_exhausted() {
+        DirectBufferFrameManager manager = new DirectBufferFrameManager(1, callback);
+        manager.setUp(ImageFormat.NV21, new Size(50, 50), angles);
+        byte[] data = new byte[manager.getFrameBytes()];
+        assertNotNull(manager.getFrame(data, 0));
+        reset(callback);
+
+        // No buffers left, but the array still goes back to the callback.
+        assertNull(manager.getFrame(data, 1));
+        verify(callback, times(1)).onBufferAvailable(data);
+    }
+
+    @Test
+    public void testGetFrame_differentLength() {
+        DirectBufferFrameManager manager = new DirectBufferFrameManager(1, callback);
+        manager.setUp(ImageFormat.NV21, new Size(50, 50), angles);
+        byte[] data = new byte[manager.getFrameBytes()];
+        Frame frame = manager.getFrame(data, 0);
+        assertNotNull(frame);
+
+        // Change the allocation size. Arrays of the old size are not dispatched again,
+        // and old buffers are not recycled.
+        manager.setUp(ImageFormat.NV16, new Size(15, 15), angles);
+        reset(callback);
+        ByteBuffer old = frame.getData();
+        frame.release();
+        assertNotSame(old, manager.getBuffer());
+        manager.getFrame(data, 1);
+        verify(callback, never()).onBufferAvailable(data);
+    }
+
+    @Test
+    public void testFreeze() {
+        DirectBufferFrameManager manager = new DirectBufferFrameManager(1, null);
+        manager.setUp(ImageFormat.NV21, new Size(50, 50), angles);
+        ByteBuffer buffer = manager.getBuffer();
+        assertNotNull(buffer);
+        buffer.put(0, (byte) 7);
+        Frame frame = manager.getFrame(buffer, 0);
+        assertNotNull(frame);
+
+        Frame frozen = frame.freeze();
+        ByteBuffer copy = frozen.getData();
+        assertNotSame(buffer, copy);
+        assertTrue(copy.isDirect());
+        assertEquals(0, copy.position());
+        assertEquals(buffer.capacity(), copy.limit());
+        assertEquals(7, copy.get(0));
+    }
+
+    @Test
+    public void testOnBufferUnused() {
+        DirectBufferFrameManager manager = new DirectBufferFrameManager(1, null);
+        manager.setUp(ImageFormat.NV21, new Size(50, 50), angles);
+        ByteBuffer buffer = manager.getBuffer();
+        assertNotNull(buffer);
+        assertNull(manager.getBuffer());
+        buffer.position(10);
+        manager.onBufferUnused(buffer);
+        assertSame(buffer, manager.getBuffer());
+        assertEquals(0, buffer.position());
+    }
+}
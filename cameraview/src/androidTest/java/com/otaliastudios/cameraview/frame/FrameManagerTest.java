@@ -70,4 +70,95 @@ public class FrameManagerTest extends BaseTest {
         Frame second = manager.getFrame("bar", 0);
         assertNull(second);
     }
+
+    @Test
+    public void testGetFrame_retained() {
+        FrameManager<String> manager = new FrameManager<String>(1, String.class) {
+            @Override
+            protected void onFrameDataReleased(@NonNull String data, boolean recycled) { }
+
+            @NonNull
+            @Override
+            protected String onCloneFrameData(@NonNull String data) {
+                return data;
+            }
+        };
+        manager.setUp(ImageFormat.NV21, new Size(50, 50), angles);
+
+        // While retained, the frame does not go back to the pool.
+        Frame first = manager.getFrame("foo", 0);
+        assertNotNull(first);
+        first.retain();
+        first.release();
+        assertNull(manager.getFrame("bar", 0));
+
+        // After the last release, it does.
+        first.release();
+        Frame second = manager.getFrame("bar", 0);
+        assertNotNull(second);
+        assertEquals("bar", second.getData());
+    }
+
+    @Test
+    public void testMetrics() {
+        FrameManager<String> manager = new FrameManager<String>(1, String.class) {
+            @Override
+            protected void onFrameDataReleased(@NonNull String data, boolean recycled) { }
+
+            @NonNull
+            @Override
+            protected String onCloneFrameData(@NonNull String data) {
+                return data;
+            }
+        };
+        FrameMetricsRecorder metrics = new FrameMetricsRecorder();
+        manager.setMetrics(metrics);
+        manager.setUp(ImageFormat.NV21, new Size(50, 50), angles);
+
+        Frame first = manager.getFrame("foo", 0);
+        assertNotNull(first);
+        assertNull(manager.getFrame("bar", 0));
+        first.freeze().release();
+        FrameMetrics snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getProducedFrames());
+        assertEquals(1, snapshot.getPoolExhaustedDrops());
+        assertEquals(1, snapshot.getFrozenFrames());
+        assertEquals(1, snapshot.getPoolSize());
+        assertEquals(1, snapshot.getFramesInUse());
+
+        first.release();
+        assertEquals(0, metrics.snapshot().getFramesInUse());
+    }
+
+    @Test
+    public void testMetrics_repeatedDrops() {
+        // Only the first drop is logged, but all of them should be counted.
+        FrameManager<String> manager = new FrameManager<String>(1, String.class) {
+            @Override
+            protected void onFrameDataReleased(@NonNull String data, boolean recycled) { }
+
+            @NonNull
+            @Override
+            protected String onCloneFrameData(@NonNull String data) {
+                return data;
+            }
+        };
+        FrameMetricsRecorder metrics = new FrameMetricsRecorder();
+        manager.setMetrics(metrics);
+        manager.setUp(ImageFormat.NV21, new Size(50, 50), angles);
+
+        Frame first = manager.getFrame("foo", 0);
+        assertNotNull(first);
+        for (int i = 0; i < 5; i++) {
+            assertNull(manager.getFrame("bar", i + 1));
+        }
+        first.release();
+        Frame second = manager.getFrame("foo", 10);
+        assertNotNull(second);
+        assertNull(manager.getFrame("bar", 11));
+        second.release();
+        FrameMetrics snapshot = metrics.snapshot();
+        assertEquals(8, snapshot.getProducedFrames());
+        assertEquals(6, snapshot.getPoolExhaustedDrops());
+    }
 }
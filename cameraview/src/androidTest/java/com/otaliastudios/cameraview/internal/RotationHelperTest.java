@@ -4,6 +4,7 @@ package com.otaliastudios.cameraview.internal;
 import android.graphics.ImageFormat;
 import android.graphics.YuvImage;
 
+import androidx.annotation.NonNull;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.filters.SmallTest;
 
@@ -14,8 +15,13 @@ import com.otaliastudios.cameraview.size.Size;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(AndroidJUnit4.class)
 @SmallTest
@@ -50,4 +56,104 @@ public class RotationHelperTest extends BaseTest {
         YuvImage image = new YuvImage(output, ImageFormat.NV21, outputSize.getWidth(), outputSize.getHeight(), null);
         assertNotNull(image);
     }
+
+    /**
+     * The original implementation, which writes chroma once per luma pixel.
+     */
+    @NonNull
+    private static byte[] rotateReference(@NonNull byte[] yuv, @NonNull Size size, int rotation) {
+        if (rotation == 0) return yuv;
+        final int width = size.getWidth();
+        final int height = size.getHeight();
+        final byte[] output = new byte[yuv.length];
+        final int frameSize = width * height;
+        final boolean swap = rotation % 180 != 0;
+        final boolean xflip = rotation % 270 != 0;
+        final boolean yflip = rotation >= 180;
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                final int yIn = j * width + i;
+                final int uIn = frameSize + (j >> 1) * width + (i & ~1);
+                final int vIn = uIn + 1;
+                final int wOut = swap ? height : width;
+                final int hOut = swap ? width : height;
+                final int iSwapped = swap ? j : i;
+                final int jSwapped = swap ? i : j;
+                final int iOut = xflip ? wOut - iSwapped - 1 : iSwapped;
+                final int jOut = yflip ? hOut - jSwapped - 1 : jSwapped;
+                final int yOut = jOut * wOut + iOut;
+                final int uOut = frameSize + (jOut >> 1) * wOut + (iOut & ~1);
+                final int vOut = uOut + 1;
+                output[yOut] = (byte) (0xff & yuv[yIn]);
+                output[uOut] = (byte) (0xff & yuv[uIn]);
+                output[vOut] = (byte) (0xff & yuv[vIn]);
+            }
+        }
+        return output;
+    }
+
+    @NonNull
+    private static byte[] randomYuv(@NonNull Size size) {
+        byte[] yuv = new byte[size.getWidth() * size.getHeight() * 3 / 2];
+        new Random(size.getWidth() * 31 + size.getHeight()).nextBytes(yuv);
+        return yuv;
+    }
+
+    @Test
+    public void testRotate_sameAsReference() {
+        // Include sizes that are not multiples of the tile size.
+        Size[] sizes = new Size[] {
+                new Size(2, 2), new Size(160, 90), new Size(64, 48),
+                new Size(100, 38), new Size(322, 242), new Size(6, 4)
+        };
+        for (Size size : sizes) {
+            byte[] input = randomYuv(size);
+            for (int rotation = 0; rotation < 360; rotation += 90) {
+                byte[] expected = rotateReference(input, size, rotation);
+                assertArrayEquals(size + " " + rotation, expected,
+                        RotationHelper.rotate(input, size, rotation));
+                for (int stripes = 2; stripes <= 5; stripes++) {
+                    assertArrayEquals(size + " " + rotation + " " + stripes, expected,
+                            RotationHelper.rotate(input, size, rotation, null, stripes));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRotate_interrupted() {
+        // The output should be complete, and the interrupt should not be lost.
+        Size size = new Size(322, 242);
+        byte[] input = randomYuv(size);
+        Thread.currentThread().interrupt();
+        byte[] output = RotationHelper.rotate(input, size, 90, null, 4);
+        assertTrue(Thread.interrupted());
+        assertArrayEquals(rotateReference(input, size, 90), output);
+    }
+
+    @Test
+    public void testRotate_withOutput() {
+        Size size = new Size(160, 90);
+        byte[] input = randomYuv(size);
+        byte[] output = new byte[input.length];
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            byte[] result = RotationHelper.rotate(input, size, rotation, output);
+            assertSame(output, result);
+            assertArrayEquals(rotateReference(input, size, rotation), output);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRotate_outputTooSmall() {
+        Size size = new Size(160, 90);
+        byte[] input = randomYuv(size);
+        RotationHelper.rotate(input, size, 90, new byte[input.length - 1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRotate_inPlace() {
+        Size size = new Size(160, 90);
+        byte[] input = randomYuv(size);
+        RotationHelper.rotate(input, size, 90, input);
+    }
 }
@@ -0,0 +1,89 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+
+import android.media.MediaFormat;
+
+import com.otaliastudios.cameraview.BaseTest;
+import com.otaliastudios.cameraview.tools.SdkInclude;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.MediumTest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class MediaEncoderEngineTest extends BaseTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    @SdkInclude(minSdkVersion = 21) // asynchronous codec
+    public void testCodecError() throws Exception {
+        VideoConfig config = new VideoConfig();
+        config.width = 320;
+        config.height = 240;
+        config.bitRate = 1000000;
+        config.frameRate = 30;
+        config.mimeType = MediaFormat.MIMETYPE_VIDEO_AVC;
+        config.asyncCodec = true;
+        final VideoMediaEncoder<VideoConfig> encoder = new VideoMediaEncoder<VideoConfig>(config) {};
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger reason = new AtomicInteger(-1);
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        MediaEncoderEngine engine = new MediaEncoderEngine(
+                new File(folder.getRoot(), "video.mp4"), encoder, null, 0, 0,
+                new MediaEncoderEngine.Listener() {
+                    @Override
+                    public void onEncodingStart() {}
+
+                    @Override
+                    public void onEncodingStop() {}
+
+                    @Override
+                    public void onEncodingEnd(int endReason, @Nullable Exception e) {
+                        reason.set(endReason);
+                        error.set(e);
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onEncodingSegment(@NonNull File file, @NonNull File nextFile) {}
+                });
+        engine.start();
+
+        // The codec callback runs on the encoder thread, after it was prepared.
+        final Exception codecError = new IllegalStateException("Codec error.");
+        encoder.mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                EncoderCodecDriver driver = encoder.getCodecDriver();
+                assertNotNull(driver);
+                driver.onError(codecError);
+            }
+        });
+
+        // Instead of crashing, the recording is stopped with the codec error.
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(MediaEncoderEngine.END_BY_USER, reason.get());
+        assertSame(codecError, error.get());
+    }
+}
@@ -66,6 +66,16 @@ public abstract class CameraListener {
     @UiThread
     public void onVideoTaken(@NonNull VideoResult result) { }
 
+    /**
+     * Notifies that a segment of a segmented video snapshot was completed, while the
+     * recording goes on. See {@link CameraView#setVideoSnapshotSegmentDuration(long)}.
+     * The last segment is passed to {@link #onVideoTaken(VideoResult)} when the recording ends.
+     *
+     * @param result the segment result, pointing to the segment file
+     */
+    @UiThread
+    public void onVideoSegmentTaken(@NonNull VideoResult result) { }
+
 
     /**
      * Notifies that the device was tilted or the window offset changed.
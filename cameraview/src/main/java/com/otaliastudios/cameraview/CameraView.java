@@ -32,6 +32,7 @@ import androidx.lifecycle.LifecycleObserver;
 import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.OnLifecycleEvent;
 
+import com.otaliastudios.cameraview.audio.AudioProcessor;
 import com.otaliastudios.cameraview.controls.Audio;
 import com.otaliastudios.cameraview.controls.AudioCodec;
 import com.otaliastudios.cameraview.controls.Control;
@@ -58,7 +59,13 @@ import com.otaliastudios.cameraview.filter.NoFilter;
 import com.otaliastudios.cameraview.filter.OneParameterFilter;
 import com.otaliastudios.cameraview.filter.TwoParameterFilter;
 import com.otaliastudios.cameraview.frame.Frame;
+import com.otaliastudios.cameraview.frame.FrameBackpressure;
+import com.otaliastudios.cameraview.frame.FrameDispatcher;
+import com.otaliastudios.cameraview.frame.FrameMetrics;
+import com.otaliastudios.cameraview.frame.FrameMetricsRecorder;
 import com.otaliastudios.cameraview.frame.FrameProcessor;
+import com.otaliastudios.cameraview.frame.FrameSampling;
+import com.otaliastudios.cameraview.frame.FrozenFramePolicy;
 import com.otaliastudios.cameraview.gesture.Gesture;
 import com.otaliastudios.cameraview.gesture.GestureAction;
 import com.otaliastudios.cameraview.gesture.GestureFinder;
@@ -85,6 +92,9 @@ import com.otaliastudios.cameraview.size.Size;
 import com.otaliastudios.cameraview.size.SizeSelector;
 import com.otaliastudios.cameraview.size.SizeSelectorParser;
 import com.otaliastudios.cameraview.size.SizeSelectors;
+import com.otaliastudios.cameraview.video.encoding.EncodedSampleDelivery;
+import com.otaliastudios.cameraview.video.encoding.EncodedSampleListener;
+import com.otaliastudios.cameraview.video.encoding.EncoderMetrics;
 
 import java.io.File;
 import java.io.FileDescriptor;
@@ -92,7 +102,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -137,7 +146,6 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
 
     // Components
     private Handler mUiHandler;
-    private Executor mFrameProcessingExecutor;
     @VisibleForTesting CameraCallbacks mCameraCallbacks;
     private CameraPreview mCameraPreview;
     private OrientationHelper mOrientationHelper;
@@ -147,6 +155,9 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
     private AutoFocusMarker mAutoFocusMarker;
     @VisibleForTesting List<CameraListener> mListeners = new CopyOnWriteArrayList<>();
     @VisibleForTesting List<FrameProcessor> mFrameProcessors = new CopyOnWriteArrayList<>();
+    private final FrameMetricsRecorder mFrameMetrics = new FrameMetricsRecorder();
+    private final FrameDispatcher mFrameDispatcher
+            = new FrameDispatcher(mFrameProcessors, mFrameMetrics);
     private Lifecycle mLifecycle;
 
     // Gestures
@@ -934,6 +945,37 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         }
     }
 
+    /**
+     * Returns a {@link SettingsEditor} that can change several settings at once:
+     * flash, white balance, hdr, zoom, exposure correction, preview frame rate and location.
+     * Changes are applied when {@link SettingsEditor#apply()} is called, in a single engine
+     * job that updates the camera parameters only once.
+     *
+     * @return a new editor
+     */
+    @NonNull
+    public SettingsEditor edit() {
+        return new SettingsEditor(this);
+    }
+
+    void applySettings(@NonNull SettingsEditor.Stub settings) {
+        if (settings.exposureCorrection != null) {
+            // Same as setExposureCorrection(): cap, or ignore if the camera is not opened.
+            CameraOptions options = getCameraOptions();
+            if (options != null) {
+                float min = options.getExposureCorrectionMinValue();
+                float max = options.getExposureCorrectionMaxValue();
+                float value = settings.exposureCorrection;
+                if (value < min) value = min;
+                if (value > max) value = max;
+                settings.exposureCorrection = value;
+            } else {
+                settings.exposureCorrection = null;
+            }
+        }
+        mCameraEngine.applySettings(settings);
+    }
+
     /**
      * Shorthand for the appropriate get* method.
      * For example, if control class is a {@link Grid}, this calls {@link #getGrid()}.
@@ -1043,6 +1085,19 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         setVideoMaxSize(oldEngine.getVideoMaxSize());
         setVideoMaxDuration(oldEngine.getVideoMaxDuration());
         setVideoBitRate(oldEngine.getVideoBitRate());
+        setVideoSnapshotFragmentInterval(oldEngine.getVideoSnapshotFragmentInterval());
+        setVideoSnapshotSegmentDuration(oldEngine.getVideoSnapshotSegmentDuration());
+        setVideoSnapshotPreRollSize(oldEngine.getVideoSnapshotPreRollSize());
+        setVideoSnapshotMetricsEnabled(oldEngine.getVideoSnapshotMetricsEnabled());
+        setVideoSnapshotAsyncEncoding(oldEngine.getVideoSnapshotAsyncEncoding());
+        setVideoSnapshotBitRateRange(oldEngine.getVideoSnapshotMinBitRate(),
+                oldEngine.getVideoSnapshotMaxBitRate());
+        setVideoSnapshotAudioProcessor(oldEngine.getVideoSnapshotAudioProcessor());
+        setVideoSnapshotTimeLapse(oldEngine.getVideoSnapshotTimeLapseInterval(),
+                oldEngine.getVideoSnapshotTimeLapseFrameRate());
+        setVideoSnapshotSampleListener(oldEngine.getVideoSnapshotSampleListener(),
+                oldEngine.getVideoSnapshotSampleDelivery(),
+                oldEngine.getVideoSnapshotWritesFile());
         setAutoFocusResetDelay(oldEngine.getAutoFocusResetDelay());
         setPreviewFrameRate(oldEngine.getPreviewFrameRate());
         setPreviewFrameRateExact(oldEngine.getPreviewFrameRateExact());
@@ -1052,6 +1107,9 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         setFrameProcessingMaxHeight(oldEngine.getFrameProcessingMaxHeight());
         setFrameProcessingFormat(0 /* this is very engine specific, so do not pass */);
         setFrameProcessingPoolSize(oldEngine.getFrameProcessingPoolSize());
+        setFrameProcessingFrozenBudget(oldEngine.getFrameProcessingFrozenBudget());
+        setFrameProcessingFrozenPolicy(oldEngine.getFrameProcessingFrozenPolicy());
+        setFrameProcessingDirectBuffers(oldEngine.getFrameProcessingDirectBuffers());
         mCameraEngine.setHasFrameProcessors(!mFrameProcessors.isEmpty());
     }
 
@@ -1590,6 +1648,297 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         return mCameraEngine.getVideoBitRate();
     }
 
+    /**
+     * Sets the fragment interval in milliseconds for {@link #takeVideoSnapshot(File)}.
+     * If positive, the video is written as a fragmented MP4 file, which is flushed
+     * to disk at the first key frame after each interval. If the app crashes during
+     * the recording, only the last fragment is lost.
+     *
+     * This is only supported with {@link VideoCodec#H_264} or {@link VideoCodec#DEVICE_DEFAULT}.
+     * Defaults to 0, which writes a standard MP4 file.
+     *
+     * @param intervalMillis the fragment interval, or 0
+     */
+    public void setVideoSnapshotFragmentInterval(long intervalMillis) {
+        if (intervalMillis < 0) {
+            throw new IllegalArgumentException("Fragment interval should be >= 0.");
+        }
+        mCameraEngine.setVideoSnapshotFragmentInterval(intervalMillis);
+    }
+
+    /**
+     * Returns the current fragment interval for video snapshots.
+     * @return the fragment interval, or 0
+     * @see #setVideoSnapshotFragmentInterval(long)
+     */
+    public long getVideoSnapshotFragmentInterval() {
+        return mCameraEngine.getVideoSnapshotFragmentInterval();
+    }
+
+    /**
+     * Sets the segment duration in milliseconds for {@link #takeVideoSnapshot(File)}.
+     * If positive, the recording is split into files of about this duration, without
+     * stopping the encoders. Each segment starts with a key frame, and the first one after
+     * the duration is requested to the encoder, so segments can be slightly longer.
+     *
+     * The first segment is written to the given file, and the next ones get a suffix:
+     * video.mp4, video_1.mp4, video_2.mp4 and so on. Each segment but the last is passed to
+     * {@link CameraListener#onVideoSegmentTaken(VideoResult)}, while the last one
+     * is passed to {@link CameraListener#onVideoTaken(VideoResult)} as usual.
+     * Defaults to 0, which writes a single file.
+     *
+     * @param durationMillis the segment duration, or 0
+     */
+    public void setVideoSnapshotSegmentDuration(long durationMillis) {
+        if (durationMillis < 0) {
+            throw new IllegalArgumentException("Segment duration should be >= 0.");
+        }
+        mCameraEngine.setVideoSnapshotSegmentDuration(durationMillis);
+    }
+
+    /**
+     * Returns the current segment duration for video snapshots.
+     * @return the segment duration, or 0
+     * @see #setVideoSnapshotSegmentDuration(long)
+     */
+    public long getVideoSnapshotSegmentDuration() {
+        return mCameraEngine.getVideoSnapshotSegmentDuration();
+    }
+
+    /**
+     * Sets the pre-roll buffer size in bytes for {@link #takeVideoSnapshot(File)}.
+     * If positive, video snapshots are not written to the file until
+     * {@link #commitVideoSnapshot()} is called. Meanwhile, the encoded video is kept
+     * in a memory buffer of this size, which always starts with a key frame and drops
+     * the oldest data when full. On commit, the buffer is written to the file,
+     * followed by the rest of the recording until {@link #stopVideo()}.
+     *
+     * This makes it possible to save the last seconds of video, like an instant replay.
+     * The buffered duration depends on the bit rate: for example, 30 seconds at
+     * 4 Mbps need about 15 MB. If the video is stopped before being committed, no file is
+     * written and {@link CameraListener#onCameraError(CameraException)} is called.
+     * Defaults to 0, which writes the file from the start.
+     *
+     * @param bytes the pre-roll size, or 0
+     */
+    public void setVideoSnapshotPreRollSize(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Pre-roll size should be >= 0.");
+        }
+        mCameraEngine.setVideoSnapshotPreRollSize(bytes);
+    }
+
+    /**
+     * Returns the current pre-roll buffer size for video snapshots.
+     * @return the pre-roll size, or 0
+     * @see #setVideoSnapshotPreRollSize(int)
+     */
+    public int getVideoSnapshotPreRollSize() {
+        return mCameraEngine.getVideoSnapshotPreRollSize();
+    }
+
+    /**
+     * Sets whether the encoders of {@link #takeVideoSnapshot(File)} should work in
+     * asynchronous mode. In this mode, encoders are not polled for output: the codec
+     * notifies when data is available, and encoding threads sleep while waiting for input.
+     * This reduces CPU usage during long recordings. It needs API 21, and is ignored
+     * on older versions. Defaults to false, which polls the encoders.
+     *
+     * @param async whether encoders should be asynchronous
+     */
+    public void setVideoSnapshotAsyncEncoding(boolean async) {
+        mCameraEngine.setVideoSnapshotAsyncEncoding(async);
+    }
+
+    /**
+     * Returns whether the encoders of video snapshots work in asynchronous mode.
+     * @return true if asynchronous
+     * @see #setVideoSnapshotAsyncEncoding(boolean)
+     */
+    public boolean getVideoSnapshotAsyncEncoding() {
+        return mCameraEngine.getVideoSnapshotAsyncEncoding();
+    }
+
+    /**
+     * Lets {@link #takeVideoSnapshot(File)} change the video bit rate while recording,
+     * within the given bounds. When the encoder falls behind and frames are dropped,
+     * the bit rate is lowered, and when it keeps up again, the bit rate is raised.
+     * Recording starts with {@link #setVideoBitRate(int)}, or an estimate if it is 0.
+     *
+     * Needs API 19, and is ignored on older versions. The bounds are in bits per second.
+     * A min bit rate of 0 disables this, which is the default. A max bit rate of 0 means
+     * that the bit rate is never raised above the initial one.
+     *
+     * @param minBitRate the min bit rate, or 0
+     * @param maxBitRate the max bit rate, or 0
+     */
+    public void setVideoSnapshotBitRateRange(int minBitRate, int maxBitRate) {
+        mCameraEngine.setVideoSnapshotBitRateRange(minBitRate, maxBitRate);
+    }
+
+    /**
+     * Returns the min bit rate of video snapshots, or 0 if the bit rate is fixed.
+     * @return the min bit rate
+     * @see #setVideoSnapshotBitRateRange(int, int)
+     */
+    public int getVideoSnapshotMinBitRate() {
+        return mCameraEngine.getVideoSnapshotMinBitRate();
+    }
+
+    /**
+     * Returns the max bit rate of video snapshots, or 0.
+     * @return the max bit rate
+     * @see #setVideoSnapshotBitRateRange(int, int)
+     */
+    public int getVideoSnapshotMaxBitRate() {
+        return mCameraEngine.getVideoSnapshotMaxBitRate();
+    }
+
+    /**
+     * Sets an {@link AudioProcessor} that will process the audio of
+     * {@link #takeVideoSnapshot(File)} before it is encoded, for example to apply gain,
+     * filter noise or measure levels. Use
+     * {@link com.otaliastudios.cameraview.audio.MultiAudioProcessor} to chain more of them.
+     *
+     * Processing happens on the audio recording thread, so it must be fast:
+     * slow processors will cause gaps in the audio.
+     * Pass null to disable processing, which is the default.
+     *
+     * @param processor the processor, or null
+     */
+    public void setVideoSnapshotAudioProcessor(@Nullable AudioProcessor processor) {
+        mCameraEngine.setVideoSnapshotAudioProcessor(processor);
+    }
+
+    /**
+     * Returns the {@link AudioProcessor} of video snapshots, if any.
+     * @return the processor, or null
+     * @see #setVideoSnapshotAudioProcessor(AudioProcessor)
+     */
+    @Nullable
+    public AudioProcessor getVideoSnapshotAudioProcessor() {
+        return mCameraEngine.getVideoSnapshotAudioProcessor();
+    }
+
+    /**
+     * Records {@link #takeVideoSnapshot(File)} as a time-lapse: one frame is captured every
+     * intervalMillis, and frames are played back at the given frame rate. For example,
+     * an interval of 4 seconds and a frame rate of 30 turn 1 hour of recording into
+     * 30 seconds of video. Only the captured frames are encoded, and audio is not recorded.
+     *
+     * The max duration passed to {@link #takeVideoSnapshot(File, int)} or set with
+     * {@link #setVideoMaxDuration(int)} still refers to the recording time, not to the
+     * length of the video. A frame rate of 0 means the frame rate of the preview.
+     * An interval of 0 disables time-lapse, which is the default.
+     *
+     * @param intervalMillis the capture interval, or 0
+     * @param frameRate the playback frame rate, or 0
+     */
+    public void setVideoSnapshotTimeLapse(long intervalMillis, int frameRate) {
+        mCameraEngine.setVideoSnapshotTimeLapse(intervalMillis, frameRate);
+    }
+
+    /**
+     * Returns the time-lapse capture interval of video snapshots, or 0 if disabled.
+     * @return the capture interval in milliseconds
+     * @see #setVideoSnapshotTimeLapse(long, int)
+     */
+    public long getVideoSnapshotTimeLapseInterval() {
+        return mCameraEngine.getVideoSnapshotTimeLapseInterval();
+    }
+
+    /**
+     * Returns the time-lapse playback frame rate of video snapshots, or 0.
+     * @return the playback frame rate
+     * @see #setVideoSnapshotTimeLapse(long, int)
+     */
+    public int getVideoSnapshotTimeLapseFrameRate() {
+        return mCameraEngine.getVideoSnapshotTimeLapseFrameRate();
+    }
+
+    /**
+     * Enables the collection of encoder metrics for {@link #takeVideoSnapshot(File)},
+     * like the number of samples and bytes written for each track, the effective bit rate,
+     * the time spent writing into the file and the number of audio gaps.
+     * Metrics can be read while recording with {@link #getVideoSnapshotMetrics()},
+     * and at the end with {@link VideoResult#getEncoderMetrics()}.
+     * Defaults to false, in which case nothing is recorded.
+     *
+     * @param enabled whether metrics should be collected
+     */
+    public void setVideoSnapshotMetricsEnabled(boolean enabled) {
+        mCameraEngine.setVideoSnapshotMetricsEnabled(enabled);
+    }
+
+    /**
+     * Returns whether encoder metrics are collected for video snapshots.
+     * @return true if enabled
+     * @see #setVideoSnapshotMetricsEnabled(boolean)
+     */
+    public boolean getVideoSnapshotMetricsEnabled() {
+        return mCameraEngine.getVideoSnapshotMetricsEnabled();
+    }
+
+    /**
+     * Returns a snapshot of the encoder metrics of the current video snapshot,
+     * or null if metrics are not enabled or no video snapshot is being recorded.
+     *
+     * @return the metrics or null
+     * @see #setVideoSnapshotMetricsEnabled(boolean)
+     */
+    @Nullable
+    public EncoderMetrics getVideoSnapshotMetrics() {
+        return mCameraEngine.getVideoSnapshotMetrics();
+    }
+
+    /**
+     * Sets a listener to receive the encoded video and audio samples of
+     * {@link #takeVideoSnapshot(File)} as they are produced, for example to stream them.
+     * Samples are copied and delivered on a background thread, dropping the oldest
+     * ones if the listener can't keep up. The file is still written.
+     *
+     * @param listener a listener, or null to remove it
+     * @see #setVideoSnapshotSampleListener(EncodedSampleListener, EncodedSampleDelivery, boolean)
+     */
+    public void setVideoSnapshotSampleListener(@Nullable EncodedSampleListener listener) {
+        setVideoSnapshotSampleListener(listener,
+                EncodedSampleDelivery.dropOldest(EncodedSampleDelivery.DEFAULT_CAPACITY),
+                true);
+    }
+
+    /**
+     * Sets a listener to receive the encoded video and audio samples of
+     * {@link #takeVideoSnapshot(File)} as they are produced, with the given
+     * {@link EncodedSampleDelivery} policy.
+     *
+     * If writeFile is false, no muxer is created and the file passed to
+     * {@link #takeVideoSnapshot(File)} is not written: the listener is the only output,
+     * and the {@link VideoResult} will point to a missing file.
+     *
+     * @param listener a listener, or null to remove it
+     * @param delivery the delivery policy
+     * @param writeFile whether the file should also be written
+     */
+    public void setVideoSnapshotSampleListener(@Nullable EncodedSampleListener listener,
+                                               @NonNull EncodedSampleDelivery delivery,
+                                               boolean writeFile) {
+        if (listener == null && !writeFile) {
+            throw new IllegalArgumentException("Without a sample listener, " +
+                    "the file must be written.");
+        }
+        mCameraEngine.setVideoSnapshotSampleListener(listener, delivery, writeFile);
+    }
+
+    /**
+     * Returns the current sample listener for video snapshots, if any.
+     * @return the sample listener
+     * @see #setVideoSnapshotSampleListener(EncodedSampleListener)
+     */
+    @Nullable
+    public EncodedSampleListener getVideoSnapshotSampleListener() {
+        return mCameraEngine.getVideoSnapshotSampleListener();
+    }
+
     /**
      * A flag to control the behavior when calling {@link #setPreviewFrameRate(float)}.
      *
@@ -1889,6 +2238,15 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
 
     // TODO: pauseVideo and resumeVideo? There is mediarecorder.pause(), but API 24...
 
+    /**
+     * When recording a video snapshot with a pre-roll buffer, writes the buffered video
+     * to the file, and keeps writing until {@link #stopVideo()} is called.
+     * See {@link #setVideoSnapshotPreRollSize(int)}.
+     */
+    public void commitVideoSnapshot() {
+        mCameraEngine.commitVideoSnapshot();
+    }
+
     /**
      * Stops capturing video or video snapshots being recorded, if there was any.
      * This will fire {@link CameraListener#onVideoTaken(VideoResult)}.
@@ -2300,6 +2658,22 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
             });
         }
 
+        @Override
+        public void dispatchOnVideoSegmentTaken(@NonNull VideoResult.Stub stub,
+                                                @NonNull File file) {
+            LOG.i("dispatchOnVideoSegmentTaken", file);
+            // Create the result now, since the stub keeps changing while recording.
+            final VideoResult result = new VideoResult(stub, file);
+            mUiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (CameraListener listener : mListeners) {
+                        listener.onVideoSegmentTaken(result);
+                    }
+                }
+            });
+        }
+
         @Override
         public void dispatchOnFocusStart(@Nullable final Gesture gesture,
                                          @NonNull final PointF point) {
@@ -2410,30 +2784,13 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
 
         @Override
         public void dispatchFrame(@NonNull final Frame frame) {
-            // The getTime() below might crash if developers incorrectly release
-            // frames asynchronously.
-            LOG.v("dispatchFrame:", frame.getTime(), "processors:", mFrameProcessors.size());
-            if (mFrameProcessors.isEmpty()) {
-                // Mark as released. This instance will be reused.
-                frame.release();
-            } else {
-                // Dispatch this frame to frame processors.
-                mFrameProcessingExecutor.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        LOG.v("dispatchFrame: executing. Passing", frame.getTime(),
-                                "to processors.");
-                        for (FrameProcessor processor : mFrameProcessors) {
-                            try {
-                                processor.process(frame);
-                            } catch (Exception e) {
-                                LOG.w("Frame processor crashed:", e);
-                            }
-                        }
-                        frame.release();
-                    }
-                });
-            }
+            mFrameDispatcher.dispatch(frame);
+        }
+
+        @NonNull
+        @Override
+        public FrameMetricsRecorder getFrameMetricsRecorder() {
+            return mFrameMetrics;
         }
 
         @Override
@@ -2495,6 +2852,64 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         }
     }
 
+    /**
+     * Adds a {@link FrameProcessor} instance to be notified of
+     * new frames in the preview stream, with the given {@link FrameBackpressure} policy.
+     *
+     * The processor will run in its own background task, independently from the others,
+     * and the policy controls what happens to frames that arrive while it is busy.
+     * Since waiting frames are taken from the frame pool, you might want to increase
+     * {@link #setFrameProcessingPoolSize(int)} and {@link #setFrameProcessingExecutors(int)}.
+     *
+     * @param processor a frame processor
+     * @param backpressure a backpressure policy
+     */
+    public void addFrameProcessor(@Nullable FrameProcessor processor,
+                                  @NonNull FrameBackpressure backpressure) {
+        if (processor != null) {
+            mFrameDispatcher.onProcessorAdded(processor, backpressure);
+            addFrameProcessor(processor);
+        }
+    }
+
+    /**
+     * Adds a {@link FrameProcessor} instance to be notified of
+     * new frames in the preview stream, with the given {@link FrameSampling} policy.
+     *
+     * This can be used by processors that don't need all frames: frames that are not
+     * sampled go back to the camera right away, without being passed to background threads.
+     * The processor will run in its own background task, like processors added with
+     * {@link #addFrameProcessor(FrameProcessor, FrameBackpressure)}, and frames that arrive
+     * while it is busy are dropped.
+     *
+     * @param processor a frame processor
+     * @param sampling a sampling policy
+     */
+    public void addFrameProcessor(@Nullable FrameProcessor processor,
+                                  @NonNull FrameSampling sampling) {
+        addFrameProcessor(processor, sampling, FrameBackpressure.DROP_NEWEST);
+    }
+
+    /**
+     * Adds a {@link FrameProcessor} instance to be notified of
+     * new frames in the preview stream, with the given {@link FrameSampling}
+     * and {@link FrameBackpressure} policies.
+     *
+     * @see #addFrameProcessor(FrameProcessor, FrameSampling)
+     * @see #addFrameProcessor(FrameProcessor, FrameBackpressure)
+     * @param processor a frame processor
+     * @param sampling a sampling policy
+     * @param backpressure a backpressure policy
+     */
+    public void addFrameProcessor(@Nullable FrameProcessor processor,
+                                  @NonNull FrameSampling sampling,
+                                  @NonNull FrameBackpressure backpressure) {
+        if (processor != null) {
+            mFrameDispatcher.onProcessorAdded(processor, sampling, backpressure);
+            addFrameProcessor(processor);
+        }
+    }
+
     /**
      * Remove a {@link FrameProcessor} that was previously registered.
      *
@@ -2503,6 +2918,9 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
     public void removeFrameProcessor(@Nullable FrameProcessor processor) {
         if (processor != null) {
             mFrameProcessors.remove(processor);
+            if (!mFrameProcessors.contains(processor)) {
+                mFrameDispatcher.onProcessorRemoved(processor);
+            }
             if (mFrameProcessors.size() == 0) {
                 mCameraEngine.setHasFrameProcessors(false);
             }
@@ -2516,6 +2934,7 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
     public void clearFrameProcessors() {
         boolean had = mFrameProcessors.size() > 0;
         mFrameProcessors.clear();
+        mFrameDispatcher.onProcessorsCleared();
         if (had) {
             mCameraEngine.setHasFrameProcessors(false);
         }
@@ -2606,6 +3025,78 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         return mCameraEngine.getFrameProcessingPoolSize();
     }
 
+    /**
+     * Sets the max number of bytes used by the buffers of frozen frames, created by
+     * {@link Frame#freeze()}. Within this budget, buffers are recycled when frozen frames
+     * are released, so that freezing frames does not create garbage. The budget includes
+     * buffers held by frozen frames and free buffers kept for reuse.
+     *
+     * Defaults to 0, which means that frozen buffers are not recycled. For example, to keep
+     * up to 3 frozen frames, this can be set to 3 times the frame size in bytes.
+     * What happens when the budget is exhausted is controlled by
+     * {@link #setFrameProcessingFrozenPolicy(FrozenFramePolicy)}.
+     *
+     * Changing this value takes effect the next time the preview is started.
+     * @param bytes the budget in bytes
+     */
+    public void setFrameProcessingFrozenBudget(long bytes) {
+        mCameraEngine.setFrameProcessingFrozenBudget(bytes);
+    }
+
+    /**
+     * Returns the current frozen frame budget.
+     * @see #setFrameProcessingFrozenBudget(long)
+     * @return the budget in bytes
+     */
+    public long getFrameProcessingFrozenBudget() {
+        return mCameraEngine.getFrameProcessingFrozenBudget();
+    }
+
+    /**
+     * Sets what happens when a frame is frozen, but the frozen frame budget is exhausted.
+     * Defaults to {@link FrozenFramePolicy#ALLOCATE}. Not used when the budget is 0.
+     * @see #setFrameProcessingFrozenBudget(long)
+     * @param policy the policy
+     */
+    public void setFrameProcessingFrozenPolicy(@NonNull FrozenFramePolicy policy) {
+        mCameraEngine.setFrameProcessingFrozenPolicy(policy);
+    }
+
+    /**
+     * Returns the current frozen frame policy.
+     * @see #setFrameProcessingFrozenPolicy(FrozenFramePolicy)
+     * @return the policy
+     */
+    @NonNull
+    public FrozenFramePolicy getFrameProcessingFrozenPolicy() {
+        return mCameraEngine.getFrameProcessingFrozenPolicy();
+    }
+
+    /**
+     * Whether {@link Engine#CAMERA1} frames should hold direct {@link java.nio.ByteBuffer}s
+     * instead of byte[] arrays. Direct buffers live outside of the Java heap, so their
+     * memory can be passed to native code without copies. Each preview frame is copied once
+     * into a direct buffer, and the byte[] array goes back to the camera right away.
+     *
+     * {@link Engine#CAMERA2} frames hold {@link android.media.Image}s, whose planes are
+     * already direct buffers, so this has no effect there.
+     *
+     * Defaults to false. Changing this value after camera initialization will have no effect.
+     * @param directBuffers true to use direct buffers
+     */
+    public void setFrameProcessingDirectBuffers(boolean directBuffers) {
+        mCameraEngine.setFrameProcessingDirectBuffers(directBuffers);
+    }
+
+    /**
+     * Returns whether {@link Engine#CAMERA1} frames hold direct buffers.
+     * @see #setFrameProcessingDirectBuffers(boolean)
+     * @return true if using direct buffers
+     */
+    public boolean getFrameProcessingDirectBuffers() {
+        return mCameraEngine.getFrameProcessingDirectBuffers();
+    }
+
     /**
      * Sets the thread pool size for frame processing. This means that if the processing rate
      * is slower than the preview rate, you can set this value to something bigger than 1
@@ -2637,7 +3128,7 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
                 }
         );
         executor.allowCoreThreadTimeOut(true);
-        mFrameProcessingExecutor = executor;
+        mFrameDispatcher.setExecutor(executor);
     }
 
     /**
@@ -2649,6 +3140,51 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         return mFrameProcessingExecutors;
     }
 
+    /**
+     * Whether frame processors should run in parallel. By default, all processors are run
+     * one after another in a single background task, so a slow processor delays the others.
+     *
+     * When this is true, each processor runs in its own task on the frame processing
+     * executors, and the {@link Frame} is released when the last processor returns.
+     * A processor that is still busy with a previous frame will skip the new one, so
+     * that it can't starve the others. For this to be useful, you should also increase
+     * {@link #setFrameProcessingExecutors(int)}, ideally to the number of processors,
+     * and the pool size accordingly.
+     *
+     * @param parallel whether to run processors in parallel
+     */
+    public void setFrameProcessingParallel(boolean parallel) {
+        mFrameDispatcher.setParallel(parallel);
+    }
+
+    /**
+     * Returns true if frame processors run in parallel.
+     * @see #setFrameProcessingParallel(boolean)
+     * @return true if parallel
+     */
+    public boolean getFrameProcessingParallel() {
+        return mFrameDispatcher.isParallel();
+    }
+
+    /**
+     * Returns a snapshot of the frame processing metrics: frames produced by the camera,
+     * frames dropped and why, frame pool occupancy, and the latency of each
+     * {@link FrameProcessor}. This can be called at any time and from any thread.
+     *
+     * @return the frame metrics
+     */
+    @NonNull
+    public FrameMetrics getFrameMetrics() {
+        return mFrameMetrics.snapshot();
+    }
+
+    /**
+     * Resets the frame processing metrics returned by {@link #getFrameMetrics()}.
+     */
+    public void resetFrameMetrics() {
+        mFrameMetrics.reset();
+    }
+
     //endregion
 
     //region Overlays
@@ -0,0 +1,157 @@
+package com.otaliastudios.cameraview;
+
+import android.location.Location;
+
+import com.otaliastudios.cameraview.controls.Flash;
+import com.otaliastudios.cameraview.controls.Hdr;
+import com.otaliastudios.cameraview.controls.WhiteBalance;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Collects changes to the {@link CameraView} settings, so that they can be applied
+ * all at once with {@link #apply()}. Instances are returned by {@link CameraView#edit()}.
+ *
+ * Each set* method of {@link CameraView} schedules its own engine job and updates the
+ * camera parameters once. With an editor, all changes are applied in a single job,
+ * with a single update of the camera parameters, which is much faster when restoring
+ * many settings at once.
+ *
+ * <pre>
+ * cameraView.edit()
+ *         .zoom(0.5F)
+ *         .flash(Flash.TORCH)
+ *         .whiteBalance(WhiteBalance.DAYLIGHT)
+ *         .apply();
+ * </pre>
+ */
+@SuppressWarnings("unused")
+public class SettingsEditor {
+
+    /**
+     * The collected settings, for internal use only.
+     * Null values should not be changed.
+     */
+    public static class Stub {
+
+        Stub() {}
+
+        public Flash flash;
+        public WhiteBalance whiteBalance;
+        public Hdr hdr;
+        public Float zoom;
+        public Float exposureCorrection;
+        public Float previewFrameRate;
+        public boolean hasLocation;
+        public Location location;
+    }
+
+    private final CameraView mCameraView;
+    private final Stub mStub = new Stub();
+    private boolean mApplied;
+
+    SettingsEditor(@NonNull CameraView cameraView) {
+        mCameraView = cameraView;
+    }
+
+    /**
+     * Changes the flash mode.
+     * @see CameraView#setFlash(Flash)
+     * @param flash desired flash mode
+     * @return this editor
+     */
+    @NonNull
+    public SettingsEditor flash(@NonNull Flash flash) {
+        mStub.flash = flash;
+        return this;
+    }
+
+    /**
+     * Changes the white balance.
+     * @see CameraView#setWhiteBalance(WhiteBalance)
+     * @param whiteBalance desired white balance
+     * @return this editor
+     */
+    @NonNull
+    public SettingsEditor whiteBalance(@NonNull WhiteBalance whiteBalance) {
+        mStub.whiteBalance = whiteBalance;
+        return this;
+    }
+
+    /**
+     * Changes the hdr value.
+     * @see CameraView#setHdr(Hdr)
+     * @param hdr desired hdr value
+     * @return this editor
+     */
+    @NonNull
+    public SettingsEditor hdr(@NonNull Hdr hdr) {
+        mStub.hdr = hdr;
+        return this;
+    }
+
+    /**
+     * Changes the zoom value. It will be capped to the [0, 1] range.
+     * @see CameraView#setZoom(float)
+     * @param zoom value in [0,1]
+     * @return this editor
+     */
+    @NonNull
+    public SettingsEditor zoom(float zoom) {
+        if (zoom < 0) zoom = 0;
+        if (zoom > 1) zoom = 1;
+        mStub.zoom = zoom;
+        return this;
+    }
+
+    /**
+     * Changes the exposure correction, in EV stops. It will be capped to the bounds
+     * returned by {@link CameraOptions}, and ignored if the camera is not opened.
+     * @see CameraView#setExposureCorrection(float)
+     * @param EVvalue exposure correction value
+     * @return this editor
+     */
+    @NonNull
+    public SettingsEditor exposureCorrection(float EVvalue) {
+        mStub.exposureCorrection = EVvalue;
+        return this;
+    }
+
+    /**
+     * Changes the preview frame rate.
+     * @see CameraView#setPreviewFrameRate(float)
+     * @param frameRate desired frame rate
+     * @return this editor
+     */
+    @NonNull
+    public SettingsEditor previewFrameRate(float frameRate) {
+        mStub.previewFrameRate = frameRate;
+        return this;
+    }
+
+    /**
+     * Changes the location to be found later in the EXIF header.
+     * @see CameraView#setLocation(Location)
+     * @param location current location
+     * @return this editor
+     */
+    @NonNull
+    public SettingsEditor location(@Nullable Location location) {
+        mStub.hasLocation = true;
+        mStub.location = location;
+        return this;
+    }
+
+    /**
+     * Applies all the changes in a single engine job.
+     * An editor can only be applied once.
+     */
+    public void apply() {
+        if (mApplied) {
+            throw new IllegalStateException("This editor was already applied.");
+        }
+        mApplied = true;
+        mCameraView.applySettings(mStub);
+    }
+}
@@ -2,11 +2,15 @@ package com.otaliastudios.cameraview;
 
 import android.location.Location;
 
+import com.otaliastudios.cameraview.audio.AudioProcessor;
 import com.otaliastudios.cameraview.controls.Audio;
 import com.otaliastudios.cameraview.controls.AudioCodec;
 import com.otaliastudios.cameraview.controls.Facing;
 import com.otaliastudios.cameraview.controls.VideoCodec;
 import com.otaliastudios.cameraview.size.Size;
+import com.otaliastudios.cameraview.video.encoding.EncodedSampleDelivery;
+import com.otaliastudios.cameraview.video.encoding.EncodedSampleListener;
+import com.otaliastudios.cameraview.video.encoding.EncoderMetrics;
 
 import java.io.File;
 import java.io.FileDescriptor;
@@ -43,6 +47,20 @@ public class VideoResult {
         public int videoBitRate;
         public int videoFrameRate;
         public int audioBitRate;
+        public long fragmentInterval;
+        public EncodedSampleListener sampleListener;
+        public EncodedSampleDelivery sampleDelivery;
+        public boolean sampleWriteFile = true;
+        public long segmentDuration;
+        public int preRollSize;
+        public boolean metricsEnabled;
+        public boolean asyncEncoding;
+        public int minVideoBitRate;
+        public int maxVideoBitRate;
+        public AudioProcessor audioProcessor;
+        public long timeLapseInterval;
+        public int timeLapseFrameRate;
+        public EncoderMetrics encoderMetrics;
     }
 
     @SuppressWarnings({"WeakerAccess", "unused"})
@@ -70,13 +88,18 @@ public class VideoResult {
     private final int videoBitRate;
     private final int videoFrameRate;
     private final int audioBitRate;
+    private final EncoderMetrics encoderMetrics;
 
     VideoResult(@NonNull Stub builder) {
+        this(builder, builder.file);
+    }
+
+    VideoResult(@NonNull Stub builder, @Nullable File file) {
         isSnapshot = builder.isSnapshot;
         location = builder.location;
         rotation = builder.rotation;
         size = builder.size;
-        file = builder.file;
+        this.file = file;
         fileDescriptor = builder.fileDescriptor;
         facing = builder.facing;
         videoCodec = builder.videoCodec;
@@ -88,6 +111,7 @@ public class VideoResult {
         videoBitRate = builder.videoBitRate;
         videoFrameRate = builder.videoFrameRate;
         audioBitRate = builder.audioBitRate;
+        encoderMetrics = builder.encoderMetrics;
     }
 
     /**
@@ -253,4 +277,16 @@ public class VideoResult {
     public int getAudioBitRate() {
         return audioBitRate;
     }
+
+    /**
+     * Returns the encoder metrics of this video, if they were enabled with
+     * {@link CameraView#setVideoSnapshotMetricsEnabled(boolean)}.
+     * Always null for videos that are not snapshots.
+     *
+     * @return the encoder metrics or null
+     */
+    @Nullable
+    public EncoderMetrics getEncoderMetrics() {
+        return encoderMetrics;
+    }
 }
@@ -0,0 +1,39 @@
+package com.otaliastudios.cameraview.audio;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ShortBuffer;
+
+/**
+ * An {@link AudioProcessor} modifies the audio of video snapshots while recording,
+ * before it is encoded. It can be set with
+ * {@link com.otaliastudios.cameraview.CameraView#setVideoSnapshotAudioProcessor(AudioProcessor)}.
+ * Processors can be grouped with {@link MultiAudioProcessor}.
+ *
+ * Processors work on 16 bit PCM samples, with interleaved channels, and are called
+ * on the audio recording thread for each recorded buffer. This thread must never be
+ * slowed down, or audio will be lost: {@link #process(ShortBuffer)} should be fast,
+ * and should not allocate anything.
+ */
+public interface AudioProcessor {
+
+    /**
+     * Called before the recording starts, with the format of the input samples.
+     * This is the place where any allocation should happen.
+     *
+     * @param sampleRate the sample rate
+     * @param channels the number of input channels
+     * @return the number of output channels, typically the same
+     */
+    int configure(int sampleRate, int channels);
+
+    /**
+     * Processes the given samples in place. The buffer has position 0 and its limit
+     * is the number of input samples, counting all channels. The position must not be
+     * changed, but the limit can be reduced if there are less output samples, for example
+     * because channels were mixed together.
+     *
+     * @param samples the samples
+     */
+    void process(@NonNull ShortBuffer samples);
+}
@@ -0,0 +1,44 @@
+package com.otaliastudios.cameraview.audio;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Mixes all channels into a single one, by averaging them. This can be used to record
+ * from all microphones with {@link com.otaliastudios.cameraview.controls.Audio#STEREO},
+ * but to encode a mono track.
+ */
+public class DownmixAudioProcessor implements AudioProcessor {
+
+    private int mChannels;
+
+    @Override
+    public int configure(int sampleRate, int channels) {
+        mChannels = channels;
+        return 1;
+    }
+
+    @Override
+    public void process(@NonNull ShortBuffer samples) {
+        int channels = mChannels;
+        if (channels <= 1) return;
+        int frames = samples.limit() / channels;
+        for (int frame = 0; frame < frames; frame++) {
+            // Writing at frame is safe, because we already read from there.
+            int start = frame * channels;
+            int sum = 0;
+            for (int channel = 0; channel < channels; channel++) {
+                sum += samples.get(start + channel);
+            }
+            samples.put(frame, (short) (sum / channels));
+        }
+        samples.limit(frames);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "DownmixAudioProcessor";
+    }
+}
@@ -0,0 +1,66 @@
+package com.otaliastudios.cameraview.audio;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Multiplies samples by a gain, saturating instead of wrapping around.
+ * The gain can be changed while recording.
+ */
+public class GainAudioProcessor implements AudioProcessor {
+
+    private volatile float mGain;
+
+    /**
+     * Creates a new processor.
+     * @param gain the linear gain, for example 2 to double the amplitude (+6 dB)
+     */
+    public GainAudioProcessor(float gain) {
+        setGain(gain);
+    }
+
+    /**
+     * Sets the linear gain.
+     * @param gain the gain
+     */
+    public void setGain(float gain) {
+        if (gain < 0) throw new IllegalArgumentException("Gain should be >= 0.");
+        mGain = gain;
+    }
+
+    /**
+     * Returns the linear gain.
+     * @return the gain
+     */
+    public float getGain() {
+        return mGain;
+    }
+
+    @Override
+    public int configure(int sampleRate, int channels) {
+        return channels;
+    }
+
+    @Override
+    public void process(@NonNull ShortBuffer samples) {
+        float gain = mGain;
+        if (gain == 1F) return;
+        int count = samples.limit();
+        for (int i = 0; i < count; i++) {
+            samples.put(i, saturate(samples.get(i) * gain));
+        }
+    }
+
+    static short saturate(float sample) {
+        if (sample >= Short.MAX_VALUE) return Short.MAX_VALUE;
+        if (sample <= Short.MIN_VALUE) return Short.MIN_VALUE;
+        return (short) sample;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "GainAudioProcessor{gain=" + mGain + "}";
+    }
+}
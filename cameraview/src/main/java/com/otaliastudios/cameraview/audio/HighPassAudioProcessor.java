@@ -0,0 +1,69 @@
+package com.otaliastudios.cameraview.audio;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ShortBuffer;
+
+/**
+ * A first order high-pass filter, which removes the DC offset and the low frequency
+ * rumble (wind, handling noise) below the cutoff frequency.
+ * Each channel is filtered independently.
+ */
+public class HighPassAudioProcessor implements AudioProcessor {
+
+    private final float mCutoffFrequency;
+    private float mAlpha;
+    private int mChannels;
+    private float[] mLastInputs;
+    private float[] mLastOutputs;
+
+    /**
+     * Creates a new processor.
+     * @param cutoffFrequency the cutoff frequency in Hz, for example 80 for voice,
+     *                        or a few Hz to only remove the DC offset
+     */
+    public HighPassAudioProcessor(float cutoffFrequency) {
+        if (cutoffFrequency <= 0) {
+            throw new IllegalArgumentException("Cutoff frequency should be > 0.");
+        }
+        mCutoffFrequency = cutoffFrequency;
+    }
+
+    /**
+     * Returns the cutoff frequency.
+     * @return the frequency in Hz
+     */
+    public float getCutoffFrequency() {
+        return mCutoffFrequency;
+    }
+
+    @Override
+    public int configure(int sampleRate, int channels) {
+        double rc = 1D / (2D * Math.PI * mCutoffFrequency);
+        double dt = 1D / sampleRate;
+        mAlpha = (float) (rc / (rc + dt));
+        mChannels = channels;
+        mLastInputs = new float[channels];
+        mLastOutputs = new float[channels];
+        return channels;
+    }
+
+    @Override
+    public void process(@NonNull ShortBuffer samples) {
+        int count = samples.limit();
+        for (int i = 0; i < count; i++) {
+            int channel = i % mChannels;
+            float input = samples.get(i);
+            float output = mAlpha * (mLastOutputs[channel] + input - mLastInputs[channel]);
+            mLastInputs[channel] = input;
+            mLastOutputs[channel] = output;
+            samples.put(i, GainAudioProcessor.saturate(output));
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "HighPassAudioProcessor{cutoff=" + mCutoffFrequency + "}";
+    }
+}
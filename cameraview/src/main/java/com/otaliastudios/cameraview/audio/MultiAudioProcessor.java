@@ -0,0 +1,56 @@
+package com.otaliastudios.cameraview.audio;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A {@link MultiAudioProcessor} groups one or more processors together.
+ * They are applied in sequence: each processor reads the output of the previous one,
+ * including its number of channels.
+ */
+public class MultiAudioProcessor implements AudioProcessor {
+
+    private final AudioProcessor[] mProcessors;
+
+    /**
+     * Creates a new group with the given processors.
+     * @param processors children
+     */
+    public MultiAudioProcessor(@NonNull AudioProcessor... processors) {
+        mProcessors = processors.clone();
+    }
+
+    /**
+     * Creates a new group with the given processors.
+     * @param processors children
+     */
+    @SuppressWarnings("WeakerAccess")
+    public MultiAudioProcessor(@NonNull Collection<AudioProcessor> processors) {
+        mProcessors = processors.toArray(new AudioProcessor[0]);
+    }
+
+    @Override
+    public int configure(int sampleRate, int channels) {
+        for (AudioProcessor processor : mProcessors) {
+            channels = processor.configure(sampleRate, channels);
+        }
+        return channels;
+    }
+
+    @Override
+    public void process(@NonNull ShortBuffer samples) {
+        for (AudioProcessor processor : mProcessors) {
+            processor.process(samples);
+            samples.position(0);
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "MultiAudioProcessor" + Arrays.toString(mProcessors);
+    }
+}
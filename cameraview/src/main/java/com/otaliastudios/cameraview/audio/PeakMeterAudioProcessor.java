@@ -0,0 +1,88 @@
+package com.otaliastudios.cameraview.audio;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Measures the peak level of the audio, without modifying it.
+ * Levels are in the 0..1 range, where 1 is full scale, and can be read from any thread,
+ * for example to draw a level meter while recording.
+ */
+public class PeakMeterAudioProcessor implements AudioProcessor {
+
+    private volatile float mLevel;
+    private volatile float mPeak;
+    private volatile long mClippedSamples;
+
+    @Override
+    public int configure(int sampleRate, int channels) {
+        mLevel = 0;
+        mPeak = 0;
+        mClippedSamples = 0;
+        return channels;
+    }
+
+    @Override
+    public void process(@NonNull ShortBuffer samples) {
+        int max = 0;
+        long clipped = 0;
+        int count = samples.limit();
+        for (int i = 0; i < count; i++) {
+            int sample = Math.abs(samples.get(i));
+            if (sample > max) max = sample;
+            if (sample >= Short.MAX_VALUE) clipped++;
+        }
+        float level = max / (float) Short.MAX_VALUE;
+        mLevel = Math.min(level, 1F);
+        if (mLevel > mPeak) mPeak = mLevel;
+        if (clipped > 0) mClippedSamples += clipped;
+    }
+
+    /**
+     * Returns the peak level of the last processed buffer.
+     * @return the level
+     */
+    public float getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Returns the peak level since the recording started, or since {@link #resetPeak()}.
+     * @return the peak level
+     */
+    public float getPeak() {
+        return mPeak;
+    }
+
+    /**
+     * Returns the number of samples at full scale, which were likely clipped.
+     * @return the clipped samples
+     */
+    public long getClippedSamples() {
+        return mClippedSamples;
+    }
+
+    /**
+     * Resets the peak level.
+     */
+    public void resetPeak() {
+        mPeak = 0;
+    }
+
+    /**
+     * Converts a level to decibels relative to full scale (dBFS).
+     * @param level a level
+     * @return the level in dBFS, which is 0 or less
+     */
+    public static float toDecibels(float level) {
+        if (level <= 0) return Float.NEGATIVE_INFINITY;
+        return (float) (20D * Math.log10(level));
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PeakMeterAudioProcessor{level=" + mLevel + ", peak=" + mPeak + "}";
+    }
+}
@@ -27,8 +27,10 @@ import com.otaliastudios.cameraview.engine.offset.Reference;
 import com.otaliastudios.cameraview.engine.options.Camera1Options;
 import com.otaliastudios.cameraview.engine.orchestrator.CameraState;
 import com.otaliastudios.cameraview.frame.ByteBufferFrameManager;
+import com.otaliastudios.cameraview.frame.DirectBufferFrameManager;
 import com.otaliastudios.cameraview.frame.Frame;
 import com.otaliastudios.cameraview.PictureResult;
+import com.otaliastudios.cameraview.SettingsEditor;
 import com.otaliastudios.cameraview.VideoResult;
 import com.otaliastudios.cameraview.controls.Facing;
 import com.otaliastudios.cameraview.controls.Flash;
@@ -624,9 +626,9 @@ public class Camera1Engine extends CameraBaseEngine implements
     public void setZoom(final float zoom, @Nullable final PointF[] points, final boolean notify) {
         final float old = mZoomValue;
         mZoomValue = zoom;
-        // Zoom requests can be high frequency (e.g. linked to touch events), let's trim the oldest.
-        getOrchestrator().trim("zoom", ALLOWED_ZOOM_OPS);
-        mZoomTask = getOrchestrator().scheduleStateful("zoom",
+        // Zoom requests can be high frequency (e.g. linked to touch events), so if an older
+        // value is still waiting in the queue, we replace it instead of adding a new job.
+        mZoomTask = getOrchestrator().scheduleStatefulLatest("zoom",
                 CameraState.ENGINE,
                 new Runnable() {
             @Override
@@ -646,7 +648,6 @@ public class Camera1Engine extends CameraBaseEngine implements
         if (mCameraOptions.isZoomSupported()) {
             float max = params.getMaxZoom();
             params.setZoom((int) (mZoomValue * max));
-            mCamera.setParameters(params);
             return true;
         }
         mZoomValue = oldZoom;
@@ -658,9 +659,9 @@ public class Camera1Engine extends CameraBaseEngine implements
                                       @Nullable final PointF[] points, final boolean notify) {
         final float old = mExposureCorrectionValue;
         mExposureCorrectionValue = EVvalue;
-        // EV requests can be high frequency (e.g. linked to touch events), let's trim the oldest.
-        getOrchestrator().trim("exposure correction", ALLOWED_EV_OPS);
-        mExposureCorrectionTask = getOrchestrator().scheduleStateful(
+        // EV requests can be high frequency (e.g. linked to touch events), so if an older
+        // value is still waiting in the queue, we replace it instead of adding a new job.
+        mExposureCorrectionTask = getOrchestrator().scheduleStatefulLatest(
                 "exposure correction",
                 CameraState.ENGINE,
                 new Runnable() {
@@ -784,6 +785,65 @@ public class Camera1Engine extends CameraBaseEngine implements
         return false;
     }
 
+    @Override
+    public void applySettings(@NonNull final SettingsEditor.Stub settings) {
+        final Flash oldFlash = mFlash;
+        final WhiteBalance oldWhiteBalance = mWhiteBalance;
+        final Hdr oldHdr = mHdr;
+        final float oldZoom = mZoomValue;
+        final float oldExposureCorrection = mExposureCorrectionValue;
+        final float oldPreviewFrameRate = mPreviewFrameRate;
+        final Location oldLocation = mLocation;
+        if (settings.flash != null) mFlash = settings.flash;
+        if (settings.whiteBalance != null) mWhiteBalance = settings.whiteBalance;
+        if (settings.hdr != null) mHdr = settings.hdr;
+        if (settings.zoom != null) mZoomValue = settings.zoom;
+        if (settings.exposureCorrection != null) {
+            mExposureCorrectionValue = settings.exposureCorrection;
+        }
+        if (settings.previewFrameRate != null) mPreviewFrameRate = settings.previewFrameRate;
+        if (settings.hasLocation) mLocation = settings.location;
+        // All changes go to the same parameters, which are set only once.
+        Task<Void> task = getOrchestrator().scheduleStateful("settings",
+                CameraState.ENGINE,
+                new Runnable() {
+            @Override
+            public void run() {
+                Camera.Parameters params = mCamera.getParameters();
+                boolean shouldApply = false;
+                if (settings.flash != null) {
+                    shouldApply |= applyFlash(params, oldFlash);
+                }
+                if (settings.whiteBalance != null) {
+                    shouldApply |= applyWhiteBalance(params, oldWhiteBalance);
+                }
+                if (settings.hdr != null) {
+                    shouldApply |= applyHdr(params, oldHdr);
+                }
+                if (settings.zoom != null) {
+                    shouldApply |= applyZoom(params, oldZoom);
+                }
+                if (settings.exposureCorrection != null) {
+                    shouldApply |= applyExposureCorrection(params, oldExposureCorrection);
+                }
+                if (settings.previewFrameRate != null) {
+                    shouldApply |= applyPreviewFrameRate(params, oldPreviewFrameRate);
+                }
+                if (settings.hasLocation) {
+                    shouldApply |= applyLocation(params, oldLocation);
+                }
+                if (shouldApply) mCamera.setParameters(params);
+            }
+        });
+        if (settings.flash != null) mFlashTask = task;
+        if (settings.whiteBalance != null) mWhiteBalanceTask = task;
+        if (settings.hdr != null) mHdrTask = task;
+        if (settings.zoom != null) mZoomTask = task;
+        if (settings.exposureCorrection != null) mExposureCorrectionTask = task;
+        if (settings.previewFrameRate != null) mPreviewFrameRateTask = task;
+        if (settings.hasLocation) mLocationTask = task;
+    }
+
     private void sortRanges(List<int[]> fpsRanges) {
         if (getPreviewFrameRateExact() && mPreviewFrameRate != 0F) { // sort by range width in ascending order
             Collections.sort(fpsRanges, new Comparator<int[]>() {
@@ -817,15 +877,12 @@ public class Camera1Engine extends CameraBaseEngine implements
     @NonNull
     @Override
     protected FrameManager instantiateFrameManager(int poolSize) {
+        if (getFrameProcessingDirectBuffers()) {
+            return new DirectBufferFrameManager(poolSize, this);
+        }
         return new ByteBufferFrameManager(poolSize, this);
     }
 
-    @NonNull
-    @Override
-    public ByteBufferFrameManager getFrameManager() {
-        return (ByteBufferFrameManager) super.getFrameManager();
-    }
-
     @Override
     public void setHasFrameProcessors(boolean hasFrameProcessors) {
         // we don't care, FP is always on
@@ -852,7 +909,15 @@ public class Camera1Engine extends CameraBaseEngine implements
             // Seen this happen in logs.
             return;
         }
-        Frame frame = getFrameManager().getFrame(data, System.currentTimeMillis());
+        FrameManager manager = getFrameManager();
+        long time = System.currentTimeMillis();
+        Frame frame;
+        if (manager instanceof DirectBufferFrameManager) {
+            // The data is copied and given back to the camera right away.
+            frame = ((DirectBufferFrameManager) manager).getFrame(data, time);
+        } else {
+            frame = ((ByteBufferFrameManager) manager).getFrame(data, time);
+        }
         if (frame != null) {
             getCallback().dispatchFrame(frame);
         }
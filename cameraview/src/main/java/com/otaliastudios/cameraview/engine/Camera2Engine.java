@@ -36,6 +36,7 @@ import com.google.android.gms.tasks.Tasks;
 import com.otaliastudios.cameraview.CameraException;
 import com.otaliastudios.cameraview.CameraOptions;
 import com.otaliastudios.cameraview.PictureResult;
+import com.otaliastudios.cameraview.SettingsEditor;
 import com.otaliastudios.cameraview.VideoResult;
 import com.otaliastudios.cameraview.controls.Facing;
 import com.otaliastudios.cameraview.controls.Flash;
@@ -303,6 +304,7 @@ public class Camera2Engine extends CameraBaseEngine implements
             for (Action action : mActions) {
                 action.onCaptureCompleted(Camera2Engine.this, request, result);
             }
+            getOrchestrator().onFrame();
         }
     };
 
@@ -636,6 +638,10 @@ public class Camera2Engine extends CameraBaseEngine implements
                 CameraException.REASON_FAILED_TO_START_PREVIEW);
         LOG.i("onStartPreview:", "Started preview.");
 
+        // Zoom and exposure correction update the repeating request. Apply at most one
+        // value per frame, since more would be replaced before reaching the sensor.
+        getOrchestrator().setFramePacing(true);
+
         // Start delayed video if needed.
         if (mFullVideoPendingStub != null) {
             // Do not call takeVideo/onTakeVideo. It will reset some stub parameters that
@@ -705,6 +711,8 @@ public class Camera2Engine extends CameraBaseEngine implements
                 // Not sure if this can happen, but we can swallow it.
             }
         }
+        // No more frames: do not wait for them anymore.
+        getOrchestrator().setFramePacing(false);
         removeRepeatingRequestBuilderSurfaces();
         mLastRepeatingResult = null;
         LOG.i("onStopPreview:", "Returning.");
@@ -1263,9 +1271,9 @@ public class Camera2Engine extends CameraBaseEngine implements
     public void setZoom(final float zoom, final @Nullable PointF[] points, final boolean notify) {
         final float old = mZoomValue;
         mZoomValue = zoom;
-        // Zoom requests can be high frequency (e.g. linked to touch events), let's trim the oldest.
-        getOrchestrator().trim("zoom", ALLOWED_ZOOM_OPS);
-        mZoomTask = getOrchestrator().scheduleStateful(
+        // Zoom requests can be high frequency (e.g. linked to touch events), so if an older
+        // value is still waiting in the queue, we replace it instead of adding a new job.
+        mZoomTask = getOrchestrator().scheduleStatefulLatest(
                 "zoom",
                 CameraState.ENGINE,
                 new Runnable() {
@@ -1321,9 +1329,9 @@ public class Camera2Engine extends CameraBaseEngine implements
                                       final boolean notify) {
         final float old = mExposureCorrectionValue;
         mExposureCorrectionValue = EVvalue;
-        // EV requests can be high frequency (e.g. linked to touch events), let's trim the oldest.
-        getOrchestrator().trim("exposure correction", ALLOWED_EV_OPS);
-        mExposureCorrectionTask = getOrchestrator().scheduleStateful(
+        // EV requests can be high frequency (e.g. linked to touch events), so if an older
+        // value is still waiting in the queue, we replace it instead of adding a new job.
+        mExposureCorrectionTask = getOrchestrator().scheduleStatefulLatest(
                 "exposure correction",
                 CameraState.ENGINE,
                 new Runnable() {
@@ -1411,6 +1419,79 @@ public class Camera2Engine extends CameraBaseEngine implements
         return false;
     }
 
+    @Override
+    public void applySettings(@NonNull final SettingsEditor.Stub settings) {
+        final Flash oldFlash = mFlash;
+        final WhiteBalance oldWhiteBalance = mWhiteBalance;
+        final Hdr oldHdr = mHdr;
+        final float oldZoom = mZoomValue;
+        final float oldExposureCorrection = mExposureCorrectionValue;
+        final float oldPreviewFrameRate = mPreviewFrameRate;
+        final Location oldLocation = mLocation;
+        if (settings.flash != null) mFlash = settings.flash;
+        if (settings.whiteBalance != null) mWhiteBalance = settings.whiteBalance;
+        if (settings.hdr != null) mHdr = settings.hdr;
+        if (settings.zoom != null) mZoomValue = settings.zoom;
+        if (settings.exposureCorrection != null) {
+            mExposureCorrectionValue = settings.exposureCorrection;
+        }
+        if (settings.previewFrameRate != null) mPreviewFrameRate = settings.previewFrameRate;
+        if (settings.hasLocation) mLocation = settings.location;
+        // All changes go to the same builder, and the repeating request is applied only once.
+        Task<Void> task = getOrchestrator().scheduleStateful("settings",
+                CameraState.ENGINE,
+                new Runnable() {
+            @Override
+            public void run() {
+                CaptureRequest.Builder builder = mRepeatingRequestBuilder;
+                boolean shouldApply = false;
+                if (settings.whiteBalance != null) {
+                    shouldApply |= applyWhiteBalance(builder, oldWhiteBalance);
+                }
+                if (settings.hdr != null) {
+                    shouldApply |= applyHdr(builder, oldHdr);
+                }
+                if (settings.zoom != null) {
+                    shouldApply |= applyZoom(builder, oldZoom);
+                }
+                if (settings.exposureCorrection != null) {
+                    shouldApply |= applyExposureCorrection(builder, oldExposureCorrection);
+                }
+                if (settings.previewFrameRate != null) {
+                    shouldApply |= applyPreviewFrameRate(builder, oldPreviewFrameRate);
+                }
+                if (settings.hasLocation) {
+                    shouldApply |= applyLocation(builder, oldLocation);
+                }
+                if (settings.flash != null && applyFlash(builder, oldFlash)) {
+                    shouldApply = true;
+                    if (getState() == CameraState.PREVIEW) {
+                        // Same workaround as setFlash(): go back to OFF and capture once,
+                        // before moving to the new value.
+                        Flash flash = mFlash;
+                        mFlash = Flash.OFF;
+                        applyFlash(builder, oldFlash);
+                        try {
+                            mSession.capture(builder.build(), null, null);
+                        } catch (CameraAccessException e) {
+                            throw createCameraException(e);
+                        }
+                        mFlash = flash;
+                        applyFlash(builder, oldFlash);
+                    }
+                }
+                if (shouldApply) applyRepeatingRequestBuilder();
+            }
+        });
+        if (settings.flash != null) mFlashTask = task;
+        if (settings.whiteBalance != null) mWhiteBalanceTask = task;
+        if (settings.hdr != null) mHdrTask = task;
+        if (settings.zoom != null) mZoomTask = task;
+        if (settings.exposureCorrection != null) mExposureCorrectionTask = task;
+        if (settings.previewFrameRate != null) mPreviewFrameRateTask = task;
+        if (settings.hasLocation) mLocationTask = task;
+    }
+
     private void sortFrameRateRanges(@NonNull Range<Integer>[] fpsRanges) {
         final boolean ascending = getPreviewFrameRateExact() && mPreviewFrameRate != 0;
         Arrays.sort(fpsRanges, new Comparator<Range<Integer>>() {
@@ -13,6 +13,7 @@ import com.otaliastudios.cameraview.CameraException;
 import com.otaliastudios.cameraview.CameraOptions;
 import com.otaliastudios.cameraview.PictureResult;
 import com.otaliastudios.cameraview.VideoResult;
+import com.otaliastudios.cameraview.audio.AudioProcessor;
 import com.otaliastudios.cameraview.controls.Audio;
 import com.otaliastudios.cameraview.controls.AudioCodec;
 import com.otaliastudios.cameraview.controls.Facing;
@@ -25,7 +26,9 @@ import com.otaliastudios.cameraview.controls.WhiteBalance;
 import com.otaliastudios.cameraview.engine.offset.Angles;
 import com.otaliastudios.cameraview.engine.offset.Reference;
 import com.otaliastudios.cameraview.engine.orchestrator.CameraState;
+import com.otaliastudios.cameraview.engine.orchestrator.CameraStateOrchestrator;
 import com.otaliastudios.cameraview.frame.FrameManager;
+import com.otaliastudios.cameraview.frame.FrozenFramePolicy;
 import com.otaliastudios.cameraview.overlay.Overlay;
 import com.otaliastudios.cameraview.picture.PictureRecorder;
 import com.otaliastudios.cameraview.preview.CameraPreview;
@@ -33,7 +36,11 @@ import com.otaliastudios.cameraview.size.AspectRatio;
 import com.otaliastudios.cameraview.size.Size;
 import com.otaliastudios.cameraview.size.SizeSelector;
 import com.otaliastudios.cameraview.size.SizeSelectors;
+import com.otaliastudios.cameraview.video.SnapshotVideoRecorder;
 import com.otaliastudios.cameraview.video.VideoRecorder;
+import com.otaliastudios.cameraview.video.encoding.EncodedSampleDelivery;
+import com.otaliastudios.cameraview.video.encoding.EncodedSampleListener;
+import com.otaliastudios.cameraview.video.encoding.EncoderMetrics;
 
 import java.io.File;
 import java.io.FileDescriptor;
@@ -47,7 +54,20 @@ import java.util.List;
  */
 public abstract class CameraBaseEngine extends CameraEngine {
 
+    /**
+     * @deprecated zoom jobs are coalesced by the orchestrator, see
+     * {@link CameraStateOrchestrator#scheduleStatefulLatest}.
+     * This value is not used anymore.
+     */
+    @Deprecated
     protected final static int ALLOWED_ZOOM_OPS = 20;
+
+    /**
+     * @deprecated exposure correction jobs are coalesced by the orchestrator, see
+     * {@link CameraStateOrchestrator#scheduleStatefulLatest}.
+     * This value is not used anymore.
+     */
+    @Deprecated
     protected final static int ALLOWED_EV_OPS = 20;
 
     @SuppressWarnings("WeakerAccess") protected CameraPreview mPreview;
@@ -85,6 +105,20 @@ public abstract class CameraBaseEngine extends CameraEngine {
     private long mVideoMaxSize;
     private int mVideoMaxDuration;
     private int mVideoBitRate;
+    private long mVideoSnapshotFragmentInterval;
+    private long mVideoSnapshotSegmentDuration;
+    private int mVideoSnapshotPreRollSize;
+    private boolean mVideoSnapshotMetricsEnabled;
+    private boolean mVideoSnapshotAsyncEncoding;
+    private int mVideoSnapshotMinBitRate;
+    private int mVideoSnapshotMaxBitRate;
+    private AudioProcessor mVideoSnapshotAudioProcessor;
+    private long mVideoSnapshotTimeLapseInterval;
+    private int mVideoSnapshotTimeLapseFrameRate;
+    private EncodedSampleListener mVideoSnapshotSampleListener;
+    private EncodedSampleDelivery mVideoSnapshotSampleDelivery
+            = EncodedSampleDelivery.dropOldest(EncodedSampleDelivery.DEFAULT_CAPACITY);
+    private boolean mVideoSnapshotWritesFile = true;
     private int mAudioBitRate;
     private long mAutoFocusResetDelayMillis;
     private int mSnapshotMaxWidth; // in REF_VIEW like SizeSelectors
@@ -92,6 +126,9 @@ public abstract class CameraBaseEngine extends CameraEngine {
     private int mFrameProcessingMaxWidth; // in REF_VIEW like SizeSelectors
     private int mFrameProcessingMaxHeight; // in REF_VIEW like SizeSelectors
     private int mFrameProcessingPoolSize;
+    private long mFrameProcessingFrozenBudget;
+    private FrozenFramePolicy mFrameProcessingFrozenPolicy = FrozenFramePolicy.ALLOCATE;
+    private boolean mFrameProcessingDirectBuffers;
     private Overlay mOverlay;
 
     // Ops used for testing.
@@ -137,6 +174,9 @@ public abstract class CameraBaseEngine extends CameraEngine {
     public FrameManager getFrameManager() {
         if (mFrameManager == null) {
             mFrameManager = instantiateFrameManager(mFrameProcessingPoolSize);
+            mFrameManager.setMetrics(getCallback().getFrameMetricsRecorder());
+            mFrameManager.setFrozenFrameBudget(mFrameProcessingFrozenBudget);
+            mFrameManager.setFrozenFramePolicy(mFrameProcessingFrozenPolicy);
         }
         return mFrameManager;
     }
@@ -245,6 +285,136 @@ public abstract class CameraBaseEngine extends CameraEngine {
         return mVideoBitRate;
     }
 
+    @Override
+    public final void setVideoSnapshotFragmentInterval(long intervalMillis) {
+        mVideoSnapshotFragmentInterval = intervalMillis;
+    }
+
+    @Override
+    public final long getVideoSnapshotFragmentInterval() {
+        return mVideoSnapshotFragmentInterval;
+    }
+
+    @Override
+    public final void setVideoSnapshotSegmentDuration(long durationMillis) {
+        mVideoSnapshotSegmentDuration = durationMillis;
+    }
+
+    @Override
+    public final long getVideoSnapshotSegmentDuration() {
+        return mVideoSnapshotSegmentDuration;
+    }
+
+    @Override
+    public final void setVideoSnapshotPreRollSize(int bytes) {
+        mVideoSnapshotPreRollSize = bytes;
+    }
+
+    @Override
+    public final int getVideoSnapshotPreRollSize() {
+        return mVideoSnapshotPreRollSize;
+    }
+
+    @Override
+    public final void setVideoSnapshotAsyncEncoding(boolean async) {
+        mVideoSnapshotAsyncEncoding = async;
+    }
+
+    @Override
+    public final boolean getVideoSnapshotAsyncEncoding() {
+        return mVideoSnapshotAsyncEncoding;
+    }
+
+    @Override
+    public final void setVideoSnapshotBitRateRange(int minBitRate, int maxBitRate) {
+        mVideoSnapshotMinBitRate = minBitRate;
+        mVideoSnapshotMaxBitRate = maxBitRate;
+    }
+
+    @Override
+    public final int getVideoSnapshotMinBitRate() {
+        return mVideoSnapshotMinBitRate;
+    }
+
+    @Override
+    public final int getVideoSnapshotMaxBitRate() {
+        return mVideoSnapshotMaxBitRate;
+    }
+
+    @Override
+    public final void setVideoSnapshotAudioProcessor(@Nullable AudioProcessor processor) {
+        mVideoSnapshotAudioProcessor = processor;
+    }
+
+    @Nullable
+    @Override
+    public final AudioProcessor getVideoSnapshotAudioProcessor() {
+        return mVideoSnapshotAudioProcessor;
+    }
+
+    @Override
+    public final void setVideoSnapshotTimeLapse(long intervalMillis, int frameRate) {
+        mVideoSnapshotTimeLapseInterval = intervalMillis;
+        mVideoSnapshotTimeLapseFrameRate = frameRate;
+    }
+
+    @Override
+    public final long getVideoSnapshotTimeLapseInterval() {
+        return mVideoSnapshotTimeLapseInterval;
+    }
+
+    @Override
+    public final int getVideoSnapshotTimeLapseFrameRate() {
+        return mVideoSnapshotTimeLapseFrameRate;
+    }
+
+    @Override
+    public final void setVideoSnapshotMetricsEnabled(boolean enabled) {
+        mVideoSnapshotMetricsEnabled = enabled;
+    }
+
+    @Override
+    public final boolean getVideoSnapshotMetricsEnabled() {
+        return mVideoSnapshotMetricsEnabled;
+    }
+
+    @Nullable
+    @Override
+    public final EncoderMetrics getVideoSnapshotMetrics() {
+        VideoRecorder recorder = mVideoRecorder;
+        if (recorder instanceof SnapshotVideoRecorder) {
+            return ((SnapshotVideoRecorder) recorder).getMetrics();
+        }
+        return null;
+    }
+
+    @Override
+    public final void setVideoSnapshotSampleListener(
+            @Nullable EncodedSampleListener listener,
+            @NonNull EncodedSampleDelivery delivery,
+            boolean writeFile) {
+        mVideoSnapshotSampleListener = listener;
+        mVideoSnapshotSampleDelivery = delivery;
+        mVideoSnapshotWritesFile = writeFile;
+    }
+
+    @Nullable
+    @Override
+    public final EncodedSampleListener getVideoSnapshotSampleListener() {
+        return mVideoSnapshotSampleListener;
+    }
+
+    @NonNull
+    @Override
+    public final EncodedSampleDelivery getVideoSnapshotSampleDelivery() {
+        return mVideoSnapshotSampleDelivery;
+    }
+
+    @Override
+    public final boolean getVideoSnapshotWritesFile() {
+        return mVideoSnapshotWritesFile;
+    }
+
     @Override
     public final void setAudioCodec(@NonNull AudioCodec codec) {
         mAudioCodec = codec;
@@ -321,6 +491,39 @@ public abstract class CameraBaseEngine extends CameraEngine {
         return mFrameProcessingPoolSize;
     }
 
+    @Override
+    public final void setFrameProcessingFrozenBudget(long bytes) {
+        mFrameProcessingFrozenBudget = bytes;
+        if (mFrameManager != null) mFrameManager.setFrozenFrameBudget(bytes);
+    }
+
+    @Override
+    public final long getFrameProcessingFrozenBudget() {
+        return mFrameProcessingFrozenBudget;
+    }
+
+    @Override
+    public final void setFrameProcessingFrozenPolicy(@NonNull FrozenFramePolicy policy) {
+        mFrameProcessingFrozenPolicy = policy;
+        if (mFrameManager != null) mFrameManager.setFrozenFramePolicy(policy);
+    }
+
+    @NonNull
+    @Override
+    public final FrozenFramePolicy getFrameProcessingFrozenPolicy() {
+        return mFrameProcessingFrozenPolicy;
+    }
+
+    @Override
+    public final void setFrameProcessingDirectBuffers(boolean directBuffers) {
+        mFrameProcessingDirectBuffers = directBuffers;
+    }
+
+    @Override
+    public final boolean getFrameProcessingDirectBuffers() {
+        return mFrameProcessingDirectBuffers;
+    }
+
     @Override
     public final void setAutoFocusResetDelay(long delayMillis) {
         mAutoFocusResetDelayMillis = delayMillis;
@@ -630,6 +833,19 @@ public abstract class CameraBaseEngine extends CameraEngine {
                 stub.audio = mAudio;
                 stub.maxSize = mVideoMaxSize;
                 stub.maxDuration = mVideoMaxDuration;
+                stub.fragmentInterval = mVideoSnapshotFragmentInterval;
+                stub.segmentDuration = mVideoSnapshotSegmentDuration;
+                stub.preRollSize = mVideoSnapshotPreRollSize;
+                stub.metricsEnabled = mVideoSnapshotMetricsEnabled;
+                stub.asyncEncoding = mVideoSnapshotAsyncEncoding;
+                stub.minVideoBitRate = mVideoSnapshotMinBitRate;
+                stub.maxVideoBitRate = mVideoSnapshotMaxBitRate;
+                stub.audioProcessor = mVideoSnapshotAudioProcessor;
+                stub.timeLapseInterval = mVideoSnapshotTimeLapseInterval;
+                stub.timeLapseFrameRate = mVideoSnapshotTimeLapseFrameRate;
+                stub.sampleListener = mVideoSnapshotSampleListener;
+                stub.sampleDelivery = mVideoSnapshotSampleDelivery;
+                stub.sampleWriteFile = mVideoSnapshotWritesFile;
                 //noinspection ConstantConditions
                 AspectRatio ratio = AspectRatio.of(getPreviewSurfaceSize(Reference.OUTPUT));
                 onTakeVideoSnapshot(stub, ratio);
@@ -637,6 +853,19 @@ public abstract class CameraBaseEngine extends CameraEngine {
         });
     }
 
+    @Override
+    public final void commitVideoSnapshot() {
+        getOrchestrator().schedule("commit video snapshot", true, new Runnable() {
+            @Override
+            public void run() {
+                LOG.i("commitVideoSnapshot", "running. isTakingVideo?", isTakingVideo());
+                if (mVideoRecorder instanceof SnapshotVideoRecorder) {
+                    ((SnapshotVideoRecorder) mVideoRecorder).commit();
+                }
+            }
+        });
+    }
+
     @Override
     public final void stopVideo() {
         getOrchestrator().schedule("stop video", true, new Runnable() {
@@ -672,6 +901,11 @@ public abstract class CameraBaseEngine extends CameraEngine {
         }
     }
 
+    @Override
+    public void onVideoSegment(@NonNull VideoResult.Stub result, @NonNull File file) {
+        getCallback().dispatchOnVideoSegmentTaken(result, file);
+    }
+
     @Override
     public void onVideoRecordingStart() {
         getCallback().dispatchOnVideoRecordingStart();
@@ -17,6 +17,8 @@ import com.otaliastudios.cameraview.CameraException;
 import com.otaliastudios.cameraview.CameraLogger;
 import com.otaliastudios.cameraview.CameraOptions;
 import com.otaliastudios.cameraview.PictureResult;
+import com.otaliastudios.cameraview.SettingsEditor;
+import com.otaliastudios.cameraview.audio.AudioProcessor;
 import com.otaliastudios.cameraview.controls.AudioCodec;
 import com.otaliastudios.cameraview.controls.PictureFormat;
 import com.otaliastudios.cameraview.engine.orchestrator.CameraOrchestrator;
@@ -29,6 +31,8 @@ import com.otaliastudios.cameraview.engine.offset.Angles;
 import com.otaliastudios.cameraview.engine.offset.Reference;
 import com.otaliastudios.cameraview.frame.Frame;
 import com.otaliastudios.cameraview.frame.FrameManager;
+import com.otaliastudios.cameraview.frame.FrameMetricsRecorder;
+import com.otaliastudios.cameraview.frame.FrozenFramePolicy;
 import com.otaliastudios.cameraview.internal.WorkerHandler;
 import com.otaliastudios.cameraview.picture.PictureRecorder;
 import com.otaliastudios.cameraview.preview.CameraPreview;
@@ -43,6 +47,9 @@ import com.otaliastudios.cameraview.controls.WhiteBalance;
 import com.otaliastudios.cameraview.size.Size;
 import com.otaliastudios.cameraview.size.SizeSelector;
 import com.otaliastudios.cameraview.video.VideoRecorder;
+import com.otaliastudios.cameraview.video.encoding.EncodedSampleDelivery;
+import com.otaliastudios.cameraview.video.encoding.EncodedSampleListener;
+import com.otaliastudios.cameraview.video.encoding.EncoderMetrics;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -118,6 +125,7 @@ public abstract class CameraEngine implements
         void onCameraPreviewStreamSizeChanged();
         void dispatchOnPictureShutter(boolean shouldPlaySound);
         void dispatchOnVideoTaken(@NonNull VideoResult.Stub stub);
+        void dispatchOnVideoSegmentTaken(@NonNull VideoResult.Stub stub, @NonNull File file);
         void dispatchOnPictureTaken(@NonNull PictureResult.Stub stub);
         void dispatchOnFocusStart(@Nullable Gesture trigger, @NonNull PointF where);
         void dispatchOnFocusEnd(@Nullable Gesture trigger, boolean success, @NonNull PointF where);
@@ -125,6 +133,7 @@ public abstract class CameraEngine implements
         void dispatchOnExposureCorrectionChanged(float newValue, @NonNull float[] bounds,
                                                  @Nullable PointF[] fingers);
         void dispatchFrame(@NonNull Frame frame);
+        @NonNull FrameMetricsRecorder getFrameMetricsRecorder();
         void dispatchError(CameraException exception);
         void dispatchOnVideoRecordingStart();
         void dispatchOnVideoRecordingEnd();
@@ -635,6 +644,41 @@ public abstract class CameraEngine implements
     public abstract void setVideoBitRate(int videoBitRate);
     public abstract int getVideoBitRate();
 
+    public abstract void setVideoSnapshotFragmentInterval(long intervalMillis);
+    public abstract long getVideoSnapshotFragmentInterval();
+
+    public abstract void setVideoSnapshotSegmentDuration(long durationMillis);
+    public abstract long getVideoSnapshotSegmentDuration();
+
+    public abstract void setVideoSnapshotPreRollSize(int bytes);
+    public abstract int getVideoSnapshotPreRollSize();
+
+    public abstract void setVideoSnapshotAsyncEncoding(boolean async);
+    public abstract boolean getVideoSnapshotAsyncEncoding();
+
+    public abstract void setVideoSnapshotBitRateRange(int minBitRate, int maxBitRate);
+    public abstract int getVideoSnapshotMinBitRate();
+    public abstract int getVideoSnapshotMaxBitRate();
+
+    public abstract void setVideoSnapshotAudioProcessor(@Nullable AudioProcessor processor);
+    @Nullable public abstract AudioProcessor getVideoSnapshotAudioProcessor();
+
+    public abstract void setVideoSnapshotTimeLapse(long intervalMillis, int frameRate);
+    public abstract long getVideoSnapshotTimeLapseInterval();
+    public abstract int getVideoSnapshotTimeLapseFrameRate();
+
+    public abstract void setVideoSnapshotMetricsEnabled(boolean enabled);
+    public abstract boolean getVideoSnapshotMetricsEnabled();
+    @Nullable public abstract EncoderMetrics getVideoSnapshotMetrics();
+
+    public abstract void setVideoSnapshotSampleListener(
+            @Nullable EncodedSampleListener listener,
+            @NonNull EncodedSampleDelivery delivery,
+            boolean writeFile);
+    @Nullable public abstract EncodedSampleListener getVideoSnapshotSampleListener();
+    @NonNull public abstract EncodedSampleDelivery getVideoSnapshotSampleDelivery();
+    public abstract boolean getVideoSnapshotWritesFile();
+
     public abstract void setAudioBitRate(int audioBitRate);
     public abstract int getAudioBitRate();
 
@@ -659,6 +703,15 @@ public abstract class CameraEngine implements
     public abstract void setFrameProcessingPoolSize(int poolSize);
     public abstract int getFrameProcessingPoolSize();
 
+    public abstract void setFrameProcessingFrozenBudget(long bytes);
+    public abstract long getFrameProcessingFrozenBudget();
+
+    public abstract void setFrameProcessingFrozenPolicy(@NonNull FrozenFramePolicy policy);
+    @NonNull public abstract FrozenFramePolicy getFrameProcessingFrozenPolicy();
+
+    public abstract void setFrameProcessingDirectBuffers(boolean directBuffers);
+    public abstract boolean getFrameProcessingDirectBuffers();
+
     public abstract void setAutoFocusResetDelay(long delayMillis);
     public abstract long getAutoFocusResetDelay();
 
@@ -698,6 +751,8 @@ public abstract class CameraEngine implements
     public abstract void setPreviewFrameRate(float previewFrameRate);
     public abstract float getPreviewFrameRate();
 
+    public abstract void applySettings(@NonNull SettingsEditor.Stub settings);
+
     public abstract void setHasFrameProcessors(boolean hasFrameProcessors);
     public abstract boolean hasFrameProcessors();
 
@@ -722,6 +777,7 @@ public abstract class CameraEngine implements
                                    @Nullable File file,
                                    @Nullable FileDescriptor fileDescriptor);
     public abstract void takeVideoSnapshot(@NonNull VideoResult.Stub stub, @NonNull File file);
+    public abstract void commitVideoSnapshot();
     public abstract void stopVideo();
 
     //endregion
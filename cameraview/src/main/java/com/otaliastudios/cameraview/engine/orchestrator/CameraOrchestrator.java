@@ -14,8 +14,10 @@ import com.otaliastudios.cameraview.internal.WorkerHandler;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
@@ -29,6 +31,12 @@ import java.util.concurrent.CancellationException;
  * tear it down. Other actions might need a specific state to be executed.
  * And most importantly, some actions will finish asynchronously, so subsequent actions
  * should wait for the previous to finish, but without blocking the thread.
+ *
+ * Actions that can be scheduled at a high frequency, like zoom changes linked to touch
+ * events, can use {@link #scheduleLatest(String, boolean, Runnable)}: in this case, only the
+ * latest value waits in the queue, and older values are dropped. With
+ * {@link #setFramePacing(boolean)}, these jobs also wait for a camera frame
+ * between two values.
  */
 @SuppressWarnings("WeakerAccess")
 public class CameraOrchestrator {
@@ -57,10 +65,29 @@ public class CameraOrchestrator {
         }
     }
 
+    /**
+     * Holds the latest value of jobs scheduled with
+     * {@link #scheduleLatest(String, boolean, Runnable)}, and the job that will run it,
+     * if it did not start yet. When the lane is waiting for a frame, the job is kept
+     * here and only added to the queue by {@link #onFrame()}.
+     */
+    private static class Lane {
+        private Runnable runnable;
+        private Job<Void> job;
+        private boolean waitingForFrame;
+    }
+
     protected final Callback mCallback;
     protected final ArrayDeque<Job<?>> mJobs = new ArrayDeque<>();
     protected boolean mJobRunning = false;
     protected final Object mJobsLock = new Object();
+    @GuardedBy("mJobsLock")
+    private final Map<String, Lane> mLanes = new HashMap<>();
+    // Same as mLanes, so that onFrame() can iterate without allocating.
+    @GuardedBy("mJobsLock")
+    private final List<Lane> mLaneList = new ArrayList<>();
+    @GuardedBy("mJobsLock")
+    private boolean mFramePacing;
 
     public CameraOrchestrator(@NonNull Callback callback) {
         mCallback = callback;
@@ -94,6 +121,108 @@ public class CameraOrchestrator {
         return scheduleInternal(name, dispatchExceptions, 0L, scheduler);
     }
 
+    /**
+     * Schedules a job in a latest-value-wins lane. If a job with the same name was scheduled
+     * with this method and did not start yet, its runnable is replaced by this one and
+     * the same task is returned. This takes constant time. Otherwise, a new job is queued.
+     *
+     * This is meant for jobs that can be scheduled at a high frequency and where only the
+     * latest value matters, like zoom changes linked to touch events: no matter how many
+     * values are scheduled, the queue holds at most one job for each lane.
+     * If frame pacing is enabled, the job after a value was applied also waits
+     * for {@link #onFrame()}, so that at most one value is applied per frame.
+     *
+     * @param name the job name
+     * @param dispatchExceptions whether to dispatch exceptions to the callback
+     * @param job the job
+     * @return a task that completes when the latest value is executed
+     */
+    @NonNull
+    public Task<Void> scheduleLatest(@NonNull String name,
+                                     boolean dispatchExceptions,
+                                     @NonNull Runnable job) {
+        synchronized (mJobsLock) {
+            Lane lane = mLanes.get(name);
+            if (lane == null) {
+                lane = new Lane();
+                mLanes.put(name, lane);
+                mLaneList.add(lane);
+            }
+            lane.runnable = job;
+            if (lane.job != null) {
+                LOG.v(name.toUpperCase(), "- Replacing the scheduled value.");
+                return lane.job.source.getTask();
+            }
+            LOG.i(name.toUpperCase(), "- Scheduling.");
+            final Lane target = lane;
+            lane.job = new Job<>(name, new Callable<Task<Void>>() {
+                @Override
+                public Task<Void> call() {
+                    Runnable runnable;
+                    synchronized (mJobsLock) {
+                        // From now on, new values go to a new job.
+                        runnable = target.runnable;
+                        target.runnable = null;
+                        target.job = null;
+                        target.waitingForFrame = mFramePacing;
+                    }
+                    if (runnable != null) runnable.run();
+                    return Tasks.forResult(null);
+                }
+            }, dispatchExceptions, System.currentTimeMillis());
+            if (lane.waitingForFrame) {
+                LOG.v(name.toUpperCase(), "- Waiting for the next frame.");
+            } else {
+                mJobs.addLast(lane.job);
+                sync(0L);
+            }
+            return lane.job.source.getTask();
+        }
+    }
+
+    /**
+     * Enables or disables frame pacing for jobs scheduled with
+     * {@link #scheduleLatest(String, boolean, Runnable)}. When enabled, after a value is
+     * applied, the next value waits for {@link #onFrame()} before it is queued.
+     * This should be enabled only while frames are delivered, because disabling it
+     * releases the waiting jobs.
+     *
+     * @param enabled whether to wait for frames
+     */
+    public void setFramePacing(boolean enabled) {
+        synchronized (mJobsLock) {
+            LOG.i("setFramePacing:", enabled);
+            mFramePacing = enabled;
+            if (!enabled) releaseLanes();
+        }
+    }
+
+    /**
+     * Notifies that a new frame was produced, so that jobs waiting for it can be queued.
+     * This can be called for every frame and does not allocate.
+     */
+    public void onFrame() {
+        synchronized (mJobsLock) {
+            releaseLanes();
+        }
+    }
+
+    @GuardedBy("mJobsLock")
+    private void releaseLanes() {
+        boolean queued = false;
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0; i < mLaneList.size(); i++) {
+            Lane lane = mLaneList.get(i);
+            if (!lane.waitingForFrame) continue;
+            lane.waitingForFrame = false;
+            if (lane.job != null) {
+                mJobs.addLast(lane.job);
+                queued = true;
+            }
+        }
+        if (queued) sync(0L);
+    }
+
     @NonNull
     private <T> Task<T> scheduleInternal(@NonNull String name,
                                          boolean dispatchExceptions,
@@ -208,6 +337,11 @@ public class CameraOrchestrator {
                     scheduled.add(job);
                 }
             }
+            Lane lane = mLanes.get(name);
+            if (lane != null && lane.waitingForFrame && lane.job != null) {
+                // Not in the queue yet, but it is the newest job of this lane.
+                scheduled.add(lane.job);
+            }
             LOG.v("trim: name=", name, "scheduled=", scheduled.size(), "allowed=", allowed);
             int existing = Math.max(scheduled.size() - allowed, 0);
             if (existing > 0) {
@@ -218,6 +352,11 @@ public class CameraOrchestrator {
                 scheduled = scheduled.subList(0, existing);
                 for (Job<?> job : scheduled) {
                     mJobs.remove(job);
+                    if (lane != null && lane.job == job) {
+                        lane.job = null;
+                        lane.runnable = null;
+                        lane.waitingForFrame = false;
+                    }
                 }
             }
         }
@@ -229,9 +368,15 @@ public class CameraOrchestrator {
             for (Job<?> job : mJobs) {
                 all.add(job.name);
             }
+            for (Map.Entry<String, Lane> entry : mLanes.entrySet()) {
+                if (entry.getValue().job != null) all.add(entry.getKey());
+            }
             for (String job : all) {
                 remove(job);
             }
+            for (Lane lane : mLaneList) {
+                lane.waitingForFrame = false;
+            }
         }
     }
 
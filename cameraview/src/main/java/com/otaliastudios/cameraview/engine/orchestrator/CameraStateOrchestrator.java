@@ -103,6 +103,30 @@ public class CameraStateOrchestrator extends CameraOrchestrator {
         });
     }
 
+    /**
+     * Like {@link #scheduleLatest(String, boolean, Runnable)}, but the job is executed only
+     * if the current state is at least the given one.
+     *
+     * @param name the job name
+     * @param atLeast the min state
+     * @param job the job
+     * @return a task that completes when the latest value is executed
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    @NonNull
+    public Task<Void> scheduleStatefulLatest(@NonNull String name,
+                                             @NonNull final CameraState atLeast,
+                                             @NonNull final Runnable job) {
+        return scheduleLatest(name, true, new Runnable() {
+            @Override
+            public void run() {
+                if (getCurrentState().isAtLeast(atLeast)) {
+                    job.run();
+                }
+            }
+        });
+    }
+
     public void scheduleStatefulDelayed(@NonNull String name,
                                         @NonNull final CameraState atLeast,
                                         long delay,
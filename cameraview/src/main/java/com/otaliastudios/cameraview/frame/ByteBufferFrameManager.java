@@ -5,10 +5,9 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.otaliastudios.cameraview.engine.offset.Angles;
+import com.otaliastudios.cameraview.internal.RingBuffer;
 import com.otaliastudios.cameraview.size.Size;
 
-import java.util.concurrent.LinkedBlockingQueue;
-
 /**
  * This class manages the allocation of byte buffers and {@link Frame} objects.
  * We are interested in recycling both of them, especially byte[] buffers which can create a lot
@@ -55,7 +54,7 @@ public class ByteBufferFrameManager extends FrameManager<byte[]> {
      */
     private final static int BUFFER_MODE_ENQUEUE = 1;
 
-    private LinkedBlockingQueue<byte[]> mBufferQueue;
+    private RingBuffer<byte[]> mBufferQueue;
     private BufferCallback mBufferCallback;
     private final int mBufferMode;
 
@@ -73,7 +72,7 @@ public class ByteBufferFrameManager extends FrameManager<byte[]> {
             mBufferCallback = callback;
             mBufferMode = BUFFER_MODE_DISPATCH;
         } else {
-            mBufferQueue = new LinkedBlockingQueue<>(poolSize);
+            mBufferQueue = new RingBuffer<>(poolSize);
             mBufferMode = BUFFER_MODE_ENQUEUE;
         }
     }
@@ -148,6 +147,14 @@ public class ByteBufferFrameManager extends FrameManager<byte[]> {
         return clone;
     }
 
+    @NonNull
+    @Override
+    protected byte[] onCopyFrameData(@NonNull byte[] data, @NonNull byte[] target) {
+        if (target.length != data.length) return onCloneFrameData(data);
+        System.arraycopy(data, 0, target, 0, data.length);
+        return target;
+    }
+
     /**
      * Releases all frames controlled by this manager and
      * clears the pool.
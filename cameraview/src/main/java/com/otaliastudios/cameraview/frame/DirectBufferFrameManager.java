@@ -0,0 +1,168 @@
+package com.otaliastudios.cameraview.frame;
+
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.otaliastudios.cameraview.engine.offset.Angles;
+import com.otaliastudios.cameraview.internal.RingBuffer;
+import com.otaliastudios.cameraview.size.Size;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * This class manages the allocation of direct {@link ByteBuffer}s and {@link Frame} objects.
+ * Frames hold direct buffers, whose memory lives outside of the Java heap, so that processors
+ * can pass it to native code without copying, e.g. through JNI's GetDirectBufferAddress.
+ *
+ * As with {@link ByteBufferFrameManager}, the pool size applies to both the {@link Frame} pool
+ * and the buffer pool. Buffers have position 0 and a limit equal to {@link #getFrameBytes()}.
+ *
+ * Data can enter the pool in two ways:
+ *
+ * 1. Through {@link #getFrame(byte[], long)}: the heap array is copied into a free buffer
+ *    and can be reused right away. If a {@link ByteBufferFrameManager.BufferCallback} is passed
+ *    to the constructor, the manager also allocates the heap arrays and dispatches them to the
+ *    callback, both on setup and after each copy. This is used for Camera1, whose
+ *    addCallbackBuffer() only accepts byte[] arrays.
+ *
+ * 2. Through {@link #getBuffer()}: producers that can write to native memory directly
+ *    fill the buffer and use it to get a frame with {@link FrameManager#getFrame(Object, long)},
+ *    or return it with {@link #onBufferUnused(ByteBuffer)}.
+ */
+public class DirectBufferFrameManager extends FrameManager<ByteBuffer> {
+
+    private final RingBuffer<ByteBuffer> mBufferQueue;
+    private final ByteBufferFrameManager.BufferCallback mBufferCallback;
+
+    /**
+     * Construct a new frame manager.
+     * The construction must be followed by an {@link FrameManager#setUp(int, Size, Angles)} call
+     * as soon as the parameters are known.
+     *
+     * @param poolSize the size of the backing pool.
+     * @param callback a callback for heap arrays, or null
+     */
+    public DirectBufferFrameManager(int poolSize,
+                                    @Nullable ByteBufferFrameManager.BufferCallback callback) {
+        super(poolSize, ByteBuffer.class);
+        mBufferQueue = new RingBuffer<>(poolSize);
+        mBufferCallback = callback;
+    }
+
+    @Override
+    public void setUp(int format, @NonNull Size size, @NonNull Angles angles) {
+        super.setUp(format, size, angles);
+        int bytes = getFrameBytes();
+        mBufferQueue.clear();
+        for (int i = 0; i < getPoolSize(); i++) {
+            mBufferQueue.offer(allocate(bytes));
+            if (mBufferCallback != null) {
+                mBufferCallback.onBufferAvailable(new byte[bytes]);
+            }
+        }
+    }
+
+    @NonNull
+    private static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Returns a new direct buffer than can be filled.
+     * If not null, the buffer returned by this method can be filled and used to get
+     * a new frame through {@link FrameManager#getFrame(Object, long)}.
+     *
+     * @return a buffer, or null
+     */
+    @Nullable
+    public ByteBuffer getBuffer() {
+        return mBufferQueue.poll();
+    }
+
+    /**
+     * Can be called if the buffer obtained by {@link #getBuffer()}
+     * was not used to construct a frame, so it can be put back into the queue.
+     * @param buffer a buffer
+     */
+    public void onBufferUnused(@NonNull ByteBuffer buffer) {
+        if (isSetUp()) {
+            buffer.clear();
+            mBufferQueue.offer(buffer);
+        } else {
+            LOG.w("onBufferUnused: buffer was returned but we're not set up anymore.");
+        }
+    }
+
+    /**
+     * Returns a new Frame for the given heap array, which is copied into a direct buffer.
+     * After this call the array can be reused: if a callback was passed to the constructor,
+     * it is dispatched to {@link ByteBufferFrameManager.BufferCallback#onBufferAvailable(byte[])}.
+     *
+     * @param data data
+     * @param time timestamp
+     * @return a new frame, or null if all frames are in use
+     */
+    @Nullable
+    public Frame getFrame(@NonNull byte[] data, long time) {
+        if (!isSetUp()) {
+            throw new IllegalStateException("Can't call getFrame() after releasing " +
+                    "or before setUp.");
+        }
+        Frame frame = null;
+        ByteBuffer buffer = mBufferQueue.poll();
+        if (buffer != null) {
+            // The buffer is cleared on release, so this copies from position 0.
+            buffer.put(data, 0, Math.min(data.length, buffer.remaining()));
+            buffer.clear();
+            frame = getFrame(buffer, time);
+        } else {
+            onPoolExhausted(time);
+        }
+        if (mBufferCallback != null && data.length == getFrameBytes()) {
+            mBufferCallback.onBufferAvailable(data);
+        }
+        return frame;
+    }
+
+    @Override
+    protected void onFrameDataReleased(@NonNull ByteBuffer data, boolean recycled) {
+        // Buffers are not tied to frame instances, so we recycle them anyway,
+        // as long as they have the right size.
+        if (isSetUp() && data.capacity() == getFrameBytes()) {
+            data.clear();
+            mBufferQueue.offer(data);
+        }
+    }
+
+    @NonNull
+    @Override
+    protected ByteBuffer onCloneFrameData(@NonNull ByteBuffer data) {
+        return onCopyFrameData(data, allocate(data.capacity()));
+    }
+
+    @NonNull
+    @Override
+    protected ByteBuffer onCopyFrameData(@NonNull ByteBuffer data, @NonNull ByteBuffer target) {
+        if (target.capacity() != data.capacity()) return onCloneFrameData(data);
+        // Duplicate, so that we don't touch the source position.
+        ByteBuffer source = data.duplicate();
+        source.clear();
+        target.clear();
+        target.put(source);
+        target.clear();
+        return target;
+    }
+
+    /**
+     * Releases all frames controlled by this manager and
+     * clears the pool, including the direct buffers.
+     * Direct memory is freed when the buffers are garbage collected.
+     */
+    @Override
+    public void release() {
+        super.release();
+        mBufferQueue.clear();
+    }
+}
@@ -7,9 +7,18 @@ import com.otaliastudios.cameraview.controls.Engine;
 import com.otaliastudios.cameraview.size.Size;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A preview frame to be processed by {@link FrameProcessor}s.
+ *
+ * Frames are reference counted. A frame is created with a single reference, owned by
+ * whoever dispatches it to the processors. To hold the frame past the
+ * {@link FrameProcessor#process(Frame)} call, use {@link #retain()}, and call
+ * {@link #release()} when done. The frame contents go back to the {@link FrameManager}
+ * pool only when the last reference is released.
  */
 public class Frame {
 
@@ -26,6 +35,9 @@ public class Frame {
     private int mViewRotation = 0;
     private Size mSize = null;
     private int mFormat = -1;
+    private final AtomicInteger mReferences = new AtomicInteger(0);
+    private boolean mFrozen = false;
+    private FrozenFramePool mFrozenPool = null;
 
     Frame(@NonNull FrameManager manager) {
         mManager = manager;
@@ -41,6 +53,16 @@ public class Frame {
         mViewRotation = viewRotation;
         mSize = size;
         mFormat = format;
+        mReferences.set(1);
+    }
+
+    /**
+     * Marks this frame as frozen. The data will go back to the given pool on release,
+     * or to the garbage collector if the pool is null.
+     */
+    void setFrozenPool(@Nullable FrozenFramePool pool) {
+        mFrozen = true;
+        mFrozenPool = pool;
     }
 
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
@@ -69,26 +91,88 @@ public class Frame {
      * This can be kept or safely passed to other threads.
      * Using freeze without clearing with {@link #release()} can result in memory leaks.
      *
+     * Note that this copies the whole frame data, which can be expensive.
+     * In most cases, {@link #retain()} is a better option. The copy buffers are recycled
+     * when frozen frames are released, within the limits of the frozen frame budget:
+     * see {@link FrozenFramePolicy}.
+     *
      * @return a frozen Frame
+     * @throws IllegalStateException if the frozen frame budget is exhausted and the
+     *         policy is {@link FrozenFramePolicy#FAIL} or {@link FrozenFramePolicy#DROP}
      */
-    @SuppressLint("NewApi")
     @NonNull
     public Frame freeze() {
+        //noinspection ConstantConditions
+        return freeze(false);
+    }
+
+    /**
+     * Same as {@link #freeze()}, but returns null if the frozen frame budget is exhausted
+     * and the policy is {@link FrozenFramePolicy#DROP}.
+     *
+     * @return a frozen Frame, or null
+     */
+    @Nullable
+    public Frame tryFreeze() {
+        return freeze(true);
+    }
+
+    @SuppressLint("NewApi")
+    @Nullable
+    private Frame freeze(boolean canDrop) {
         ensureHasContent();
         Frame other = new Frame(mManager);
         //noinspection unchecked
-        Object data = mManager.cloneFrameData(getData());
+        Object data = mManager.freezeFrameData(getData(), other, canDrop);
+        if (data == null) return null;
         other.setContent(data, mTime, mUserRotation, mViewRotation, mSize, mFormat);
         return other;
     }
 
     /**
-     * Disposes the contents of this frame. Can be useful for frozen frames
-     * that are not useful anymore.
+     * Adds a reference to this frame, so that its contents are not released when
+     * the {@link FrameProcessor#process(Frame)} method returns. This can be used to hold
+     * the frame or pass it to other threads without copying its data, as opposed to
+     * {@link #freeze()}. Each call must be balanced by a {@link #release()} call.
+     *
+     * While a frame is retained, it is not available to the {@link FrameManager} pool,
+     * which means that the camera engine will drop new frames if all frames are retained.
+     * So frames should be released as soon as possible, and you might want to increase
+     * the frame processing pool size.
+     *
+     * @return this frame
+     */
+    @NonNull
+    public Frame retain() {
+        while (true) {
+            int references = mReferences.get();
+            if (references <= 0) {
+                LOG.e("Frame is dead! time:", mTime, "lastTime:", mLastTime);
+                throw new RuntimeException("You should not retain a released frame. " +
+                        "Frames can only be retained during the process() method, or while " +
+                        "another reference is held.");
+            }
+            if (mReferences.compareAndSet(references, references + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Releases a reference to this frame. When the last reference is released,
+     * the contents of this frame are disposed and it goes back to the pool.
+     * Can be useful for frozen or retained frames that are not useful anymore.
      */
     public void release() {
+        while (true) {
+            int references = mReferences.get();
+            if (references <= 0) return;
+            if (mReferences.compareAndSet(references, references - 1)) {
+                if (references > 1) return;
+                break;
+            }
+        }
         if (!hasContent()) return;
-        LOG.v("Frame with time", mTime, "is being released.");
         Object data = mData;
         mData = null;
         mUserRotation = 0;
@@ -96,6 +180,12 @@ public class Frame {
         mTime = -1;
         mSize = null;
         mFormat = -1;
+        if (mFrozen) {
+            // Frozen frames are not part of the manager pool. Only the buffer is recycled.
+            //noinspection unchecked
+            if (mFrozenPool != null) mFrozenPool.recycle(data);
+            return;
+        }
         // After the manager is notified, this frame instance can be taken by
         // someone else, possibly from another thread. So this should be the
         // last call in this method. If we null data after, we can have issues.
@@ -0,0 +1,114 @@
+package com.otaliastudios.cameraview.frame;
+
+import com.otaliastudios.cameraview.CameraView;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Controls what happens when a {@link FrameProcessor} is slower than the camera,
+ * that is, when a new frame arrives while the processor is still busy.
+ *
+ * A processor registered with a backpressure policy through
+ * {@link CameraView#addFrameProcessor(FrameProcessor, FrameBackpressure)} runs in its own
+ * background task, independently from other processors. Frames that are waiting to be
+ * processed are retained, so they count against the frame processing pool size: whatever
+ * the policy, memory stays bounded.
+ */
+public final class FrameBackpressure {
+
+    final static int TYPE_LATEST_ONLY = 0;
+    final static int TYPE_DROP_NEWEST = 1;
+    final static int TYPE_BOUNDED_QUEUE = 2;
+    final static int TYPE_BLOCK_CAMERA = 3;
+
+    /**
+     * Keeps at most one frame waiting. When a new frame arrives, it replaces the waiting one,
+     * which is dropped. This way the processor always receives the freshest frame.
+     */
+    public final static FrameBackpressure LATEST_ONLY
+            = new FrameBackpressure(TYPE_LATEST_ONLY, 1);
+
+    /**
+     * Keeps no frame waiting. Frames that arrive while the processor is busy are dropped.
+     * This is the behavior of processors in parallel mode.
+     */
+    public final static FrameBackpressure DROP_NEWEST
+            = new FrameBackpressure(TYPE_DROP_NEWEST, 1);
+
+    /**
+     * Keeps at most one frame waiting. When a new frame arrives and there's already
+     * a frame waiting, the camera thread is blocked until the processor is done.
+     * This slows down the camera stream to the processor speed, so it should be used
+     * with care: the camera thread will be blocked for at most
+     * {@link #BLOCK_CAMERA_TIMEOUT_MILLIS}, after which the frame is dropped.
+     */
+    public final static FrameBackpressure BLOCK_CAMERA
+            = new FrameBackpressure(TYPE_BLOCK_CAMERA, 1);
+
+    /**
+     * The max time that {@link #BLOCK_CAMERA} will block the camera thread for.
+     */
+    public final static long BLOCK_CAMERA_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * Keeps at most the given number of frames waiting, processing them in order.
+     * When a new frame arrives and the queue is full, the new frame is dropped.
+     *
+     * Since waiting frames are taken from the frame processing pool, the pool size
+     * should be increased to make room for them.
+     *
+     * @param capacity the max number of waiting frames
+     * @return a backpressure policy
+     */
+    @NonNull
+    public static FrameBackpressure boundedQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Queue capacity should be at least 1, got "
+                    + capacity);
+        }
+        return new FrameBackpressure(TYPE_BOUNDED_QUEUE, capacity);
+    }
+
+    private final int mType;
+    private final int mCapacity;
+
+    private FrameBackpressure(int type, int capacity) {
+        mType = type;
+        mCapacity = capacity;
+    }
+
+    int getType() {
+        return mType;
+    }
+
+    /**
+     * Returns the max number of frames that can be waiting for the processor.
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return mType == TYPE_DROP_NEWEST ? 0 : mCapacity;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof FrameBackpressure
+                && ((FrameBackpressure) obj).mType == mType
+                && ((FrameBackpressure) obj).mCapacity == mCapacity;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mType + mCapacity;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        switch (mType) {
+            case TYPE_LATEST_ONLY: return "LATEST_ONLY";
+            case TYPE_DROP_NEWEST: return "DROP_NEWEST";
+            case TYPE_BLOCK_CAMERA: return "BLOCK_CAMERA";
+            default: return "BOUNDED_QUEUE(" + mCapacity + ")";
+        }
+    }
+}
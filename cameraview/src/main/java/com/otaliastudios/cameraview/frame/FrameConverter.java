@@ -0,0 +1,680 @@
+package com.otaliastudios.cameraview.frame;
+
+import android.annotation.TargetApi;
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Converts the YUV contents of a {@link Frame} to RGB or grayscale pixels, writing them
+ * into caller-provided arrays or {@link ByteBuffer}s that can be reused for every frame.
+ *
+ * Both {@link ImageFormat#NV21} byte arrays or direct buffers (Camera1) and
+ * {@link ImageFormat#YUV_420_888} {@link Image}s (Camera2) are supported. The conversion can also:
+ * - crop a region of the frame, with {@link #setCrop(int, int, int, int)}
+ * - scale it to a different size, with {@link #setOutputSize(int, int)}
+ * - rotate it, with {@link #setRotation(int)}, typically to {@link Frame#getRotationToUser()}
+ *
+ * Scaling uses nearest neighbor sampling. With the default configuration, the conversion is
+ * a plain copy of the frame, and {@link #toGray(Frame, byte[])} extracts the Y plane.
+ *
+ * After the first frame, conversions do not allocate, unless the output size grows.
+ * For big frames, the work can be split into horizontal stripes that run in parallel
+ * on an executor, using {@link #setParallelism(Executor, int, int)}. This is disabled
+ * by default.
+ *
+ * This class is not thread safe: each thread should use its own instance,
+ * for example one for each {@link FrameProcessor}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class FrameConverter {
+
+    private final static int OUTPUT_ARGB = 0;
+    private final static int OUTPUT_RGB = 1;
+    private final static int OUTPUT_GRAY = 2;
+
+    // Configuration
+    private int mCropLeft = 0;
+    private int mCropTop = 0;
+    private int mCropWidth = -1;
+    private int mCropHeight = -1;
+    private int mOutputWidth = -1;
+    private int mOutputHeight = -1;
+    private int mRotation = 0;
+    private Executor mExecutor = null;
+    private int mMinStripeRows = 1;
+
+    // Source planes. For NV21, they all point to the same array.
+    private byte[] mSourceArray;
+    private ByteBuffer mYBuffer;
+    private ByteBuffer mUBuffer;
+    private ByteBuffer mVBuffer;
+    private int mYOffset;
+    private int mUOffset;
+    private int mVOffset;
+    private int mYRowStride;
+    private int mYPixelStride;
+    private int mUVRowStride;
+    private int mUVPixelStride;
+
+    // Lookup tables from (pre-rotation) output coordinates to source indices.
+    private int[] mYRows = new int[0];
+    private int[] mYCols = new int[0];
+    private int[] mURows = new int[0];
+    private int[] mVRows = new int[0];
+    private int[] mUVCols = new int[0];
+
+    // Current conversion
+    private int mOutput;
+    private int mWidth; // after rotation
+    private int mHeight; // after rotation
+    private int mScaledWidth; // before rotation
+    private int mScaledHeight; // before rotation
+    private int[] mIntTarget;
+    private byte[] mByteTarget;
+    private ByteBuffer mBufferTarget;
+    private boolean mCopyRows;
+
+    // Parallelism. The first stripe runs on the calling thread.
+    private Stripe[] mStripes = new Stripe[] { new Stripe() };
+    private final Object mLock = new Object();
+    private int mPendingStripes;
+    private RuntimeException mStripeError;
+
+    /**
+     * Sets the region of the frame to be converted, in the frame coordinates,
+     * before any rotation is applied. The region must lie inside the frame.
+     *
+     * @param left the region left edge
+     * @param top the region top edge
+     * @param width the region width
+     * @param height the region height
+     */
+    public void setCrop(int left, int top, int width, int height) {
+        if (left < 0 || top < 0 || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid crop region: " + left + ", " + top
+                    + ", " + width + "x" + height);
+        }
+        mCropLeft = left;
+        mCropTop = top;
+        mCropWidth = width;
+        mCropHeight = height;
+    }
+
+    /**
+     * Removes the crop region set with {@link #setCrop(int, int, int, int)},
+     * so that the whole frame is converted.
+     */
+    public void clearCrop() {
+        mCropLeft = 0;
+        mCropTop = 0;
+        mCropWidth = -1;
+        mCropHeight = -1;
+    }
+
+    /**
+     * Sets the output size, after rotation is applied. The (cropped) frame
+     * will be scaled to this size. Pass -1 to keep the original size.
+     *
+     * @param width the output width
+     * @param height the output height
+     */
+    public void setOutputSize(int width, int height) {
+        if ((width <= 0 || height <= 0) && (width != -1 || height != -1)) {
+            throw new IllegalArgumentException("Invalid output size: " + width + "x" + height);
+        }
+        mOutputWidth = width;
+        mOutputHeight = height;
+    }
+
+    /**
+     * Sets the clockwise rotation to be applied to the frame.
+     * To see what the user sees, use {@link Frame#getRotationToUser()}.
+     *
+     * @param rotation one of 0, 90, 180 or 270
+     */
+    public void setRotation(int rotation) {
+        if (rotation % 90 != 0 || rotation < 0 || rotation > 270) {
+            throw new IllegalArgumentException("0 <= rotation < 360, rotation % 90 == 0");
+        }
+        mRotation = rotation;
+    }
+
+    /**
+     * Splits each conversion into horizontal stripes, that run in parallel: one
+     * on the calling thread, and the others on the given executor. Frames that are
+     * too small to give each stripe at least minRows output rows use fewer stripes,
+     * or run on the calling thread only, where the executor overhead is not worth it.
+     * The conversion returns when all stripes are done.
+     *
+     * The executor should have at least stripes - 1 threads, and should not be
+     * the one that runs the conversion.
+     *
+     * @param executor the executor, or null to run on the calling thread only
+     * @param stripes the max number of stripes, for example the number of cores
+     * @param minRows the min number of output rows in each stripe, for example 64
+     */
+    public void setParallelism(@Nullable Executor executor, int stripes, int minRows) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Stripes should be at least 1, got " + stripes);
+        }
+        if (minRows < 1) {
+            throw new IllegalArgumentException("Rows should be at least 1, got " + minRows);
+        }
+        mExecutor = executor;
+        mMinStripeRows = minRows;
+        int count = executor == null ? 1 : stripes;
+        if (mStripes.length != count) {
+            Stripe[] old = mStripes;
+            mStripes = new Stripe[count];
+            for (int i = 0; i < count; i++) {
+                // Keep the row buffers of existing stripes.
+                mStripes[i] = i < old.length ? old[i] : new Stripe();
+            }
+        }
+    }
+
+    /**
+     * Returns the width of the output for the given frame,
+     * taking crop, output size and rotation into account.
+     *
+     * @param frame a frame
+     * @return the output width
+     */
+    public int getOutputWidth(@NonNull Frame frame) {
+        if (mOutputWidth > 0) return mOutputWidth;
+        return mRotation % 180 == 0 ? getCropWidth(frame) : getCropHeight(frame);
+    }
+
+    /**
+     * Returns the height of the output for the given frame,
+     * taking crop, output size and rotation into account.
+     *
+     * @param frame a frame
+     * @return the output height
+     */
+    public int getOutputHeight(@NonNull Frame frame) {
+        if (mOutputHeight > 0) return mOutputHeight;
+        return mRotation % 180 == 0 ? getCropHeight(frame) : getCropWidth(frame);
+    }
+
+    /**
+     * Converts the frame to ARGB_8888 pixels, that can be passed to
+     * {@link android.graphics.Bitmap#setPixels(int[], int, int, int, int, int, int)}.
+     *
+     * @param frame the frame
+     * @param target an array of at least width * height ints
+     */
+    public void toArgb(@NonNull Frame frame, @NonNull int[] target) {
+        prepare(frame, OUTPUT_ARGB, target.length);
+        mIntTarget = target;
+        run();
+    }
+
+    /**
+     * Converts the frame to RGB pixels, three bytes per pixel.
+     *
+     * @param frame the frame
+     * @param target an array of at least width * height * 3 bytes
+     */
+    public void toRgb(@NonNull Frame frame, @NonNull byte[] target) {
+        prepare(frame, OUTPUT_RGB, target.length);
+        mByteTarget = target;
+        run();
+    }
+
+    /**
+     * Converts the frame to RGB pixels, three bytes per pixel, starting at index 0
+     * of the given buffer. The buffer position is not changed. Direct buffers can be
+     * passed to native code or to machine learning frameworks without copies.
+     *
+     * @param frame the frame
+     * @param target a buffer with a capacity of at least width * height * 3 bytes
+     */
+    public void toRgb(@NonNull Frame frame, @NonNull ByteBuffer target) {
+        prepare(frame, OUTPUT_RGB, target.capacity());
+        mBufferTarget = target;
+        run();
+    }
+
+    /**
+     * Converts the frame to grayscale pixels, one byte per pixel.
+     * This uses the frame Y plane, so it's much cheaper than RGB conversions.
+     *
+     * @param frame the frame
+     * @param target an array of at least width * height bytes
+     */
+    public void toGray(@NonNull Frame frame, @NonNull byte[] target) {
+        prepare(frame, OUTPUT_GRAY, target.length);
+        mByteTarget = target;
+        run();
+    }
+
+    /**
+     * Converts the frame to grayscale pixels, one byte per pixel, starting at index 0
+     * of the given buffer. The buffer position is not changed.
+     *
+     * @param frame the frame
+     * @param target a buffer with a capacity of at least width * height bytes
+     */
+    public void toGray(@NonNull Frame frame, @NonNull ByteBuffer target) {
+        prepare(frame, OUTPUT_GRAY, target.capacity());
+        mBufferTarget = target;
+        run();
+    }
+
+    private int getCropWidth(@NonNull Frame frame) {
+        return mCropWidth > 0 ? mCropWidth : frame.getSize().getWidth();
+    }
+
+    private int getCropHeight(@NonNull Frame frame) {
+        return mCropHeight > 0 ? mCropHeight : frame.getSize().getHeight();
+    }
+
+    private void prepare(@NonNull Frame frame, int output, int targetSize) {
+        int frameWidth = frame.getSize().getWidth();
+        int frameHeight = frame.getSize().getHeight();
+        int cropWidth = getCropWidth(frame);
+        int cropHeight = getCropHeight(frame);
+        if (mCropLeft + cropWidth > frameWidth || mCropTop + cropHeight > frameHeight) {
+            throw new IllegalArgumentException("Crop region exceeds the frame size: "
+                    + frame.getSize());
+        }
+        mOutput = output;
+        mWidth = getOutputWidth(frame);
+        mHeight = getOutputHeight(frame);
+        boolean swap = mRotation % 180 != 0;
+        mScaledWidth = swap ? mHeight : mWidth;
+        mScaledHeight = swap ? mWidth : mHeight;
+        int required = mWidth * mHeight * (output == OUTPUT_RGB ? 3 : 1);
+        if (targetSize < required) {
+            throw new IllegalArgumentException("Target is too small. Required: " + required
+                    + ", got: " + targetSize);
+        }
+        mIntTarget = null;
+        mByteTarget = null;
+        mBufferTarget = null;
+
+        // Collect the source planes. YUV_420_888 is only used by Camera2,
+        // so we can't get there on older devices.
+        Object data = frame.getData();
+        if (frame.getFormat() == ImageFormat.NV21 && data instanceof byte[]) {
+            setSource((byte[]) data, frameWidth, frameHeight);
+        } else if (frame.getFormat() == ImageFormat.NV21 && data instanceof ByteBuffer) {
+            setSource((ByteBuffer) data, frameWidth, frameHeight);
+        } else if (frame.getFormat() == ImageFormat.YUV_420_888) {
+            setSource(frame.<Image>getData());
+        } else {
+            throw new IllegalArgumentException("Unsupported frame format: " + frame.getFormat()
+                    + ", data: " + frame.getDataClass().getSimpleName());
+        }
+        mCopyRows = mSourceArray != null && mRotation == 0
+                && mYPixelStride == 1 && mScaledWidth == cropWidth;
+
+        // Fill the lookup tables.
+        if (mYCols.length < mScaledWidth) {
+            mYCols = new int[mScaledWidth];
+            mUVCols = new int[mScaledWidth];
+        }
+        if (mYRows.length < mScaledHeight) {
+            mYRows = new int[mScaledHeight];
+            mURows = new int[mScaledHeight];
+            mVRows = new int[mScaledHeight];
+        }
+        for (int x = 0; x < mScaledWidth; x++) {
+            int sourceX = mCropLeft + (int) ((long) x * cropWidth / mScaledWidth);
+            mYCols[x] = sourceX * mYPixelStride;
+            mUVCols[x] = (sourceX >> 1) * mUVPixelStride;
+        }
+        for (int y = 0; y < mScaledHeight; y++) {
+            int sourceY = mCropTop + (int) ((long) y * cropHeight / mScaledHeight);
+            mYRows[y] = mYOffset + sourceY * mYRowStride;
+            mURows[y] = mUOffset + (sourceY >> 1) * mUVRowStride;
+            mVRows[y] = mVOffset + (sourceY >> 1) * mUVRowStride;
+        }
+    }
+
+    private void setSource(@NonNull byte[] nv21, int width, int height) {
+        mSourceArray = nv21;
+        mYBuffer = null;
+        mUBuffer = null;
+        mVBuffer = null;
+        setNv21Layout(width, height);
+    }
+
+    private void setSource(@NonNull ByteBuffer nv21, int width, int height) {
+        mSourceArray = null;
+        mYBuffer = nv21;
+        mUBuffer = nv21;
+        mVBuffer = nv21;
+        setNv21Layout(width, height);
+    }
+
+    private void setNv21Layout(int width, int height) {
+        mYOffset = 0;
+        mYRowStride = width;
+        mYPixelStride = 1;
+        // VUVU... after the Y plane
+        mVOffset = width * height;
+        mUOffset = mVOffset + 1;
+        mUVRowStride = width;
+        mUVPixelStride = 2;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void setSource(@NonNull Image image) {
+        Image.Plane[] planes = image.getPlanes();
+        mSourceArray = null;
+        mYBuffer = planes[0].getBuffer();
+        mUBuffer = planes[1].getBuffer();
+        mVBuffer = planes[2].getBuffer();
+        mYOffset = 0;
+        mUOffset = 0;
+        mVOffset = 0;
+        mYRowStride = planes[0].getRowStride();
+        mYPixelStride = planes[0].getPixelStride();
+        mUVRowStride = planes[1].getRowStride();
+        mUVPixelStride = planes[1].getPixelStride();
+    }
+
+    private void run() {
+        int stripes = Math.min(mStripes.length, mHeight / mMinStripeRows);
+        try {
+            if (stripes <= 1) {
+                mStripes[0].convert(0, mHeight);
+            } else {
+                runStripes(stripes);
+            }
+        } finally {
+            release();
+        }
+    }
+
+    private void runStripes(int stripes) {
+        synchronized (mLock) {
+            mPendingStripes = stripes - 1;
+            mStripeError = null;
+        }
+        int next = 1;
+        try {
+            for (; next < stripes; next++) {
+                Stripe stripe = mStripes[next];
+                stripe.mFrom = next * mHeight / stripes;
+                stripe.mTo = (next + 1) * mHeight / stripes;
+                try {
+                    mExecutor.execute(stripe);
+                } catch (RejectedExecutionException e) {
+                    stripe.run();
+                }
+            }
+            mStripes[0].convert(0, mHeight / stripes);
+        } finally {
+            if (next < stripes) {
+                // The executor threw: these stripes will never run.
+                synchronized (mLock) {
+                    mPendingStripes -= stripes - next;
+                }
+            }
+            // Even if this thread failed, the other stripes are still writing into the
+            // target, which the caller might reuse as soon as we return.
+            awaitStripes();
+        }
+        RuntimeException error;
+        synchronized (mLock) {
+            error = mStripeError;
+            mStripeError = null;
+        }
+        if (error != null) throw error;
+    }
+
+    private void awaitStripes() {
+        boolean interrupted = false;
+        synchronized (mLock) {
+            while (mPendingStripes > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void release() {
+        // Do not hold references to frame contents or targets.
+        mSourceArray = null;
+        mYBuffer = null;
+        mUBuffer = null;
+        mVBuffer = null;
+        mIntTarget = null;
+        mByteTarget = null;
+        mBufferTarget = null;
+    }
+
+    /**
+     * Converts a range of output rows. Each stripe has its own row buffers, for when
+     * the output can't be written directly to the target.
+     */
+    private class Stripe implements Runnable {
+        private int mFrom;
+        private int mTo;
+        private int[] mIntRow = new int[0];
+        private byte[] mByteRow = new byte[0];
+
+        @Override
+        public void run() {
+            try {
+                convert(mFrom, mTo);
+            } catch (RuntimeException e) {
+                synchronized (mLock) {
+                    if (mStripeError == null) mStripeError = e;
+                }
+            } finally {
+                synchronized (mLock) {
+                    mPendingStripes--;
+                    mLock.notifyAll();
+                }
+            }
+        }
+
+        private void convert(int from, int to) {
+            if (mOutput == OUTPUT_GRAY) {
+                convertGray(from, to);
+            } else {
+                convertArgb(from, to);
+            }
+        }
+
+        private void convertGray(int from, int to) {
+            if (mByteTarget == null && mByteRow.length < mWidth) {
+                mByteRow = new byte[mWidth];
+            }
+            for (int row = from; row < to; row++) {
+                if (mByteTarget != null) {
+                    convertGrayRow(row, mByteTarget, row * mWidth);
+                } else {
+                    convertGrayRow(row, mByteRow, 0);
+                    int offset = row * mWidth;
+                    for (int i = 0; i < mWidth; i++) {
+                        mBufferTarget.put(offset + i, mByteRow[i]);
+                    }
+                }
+            }
+        }
+
+        private void convertArgb(int from, int to) {
+            if (mIntTarget == null && mIntRow.length < mWidth) {
+                mIntRow = new int[mWidth];
+            }
+            for (int row = from; row < to; row++) {
+                if (mIntTarget != null) {
+                    convertArgbRow(row, mIntTarget, row * mWidth);
+                } else {
+                    convertArgbRow(row, mIntRow, 0);
+                    int offset = row * mWidth * 3;
+                    for (int i = 0; i < mWidth; i++) {
+                        int argb = mIntRow[i];
+                        byte r = (byte) (argb >> 16);
+                        byte g = (byte) (argb >> 8);
+                        byte b = (byte) argb;
+                        if (mByteTarget != null) {
+                            mByteTarget[offset++] = r;
+                            mByteTarget[offset++] = g;
+                            mByteTarget[offset++] = b;
+                        } else {
+                            mBufferTarget.put(offset++, r);
+                            mBufferTarget.put(offset++, g);
+                            mBufferTarget.put(offset++, b);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // The output pixel (x, row) comes from the pre-rotation pixel (x0 + dx * x, y0 + dy * x).
+    // These helpers return x0, y0, dx and dy for a given output row.
+
+    private int getX0(int row) {
+        switch (mRotation) {
+            case 90: return row;
+            case 180: return mScaledWidth - 1;
+            case 270: return mScaledWidth - 1 - row;
+            default: return 0;
+        }
+    }
+
+    private int getY0(int row) {
+        switch (mRotation) {
+            case 90: return mScaledHeight - 1;
+            case 180: return mScaledHeight - 1 - row;
+            case 270: return 0;
+            default: return row;
+        }
+    }
+
+    private int getDx() {
+        switch (mRotation) {
+            case 180: return -1;
+            case 0: return 1;
+            default: return 0;
+        }
+    }
+
+    private int getDy() {
+        switch (mRotation) {
+            case 90: return -1;
+            case 270: return 1;
+            default: return 0;
+        }
+    }
+
+    private void convertGrayRow(int row, @NonNull byte[] target, int offset) {
+        int x = getX0(row), y = getY0(row), dx = getDx(), dy = getDy();
+        int[] yCols = mYCols, yRows = mYRows;
+        byte[] array = mSourceArray;
+        if (mCopyRows) {
+            // Plain copy of a row of the Y plane.
+            System.arraycopy(array, yRows[y] + yCols[0], target, offset, mWidth);
+            return;
+        }
+        ByteBuffer buffer = mYBuffer;
+        for (int i = 0; i < mWidth; i++) {
+            int index = yRows[y] + yCols[x];
+            target[offset + i] = array != null ? array[index] : buffer.get(index);
+            x += dx;
+            y += dy;
+        }
+    }
+
+    private void convertArgbRow(int row, @NonNull int[] target, int offset) {
+        int x = getX0(row), y = getY0(row), dx = getDx(), dy = getDy();
+        int width = mWidth;
+        byte[] array = mSourceArray;
+        if (mCopyRows) {
+            // Unscaled NV21 row: two pixels share the same VU pair, so read it once.
+            int yIndex = mYRows[y] + mYCols[0];
+            int vIndex = mVRows[y] + (mCropLeft & ~1);
+            int end = offset + width;
+            if ((mCropLeft & 1) != 0) {
+                // The first pixel shares the VU pair with the column on its left.
+                target[offset++] = yuvToArgb(array[yIndex++] & 0xFF,
+                        array[vIndex + 1] & 0xFF, array[vIndex] & 0xFF);
+                vIndex += 2;
+            }
+            for (; offset + 1 < end; offset += 2, yIndex += 2, vIndex += 2) {
+                int v = array[vIndex] & 0xFF;
+                int u = array[vIndex + 1] & 0xFF;
+                target[offset] = yuvToArgb(array[yIndex] & 0xFF, u, v);
+                target[offset + 1] = yuvToArgb(array[yIndex + 1] & 0xFF, u, v);
+            }
+            if (offset < end) {
+                target[offset] = yuvToArgb(array[yIndex] & 0xFF,
+                        array[vIndex + 1] & 0xFF, array[vIndex] & 0xFF);
+            }
+        } else if (dy == 0) {
+            // Rotation is 0 or 180, so the source row is the same for all pixels.
+            int yBase = mYRows[y], uBase = mURows[y], vBase = mVRows[y];
+            int[] yCols = mYCols, uvCols = mUVCols;
+            if (array != null) {
+                for (int i = 0; i < width; i++, x += dx) {
+                    int uvCol = uvCols[x];
+                    target[offset + i] = yuvToArgb(array[yBase + yCols[x]] & 0xFF,
+                            array[uBase + uvCol] & 0xFF,
+                            array[vBase + uvCol] & 0xFF);
+                }
+            } else {
+                ByteBuffer yBuffer = mYBuffer, uBuffer = mUBuffer, vBuffer = mVBuffer;
+                for (int i = 0; i < width; i++, x += dx) {
+                    int uvCol = uvCols[x];
+                    target[offset + i] = yuvToArgb(yBuffer.get(yBase + yCols[x]) & 0xFF,
+                            uBuffer.get(uBase + uvCol) & 0xFF,
+                            vBuffer.get(vBase + uvCol) & 0xFF);
+                }
+            }
+        } else {
+            // Rotation is 90 or 270, so the source column is the same for all pixels.
+            int yCol = mYCols[x], uvCol = mUVCols[x];
+            int[] yRows = mYRows, uRows = mURows, vRows = mVRows;
+            if (array != null) {
+                for (int i = 0; i < width; i++, y += dy) {
+                    target[offset + i] = yuvToArgb(array[yRows[y] + yCol] & 0xFF,
+                            array[uRows[y] + uvCol] & 0xFF,
+                            array[vRows[y] + uvCol] & 0xFF);
+                }
+            } else {
+                ByteBuffer yBuffer = mYBuffer, uBuffer = mUBuffer, vBuffer = mVBuffer;
+                for (int i = 0; i < width; i++, y += dy) {
+                    target[offset + i] = yuvToArgb(yBuffer.get(yRows[y] + yCol) & 0xFF,
+                            uBuffer.get(uRows[y] + uvCol) & 0xFF,
+                            vBuffer.get(vRows[y] + uvCol) & 0xFF);
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a BT.601 YUV pixel to ARGB, using fixed point arithmetic.
+     */
+    static int yuvToArgb(int y, int u, int v) {
+        y = Math.max(0, y - 16) * 1192;
+        u -= 128;
+        v -= 128;
+        int r = y + 1634 * v;
+        int g = y - 833 * v - 400 * u;
+        int b = y + 2066 * u;
+        // Math.min and max are intrinsics that compile to branchless code.
+        r = Math.max(0, Math.min(262143, r));
+        g = Math.max(0, Math.min(262143, g));
+        b = Math.max(0, Math.min(262143, b));
+        return 0xFF000000 | ((r << 6) & 0xFF0000) | ((g >> 2) & 0xFF00) | ((b >> 10) & 0xFF);
+    }
+}
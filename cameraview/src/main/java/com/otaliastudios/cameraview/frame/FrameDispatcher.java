@@ -0,0 +1,425 @@
+package com.otaliastudios.cameraview.frame;
+
+import com.otaliastudios.cameraview.CameraLogger;
+import com.otaliastudios.cameraview.CameraView;
+import com.otaliastudios.cameraview.internal.RingBuffer;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Dispatches {@link Frame}s coming from the engine to a list of {@link FrameProcessor}s,
+ * running them on the frame processing {@link Executor}. This is used by {@link CameraView}.
+ *
+ * We can work in two modes:
+ *
+ * 1. Sequential (default): a single task runs all processors one after another, then
+ *    releases the frame. A slow processor will delay the others.
+ *
+ * 2. Parallel: each processor runs in its own task, so processors can run at the same time
+ *    on different executor threads. Each task holds a {@link Frame#retain()} reference, so
+ *    the frame is released when the last processor returns.
+ *    Each processor can have at most one frame in flight: if it is still busy with a previous
+ *    frame, it will skip the new one. This ensures that a slow processor does not fill the
+ *    executor queue and starve the others.
+ *
+ * In both modes, processors that were registered with a {@link FrameBackpressure} policy
+ * run in their own task, and the policy decides what to do with frames that arrive while
+ * they are busy. Parallel mode is the same as using {@link FrameBackpressure#DROP_NEWEST}
+ * for all the other processors.
+ *
+ * Processors can also be registered with a {@link FrameSampling} policy, in which case they
+ * also run in their own task. Sampling is checked here, on the dispatching thread, so
+ * frames that no processor needs are released right away, without any thread hop.
+ *
+ * Dispatching, dropped frames and processor latency are recorded into a
+ * {@link FrameMetricsRecorder}.
+ */
+public class FrameDispatcher {
+
+    private final static String TAG = FrameDispatcher.class.getSimpleName();
+    private final static CameraLogger LOG = CameraLogger.create(TAG);
+
+    private final List<FrameProcessor> mProcessors;
+    private final FrameMetricsRecorder mMetrics;
+    private final ConcurrentHashMap<FrameProcessor, Lane> mLanes
+            = new ConcurrentHashMap<>();
+    private volatile Executor mExecutor;
+    private volatile boolean mParallel;
+
+    /**
+     * Creates a new dispatcher. The processors list is not copied, so it should
+     * be safe for iteration from multiple threads.
+     *
+     * @param processors the processors
+     */
+    public FrameDispatcher(@NonNull List<FrameProcessor> processors) {
+        this(processors, new FrameMetricsRecorder());
+    }
+
+    /**
+     * Creates a new dispatcher that records metrics into the given recorder.
+     * The processors list is not copied, so it should be safe for iteration
+     * from multiple threads.
+     *
+     * @param processors the processors
+     * @param metrics the metrics recorder
+     */
+    public FrameDispatcher(@NonNull List<FrameProcessor> processors,
+                           @NonNull FrameMetricsRecorder metrics) {
+        mProcessors = processors;
+        mMetrics = metrics;
+    }
+
+    /**
+     * Returns the recorder that collects metrics for this dispatcher.
+     * @return the metrics recorder
+     */
+    @NonNull
+    public FrameMetricsRecorder getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Sets the executor that will run the processors.
+     * @param executor an executor
+     */
+    public void setExecutor(@NonNull Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Whether processors should run in parallel, each one in its own task.
+     * @param parallel true for parallel dispatching
+     */
+    public void setParallel(boolean parallel) {
+        mParallel = parallel;
+    }
+
+    /**
+     * Returns true if processors run in parallel.
+     * @see #setParallel(boolean)
+     * @return true if parallel
+     */
+    public boolean isParallel() {
+        return mParallel;
+    }
+
+    /**
+     * Should be called when a processor is added to the list with a backpressure policy,
+     * so that it runs in its own task regardless of the dispatching mode.
+     *
+     * @param processor the added processor
+     * @param backpressure the backpressure policy
+     */
+    public void onProcessorAdded(@NonNull FrameProcessor processor,
+                                 @NonNull FrameBackpressure backpressure) {
+        onProcessorAdded(processor, null, backpressure);
+    }
+
+    /**
+     * Should be called when a processor is added to the list with a sampling
+     * and a backpressure policy, so that it runs in its own task regardless of the
+     * dispatching mode, and only receives the sampled frames.
+     *
+     * @param processor the added processor
+     * @param sampling the sampling policy
+     * @param backpressure the backpressure policy
+     */
+    public void onProcessorAdded(@NonNull FrameProcessor processor,
+                                 @Nullable FrameSampling sampling,
+                                 @NonNull FrameBackpressure backpressure) {
+        Lane old = mLanes.put(processor, new Lane(processor, sampling, backpressure, true));
+        if (old != null) old.drain();
+    }
+
+    /**
+     * Should be called when a processor is removed from the list,
+     * so that we can release its resources.
+     * @param processor the removed processor
+     */
+    public void onProcessorRemoved(@NonNull FrameProcessor processor) {
+        Lane old = mLanes.remove(processor);
+        if (old != null) old.drain();
+        mMetrics.onProcessorRemoved(processor);
+    }
+
+    /**
+     * Should be called when the processors list is cleared,
+     * so that we can release all resources.
+     */
+    public void onProcessorsCleared() {
+        for (Lane lane : mLanes.values()) {
+            lane.drain();
+        }
+        mLanes.clear();
+        mMetrics.onProcessorsCleared();
+    }
+
+    /**
+     * Returns the backpressure policy that applies to the given processor,
+     * or null if it runs together with the others in sequential mode.
+     *
+     * @param processor a processor
+     * @return the policy or null
+     */
+    @Nullable
+    public FrameBackpressure getBackpressure(@NonNull FrameProcessor processor) {
+        Lane lane = mLanes.get(processor);
+        if (lane != null && lane.mExplicit) return lane.mBackpressure;
+        return mParallel ? FrameBackpressure.DROP_NEWEST : null;
+    }
+
+    /**
+     * Dispatches the given frame to the processors. The frame
+     * will be released when all of them are done with it.
+     *
+     * @param frame the frame
+     */
+    public void dispatch(@NonNull final Frame frame) {
+        // The getTime() below might crash if developers incorrectly release
+        // frames asynchronously.
+        LOG.v("dispatch:", frame.getTime(), "processors:", mProcessors.size());
+        mMetrics.onFrameDispatched();
+        // We hold the original reference while dispatching, so that processors
+        // that return very quickly can't release the frame before we're done.
+        boolean parallel = mParallel;
+        boolean sequential = false;
+        for (FrameProcessor processor : mProcessors) {
+            Lane lane = getLane(processor, parallel);
+            if (lane != null) {
+                lane.dispatch(frame);
+            } else {
+                sequential = true;
+            }
+        }
+        if (sequential) {
+            dispatchSequential(frame.retain());
+        }
+        frame.release();
+    }
+
+    private void dispatchSequential(@NonNull final Frame frame) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                LOG.v("dispatch: executing. Passing", frame.getTime(), "to processors.");
+                for (FrameProcessor processor : mProcessors) {
+                    Lane lane = mLanes.get(processor);
+                    if (lane != null && lane.mExplicit) continue;
+                    process(processor, mMetrics.getProcessor(processor), frame);
+                }
+                frame.release();
+            }
+        });
+    }
+
+    private void process(@NonNull FrameProcessor processor,
+                         @NonNull FrameMetricsRecorder.ProcessorRecorder metrics,
+                         @NonNull Frame frame) {
+        boolean failed = false;
+        long start = System.nanoTime();
+        try {
+            processor.process(frame);
+        } catch (Exception e) {
+            LOG.w("Frame processor crashed:", e);
+            failed = true;
+        }
+        mMetrics.onFrameProcessed(metrics, System.nanoTime() - start, failed);
+    }
+
+    @Nullable
+    private Lane getLane(@NonNull FrameProcessor processor, boolean parallel) {
+        Lane lane = mLanes.get(processor);
+        if (lane != null && (lane.mExplicit || parallel)) return lane;
+        if (!parallel) return null;
+        lane = new Lane(processor, null, FrameBackpressure.DROP_NEWEST, false);
+        Lane other = mLanes.putIfAbsent(processor, lane);
+        return other != null ? other : lane;
+    }
+
+    /**
+     * A reusable task that runs a single processor, together with the frames that are
+     * waiting for it. The lane is scheduled on the executor only when it is not running
+     * already, so each processor occupies at most one executor thread and one executor
+     * queue slot. Waiting frames are held in a bounded {@link RingBuffer} whose capacity
+     * depends on the {@link FrameBackpressure} policy.
+     *
+     * The {@link FrameSampling} state is only accessed by the dispatching thread.
+     */
+    private class Lane implements Runnable {
+        private final FrameProcessor mProcessor;
+        private final FrameSampling mSampling;
+        private final FrameBackpressure mBackpressure;
+        private final FrameMetricsRecorder.ProcessorRecorder mProcessorMetrics;
+        private final boolean mExplicit;
+        private final AtomicBoolean mBusy = new AtomicBoolean(false);
+        private final RingBuffer<Frame> mPending;
+        private final Object mLock = new Object();
+        private long mSamplingCount = 0;
+        private long mSamplingNextTime = -1;
+
+        private Lane(@NonNull FrameProcessor processor,
+                     @Nullable FrameSampling sampling,
+                     @NonNull FrameBackpressure backpressure,
+                     boolean explicit) {
+            mProcessor = processor;
+            mSampling = sampling;
+            mBackpressure = backpressure;
+            mExplicit = explicit;
+            mProcessorMetrics = mMetrics.getProcessor(processor);
+            mPending = new RingBuffer<>(Math.max(1, backpressure.getCapacity()));
+        }
+
+        /**
+         * Called by the dispatching thread. Checks the sampling policy,
+         * then offers the frame to the lane.
+         */
+        private void dispatch(@NonNull Frame frame) {
+            if (mSampling == null) {
+                offer(frame);
+            } else if (mSampling.getType() == FrameSampling.TYPE_EVERY_NTH) {
+                if (mSamplingCount++ % mSampling.getInterval() == 0) {
+                    offer(frame);
+                } else {
+                    mMetrics.onFrameSampledOut(mProcessorMetrics);
+                }
+            } else {
+                // Accept frames on a time grid, so that the average rate is correct even if
+                // frames come with some jitter. If we're late by more than one interval,
+                // e.g. after a pause, restart the grid.
+                long time = frame.getTime();
+                long interval = mSampling.getInterval();
+                if (mSamplingNextTime < 0 || time >= mSamplingNextTime) {
+                    if (offer(frame)) {
+                        if (mSamplingNextTime < 0 || time - mSamplingNextTime >= interval) {
+                            mSamplingNextTime = time + interval;
+                        } else {
+                            mSamplingNextTime += interval;
+                        }
+                    }
+                } else {
+                    mMetrics.onFrameSampledOut(mProcessorMetrics);
+                }
+            }
+        }
+
+        /**
+         * Called by the dispatching thread. The frame is retained
+         * if accepted, according to the backpressure policy.
+         * Returns true if accepted.
+         */
+        private boolean offer(@NonNull Frame frame) {
+            switch (mBackpressure.getType()) {
+                case FrameBackpressure.TYPE_DROP_NEWEST: {
+                    if (!mBusy.compareAndSet(false, true)) {
+                        onFrameDropped();
+                        return false;
+                    }
+                    mPending.offer(frame.retain());
+                    mExecutor.execute(this);
+                    return true;
+                }
+                case FrameBackpressure.TYPE_LATEST_ONLY: {
+                    frame.retain();
+                    while (!mPending.offer(frame)) {
+                        Frame old = mPending.poll();
+                        if (old != null) {
+                            onFrameDropped();
+                            old.release();
+                        }
+                    }
+                    break;
+                }
+                case FrameBackpressure.TYPE_BOUNDED_QUEUE: {
+                    frame.retain();
+                    if (!mPending.offer(frame)) {
+                        onFrameDropped();
+                        frame.release();
+                        return false;
+                    }
+                    break;
+                }
+                case FrameBackpressure.TYPE_BLOCK_CAMERA: {
+                    frame.retain();
+                    if (!mPending.offer(frame) && !await(frame)) {
+                        onFrameDropped();
+                        frame.release();
+                        return false;
+                    }
+                    break;
+                }
+            }
+            if (mBusy.compareAndSet(false, true)) {
+                mExecutor.execute(this);
+            }
+            return true;
+        }
+
+        /**
+         * Blocks the dispatching thread until there's room for the frame,
+         * for {@link FrameBackpressure#BLOCK_CAMERA_TIMEOUT_MILLIS} at most.
+         */
+        private boolean await(@NonNull Frame frame) {
+            synchronized (mLock) {
+                long end = System.currentTimeMillis()
+                        + FrameBackpressure.BLOCK_CAMERA_TIMEOUT_MILLIS;
+                while (!mPending.offer(frame)) {
+                    long timeout = end - System.currentTimeMillis();
+                    if (timeout <= 0) return false;
+                    try {
+                        mLock.wait(timeout);
+                    } catch (InterruptedException e) {
+                        // Drop the frame, but let the camera thread know.
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+
+        private void onFrameDropped() {
+            // No logging here: this can run for every frame, and drops are in the metrics.
+            mMetrics.onFrameDropped(mProcessorMetrics);
+        }
+
+        /**
+         * Releases all the waiting frames. Called when the lane is removed.
+         */
+        private void drain() {
+            Frame frame;
+            while ((frame = mPending.poll()) != null) {
+                frame.release();
+            }
+            synchronized (mLock) {
+                mLock.notifyAll();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Frame frame;
+                while ((frame = mPending.poll()) != null) {
+                    if (mBackpressure.getType() == FrameBackpressure.TYPE_BLOCK_CAMERA) {
+                        synchronized (mLock) {
+                            mLock.notifyAll();
+                        }
+                    }
+                    process(mProcessor, mProcessorMetrics, frame);
+                    frame.release();
+                }
+                mBusy.set(false);
+                // A frame might have been offered after the last poll, but before we
+                // reset the busy flag. In this case nobody scheduled us, so keep going.
+                if (mPending.isEmpty() || !mBusy.compareAndSet(false, true)) return;
+            }
+        }
+    }
+}
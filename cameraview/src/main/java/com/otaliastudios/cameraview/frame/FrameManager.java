@@ -7,13 +7,12 @@ import com.otaliastudios.cameraview.CameraLogger;
 import com.otaliastudios.cameraview.engine.offset.Angles;
 import com.otaliastudios.cameraview.engine.offset.Axis;
 import com.otaliastudios.cameraview.engine.offset.Reference;
+import com.otaliastudios.cameraview.internal.RingBuffer;
 import com.otaliastudios.cameraview.size.Size;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.concurrent.LinkedBlockingQueue;
-
 /**
  * This class manages the allocation of {@link Frame} objects.
  * The FrameManager keeps a {@link #mPoolSize} integer that defines the number of instances to keep.
@@ -24,7 +23,14 @@ import java.util.concurrent.LinkedBlockingQueue;
  * - {@link #getFrame(Object, long)}: gets a new {@link Frame}.
  *
  * For frames to get back to the FrameManager pool, all you have to do
- * is call {@link Frame#release()} when done.
+ * is call {@link Frame#release()} when done. If the frame was retained with
+ * {@link Frame#retain()}, it gets back to the pool when the last reference is released.
+ *
+ * Free frames are kept in a lock-free {@link RingBuffer}, so that neither the camera thread
+ * (which takes frames) nor the processing threads (which release them) allocate or block.
+ *
+ * Frozen frames, created by {@link Frame#freeze()}, do not belong to the pool. Their buffers
+ * are recycled in a separate pool, capped by {@link #setFrozenFrameBudget(long)}.
  */
 public abstract class FrameManager<T> {
 
@@ -36,8 +42,13 @@ public abstract class FrameManager<T> {
     private Size mFrameSize = null;
     private int mFrameFormat = -1;
     private final Class<T> mFrameDataClass;
-    private LinkedBlockingQueue<Frame> mFrameQueue;
+    private final RingBuffer<Frame> mFrameQueue;
     private Angles mAngles;
+    private volatile FrameMetricsRecorder mMetrics;
+    private volatile long mFrozenBudget = 0;
+    private volatile FrozenFramePolicy mFrozenPolicy = FrozenFramePolicy.ALLOCATE;
+    private volatile FrozenFramePool<T> mFrozenPool;
+    private int mDroppedFrames = 0;
 
 
     /**
@@ -50,7 +61,7 @@ public abstract class FrameManager<T> {
     protected FrameManager(int poolSize, @NonNull Class<T> dataClass) {
         mPoolSize = poolSize;
         mFrameDataClass = dataClass;
-        mFrameQueue = new LinkedBlockingQueue<>(mPoolSize);
+        mFrameQueue = new RingBuffer<>(mPoolSize);
     }
 
     /**
@@ -79,6 +90,79 @@ public abstract class FrameManager<T> {
         return mFrameDataClass;
     }
 
+    /**
+     * Sets the recorder that will collect {@link FrameMetrics} about this manager.
+     * @param metrics the recorder, or null
+     */
+    public void setMetrics(@Nullable FrameMetricsRecorder metrics) {
+        if (mMetrics != null) mMetrics.onFrameManager(null);
+        mMetrics = metrics;
+        if (mMetrics != null) mMetrics.onFrameManager(this);
+    }
+
+    /**
+     * Sets the max number of bytes that frozen frame buffers can use, including
+     * the buffers held by frozen frames and the free ones that are kept for reuse.
+     * Defaults to 0, which means that frozen buffers are never reused: each frozen frame
+     * allocates its own buffer and the {@link FrozenFramePolicy} is not used.
+     *
+     * Changing this value takes effect at the next {@link #setUp(int, Size, Angles)}.
+     * @param bytes the budget in bytes
+     */
+    public void setFrozenFrameBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Budget should be >= 0, got " + bytes);
+        }
+        mFrozenBudget = bytes;
+    }
+
+    /**
+     * Returns the frozen frame budget.
+     * @see #setFrozenFrameBudget(long)
+     * @return the budget in bytes
+     */
+    public long getFrozenFrameBudget() {
+        return mFrozenBudget;
+    }
+
+    /**
+     * Sets what happens when a frame is frozen but the budget is exhausted.
+     * Defaults to {@link FrozenFramePolicy#ALLOCATE}. Not used when the budget is 0.
+     * @param policy the policy
+     */
+    public void setFrozenFramePolicy(@NonNull FrozenFramePolicy policy) {
+        mFrozenPolicy = policy;
+    }
+
+    /**
+     * Returns the frozen frame policy.
+     * @see #setFrozenFramePolicy(FrozenFramePolicy)
+     * @return the policy
+     */
+    @NonNull
+    public FrozenFramePolicy getFrozenFramePolicy() {
+        return mFrozenPolicy;
+    }
+
+    /**
+     * Returns the number of bytes of frozen buffers that count against the budget.
+     * @return the frozen bytes
+     */
+    long getFrozenBytes() {
+        FrozenFramePool<T> pool = mFrozenPool;
+        return pool == null ? 0 : pool.getBytes();
+    }
+
+    /**
+     * Returns the number of pool frames that are currently in use.
+     * The value is exact when there are no concurrent operations.
+     * @return the frames in use
+     */
+    int getFramesInUse() {
+        if (!isSetUp()) return 0;
+        return Math.max(0, mPoolSize - mFrameQueue.size());
+    }
+
     /**
      * Allocates a {@link #mPoolSize} number of buffers. Should be called once
      * the preview size and the image format value are known.
@@ -100,6 +184,8 @@ public abstract class FrameManager<T> {
         for (int i = 0; i < getPoolSize(); i++) {
             mFrameQueue.offer(new Frame(this));
         }
+        long budget = mFrozenBudget;
+        mFrozenPool = budget > 0 ? new FrozenFramePool<T>(budget, mFrameBytes) : null;
         mAngles = angles;
     }
 
@@ -132,7 +218,13 @@ public abstract class FrameManager<T> {
 
         Frame frame = mFrameQueue.poll();
         if (frame != null) {
-            LOG.v("getFrame for time:", time, "RECYCLING.");
+            if (mDroppedFrames > 0) {
+                LOG.w("getFrame: the pool is available again.", "Dropped",
+                        mDroppedFrames, "frames while all of them were in use.");
+                mDroppedFrames = 0;
+            }
+            FrameMetricsRecorder metrics = mMetrics;
+            if (metrics != null) metrics.onFrameProduced();
             int userRotation = mAngles.offset(Reference.SENSOR, Reference.OUTPUT,
                     Axis.RELATIVE_TO_SENSOR);
             int viewRotation = mAngles.offset(Reference.SENSOR, Reference.VIEW,
@@ -140,12 +232,34 @@ public abstract class FrameManager<T> {
             frame.setContent(data, time, userRotation, viewRotation, mFrameSize, mFrameFormat);
             return frame;
         } else {
-            LOG.i("getFrame for time:", time, "NOT AVAILABLE.");
+            onPoolExhausted(time);
             onFrameDataReleased(data, false);
             return null;
         }
     }
 
+    /**
+     * Called when a frame produced by the camera is dropped because
+     * all frames of the pool are in use.
+     * @param time the frame timestamp
+     */
+    void onPoolExhausted(long time) {
+        // All frames are in use: being processed or retained. This means that
+        // consumers are slower than the camera, or that they hold frames for too long.
+        // Only the first drop is logged: the total is logged once a frame is available again,
+        // and the metrics recorder counts each one of them.
+        if (mDroppedFrames++ == 0) {
+            LOG.w("getFrame for time:", time, "NOT AVAILABLE.",
+                    "All", mPoolSize, "frames of the pool are in use, dropping frames.",
+                    "Frames should be released sooner, or the pool size should be increased.");
+        }
+        FrameMetricsRecorder metrics = mMetrics;
+        if (metrics != null) {
+            metrics.onFrameProduced();
+            metrics.onPoolExhausted();
+        }
+    }
+
     /**
      * Called by child frames when they are released.
      * @param frame the released frame
@@ -168,14 +282,82 @@ public abstract class FrameManager<T> {
      */
     protected abstract void onFrameDataReleased(@NonNull T data, boolean recycled);
 
-    @NonNull
-    final T cloneFrameData(@NonNull T data) {
-        return onCloneFrameData(data);
+    /**
+     * Copies the given data for a frozen frame, reusing a pooled buffer if possible.
+     * Returns null if the budget is exhausted and the frame should be dropped.
+     * @param data the data to copy
+     * @param frozen the frozen frame, that will hold the copy
+     * @param canDrop whether the caller accepts a null result
+     * @return the copy, or null
+     */
+    @Nullable
+    final T freezeFrameData(@NonNull T data, @NonNull Frame frozen, boolean canDrop) {
+        FrameMetricsRecorder metrics = mMetrics;
+        FrozenFramePool<T> pool = mFrozenPool;
+        if (pool == null) {
+            // Pooling is disabled, so there is no budget to exceed.
+            T copy = onCloneFrameData(data);
+            if (metrics != null) metrics.onFrameFrozen(false);
+            frozen.setFrozenPool(null);
+            return copy;
+        }
+        T buffer = pool.poll();
+        if (buffer != null) {
+            if (metrics != null) metrics.onFrameFrozen(true);
+            frozen.setFrozenPool(pool);
+            return onCopyFrameData(data, buffer);
+        }
+        if (pool.reserve()) {
+            T copy;
+            try {
+                copy = onCloneFrameData(data);
+            } catch (RuntimeException e) {
+                pool.unreserve();
+                throw e;
+            }
+            if (metrics != null) metrics.onFrameFrozen(false);
+            frozen.setFrozenPool(pool);
+            return copy;
+        }
+        if (metrics != null) metrics.onFrozenBudgetExceeded();
+        FrozenFramePolicy policy = mFrozenPolicy;
+        if (policy == FrozenFramePolicy.ALLOCATE) {
+            T copy = onCloneFrameData(data);
+            if (metrics != null) metrics.onFrameFrozen(false);
+            frozen.setFrozenPool(null);
+            return copy;
+        } else if (policy == FrozenFramePolicy.DROP && canDrop) {
+            LOG.w("freezeFrameData: frozen frame budget exceeded, dropping.");
+            return null;
+        } else {
+            throw new IllegalStateException("Frozen frames use all the memory allowed by the "
+                    + "budget (" + mFrozenBudget + " bytes). Frozen frames should be released "
+                    + "sooner, or the budget should be increased.");
+        }
     }
 
+    /**
+     * Clones the given data, for {@link Frame#freeze()}.
+     * @param data the data
+     * @return a copy of the data
+     */
     @NonNull
     protected abstract T onCloneFrameData(@NonNull T data);
 
+    /**
+     * Copies the given data into a buffer that was previously returned by
+     * {@link #onCloneFrameData(Object)} and has the current frame size, for
+     * {@link Frame#freeze()}. Managers that can reuse buffers should override this method:
+     * by default, this ignores the target and clones the data.
+     * @param data the data
+     * @param target a buffer to reuse
+     * @return a copy of the data
+     */
+    @NonNull
+    protected T onCopyFrameData(@NonNull T data, @NonNull T target) {
+        return onCloneFrameData(data);
+    }
+
     /**
      * Releases all frames controlled by this manager and
      * clears the pool.
@@ -188,9 +370,13 @@ public abstract class FrameManager<T> {
 
         LOG.i("release: Clearing the frame and buffer queue.");
         mFrameQueue.clear();
+        FrozenFramePool<T> pool = mFrozenPool;
+        mFrozenPool = null;
+        if (pool != null) pool.close();
         mFrameBytes = -1;
         mFrameSize = null;
         mFrameFormat = -1;
         mAngles = null;
+        mDroppedFrames = 0;
     }
 }
@@ -0,0 +1,279 @@
+package com.otaliastudios.cameraview.frame;
+
+import com.otaliastudios.cameraview.CameraView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the frame pipeline metrics, as returned by
+ * {@link CameraView#getFrameMetrics()}. Counters start from zero when the view is
+ * created or when {@link CameraView#resetFrameMetrics()} is called.
+ *
+ * Counters are updated independently, so values taken while the camera is running
+ * might be slightly inconsistent with each other.
+ */
+public final class FrameMetrics {
+
+    /**
+     * Metrics about a single {@link FrameProcessor}.
+     */
+    public final static class ProcessorMetrics {
+
+        private final long mProcessedFrames;
+        private final long mDroppedFrames;
+        private final long mSkippedFrames;
+        private final long mFailedFrames;
+        private final LatencyHistogram mLatency;
+
+        ProcessorMetrics(long processedFrames, long droppedFrames,
+                         long skippedFrames, long failedFrames,
+                         @NonNull LatencyHistogram latency) {
+            mProcessedFrames = processedFrames;
+            mDroppedFrames = droppedFrames;
+            mSkippedFrames = skippedFrames;
+            mFailedFrames = failedFrames;
+            mLatency = latency;
+        }
+
+        /**
+         * Returns the number of frames passed to {@link FrameProcessor#process(Frame)}.
+         * @return the processed frames
+         */
+        public long getProcessedFrames() {
+            return mProcessedFrames;
+        }
+
+        /**
+         * Returns the number of frames that were not processed because the processor
+         * was busy, according to its {@link FrameBackpressure} policy.
+         * @return the dropped frames
+         */
+        public long getDroppedFrames() {
+            return mDroppedFrames;
+        }
+
+        /**
+         * Returns the number of frames that were not processed because
+         * of the processor {@link FrameSampling} policy.
+         * @return the skipped frames
+         */
+        public long getSkippedFrames() {
+            return mSkippedFrames;
+        }
+
+        /**
+         * Returns the number of frames for which {@link FrameProcessor#process(Frame)}
+         * threw an exception.
+         * @return the failed frames
+         */
+        public long getFailedFrames() {
+            return mFailedFrames;
+        }
+
+        /**
+         * Returns the time spent in {@link FrameProcessor#process(Frame)}.
+         * @return the latency histogram
+         */
+        @NonNull
+        public LatencyHistogram getLatency() {
+            return mLatency;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "ProcessorMetrics{processed=" + mProcessedFrames
+                    + ", dropped=" + mDroppedFrames
+                    + ", skipped=" + mSkippedFrames
+                    + ", failed=" + mFailedFrames
+                    + ", latency=" + mLatency + "}";
+        }
+    }
+
+    private final long mDurationMillis;
+    private final long mProducedFrames;
+    private final long mDispatchedFrames;
+    private final long mFrozenFrames;
+    private final long mFrozenRecycledFrames;
+    private final long mFrozenBudgetExceeded;
+    private final long mPoolExhaustedDrops;
+    private final long mBackpressureDrops;
+    private final long mSampledOutFrames;
+    private final int mPoolSize;
+    private final int mFramesInUse;
+    private final long mFrozenBytes;
+    private final Map<FrameProcessor, ProcessorMetrics> mProcessors;
+
+    FrameMetrics(long durationMillis,
+                 long producedFrames,
+                 long dispatchedFrames,
+                 long frozenFrames,
+                 long frozenRecycledFrames,
+                 long frozenBudgetExceeded,
+                 long poolExhaustedDrops,
+                 long backpressureDrops,
+                 long sampledOutFrames,
+                 int poolSize,
+                 int framesInUse,
+                 long frozenBytes,
+                 @NonNull Map<FrameProcessor, ProcessorMetrics> processors) {
+        mDurationMillis = durationMillis;
+        mProducedFrames = producedFrames;
+        mDispatchedFrames = dispatchedFrames;
+        mFrozenFrames = frozenFrames;
+        mFrozenRecycledFrames = frozenRecycledFrames;
+        mFrozenBudgetExceeded = frozenBudgetExceeded;
+        mPoolExhaustedDrops = poolExhaustedDrops;
+        mBackpressureDrops = backpressureDrops;
+        mSampledOutFrames = sampledOutFrames;
+        mPoolSize = poolSize;
+        mFramesInUse = framesInUse;
+        mFrozenBytes = frozenBytes;
+        mProcessors = processors;
+    }
+
+    /**
+     * Returns the time elapsed since metrics were last reset.
+     * @return the duration in milliseconds
+     */
+    public long getDurationMillis() {
+        return mDurationMillis;
+    }
+
+    /**
+     * Returns the number of frames produced by the camera
+     * while frame processing was active.
+     * @return the produced frames
+     */
+    public long getProducedFrames() {
+        return mProducedFrames;
+    }
+
+    /**
+     * Returns the number of frames that were dispatched to processors.
+     * @return the dispatched frames
+     */
+    public long getDispatchedFrames() {
+        return mDispatchedFrames;
+    }
+
+    /**
+     * Returns the number of frames that were frozen by {@link Frame#freeze()}
+     * or {@link Frame#tryFreeze()}.
+     * @return the frozen frames
+     */
+    public long getFrozenFrames() {
+        return mFrozenFrames;
+    }
+
+    /**
+     * Returns the number of frozen frames that reused a recycled buffer,
+     * instead of allocating a new one.
+     * @return the frozen frames with recycled buffers
+     */
+    public long getFrozenRecycledFrames() {
+        return mFrozenRecycledFrames;
+    }
+
+    /**
+     * Returns the number of times that a frame was frozen while the frozen frame budget
+     * was exhausted. What happened to these frames depends on the {@link FrozenFramePolicy}.
+     * @return the times the budget was exceeded
+     */
+    public long getFrozenBudgetExceeded() {
+        return mFrozenBudgetExceeded;
+    }
+
+    /**
+     * Returns the bytes of frozen frame buffers that count against the budget,
+     * either held by frozen frames or waiting to be reused.
+     * @return the frozen bytes
+     */
+    public long getFrozenBytes() {
+        return mFrozenBytes;
+    }
+
+    /**
+     * Returns the number of frames produced by the camera that could not be
+     * dispatched, because all frames of the pool were in use.
+     * @return the dropped frames
+     */
+    public long getPoolExhaustedDrops() {
+        return mPoolExhaustedDrops;
+    }
+
+    /**
+     * Returns the number of frames that some processor did not receive because it was
+     * busy, summed over all processors. See {@link ProcessorMetrics#getDroppedFrames()}.
+     * @return the dropped frames
+     */
+    public long getBackpressureDrops() {
+        return mBackpressureDrops;
+    }
+
+    /**
+     * Returns the number of frames that some processor did not receive because of its
+     * sampling policy, summed over all processors. See
+     * {@link ProcessorMetrics#getSkippedFrames()}.
+     * @return the skipped frames
+     */
+    public long getSampledOutFrames() {
+        return mSampledOutFrames;
+    }
+
+    /**
+     * Returns the current frame pool size, or 0 if the pool was not created yet.
+     * @return the pool size
+     */
+    public int getPoolSize() {
+        return mPoolSize;
+    }
+
+    /**
+     * Returns the number of pool frames currently in use,
+     * being processed or retained.
+     * @return the frames in use
+     */
+    public int getFramesInUse() {
+        return mFramesInUse;
+    }
+
+    /**
+     * Returns all the processor metrics, keyed by processor.
+     * @return the processor metrics
+     */
+    @NonNull
+    public Map<FrameProcessor, ProcessorMetrics> getProcessorMetrics() {
+        return mProcessors;
+    }
+
+    /**
+     * Returns the metrics for the given processor, or null if it never received a frame.
+     * @param processor a processor
+     * @return the processor metrics or null
+     */
+    @Nullable
+    public ProcessorMetrics getProcessorMetrics(@NonNull FrameProcessor processor) {
+        return mProcessors.get(processor);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "FrameMetrics{duration=" + mDurationMillis
+                + ", produced=" + mProducedFrames
+                + ", dispatched=" + mDispatchedFrames
+                + ", frozen=" + mFrozenFrames
+                + ", frozenRecycled=" + mFrozenRecycledFrames
+                + ", frozenBudgetExceeded=" + mFrozenBudgetExceeded
+                + ", frozenBytes=" + mFrozenBytes
+                + ", poolExhaustedDrops=" + mPoolExhaustedDrops
+                + ", backpressureDrops=" + mBackpressureDrops
+                + ", sampledOut=" + mSampledOutFrames
+                + ", pool=" + mFramesInUse + "/" + mPoolSize
+                + ", processors=" + mProcessors + "}";
+    }
+}
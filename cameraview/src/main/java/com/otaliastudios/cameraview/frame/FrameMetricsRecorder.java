@@ -0,0 +1,167 @@
+package com.otaliastudios.cameraview.frame;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.otaliastudios.cameraview.internal.LatencyRecorder;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects {@link FrameMetrics} from the {@link FrameManager} and the {@link FrameDispatcher}.
+ *
+ * Recording happens on the camera thread and on the frame processing threads, so it only
+ * uses atomic counters and never takes locks. After the first frame of each processor,
+ * recording does not allocate either. Values can be read at any time with {@link #snapshot()}.
+ */
+public class FrameMetricsRecorder {
+
+    /**
+     * Counters for a single processor.
+     */
+    static class ProcessorRecorder {
+        private final AtomicLong mProcessed = new AtomicLong(0);
+        private final AtomicLong mDropped = new AtomicLong(0);
+        private final AtomicLong mSkipped = new AtomicLong(0);
+        private final AtomicLong mFailed = new AtomicLong(0);
+        private final LatencyRecorder mLatency = new LatencyRecorder();
+
+        private void reset() {
+            mProcessed.set(0);
+            mDropped.set(0);
+            mSkipped.set(0);
+            mFailed.set(0);
+            mLatency.reset();
+        }
+    }
+
+    private final AtomicLong mStartTime = new AtomicLong(System.currentTimeMillis());
+    private final AtomicLong mProduced = new AtomicLong(0);
+    private final AtomicLong mDispatched = new AtomicLong(0);
+    private final AtomicLong mFrozen = new AtomicLong(0);
+    private final AtomicLong mFrozenRecycled = new AtomicLong(0);
+    private final AtomicLong mFrozenBudgetExceeded = new AtomicLong(0);
+    private final AtomicLong mPoolExhaustedDrops = new AtomicLong(0);
+    private final AtomicLong mBackpressureDrops = new AtomicLong(0);
+    private final AtomicLong mSampledOut = new AtomicLong(0);
+    private final ConcurrentHashMap<FrameProcessor, ProcessorRecorder> mProcessors
+            = new ConcurrentHashMap<>();
+    private volatile FrameManager<?> mFrameManager;
+
+    /**
+     * Returns an immutable snapshot of the current metrics.
+     * @return the metrics
+     */
+    @NonNull
+    public FrameMetrics snapshot() {
+        Map<FrameProcessor, FrameMetrics.ProcessorMetrics> processors = new HashMap<>();
+        for (Map.Entry<FrameProcessor, ProcessorRecorder> entry : mProcessors.entrySet()) {
+            ProcessorRecorder recorder = entry.getValue();
+            processors.put(entry.getKey(), new FrameMetrics.ProcessorMetrics(
+                    recorder.mProcessed.get(),
+                    recorder.mDropped.get(),
+                    recorder.mSkipped.get(),
+                    recorder.mFailed.get(),
+                    recorder.mLatency.snapshot()));
+        }
+        FrameManager<?> manager = mFrameManager;
+        return new FrameMetrics(
+                System.currentTimeMillis() - mStartTime.get(),
+                mProduced.get(),
+                mDispatched.get(),
+                mFrozen.get(),
+                mFrozenRecycled.get(),
+                mFrozenBudgetExceeded.get(),
+                mPoolExhaustedDrops.get(),
+                mBackpressureDrops.get(),
+                mSampledOut.get(),
+                manager == null ? 0 : manager.getPoolSize(),
+                manager == null ? 0 : manager.getFramesInUse(),
+                manager == null ? 0 : manager.getFrozenBytes(),
+                Collections.unmodifiableMap(processors));
+    }
+
+    /**
+     * Resets all counters to zero.
+     */
+    public void reset() {
+        mStartTime.set(System.currentTimeMillis());
+        mProduced.set(0);
+        mDispatched.set(0);
+        mFrozen.set(0);
+        mFrozenRecycled.set(0);
+        mFrozenBudgetExceeded.set(0);
+        mPoolExhaustedDrops.set(0);
+        mBackpressureDrops.set(0);
+        mSampledOut.set(0);
+        for (ProcessorRecorder recorder : mProcessors.values()) {
+            recorder.reset();
+        }
+    }
+
+    void onFrameManager(@Nullable FrameManager<?> manager) {
+        mFrameManager = manager;
+    }
+
+    void onFrameProduced() {
+        mProduced.incrementAndGet();
+    }
+
+    void onFrameDispatched() {
+        mDispatched.incrementAndGet();
+    }
+
+    void onFrameFrozen(boolean recycled) {
+        mFrozen.incrementAndGet();
+        if (recycled) mFrozenRecycled.incrementAndGet();
+    }
+
+    void onFrozenBudgetExceeded() {
+        mFrozenBudgetExceeded.incrementAndGet();
+    }
+
+    void onPoolExhausted() {
+        mPoolExhaustedDrops.incrementAndGet();
+    }
+
+    void onFrameDropped(@NonNull ProcessorRecorder processor) {
+        mBackpressureDrops.incrementAndGet();
+        processor.mDropped.incrementAndGet();
+    }
+
+    void onFrameSampledOut(@NonNull ProcessorRecorder processor) {
+        mSampledOut.incrementAndGet();
+        processor.mSkipped.incrementAndGet();
+    }
+
+    void onFrameProcessed(@NonNull ProcessorRecorder processor,
+                          long durationNanos,
+                          boolean failed) {
+        processor.mProcessed.incrementAndGet();
+        if (failed) processor.mFailed.incrementAndGet();
+        processor.mLatency.record(durationNanos / 1000L);
+    }
+
+    @NonNull
+    ProcessorRecorder getProcessor(@NonNull FrameProcessor processor) {
+        ProcessorRecorder recorder = mProcessors.get(processor);
+        if (recorder == null) {
+            recorder = new ProcessorRecorder();
+            ProcessorRecorder other = mProcessors.putIfAbsent(processor, recorder);
+            if (other != null) recorder = other;
+        }
+        return recorder;
+    }
+
+    void onProcessorRemoved(@NonNull FrameProcessor processor) {
+        mProcessors.remove(processor);
+    }
+
+    void onProcessorsCleared() {
+        mProcessors.clear();
+    }
+}
@@ -0,0 +1,91 @@
+package com.otaliastudios.cameraview.frame;
+
+import com.otaliastudios.cameraview.CameraView;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Controls which frames are passed to a {@link FrameProcessor}, for processors that do
+ * not need the full preview frame rate. Can be passed to
+ * {@link CameraView#addFrameProcessor(FrameProcessor, FrameSampling)}.
+ *
+ * Sampling happens on the camera thread, before frames are passed to background threads,
+ * so that frames that are not needed go back to the camera right away.
+ */
+public final class FrameSampling {
+
+    final static int TYPE_MAX_RATE = 0;
+    final static int TYPE_EVERY_NTH = 1;
+
+    /**
+     * Passes frames to the processor at the given rate at most,
+     * based on the frame timestamps.
+     *
+     * @param framesPerSecond the max frame rate
+     * @return a sampling policy
+     */
+    @NonNull
+    public static FrameSampling maxRate(float framesPerSecond) {
+        if (framesPerSecond <= 0) {
+            throw new IllegalArgumentException("Frame rate should be positive, got "
+                    + framesPerSecond);
+        }
+        return new FrameSampling(TYPE_MAX_RATE, Math.round(1000F / framesPerSecond));
+    }
+
+    /**
+     * Passes one frame out of n to the processor.
+     *
+     * @param n the sampling interval
+     * @return a sampling policy
+     */
+    @NonNull
+    public static FrameSampling everyNth(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Interval should be at least 1, got " + n);
+        }
+        return new FrameSampling(TYPE_EVERY_NTH, n);
+    }
+
+    private final int mType;
+    private final long mInterval;
+
+    private FrameSampling(int type, long interval) {
+        mType = type;
+        mInterval = interval;
+    }
+
+    int getType() {
+        return mType;
+    }
+
+    /**
+     * Returns the interval between sampled frames: a number of
+     * milliseconds for {@link #maxRate(float)}, a number of frames
+     * for {@link #everyNth(int)}.
+     *
+     * @return the interval
+     */
+    long getInterval() {
+        return mInterval;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof FrameSampling
+                && ((FrameSampling) obj).mType == mType
+                && ((FrameSampling) obj).mInterval == mInterval;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mType + (int) mInterval;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        if (mType == TYPE_MAX_RATE) return "MAX_RATE(" + mInterval + "ms)";
+        return "EVERY_NTH(" + mInterval + ")";
+    }
+}
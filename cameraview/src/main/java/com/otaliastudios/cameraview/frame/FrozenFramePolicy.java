@@ -0,0 +1,38 @@
+package com.otaliastudios.cameraview.frame;
+
+import com.otaliastudios.cameraview.CameraView;
+
+/**
+ * Controls what happens when {@link Frame#freeze()} is called, but frozen frames
+ * already use all the memory allowed by the frozen frame budget.
+ *
+ * Frozen buffers are recycled when frozen frames are released, so that freezing does not
+ * allocate in the steady state. The budget caps the memory used by frozen buffers,
+ * both the ones held by frozen frames and the free ones waiting to be reused.
+ * With a budget of 0, buffers are not recycled and the policy is not used.
+ *
+ * @see CameraView#setFrameProcessingFrozenBudget(long)
+ * @see CameraView#setFrameProcessingFrozenPolicy(FrozenFramePolicy)
+ */
+public enum FrozenFramePolicy {
+
+    /**
+     * Allocates a new buffer anyway. This buffer does not count against the budget and is not
+     * recycled when the frozen frame is released: it is left to the garbage collector.
+     * This is the default.
+     */
+    ALLOCATE,
+
+    /**
+     * Throws an {@link IllegalStateException} from {@link Frame#freeze()}
+     * and {@link Frame#tryFreeze()}.
+     */
+    FAIL,
+
+    /**
+     * Drops the frame: {@link Frame#tryFreeze()} returns null. Since {@link Frame#freeze()}
+     * can't return null, it throws an {@link IllegalStateException} instead, so
+     * {@link Frame#tryFreeze()} should be used with this policy.
+     */
+    DROP
+}
@@ -0,0 +1,105 @@
+package com.otaliastudios.cameraview.frame;
+
+import com.otaliastudios.cameraview.internal.RingBuffer;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of frozen frame buffers, capped by a byte budget.
+ * Buffers count against the budget from the moment they are reserved, until they are
+ * dropped: while they are held by a frozen frame and while they wait in the pool.
+ *
+ * A pool is created by {@link FrameManager} for each setup, since the buffer size
+ * depends on the frame size. Frozen frames that outlive their pool are simply dropped
+ * when released, so old buffers never end up in a new pool.
+ *
+ * @param <T> the buffer type
+ */
+final class FrozenFramePool<T> {
+
+    private final long mBudget;
+    private final int mBufferBytes;
+    private final RingBuffer<T> mBuffers;
+    private final AtomicLong mBytes = new AtomicLong(0);
+    private volatile boolean mClosed;
+
+    FrozenFramePool(long budget, int bufferBytes) {
+        mBudget = budget;
+        mBufferBytes = bufferBytes;
+        long capacity = bufferBytes > 0 ? budget / bufferBytes : 0;
+        // The ring buffer allocates its slots upfront. Keep this reasonable for huge budgets.
+        mBuffers = capacity > 0 ? new RingBuffer<T>((int) Math.min(capacity, 1024)) : null;
+    }
+
+    /**
+     * Returns the size of the buffers in this pool.
+     * @return the buffer size in bytes
+     */
+    int getBufferBytes() {
+        return mBufferBytes;
+    }
+
+    /**
+     * Returns the bytes that currently count against the budget.
+     * @return the bytes in use or pooled
+     */
+    long getBytes() {
+        return mBytes.get();
+    }
+
+    /**
+     * Returns a free buffer, which already counts against the budget, or null.
+     * @return a buffer or null
+     */
+    @Nullable
+    T poll() {
+        return mBuffers == null || mClosed ? null : mBuffers.poll();
+    }
+
+    /**
+     * Makes room for a new buffer in the budget.
+     * @return true if the buffer fits in the budget
+     */
+    boolean reserve() {
+        if (mClosed || mBufferBytes <= 0) return false;
+        while (true) {
+            long bytes = mBytes.get();
+            if (bytes + mBufferBytes > mBudget) return false;
+            if (mBytes.compareAndSet(bytes, bytes + mBufferBytes)) return true;
+        }
+    }
+
+    /**
+     * Gives back a buffer that was reserved, but will not be used.
+     */
+    void unreserve() {
+        mBytes.addAndGet(-mBufferBytes);
+    }
+
+    /**
+     * Called when a frozen frame holding a reserved buffer is released.
+     * The buffer is kept for the next {@link #poll()}, or dropped if the pool is closed.
+     * @param buffer the buffer
+     */
+    void recycle(@NonNull T buffer) {
+        if (mClosed || mBuffers == null || !mBuffers.offer(buffer)) {
+            unreserve();
+        }
+    }
+
+    /**
+     * Drops all free buffers. Buffers of frozen frames that are still alive
+     * will be dropped when they are released.
+     */
+    void close() {
+        mClosed = true;
+        if (mBuffers != null) {
+            while (mBuffers.poll() != null) {
+                unreserve();
+            }
+        }
+    }
+}
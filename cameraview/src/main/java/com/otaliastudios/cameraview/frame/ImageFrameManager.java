@@ -25,6 +25,6 @@ public class ImageFrameManager extends FrameManager<Image> {
     protected Image onCloneFrameData(@NonNull Image data) {
         throw new RuntimeException("Cannot freeze() an Image Frame. " +
                 "Please consider using the frame synchronously in your process() method, " +
-                "which also gives better performance.");
+                "or use retain() and release() to hold it without copying.");
     }
 }
@@ -0,0 +1,100 @@
+package com.otaliastudios.cameraview.frame;
+
+import androidx.annotation.NonNull;
+
+import com.otaliastudios.cameraview.internal.LatencyRecorder;
+
+/**
+ * An immutable latency histogram, as returned by {@link FrameMetrics}.
+ * All values are expressed in microseconds.
+ *
+ * Values are grouped in log-linear buckets, so percentiles have a relative
+ * error of about 3%. Count, mean, min and max are exact.
+ */
+public final class LatencyHistogram {
+
+    private final long[] mCounts;
+    private final long mCount;
+    private final long mSum;
+    private final long mMin;
+    private final long mMax;
+
+    /**
+     * Creates a histogram, for internal use only.
+     * Histograms are created by {@link LatencyRecorder#snapshot()}.
+     */
+    public LatencyHistogram(@NonNull long[] counts, long count, long sum, long min, long max) {
+        mCounts = counts;
+        mCount = count;
+        mSum = sum;
+        mMin = min;
+        mMax = max;
+    }
+
+    /**
+     * Returns the number of recorded values.
+     * @return the count
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the smallest recorded value, or 0 if empty.
+     * @return the min value in microseconds
+     */
+    public long getMin() {
+        return mMin;
+    }
+
+    /**
+     * Returns the largest recorded value, or 0 if empty.
+     * @return the max value in microseconds
+     */
+    public long getMax() {
+        return mMax;
+    }
+
+    /**
+     * Returns the mean of the recorded values, or 0 if empty.
+     * @return the mean value in microseconds
+     */
+    public double getMean() {
+        return mCount == 0 ? 0 : (double) mSum / mCount;
+    }
+
+    /**
+     * Returns the value below which the given percentage of values fall,
+     * or 0 if empty. For example, 50 returns the median.
+     *
+     * @param percentile a percentile between 0 and 100
+     * @return the value in microseconds
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile should be in [0, 100], got "
+                    + percentile);
+        }
+        if (mCount == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(mCount * percentile / 100D));
+        long count = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            count += mCounts[i];
+            if (count >= target) {
+                long value = LatencyRecorder.getBucketUpperBound(i);
+                return Math.max(mMin, Math.min(mMax, value));
+            }
+        }
+        return mMax;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "LatencyHistogram{count=" + mCount
+                + ", mean=" + Math.round(getMean())
+                + ", p50=" + getPercentile(50)
+                + ", p99=" + getPercentile(99)
+                + ", max=" + mMax + "}";
+    }
+}
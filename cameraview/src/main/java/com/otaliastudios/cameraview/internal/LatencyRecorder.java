@@ -0,0 +1,105 @@
+package com.otaliastudios.cameraview.internal;
+
+import androidx.annotation.NonNull;
+
+import com.otaliastudios.cameraview.frame.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latency values into log-linear buckets, in the same spirit as HdrHistogram:
+ * each power of two is split into {@link #SUB_BUCKETS} linear buckets, so that the
+ * relative error is about 3% at any scale, using a fixed, small amount of memory.
+ *
+ * Recording takes no locks and does not allocate, so it can be called from
+ * the frame processing or encoder threads for every frame.
+ */
+public class LatencyRecorder {
+
+    private final static int SUB_BITS = 5;
+    final static int SUB_BUCKETS = 1 << SUB_BITS;
+    // Values up to 2^32 microseconds, more than one hour.
+    private final static int MAX_BITS = 32;
+    private final static long MAX_VALUE = (1L << MAX_BITS) - 1;
+    final static int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mSum = new AtomicLong(0);
+    private final AtomicLong mMin = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong mMax = new AtomicLong(0);
+
+    /**
+     * Records a new value.
+     * @param value the value, clamped to a valid range
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        if (value > MAX_VALUE) value = MAX_VALUE;
+        mCounts.incrementAndGet(getBucket(value));
+        mSum.addAndGet(value);
+        long min;
+        while (value < (min = mMin.get())) {
+            if (mMin.compareAndSet(min, value)) break;
+        }
+        long max;
+        while (value > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, value)) break;
+        }
+    }
+
+    /**
+     * Clears all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mSum.set(0);
+        mMin.set(Long.MAX_VALUE);
+        mMax.set(0);
+    }
+
+    /**
+     * Returns an immutable copy of the current state.
+     * The copy is consistent only if there are no concurrent recordings.
+     * @return a histogram
+     */
+    @NonNull
+    public LatencyHistogram snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+            count += counts[i];
+        }
+        long min = count == 0 ? 0 : mMin.get();
+        long max = count == 0 ? 0 : mMax.get();
+        return new LatencyHistogram(counts, count, mSum.get(), min, max);
+    }
+
+    static int getBucket(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int bits = 63 - Long.numberOfLeadingZeros(value);
+        int shift = bits - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((value >> shift) - SUB_BUCKETS);
+    }
+
+    static long getBucketLowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = (bucket >> SUB_BITS) - 1;
+        long sub = bucket & (SUB_BUCKETS - 1);
+        return (SUB_BUCKETS + sub) << shift;
+    }
+
+    /**
+     * Returns the largest value that falls into the given bucket.
+     * @param bucket a bucket index
+     * @return the bucket upper bound
+     */
+    public static long getBucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = (bucket >> SUB_BITS) - 1;
+        return getBucketLowerBound(bucket) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,152 @@
+package com.otaliastudios.cameraview.internal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free ring buffer that can replace a {@link java.util.concurrent.BlockingQueue}
+ * in hot paths where we only need non-blocking {@link #offer(Object)} and {@link #poll()}.
+ *
+ * Each slot holds a sequence number that tells producers and consumers whether the slot
+ * is ready to be written or read, so that any number of threads can offer and poll
+ * concurrently by simply CAS-ing the two cursors. After construction, no operation
+ * allocates memory or takes a lock.
+ *
+ * Unlike the usual power-of-two implementations, the capacity is exact: this is important
+ * for frame pools, where an offer failing because the buffer is full carries meaning.
+ * The slot sequences can't tell a full slot from a free one when there's a single slot,
+ * so in that case we use two slots and check the capacity explicitly.
+ *
+ * @param <T> the item type
+ */
+public class RingBuffer<T> {
+
+    private final int mCapacity;
+    private final int mSlots;
+    private final AtomicReferenceArray<T> mItems;
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mHead = new AtomicLong(0); // next slot to poll
+    private final AtomicLong mTail = new AtomicLong(0); // next slot to offer
+
+    /**
+     * Creates a new ring buffer with the given capacity.
+     * @param capacity the max number of items
+     */
+    public RingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity should be at least 1, got " + capacity);
+        }
+        mCapacity = capacity;
+        mSlots = Math.max(2, capacity);
+        mItems = new AtomicReferenceArray<>(mSlots);
+        mSequences = new AtomicLongArray(mSlots);
+        for (int i = 0; i < mSlots; i++) {
+            mSequences.set(i, i);
+        }
+    }
+
+    /**
+     * Returns the max number of items that this buffer can hold.
+     * @return the capacity
+     */
+    public final int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Inserts the given item, if there is room for it.
+     * @param item the item
+     * @return true if the item was inserted, false if the buffer is full
+     */
+    public boolean offer(@NonNull T item) {
+        long tail = mTail.get();
+        while (true) {
+            if (mSlots > mCapacity && tail - mHead.get() >= mCapacity) {
+                return false;
+            }
+            int slot = (int) (tail % mSlots);
+            long diff = mSequences.get(slot) - tail;
+            if (diff == 0) {
+                // Slot is free for this position. Try to claim it.
+                if (mTail.compareAndSet(tail, tail + 1)) {
+                    mItems.lazySet(slot, item);
+                    mSequences.set(slot, tail + 1);
+                    return true;
+                }
+                tail = mTail.get();
+            } else if (diff < 0) {
+                // Slot still holds the item of the previous lap. We're full.
+                return false;
+            } else {
+                // Someone else claimed this position. Retry with the new tail.
+                tail = mTail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the oldest item, if any.
+     * @return an item or null if the buffer is empty
+     */
+    @Nullable
+    public T poll() {
+        long head = mHead.get();
+        while (true) {
+            int slot = (int) (head % mSlots);
+            long diff = mSequences.get(slot) - (head + 1);
+            if (diff == 0) {
+                // Slot was written for this position. Try to claim it.
+                if (mHead.compareAndSet(head, head + 1)) {
+                    T item = mItems.get(slot);
+                    mItems.lazySet(slot, null);
+                    mSequences.set(slot, head + mSlots);
+                    return item;
+                }
+                head = mHead.get();
+            } else if (diff < 0) {
+                // Slot was not written yet. We're empty.
+                return null;
+            } else {
+                // Someone else claimed this position. Retry with the new head.
+                head = mHead.get();
+            }
+        }
+    }
+
+    /**
+     * Returns an estimate of the number of items in this buffer.
+     * The value is exact when there are no concurrent operations.
+     * @return the item count
+     */
+    public int size() {
+        while (true) {
+            long head = mHead.get();
+            long tail = mTail.get();
+            if (mHead.get() == head) {
+                long size = tail - head;
+                if (size < 0) return 0;
+                return (int) Math.min(size, mCapacity);
+            }
+        }
+    }
+
+    /**
+     * Whether this buffer is currently empty.
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Removes all the items from this buffer.
+     */
+    public void clear() {
+        //noinspection StatementWithEmptyBody
+        while (poll() != null) {}
+    }
+}
@@ -3,15 +3,34 @@ package com.otaliastudios.cameraview.internal;
 import com.otaliastudios.cameraview.size.Size;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This will only be used on low APIs or when GL surface is not available.
  * This risks OOMs and was never a good tool.
+ *
+ * To reduce the cost, the Y plane and the VU plane are rotated separately, in tiles that fit
+ * in the CPU cache, and each chroma pair is written once. The output array can be reused,
+ * and the work can be split across cores with {@link #rotate(byte[], Size, int, byte[], int)}.
  */
 @SuppressWarnings("DeprecatedIsStillUsed")
 @Deprecated
 public class RotationHelper {
 
+    // 32x32 luma tiles: 1KB read + 1KB written, plus the cache lines they touch.
+    private final static int TILE = 32;
+    private final static long STRIPE_KEEP_ALIVE_SECONDS = 5;
+
+    private static ThreadPoolExecutor sStripeExecutor;
+
     /**
      * Rotates the given yuv image into another yuv array, by the given angle.
      * @param yuv image
@@ -22,13 +41,223 @@ public class RotationHelper {
     public static byte[] rotate(@NonNull final byte[] yuv,
                                 @NonNull final Size size,
                                 final int rotation) {
-        if (rotation == 0) return yuv;
+        return rotate(yuv, size, rotation, null);
+    }
+
+    /**
+     * Rotates the given yuv image by the given angle, into the given output array
+     * if not null. The output array should be at least as big as the input.
+     * @param yuv image
+     * @param size image size
+     * @param rotation desired angle
+     * @param output the output array, or null to allocate a new one
+     * @return the rotated yuv array
+     */
+    public static byte[] rotate(@NonNull final byte[] yuv,
+                                @NonNull final Size size,
+                                final int rotation,
+                                @Nullable byte[] output) {
+        return rotate(yuv, size, rotation, output, 1);
+    }
+
+    /**
+     * Rotates the given yuv image by the given angle, into the given output array
+     * if not null. The output array should be at least as big as the input.
+     * The image is split into the given number of stripes, that are rotated in parallel.
+     * One of them runs on the calling thread.
+     *
+     * @param yuv image
+     * @param size image size
+     * @param rotation desired angle
+     * @param output the output array, or null to allocate a new one
+     * @param stripes the number of stripes, e.g. the number of cores
+     * @return the rotated yuv array
+     */
+    public static byte[] rotate(@NonNull final byte[] yuv,
+                                @NonNull final Size size,
+                                final int rotation,
+                                @Nullable byte[] output,
+                                int stripes) {
         if (rotation % 90 != 0 || rotation < 0 || rotation > 270) {
             throw new IllegalArgumentException("0 <= rotation < 360, rotation % 90 == 0");
         }
+        if (output == yuv) {
+            throw new IllegalArgumentException("Can't rotate in place.");
+        }
+        if (output != null && output.length < yuv.length) {
+            throw new IllegalArgumentException("Output is too small. Required: "
+                    + yuv.length + ", got: " + output.length);
+        }
+        if (rotation == 0) {
+            if (output == null) return yuv;
+            System.arraycopy(yuv, 0, output, 0, yuv.length);
+            return output;
+        }
+        if (output == null) output = new byte[yuv.length];
         final int width = size.getWidth();
         final int height = size.getHeight();
-        final byte[] output = new byte[yuv.length];
+        if (width % 2 != 0 || height % 2 != 0) {
+            // Chroma pairs don't map cleanly. Keep the old behavior.
+            rotateLegacy(yuv, width, height, rotation, output);
+            return output;
+        }
+
+        final byte[] input = yuv;
+        final byte[] result = output;
+        final int outputHeight = rotation % 180 == 0 ? height : width;
+        stripes = Math.max(1, Math.min(stripes, outputHeight / 2));
+        if (stripes == 1) {
+            rotateStripe(input, width, height, rotation, result, 0, 1);
+            return result;
+        }
+        final CountDownLatch latch = new CountDownLatch(stripes - 1);
+        final RuntimeException[] error = new RuntimeException[1];
+        Executor executor = getStripeExecutor(stripes - 1);
+        for (int i = 1; i < stripes; i++) {
+            final int stripe = i;
+            final int count = stripes;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        rotateStripe(input, width, height, rotation, result, stripe, count);
+                    } catch (RuntimeException e) {
+                        error[0] = e;
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        try {
+            rotateStripe(input, width, height, rotation, result, 0, stripes);
+        } finally {
+            // The other stripes are still writing into the output.
+            awaitUninterruptibly(latch);
+        }
+        if (error[0] != null) throw error[0];
+        return result;
+    }
+
+    /**
+     * Waits for the latch even if the thread is interrupted, since returning early would
+     * hand out an output that is still being written. The interrupt is restored after.
+     */
+    private static void awaitUninterruptibly(@NonNull CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private static synchronized Executor getStripeExecutor(int threads) {
+        if (sStripeExecutor == null) {
+            sStripeExecutor = new ThreadPoolExecutor(threads, threads,
+                    STRIPE_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger(1);
+
+                        @Override
+                        public Thread newThread(@NonNull Runnable runnable) {
+                            Thread thread = new Thread(runnable,
+                                    "RotationHelper-" + mCount.getAndIncrement());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            // Threads are only alive while rotating.
+            sStripeExecutor.allowCoreThreadTimeOut(true);
+        } else if (sStripeExecutor.getMaximumPoolSize() < threads) {
+            sStripeExecutor.setMaximumPoolSize(threads);
+            sStripeExecutor.setCorePoolSize(threads);
+        }
+        return sStripeExecutor;
+    }
+
+    /**
+     * Rotates one horizontal stripe of the output, out of count.
+     * The Y plane and the VU plane are handled separately.
+     */
+    private static void rotateStripe(@NonNull byte[] yuv, int width, int height, int rotation,
+                                     @NonNull byte[] output, int stripe, int count) {
+        int outputHeight = rotation % 180 == 0 ? height : width;
+        int frameSize = width * height;
+        rotatePlane(yuv, 0, width, height, output, 0, rotation, 1,
+                stripe * outputHeight / count,
+                (stripe + 1) * outputHeight / count);
+        // The VU plane is a half size grid of 2-byte pairs.
+        int chromaHeight = outputHeight / 2;
+        rotatePlane(yuv, frameSize, width / 2, height / 2, output, frameSize, rotation, 2,
+                stripe * chromaHeight / count,
+                (stripe + 1) * chromaHeight / count);
+    }
+
+    /**
+     * Rotates a plane of width x height elements, each one made of the given number
+     * of bytes (1 or 2), writing the output rows between from and to.
+     */
+    private static void rotatePlane(@NonNull byte[] input, int inputOffset,
+                                    int width, int height,
+                                    @NonNull byte[] output, int outputOffset,
+                                    int rotation, int bytes, int from, int to) {
+        if (rotation == 180) {
+            // Output rows are input rows in reverse order, read backwards.
+            for (int y = from; y < to; y++) {
+                int in = inputOffset + ((height - 1 - y) * width + width - 1) * bytes;
+                int out = outputOffset + y * width * bytes;
+                if (bytes == 1) {
+                    for (int x = 0; x < width; x++) {
+                        output[out++] = input[in--];
+                    }
+                } else {
+                    for (int x = 0; x < width; x++, in -= 2) {
+                        output[out++] = input[in];
+                        output[out++] = input[in + 1];
+                    }
+                }
+            }
+            return;
+        }
+        // Transposition: walk the output in tiles, so that the input
+        // columns we read are still in cache when we get to the next output row.
+        int outputWidth = height;
+        for (int tileY = from; tileY < to; tileY += TILE) {
+            int tileYEnd = Math.min(tileY + TILE, to);
+            for (int tileX = 0; tileX < outputWidth; tileX += TILE) {
+                int tileXEnd = Math.min(tileX + TILE, outputWidth);
+                for (int y = tileY; y < tileYEnd; y++) {
+                    // Output (x, y) comes from input column inX, row inY.
+                    // For 90, inX = y and inY = height - 1 - x.
+                    // For 270, inX = width - 1 - y and inY = x.
+                    int inX = rotation == 90 ? y : width - 1 - y;
+                    int inY = rotation == 90 ? height - 1 - tileX : tileX;
+                    int inStep = rotation == 90 ? -width * bytes : width * bytes;
+                    int in = inputOffset + (inY * width + inX) * bytes;
+                    int out = outputOffset + (y * outputWidth + tileX) * bytes;
+                    if (bytes == 1) {
+                        for (int x = tileX; x < tileXEnd; x++, in += inStep) {
+                            output[out++] = input[in];
+                        }
+                    } else {
+                        for (int x = tileX; x < tileXEnd; x++, in += inStep) {
+                            output[out++] = input[in];
+                            output[out++] = input[in + 1];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void rotateLegacy(@NonNull byte[] yuv, int width, int height, int rotation,
+                                     @NonNull byte[] output) {
         final int frameSize = width * height;
         final boolean swap = rotation % 180 != 0;
         final boolean xflip = rotation % 270 != 0;
@@ -56,8 +285,5 @@ public class RotationHelper {
                 output[vOut] = (byte) (0xff & yuv[vIn]);
             }
         }
-
-        return output;
     }
 }
-
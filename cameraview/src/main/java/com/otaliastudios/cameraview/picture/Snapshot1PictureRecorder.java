@@ -62,7 +62,8 @@ public class Snapshot1PictureRecorder extends SnapshotPictureRecorder {
                         // Rotate the picture, because no one will write EXIF data,
                         // then crop if needed. In both cases, transform yuv to jpeg.
                         //noinspection deprecation
-                        byte[] data = RotationHelper.rotate(yuv, previewStreamSize, sensorToOutput);
+                        byte[] data = RotationHelper.rotate(yuv, previewStreamSize,
+                                sensorToOutput, null, Runtime.getRuntime().availableProcessors());
                         YuvImage yuv = new YuvImage(data, mFormat, outputSize.getWidth(),
                                 outputSize.getHeight(), null);
 
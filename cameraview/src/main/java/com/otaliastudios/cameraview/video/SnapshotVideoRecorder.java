@@ -21,6 +21,7 @@ import com.otaliastudios.cameraview.filter.Filter;
 import com.otaliastudios.cameraview.size.Size;
 import com.otaliastudios.cameraview.video.encoding.AudioConfig;
 import com.otaliastudios.cameraview.video.encoding.AudioMediaEncoder;
+import com.otaliastudios.cameraview.video.encoding.EncoderMetrics;
 import com.otaliastudios.cameraview.video.encoding.EncoderThread;
 import com.otaliastudios.cameraview.video.encoding.MediaEncoderEngine;
 import com.otaliastudios.cameraview.video.encoding.TextureConfig;
@@ -30,6 +31,8 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
+import java.io.File;
+
 /**
  * A {@link VideoRecorder} that uses {@link android.media.MediaCodec} APIs.
  */
@@ -55,6 +58,9 @@ public class SnapshotVideoRecorder extends VideoRecorder implements RendererFram
 
     private MediaEncoderEngine mEncoderEngine;
     private final Object mEncoderEngineLock = new Object();
+    private boolean mCommitRequested;
+    // Unlike mEncoderEngine, kept until the engine has ended.
+    private MediaEncoderEngine mMetricsEngine;
     private RendererCameraPreview mPreview;
 
     private int mCurrentState = STATE_NOT_RECORDING;
@@ -103,6 +109,32 @@ public class SnapshotVideoRecorder extends VideoRecorder implements RendererFram
         }
     }
 
+    /**
+     * When recording with a pre-roll buffer, writes the buffer to the result file,
+     * followed by the rest of the recording.
+     */
+    public void commit() {
+        synchronized (mEncoderEngineLock) {
+            if (mCommitRequested) return;
+            mCommitRequested = true;
+            if (mEncoderEngine != null) {
+                mEncoderEngine.commit(mResult.file);
+            }
+        }
+    }
+
+    /**
+     * Returns the encoder metrics of the current recording, or null if they
+     * were not enabled or we are not recording.
+     * @return the metrics or null
+     */
+    @Nullable
+    public EncoderMetrics getMetrics() {
+        synchronized (mEncoderEngineLock) {
+            return mMetricsEngine == null ? null : mMetricsEngine.getMetrics();
+        }
+    }
+
     @RendererThread
     @Override
     public void onRendererTextureCreated(int textureId) {
@@ -131,6 +163,14 @@ public class SnapshotVideoRecorder extends VideoRecorder implements RendererFram
         if (mCurrentState == STATE_NOT_RECORDING && mDesiredState == STATE_RECORDING) {
             LOG.i("Starting the encoder engine.");
 
+            // Time-lapse: no audio, and frames are played back at the time-lapse rate.
+            if (mResult.timeLapseInterval > 0) {
+                mResult.audio = Audio.OFF;
+                if (mResult.timeLapseFrameRate > 0) {
+                    mResult.videoFrameRate = mResult.timeLapseFrameRate;
+                }
+            }
+
             // Set default options
             if (mResult.videoFrameRate <= 0) mResult.videoFrameRate = DEFAULT_VIDEO_FRAMERATE;
             if (mResult.videoBitRate <= 0) mResult.videoBitRate
@@ -223,14 +263,26 @@ public class SnapshotVideoRecorder extends VideoRecorder implements RendererFram
             // Video
             videoConfig.width = mResult.size.getWidth();
             videoConfig.height = mResult.size.getHeight();
+            if (mResult.minVideoBitRate > 0) {
+                // Adaptive bit rate. Start from videoBitRate, clamped into the bounds.
+                int maxBitRate = mResult.maxVideoBitRate > 0
+                        ? mResult.maxVideoBitRate : mResult.videoBitRate;
+                int minBitRate = Math.min(mResult.minVideoBitRate, maxBitRate);
+                mResult.videoBitRate = Math.max(minBitRate,
+                        Math.min(maxBitRate, mResult.videoBitRate));
+                videoConfig.minBitRate = minBitRate;
+                videoConfig.maxBitRate = maxBitRate;
+            }
             videoConfig.bitRate = mResult.videoBitRate;
             videoConfig.frameRate = mResult.videoFrameRate;
             videoConfig.rotation = rotation + mResult.rotation;
             videoConfig.mimeType = videoType;
             videoConfig.encoder = deviceEncoders.getVideoEncoder();
+            videoConfig.asyncCodec = mResult.asyncEncoding;
             videoConfig.textureId = mTextureId;
             videoConfig.scaleX = scaleX;
             videoConfig.scaleY = scaleY;
+            videoConfig.timeLapseIntervalUs = mResult.timeLapseInterval * 1000L;
             // Get egl context from the RendererThread, which is the one in which we have created
             // the textureId and the overlayTextureId, managed by the GlSurfaceView.
             // Next operations can then be performed on different threads using this handle.
@@ -253,6 +305,8 @@ public class SnapshotVideoRecorder extends VideoRecorder implements RendererFram
                 audioConfig.bitRate = mResult.audioBitRate;
                 audioConfig.channels = audioChannels;
                 audioConfig.encoder = deviceEncoders.getAudioEncoder();
+                audioConfig.asyncCodec = mResult.asyncEncoding;
+                audioConfig.processor = mResult.audioProcessor;
                 audioEncoder = new AudioMediaEncoder(audioConfig);
             }
 
@@ -263,7 +317,18 @@ public class SnapshotVideoRecorder extends VideoRecorder implements RendererFram
                         audioEncoder,
                         mResult.maxDuration,
                         mResult.maxSize,
+                        mResult.fragmentInterval,
+                        mResult.sampleListener,
+                        mResult.sampleDelivery,
+                        mResult.sampleWriteFile,
+                        mResult.preRollSize,
                         SnapshotVideoRecorder.this);
+                mEncoderEngine.setSegmentDuration(mResult.segmentDuration);
+                if (mResult.metricsEnabled) {
+                    mEncoderEngine.setMetricsEnabled(true);
+                    mMetricsEngine = mEncoderEngine;
+                }
+                if (mCommitRequested) mEncoderEngine.commit(mResult.file);
                 mEncoderEngine.notify(TextureMediaEncoder.FILTER_EVENT, mCurrentFilter);
                 mEncoderEngine.start();
             }
@@ -271,10 +336,9 @@ public class SnapshotVideoRecorder extends VideoRecorder implements RendererFram
         }
 
         if (mCurrentState == STATE_RECORDING) {
-            LOG.i("scheduling frame.");
+            // This runs for every frame: avoid logging or allocating anything.
             synchronized (mEncoderEngineLock) {
                 if (mEncoderEngine != null) { // Can be null on teardown.
-                    LOG.i("dispatching frame.");
                     TextureMediaEncoder textureEncoder
                             = (TextureMediaEncoder) mEncoderEngine.getVideoEncoder();
                     TextureMediaEncoder.Frame frame = textureEncoder.acquireFrame();
@@ -312,6 +376,14 @@ public class SnapshotVideoRecorder extends VideoRecorder implements RendererFram
         dispatchVideoRecordingEnd();
     }
 
+    @EncoderThread
+    @Override
+    public void onEncodingSegment(@NonNull File file, @NonNull File nextFile) {
+        // The result will point to the last segment.
+        mResult.file = nextFile;
+        dispatchVideoSegment(file);
+    }
+
     @EncoderThread
     @Override
     public void onEncodingEnd(int stopReason, @Nullable Exception e) {
@@ -343,6 +415,10 @@ public class SnapshotVideoRecorder extends VideoRecorder implements RendererFram
         }
         synchronized (mEncoderEngineLock) {
             mEncoderEngine = null;
+            if (mMetricsEngine != null) {
+                if (mResult != null) mResult.encoderMetrics = mMetricsEngine.getMetrics();
+                mMetricsEngine = null;
+            }
         }
         dispatchResult();
     }
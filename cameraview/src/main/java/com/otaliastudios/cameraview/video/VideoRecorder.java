@@ -3,6 +3,8 @@ package com.otaliastudios.cameraview.video;
 import com.otaliastudios.cameraview.CameraLogger;
 import com.otaliastudios.cameraview.VideoResult;
 
+import java.io.File;
+
 import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -39,6 +41,14 @@ public abstract class VideoRecorder {
          * and soon {@link #onVideoResult(VideoResult.Stub, Exception)} will be called.
          */
         void onVideoRecordingEnd();
+
+        /**
+         * A segment of a segmented recording was completed and written to the given file.
+         * The last segment is passed to {@link #onVideoResult(VideoResult.Stub, Exception)}.
+         * @param result the result of the whole recording
+         * @param file the segment file
+         */
+        void onVideoSegment(@NonNull VideoResult.Stub result, @NonNull File file);
     }
 
     private final static int STATE_IDLE = 0;
@@ -161,6 +171,19 @@ public abstract class VideoRecorder {
         }
     }
 
+    /**
+     * Subclasses can call this to notify that a segment of the recording was completed.
+     * @param file the segment file
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected final void dispatchVideoSegment(@NonNull File file) {
+        LOG.i("dispatchVideoSegment:", "About to dispatch.", file);
+        VideoResult.Stub result = mResult;
+        if (mListener != null && result != null) {
+            mListener.onVideoSegment(result, file);
+        }
+    }
+
     /**
      * Subclasses can call this to notify that the video recording has ended,
      * although the video result might still be processed.
@@ -0,0 +1,148 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+/**
+ * Chooses the bit rate of a {@link VideoMediaEncoder} while recording, within the
+ * given bounds, by looking at how fast frames go through the encoder.
+ *
+ * Frames, drops and encoded bytes are collected in windows of {@link #WINDOW_US}.
+ * At the end of each window:
+ * - if frames were dropped, or their average input latency is higher than
+ *   {@link #HIGH_LATENCY_FRAMES} frame intervals, the encoder is falling behind
+ *   and the bit rate is lowered by {@link #DECREASE_FACTOR}
+ * - if no frames were dropped and the average latency is lower than
+ *   {@link #LOW_LATENCY_FRAMES} frame intervals for {@link #INCREASE_WINDOWS} windows,
+ *   the bit rate is raised by {@link #INCREASE_FACTOR}. This does not happen if the
+ *   encoder produces much less than the current bit rate ({@link #UNDERUSE_RATIO}),
+ *   because a higher bit rate would not make a difference.
+ *
+ * This class does not read any clock: times are passed by the caller, so that the policy
+ * can be replayed on recorded timelines. It is not thread safe.
+ */
+class AdaptiveBitRateController {
+
+    final static long WINDOW_US = 1000000;
+    final static float HIGH_LATENCY_FRAMES = 2F;
+    final static float LOW_LATENCY_FRAMES = 0.5F;
+    final static int INCREASE_WINDOWS = 3;
+    final static float DECREASE_FACTOR = 0.75F;
+    final static float INCREASE_FACTOR = 1.15F;
+    final static float UNDERUSE_RATIO = 0.5F;
+
+    private final int mMinBitRate;
+    private final int mMaxBitRate;
+    private final long mFrameIntervalUs;
+    private int mBitRate;
+
+    private long mWindowStartUs = Long.MIN_VALUE;
+    private int mWindowFrames;
+    private int mWindowDrops;
+    private long mWindowLatencyUs;
+    private long mWindowBytes;
+    private int mStableWindows;
+
+    /**
+     * Creates a new controller.
+     * @param bitRate the initial bit rate, clamped into the bounds
+     * @param minBitRate the minimum bit rate
+     * @param maxBitRate the maximum bit rate
+     * @param frameRate the expected frame rate
+     */
+    AdaptiveBitRateController(int bitRate, int minBitRate, int maxBitRate, int frameRate) {
+        if (minBitRate <= 0 || maxBitRate < minBitRate) {
+            throw new IllegalArgumentException("Invalid bit rate bounds: "
+                    + minBitRate + ", " + maxBitRate);
+        }
+        mMinBitRate = minBitRate;
+        mMaxBitRate = maxBitRate;
+        mFrameIntervalUs = 1000000L / Math.max(frameRate, 1);
+        mBitRate = clamp(bitRate);
+    }
+
+    /**
+     * Returns the current bit rate.
+     * @return the bit rate
+     */
+    int getBitRate() {
+        return mBitRate;
+    }
+
+    /**
+     * A frame was rendered into the encoder.
+     * @param timeUs the current time
+     * @param latencyUs the time since the frame was captured
+     */
+    void onFrameRendered(long timeUs, long latencyUs) {
+        startWindow(timeUs);
+        mWindowFrames++;
+        mWindowLatencyUs += latencyUs;
+    }
+
+    /**
+     * A frame was dropped because the encoder was busy.
+     * @param timeUs the current time
+     */
+    void onFrameDropped(long timeUs) {
+        startWindow(timeUs);
+        mWindowDrops++;
+    }
+
+    /**
+     * The encoder produced some data.
+     * @param timeUs the current time
+     * @param bytes the encoded bytes
+     */
+    void onOutput(long timeUs, int bytes) {
+        startWindow(timeUs);
+        mWindowBytes += bytes;
+    }
+
+    private void startWindow(long timeUs) {
+        if (mWindowStartUs == Long.MIN_VALUE) mWindowStartUs = timeUs;
+    }
+
+    /**
+     * Closes the current window if it has ended, and possibly changes the bit rate.
+     * @param timeUs the current time
+     * @return true if the bit rate has changed
+     */
+    boolean update(long timeUs) {
+        if (mWindowStartUs == Long.MIN_VALUE) return false;
+        long windowUs = timeUs - mWindowStartUs;
+        if (windowUs < WINDOW_US) return false;
+
+        long averageLatencyUs = mWindowFrames == 0 ? Long.MAX_VALUE
+                : mWindowLatencyUs / mWindowFrames;
+        long outputBitRate = mWindowBytes * 8L * 1000000L / windowUs;
+        boolean overloaded = mWindowDrops > 0
+                || averageLatencyUs > HIGH_LATENCY_FRAMES * mFrameIntervalUs;
+        boolean idle = mWindowDrops == 0
+                && averageLatencyUs < LOW_LATENCY_FRAMES * mFrameIntervalUs;
+        mWindowStartUs = timeUs;
+        mWindowFrames = 0;
+        mWindowDrops = 0;
+        mWindowLatencyUs = 0;
+        mWindowBytes = 0;
+
+        int bitRate = mBitRate;
+        if (overloaded) {
+            mStableWindows = 0;
+            bitRate = clamp((int) (mBitRate * DECREASE_FACTOR));
+        } else if (idle) {
+            mStableWindows++;
+            if (mStableWindows >= INCREASE_WINDOWS
+                    && outputBitRate >= UNDERUSE_RATIO * mBitRate) {
+                mStableWindows = 0;
+                bitRate = clamp((int) (mBitRate * INCREASE_FACTOR));
+            }
+        } else {
+            mStableWindows = 0;
+        }
+        if (bitRate == mBitRate) return false;
+        mBitRate = bitRate;
+        return true;
+    }
+
+    private int clamp(int bitRate) {
+        return Math.max(mMinBitRate, Math.min(mMaxBitRate, bitRate));
+    }
+}
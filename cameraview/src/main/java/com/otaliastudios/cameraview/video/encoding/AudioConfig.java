@@ -2,6 +2,8 @@ package com.otaliastudios.cameraview.video.encoding;
 
 import android.media.AudioFormat;
 
+import com.otaliastudios.cameraview.audio.AudioProcessor;
+
 import androidx.annotation.NonNull;
 
 /**
@@ -15,6 +17,8 @@ public class AudioConfig {
     public int bitRate; // ENCODED bit rate
     public int channels = 1;
     public String encoder;
+    public boolean asyncCodec;
+    public AudioProcessor processor;
     public String mimeType = "audio/mp4a-latm";
     public int samplingFrequency = 44100; // samples/sec
 
@@ -31,6 +35,8 @@ public class AudioConfig {
         config.bitRate = bitRate;
         config.channels = channels;
         config.encoder = encoder;
+        config.asyncCodec = asyncCodec;
+        config.processor = processor;
         config.mimeType = mimeType;
         config.samplingFrequency = samplingFrequency;
         return config;
@@ -86,9 +92,9 @@ public class AudioConfig {
     /**
      * We allocate buffers of {@link #frameSize()} each, which is not much.
      *
-     * This value indicates the maximum number of these buffers that we can allocate at a given
-     * instant. This value is the number of runnables that the encoder thread is allowed to be
-     * 'behind' the recorder thread. It's not safe to have it very large or we can end encoding
+     * This value indicates the number of these buffers, which are all allocated upfront
+     * in a single ring. This value is the number of frames that the encoder thread is allowed
+     * to be 'behind' the recorder thread. It's not safe to have it very large or we can end encoding
      * A LOT AFTER the actual recording. It's better to reduce this and skip recording at all.
      *
      * Should be coordinated with {@link #frameSize()}.
@@ -8,6 +8,7 @@ import android.media.MediaRecorder;
 import android.os.Build;
 
 import com.otaliastudios.cameraview.CameraLogger;
+import com.otaliastudios.cameraview.audio.AudioProcessor;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
@@ -15,10 +16,8 @@ import androidx.annotation.RequiresApi;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.ShortBuffer;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Default implementation for audio encoding.
@@ -36,28 +35,43 @@ public class AudioMediaEncoder extends MediaEncoder {
     private boolean mRequestStop = false;
     private AudioEncodingThread mEncoder;
     private AudioRecordingThread mRecorder;
-    private ByteBufferPool mByteBufferPool;
+    private AudioRingBuffer mRingBuffer;
     private final AudioTimestamp mTimestamp;
     private AudioConfig mConfig;
-    private InputBufferPool mInputBufferPool = new InputBufferPool();
-    private final LinkedBlockingQueue<InputBuffer> mInputBufferQueue = new LinkedBlockingQueue<>();
+    private final AudioConfig mRecordConfig;
+    private final AudioProcessor mProcessor;
     private AudioNoise mAudioNoise;
 
     // Just to debug performance.
-    private int mDebugSendCount = 0;
     private int mDebugExecuteCount = 0;
-    private long mDebugSendAvgDelay = 0;
     private long mDebugExecuteAvgDelay = 0;
-    private Map<Long, Long> mDebugSendStartMap = new HashMap<>();
 
     public AudioMediaEncoder(@NonNull AudioConfig config) {
         super("AudioEncoder");
         mConfig = config.copy();
-        mTimestamp = new AudioTimestamp(mConfig.byteRate());
+        mRecordConfig = mConfig;
+        // The processor can change the number of channels. In this case, we record
+        // with mRecordConfig and encode with mConfig.
+        mProcessor = mConfig.processor;
+        if (mProcessor != null) {
+            int channels = mProcessor.configure(mConfig.samplingFrequency, mConfig.channels);
+            if (channels != mRecordConfig.channels) {
+                mConfig = mRecordConfig.copy();
+                mConfig.channels = channels;
+            }
+        }
         // These two were in onPrepare() but it's better to do warm-up here
         // since thread and looper creation is expensive.
         mEncoder = new AudioEncodingThread();
         mRecorder = new AudioRecordingThread();
+        // Prefer the capture timestamps of AudioRecord, if available.
+        AudioTimestamp.TimeSource timeSource = AudioTimestamp.SYSTEM;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            timeSource = new AudioRecordTimeSource(mRecorder.mAudioRecord,
+                    mRecordConfig.sampleSizePerChannel * mRecordConfig.channels,
+                    mRecordConfig.samplingFrequency);
+        }
+        mTimestamp = new AudioTimestamp(mRecordConfig.byteRate(), timeSource);
     }
 
     @EncoderThread
@@ -80,10 +94,10 @@ public class AudioMediaEncoder extends MediaEncoder {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        mMediaCodec.configure(audioFormat, null, null,
-                MediaCodec.CONFIGURE_FLAG_ENCODE);
+        configureCodec(audioFormat, mConfig.asyncCodec);
         mMediaCodec.start();
-        mByteBufferPool = new ByteBufferPool(mConfig.frameSize(), mConfig.bufferPoolMaxSize());
+        mRingBuffer = new AudioRingBuffer(mRecordConfig.frameSize(),
+                mConfig.bufferPoolMaxSize());
         mAudioNoise = new AudioNoise(mConfig);
     }
 
@@ -107,10 +121,7 @@ public class AudioMediaEncoder extends MediaEncoder {
         mRequestStop = false;
         mEncoder = null;
         mRecorder = null;
-        if (mByteBufferPool != null) {
-            mByteBufferPool.clear();
-            mByteBufferPool = null;
-        }
+        mRingBuffer = null;
     }
 
     @Override
@@ -130,15 +141,23 @@ public class AudioMediaEncoder extends MediaEncoder {
         } catch (InterruptedException ignore) {}
     }
 
+    /**
+     * Wakes up the encoding thread, if it is waiting for frames.
+     * Only needed in asynchronous mode, see {@link AudioEncodingThread}.
+     */
+    private void notifyFrameAvailable() {
+        Thread encoder = mEncoder;
+        if (encoder != null && isCodecAsync()) LockSupport.unpark(encoder);
+    }
+
     /**
      * A thread recording from microphone using {@link AudioRecord} class.
-     * Communicates with {@link AudioEncodingThread} using {@link #mInputBufferQueue}.
+     * Communicates with {@link AudioEncodingThread} using {@link #mRingBuffer}.
      */
     private class AudioRecordingThread extends Thread {
 
         private AudioRecord mAudioRecord;
-        private ByteBuffer mCurrentBuffer;
-        private int mCurrentReadBytes;
+        private final ByteBuffer mGapBuffer;
 
         private long mLastTimeUs;
         private long mFirstTimeUs = Long.MIN_VALUE;
@@ -146,22 +165,24 @@ public class AudioMediaEncoder extends MediaEncoder {
         private AudioRecordingThread() {
             setPriority(Thread.MAX_PRIORITY);
             final int minBufferSize = AudioRecord.getMinBufferSize(
-                    mConfig.samplingFrequency,
-                    mConfig.audioFormatChannels(),
-                    mConfig.encoding);
+                    mRecordConfig.samplingFrequency,
+                    mRecordConfig.audioFormatChannels(),
+                    mRecordConfig.encoding);
             // Make this bigger so we don't skip frames. 25: Stereo: 51200. Mono: 25600
             // 25 is quite big already. Tried to make it bigger to solve the read() delay
             // but it just makes things worse (ruins MONO as well).
             // Tried to make it smaller and things change as well.
-            int bufferSize = mConfig.frameSize() * mConfig.audioRecordBufferFrames();
+            int bufferSize = mRecordConfig.frameSize() * mRecordConfig.audioRecordBufferFrames();
             while (bufferSize < minBufferSize) {
-                bufferSize += mConfig.frameSize(); // Unlikely.
+                bufferSize += mRecordConfig.frameSize(); // Unlikely.
             }
             mAudioRecord = new AudioRecord(MediaRecorder.AudioSource.CAMCORDER,
-                    mConfig.samplingFrequency,
-                    mConfig.audioFormatChannels(),
-                    mConfig.encoding,
+                    mRecordConfig.samplingFrequency,
+                    mRecordConfig.audioFormatChannels(),
+                    mRecordConfig.encoding,
                     bufferSize);
+            mGapBuffer = ByteBuffer.allocateDirect(mRecordConfig.frameSize())
+                    .order(ByteOrder.nativeOrder());
         }
 
         @Override
@@ -169,14 +190,13 @@ public class AudioMediaEncoder extends MediaEncoder {
             mAudioRecord.startRecording();
             while (!mRequestStop) {
                 if (!hasReachedMaxLength()) {
-                    read(false);
+                    if (read(false)) notifyFrameAvailable();
                 } else {
                     // We have reached the max length, so stop reading.
                     // However, do not get out of the loop - the controller
                     // will call stop() on us soon. It's not our responsibility
-                    // to stop ourselves.
-                    //noinspection UnnecessaryContinue
-                    continue;
+                    // to stop ourselves. Sleep meanwhile, instead of spinning.
+                    skipFrames(1);
                 }
             }
             LOG.w("Stop was requested. We're out of the loop. Will post an endOfStream.");
@@ -186,6 +206,7 @@ public class AudioMediaEncoder extends MediaEncoder {
             while (!didReadEos) {
                 didReadEos = read(true);
             }
+            notifyFrameAvailable();
             mAudioRecord.stop();
             mAudioRecord.release();
             mAudioRecord = null;
@@ -198,8 +219,8 @@ public class AudioMediaEncoder extends MediaEncoder {
          * @return true if proceeded
          */
         private boolean read(boolean endOfStream) {
-            mCurrentBuffer = mByteBufferPool.get();
-            if (mCurrentBuffer == null) {
+            ByteBuffer buffer = mRingBuffer.beginWrite();
+            if (buffer == null) {
                 // This can happen and it means that encoding is slow with respect to recording.
                 // One might be tempted to fix precisely the next frame presentation time when
                 // this happens, but this is not needed because the current increaseTime()
@@ -215,40 +236,61 @@ public class AudioMediaEncoder extends MediaEncoder {
                 }
                 return false;
             } else {
-                mCurrentBuffer.clear();
                 // When stereo, we read twice the data here and AudioRecord will fill the buffer
                 // with left and right bytes. https://stackoverflow.com/q/20594750/4288782
+                int readBytes;
                 if (PERFORMANCE_DEBUG) {
                     long before = System.nanoTime();
-                    mCurrentReadBytes = mAudioRecord.read(mCurrentBuffer, mConfig.frameSize());
+                    readBytes = mAudioRecord.read(buffer, mRecordConfig.frameSize());
                     long after = System.nanoTime();
                     float delayMillis = (after - before) / 1000000F;
-                    float durationMillis = AudioTimestamp.bytesToMillis(mCurrentReadBytes,
-                            mConfig.byteRate());
+                    float durationMillis = AudioTimestamp.bytesToMillis(readBytes,
+                            mRecordConfig.byteRate());
                     LOG.v("read thread - reading took:", delayMillis,
                             "should be:", durationMillis,
                             "delay:", delayMillis - durationMillis);
                 } else {
-                    mCurrentReadBytes = mAudioRecord.read(mCurrentBuffer, mConfig.frameSize());
+                    readBytes = mAudioRecord.read(buffer, mRecordConfig.frameSize());
                 }
                 LOG.v("read thread - eos:", endOfStream, "- Read new audio frame. Bytes:",
-                        mCurrentReadBytes);
-                if (mCurrentReadBytes > 0) { // Good read: increase PTS.
-                    increaseTime(mCurrentReadBytes, endOfStream);
+                        readBytes);
+                if (readBytes > 0) { // Good read: increase PTS.
+                    increaseTime(readBytes, endOfStream);
                     LOG.v("read thread - eos:", endOfStream, "- mLastTimeUs:", mLastTimeUs);
-                    mCurrentBuffer.limit(mCurrentReadBytes);
-                    enqueue(mCurrentBuffer, mLastTimeUs, endOfStream);
-                } else if (mCurrentReadBytes == AudioRecord.ERROR_INVALID_OPERATION) {
+                    int length = process(readBytes);
+                    if (!maybeAddNoise(buffer, length, endOfStream)) {
+                        mRingBuffer.endWrite(length, mLastTimeUs, endOfStream);
+                    }
+                    return true;
+                } else if (readBytes == AudioRecord.ERROR_INVALID_OPERATION) {
                     LOG.e("read thread - eos:", endOfStream,
                             "- Got AudioRecord.ERROR_INVALID_OPERATION");
-                } else if (mCurrentReadBytes == AudioRecord.ERROR_BAD_VALUE) {
+                } else if (readBytes == AudioRecord.ERROR_BAD_VALUE) {
                     LOG.e("read thread - eos:", endOfStream,
                             "- Got AudioRecord.ERROR_BAD_VALUE");
                 }
+                if (endOfStream) {
+                    // The encoding thread is waiting for this flag, so we pass it anyway.
+                    mRingBuffer.endWrite(0, mLastTimeUs, true);
+                }
                 return true;
             }
         }
 
+        /**
+         * Passes the frame that was just read to the {@link AudioProcessor}, if any.
+         * This works in place, on a view of the ring frame, so it allocates nothing.
+         * @param readBytes bytes read in last reading
+         * @return the frame length after processing
+         */
+        private int process(int readBytes) {
+            if (mProcessor == null) return readBytes;
+            ShortBuffer samples = mRingBuffer.getWriteSamples();
+            samples.limit(readBytes / 2);
+            mProcessor.process(samples);
+            return samples.limit() * 2;
+        }
+
         /**
          * Increases presentation time and checks for max length constraint. This is much faster
          * then waiting for the encoder to check it during {@link #drainOutput(boolean)}. We
@@ -264,7 +306,7 @@ public class AudioMediaEncoder extends MediaEncoder {
                 mFirstTimeUs = mLastTimeUs;
                 // Compute the first frame milliseconds as well.
                 notifyFirstFrameMillis(System.currentTimeMillis()
-                        - AudioTimestamp.bytesToMillis(readBytes, mConfig.byteRate()));
+                        - AudioTimestamp.bytesToMillis(readBytes, mRecordConfig.byteRate()));
             }
 
             // See if we reached the max length value.
@@ -276,25 +318,6 @@ public class AudioMediaEncoder extends MediaEncoder {
                     notifyMaxLengthReached();
                 }
             }
-
-            // Maybe add noise.
-            maybeAddNoise();
-        }
-
-        private void enqueue(@NonNull ByteBuffer byteBuffer,
-                             long timestamp,
-                             boolean isEndOfStream) {
-            if (PERFORMANCE_DEBUG) {
-                mDebugSendStartMap.put(timestamp, System.nanoTime() / 1000000);
-            }
-            int readBytes = byteBuffer.remaining();
-            InputBuffer inputBuffer = mInputBufferPool.get();
-            //noinspection ConstantConditions
-            inputBuffer.source = byteBuffer;
-            inputBuffer.timestamp = timestamp;
-            inputBuffer.length = readBytes;
-            inputBuffer.isEndOfStream = isEndOfStream;
-            mInputBufferQueue.add(inputBuffer);
         }
 
         /**
@@ -314,40 +337,70 @@ public class AudioMediaEncoder extends MediaEncoder {
          * and spend even more time here. The result might be recording no audio at all - just
          * random noise.
          * This is the reason why we have a {@link #PERFORMANCE_MAX_GAPS} number.
+         *
+         * Noise frames come before the frame that was just read, which is in the ring's
+         * write slot. In this case, we move it aside and write it after the noise.
+         *
+         * @param frame the frame that was just read
+         * @param frameBytes the frame length
+         * @param endOfStream whether this is the last frame
+         * @return true if noise was added and the frame was written
          */
-        private void maybeAddNoise() {
-            if (!PERFORMANCE_FILL_GAPS) return;
-            int gaps = mTimestamp.getGapCount(mConfig.frameSize());
-            if (gaps <= 0) return;
+        private boolean maybeAddNoise(@NonNull ByteBuffer frame, int frameBytes,
+                                      boolean endOfStream) {
+            if (!PERFORMANCE_FILL_GAPS || endOfStream) return false;
+            int gaps = mTimestamp.getGapCount(mRecordConfig.frameSize());
+            if (gaps <= 0) return false;
 
             long gapStart = mTimestamp.getGapStartUs(mLastTimeUs);
             long frameUs = AudioTimestamp.bytesToUs(mConfig.frameSize(), mConfig.byteRate());
             LOG.w("read thread - GAPS: trying to add", gaps,
                     "noise buffers. PERFORMANCE_MAX_GAPS:", PERFORMANCE_MAX_GAPS);
-            for (int i = 0; i < Math.min(gaps, PERFORMANCE_MAX_GAPS); i++) {
-                ByteBuffer noiseBuffer = mByteBufferPool.get();
+            // AudioRecord does not move the position, so the frame starts at 0.
+            frame.limit(frameBytes);
+            mGapBuffer.clear();
+            mGapBuffer.put(frame);
+            mGapBuffer.flip();
+            int noise = 0;
+            for (; noise < Math.min(gaps, PERFORMANCE_MAX_GAPS); noise++) {
+                ByteBuffer noiseBuffer = mRingBuffer.beginWrite();
                 if (noiseBuffer == null) {
                     LOG.e("read thread - GAPS: aborting because we have no free buffer.");
                     break;
                 }
-                noiseBuffer.clear();
                 mAudioNoise.fill(noiseBuffer);
-                noiseBuffer.rewind();
-                enqueue(noiseBuffer, gapStart, false);
+                mRingBuffer.endWrite(mConfig.frameSize(), gapStart, false);
                 gapStart += frameUs;
             }
+            EncoderMetricsRecorder.TrackRecorder metrics = getMetrics();
+            if (metrics != null) metrics.onAudioGap(gaps, noise);
+            ByteBuffer buffer = mRingBuffer.beginWrite();
+            if (buffer == null) {
+                LOG.e("read thread - GAPS: dropping the frame because we have no free buffer.");
+            } else {
+                buffer.put(mGapBuffer);
+                mRingBuffer.endWrite(frameBytes, mLastTimeUs, false);
+            }
+            return true;
         }
     }
 
     /**
      * A thread encoding the microphone data using the media encoder APIs.
-     * Communicates with {@link AudioRecordingThread} using {@link #mInputBufferQueue}.
+     * Communicates with {@link AudioRecordingThread} using {@link #mRingBuffer}.
      *
      * We want to do this operation on a different thread than the recording one (to avoid
      * losing frames while we're working here), and different than the {@link MediaEncoder}
      * own thread (we want that to be reactive - stop() must become onStop() soon).
+     *
+     * In asynchronous mode, this thread does not poll: it parks until the recording thread
+     * publishes a frame, and waits for the codec to free an input buffer. Output is drained
+     * by the codec callbacks on the encoder thread.
      */
     private class AudioEncodingThread extends Thread {
+
+        private final InputBuffer mInputBuffer = new InputBuffer();
+
         private AudioEncodingThread() {
             // Not sure about this... This thread can do VERY time consuming operations,
             // and slowing down the preview/camera threads can break them e.g. hit internal
@@ -357,69 +410,65 @@ public class AudioMediaEncoder extends MediaEncoder {
 
         @Override
         public void run() {
-            encoding: while (true) {
-                if (mInputBufferQueue.isEmpty()) {
-                    skipFrames(3);
-                } else {
-                    LOG.v("encoding thread - performing", mInputBufferQueue.size(),
-                            "pending operations.");
-                    InputBuffer inputBuffer;
-                    while ((inputBuffer = mInputBufferQueue.peek()) != null) {
-
-                        // Performance logging
-                        if (PERFORMANCE_DEBUG) {
-                            long sendEnd = System.nanoTime() / 1000000;
-                            Long sendStart = mDebugSendStartMap.remove(inputBuffer.timestamp);
-                            //noinspection StatementWithEmptyBody
-                            if (sendStart != null) {
-                                mDebugSendAvgDelay = ((mDebugSendAvgDelay * mDebugSendCount)
-                                        + (sendEnd - sendStart)) / (++mDebugSendCount);
-                                LOG.v("send delay millis:", sendEnd - sendStart,
-                                        "average:", mDebugSendAvgDelay);
-                            } else {
-                                // This input buffer was already processed
-                                // (but tryAcquire failed for now).
-                            }
-                        }
-
-                        // Actual work
-                        if (inputBuffer.isEndOfStream) {
-                            acquireInputBuffer(inputBuffer);
-                            encode(inputBuffer);
-                            break encoding;
-                        } else if (tryAcquireInputBuffer(inputBuffer)) {
-                            encode(inputBuffer);
-                        } else {
-                            skipFrames(3);
-                        }
+            while (true) {
+                ByteBuffer source = mRingBuffer.beginRead();
+                if (source == null) {
+                    if (isCodecAsync()) {
+                        LockSupport.parkNanos(this, AudioTimestamp.bytesToUs(
+                                mConfig.frameSize() * 3, mConfig.byteRate()) * 1000L);
+                    } else {
+                        skipFrames(3);
+                    }
+                    continue;
+                }
+                LOG.v("encoding thread - performing", mRingBuffer.size(),
+                        "pending operations.");
+                if (mRingBuffer.isEndOfStream()) {
+                    if (acquireInputBuffer(mInputBuffer)) {
+                        encode(source);
+                    } else {
+                        // The codec failed: end the stream without it.
+                        mRingBuffer.endRead();
+                        drainOutput(true);
                     }
+                    break;
+                } else if (isCodecAsync()) {
+                    if (acquireInputBuffer(mInputBuffer)) {
+                        encode(source);
+                    } else {
+                        // The codec failed: drop input until the engine stops us.
+                        mRingBuffer.endRead();
+                    }
+                } else if (tryAcquireInputBuffer(mInputBuffer)) {
+                    encode(source);
+                } else {
+                    skipFrames(3);
                 }
             }
             // We got an end of stream.
-            mInputBufferPool.clear();
             if (PERFORMANCE_DEBUG) {
                 // After latest changes, the count here is not so different between MONO and STEREO.
                 // We get about 400 frames in both cases (430 for MONO, but doesn't seem like
                 // a big issue).
                 LOG.e("EXECUTE DELAY MILLIS:", mDebugExecuteAvgDelay,
                         "COUNT:", mDebugExecuteCount);
-                LOG.e("SEND DELAY MILLIS:", mDebugSendAvgDelay,
-                        "COUNT:", mDebugSendCount);
             }
         }
 
-        private void encode(@NonNull InputBuffer buffer) {
+        private void encode(@NonNull ByteBuffer source) {
             long executeStart = System.nanoTime() / 1000000;
 
+            InputBuffer buffer = mInputBuffer;
+            buffer.timestamp = mRingBuffer.getTimestampUs();
+            buffer.length = mRingBuffer.getLength();
+            buffer.isEndOfStream = mRingBuffer.isEndOfStream();
             LOG.v("encoding thread - performing pending operation for timestamp:",
                     buffer.timestamp, "- encoding.");
             // NOTE: this copy is prob. the worst part here for performance
-            buffer.data.put(buffer.source);
-            mByteBufferPool.recycle(buffer.source);
-            mInputBufferQueue.remove(buffer);
+            buffer.data.put(source);
+            mRingBuffer.endRead();
             encodeInputBuffer(buffer);
             boolean eos = buffer.isEndOfStream;
-            mInputBufferPool.recycle(buffer);
             LOG.v("encoding thread - performing pending operation for timestamp:",
                     buffer.timestamp, "- draining.");
             // NOTE: can consider calling this drainOutput on yet another thread, which would let us
@@ -0,0 +1,58 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import android.media.AudioRecord;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+/**
+ * An {@link AudioTimestamp.TimeSource} that uses the capture timestamps of an
+ * {@link AudioRecord}. Unlike {@link AudioTimestamp#SYSTEM}, these are not affected
+ * by how late we read, so they are much more precise.
+ *
+ * When timestamps are not available, which can happen at the beginning of the recording,
+ * this falls back to {@link AudioTimestamp#SYSTEM}.
+ */
+@RequiresApi(Build.VERSION_CODES.N)
+class AudioRecordTimeSource implements AudioTimestamp.TimeSource {
+
+    private final AudioRecord mAudioRecord;
+    private final android.media.AudioTimestamp mTimestamp = new android.media.AudioTimestamp();
+    private final int mBytesPerFrame;
+    private final int mSampleRate;
+    private long mLostFrames;
+
+    /**
+     * Creates a new source.
+     * @param audioRecord the audio record
+     * @param bytesPerFrame bytes of a single frame (one sample for all channels)
+     * @param sampleRate the sample rate
+     */
+    AudioRecordTimeSource(@NonNull AudioRecord audioRecord, int bytesPerFrame, int sampleRate) {
+        mAudioRecord = audioRecord;
+        mBytesPerFrame = bytesPerFrame;
+        mSampleRate = sampleRate;
+    }
+
+    @Override
+    public long getTimeUs(long totalBytes) {
+        int result = mAudioRecord.getTimestamp(mTimestamp,
+                android.media.AudioTimestamp.TIMEBASE_MONOTONIC);
+        if (result != AudioRecord.SUCCESS) {
+            return AudioTimestamp.SYSTEM.getTimeUs(totalBytes);
+        }
+        // The timestamp position counts all captured frames, including those that
+        // were lost because we did not read in time. If the difference is more than
+        // the record buffer, we lost some, and we are reading the oldest ones.
+        long readFrames = totalBytes / mBytesPerFrame;
+        long unreadFrames = mTimestamp.framePosition - readFrames - mLostFrames;
+        long bufferFrames = mAudioRecord.getBufferSizeInFrames();
+        if (unreadFrames > bufferFrames) {
+            mLostFrames += unreadFrames - bufferFrames;
+        }
+        long frameDeltaUs = (readFrames + mLostFrames - mTimestamp.framePosition)
+                * 1000000L / mSampleRate;
+        return mTimestamp.nanoTime / 1000 + frameDeltaUs;
+    }
+}
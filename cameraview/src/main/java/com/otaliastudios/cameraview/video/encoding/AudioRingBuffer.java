@@ -0,0 +1,187 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A preallocated ring of PCM frames, that moves audio from the recording thread
+ * to the encoding thread of {@link AudioMediaEncoder}.
+ *
+ * All frames are slices of a single direct buffer, allocated at construction. Each frame
+ * carries its length, timestamp and end of stream flag inline, in plain arrays, so that
+ * passing a frame allocates nothing.
+ *
+ * There must be a single producer thread and a single consumer thread. In this case,
+ * the ring is lock-free: each thread only moves its own cursor, and publishes it with
+ * an ordered write, so the other thread sees the frame contents before the cursor.
+ *
+ * The producer calls {@link #beginWrite()}, fills the returned buffer, and publishes it with
+ * {@link #endWrite(int, long, boolean)}. Before publishing, the frame can also be accessed
+ * as 16 bit samples through {@link #getWriteSamples()}. The consumer calls {@link #beginRead()},
+ * reads the returned buffer and its metadata, and gives it back with {@link #endRead()}.
+ */
+class AudioRingBuffer {
+
+    private final int mFrameSize;
+    private final int mCapacity;
+    private final ByteBuffer[] mFrames;
+    private final ShortBuffer[] mSamples;
+    private final int[] mLengths;
+    private final long[] mTimestamps;
+    private final boolean[] mEndOfStreams;
+    private final AtomicLong mHead = new AtomicLong(0); // next frame to read
+    private final AtomicLong mTail = new AtomicLong(0); // next frame to write
+
+    /**
+     * Creates a new ring.
+     * @param frameSize the max size of each frame in bytes
+     * @param capacity the number of frames
+     */
+    AudioRingBuffer(int frameSize, int capacity) {
+        if (frameSize < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Frame size and capacity should be at least 1.");
+        }
+        mFrameSize = frameSize;
+        mCapacity = capacity;
+        mFrames = new ByteBuffer[capacity];
+        mSamples = new ShortBuffer[capacity];
+        mLengths = new int[capacity];
+        mTimestamps = new long[capacity];
+        mEndOfStreams = new boolean[capacity];
+        ByteBuffer memory = ByteBuffer.allocateDirect(frameSize * capacity);
+        for (int i = 0; i < capacity; i++) {
+            memory.limit((i + 1) * frameSize);
+            memory.position(i * frameSize);
+            mFrames[i] = memory.slice().order(ByteOrder.nativeOrder());
+            mSamples[i] = mFrames[i].asShortBuffer();
+        }
+    }
+
+    /**
+     * Returns the max size of each frame.
+     * @return the frame size in bytes
+     */
+    int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * Returns the number of frames.
+     * @return the capacity
+     */
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Returns the number of frames that were written but not read yet.
+     * @return the size
+     */
+    int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    /**
+     * Returns the next frame to be written, cleared, or null if the ring is full.
+     * Until {@link #endWrite(int, long, boolean)} is called, this keeps returning
+     * the same frame. Producer thread only.
+     * @return a frame or null
+     */
+    @Nullable
+    ByteBuffer beginWrite() {
+        long tail = mTail.get();
+        if (tail - mHead.get() >= mCapacity) return null;
+        ByteBuffer frame = mFrames[(int) (tail % mCapacity)];
+        frame.clear();
+        return frame;
+    }
+
+    /**
+     * Returns a view of the frame returned by {@link #beginWrite()} as 16 bit samples,
+     * with position 0 and limit at the end of the frame. Views are created upfront,
+     * so this allocates nothing. Producer thread only.
+     * @return the frame samples
+     */
+    @NonNull
+    ShortBuffer getWriteSamples() {
+        ShortBuffer samples = mSamples[(int) (mTail.get() % mCapacity)];
+        samples.clear();
+        return samples;
+    }
+
+    /**
+     * Publishes the frame returned by {@link #beginWrite()}. Producer thread only.
+     * @param length the number of bytes written, from position 0
+     * @param timestampUs the frame timestamp
+     * @param endOfStream whether this is the last frame
+     */
+    void endWrite(int length, long timestampUs, boolean endOfStream) {
+        long tail = mTail.get();
+        if (tail - mHead.get() >= mCapacity) {
+            throw new IllegalStateException("endWrite() called, but the ring is full.");
+        }
+        int index = (int) (tail % mCapacity);
+        mLengths[index] = Math.max(0, Math.min(length, mFrameSize));
+        mTimestamps[index] = timestampUs;
+        mEndOfStreams[index] = endOfStream;
+        mTail.lazySet(tail + 1);
+    }
+
+    /**
+     * Returns the next frame to be read, with position 0 and limit equal to its length,
+     * or null if the ring is empty. Until {@link #endRead()} is called, this keeps returning
+     * the same frame. Consumer thread only.
+     * @return a frame or null
+     */
+    @Nullable
+    ByteBuffer beginRead() {
+        long head = mHead.get();
+        if (head >= mTail.get()) return null;
+        int index = (int) (head % mCapacity);
+        ByteBuffer frame = mFrames[index];
+        frame.clear();
+        frame.limit(mLengths[index]);
+        return frame;
+    }
+
+    /**
+     * Returns the length of the frame returned by {@link #beginRead()}.
+     * @return the length
+     */
+    int getLength() {
+        return mLengths[(int) (mHead.get() % mCapacity)];
+    }
+
+    /**
+     * Returns the timestamp of the frame returned by {@link #beginRead()}.
+     * @return the timestamp
+     */
+    long getTimestampUs() {
+        return mTimestamps[(int) (mHead.get() % mCapacity)];
+    }
+
+    /**
+     * Returns the end of stream flag of the frame returned by {@link #beginRead()}.
+     * @return true if last frame
+     */
+    boolean isEndOfStream() {
+        return mEndOfStreams[(int) (mHead.get() % mCapacity)];
+    }
+
+    /**
+     * Gives back the frame returned by {@link #beginRead()}, so it can be written again.
+     * Consumer thread only.
+     */
+    void endRead() {
+        long head = mHead.get();
+        if (head >= mTail.get()) {
+            throw new IllegalStateException("endRead() called, but the ring is empty.");
+        }
+        mHead.lazySet(head + 1);
+    }
+}
@@ -1,6 +1,6 @@
 package com.otaliastudios.cameraview.video.encoding;
 
-import android.util.Log;
+import androidx.annotation.NonNull;
 
 /**
  * Computes timestamps for audio frames.
@@ -11,7 +11,13 @@ import android.util.Log;
  * all channels and the byte rate accounts for this as well.
  * If channels is 2, both values will be doubled and we behave the same.
  *
- * This class keeps track of gaps between frames.
+ * Timestamps come from a clock that advances with the read bytes, and that is slowly
+ * locked to the times given by a {@link TimeSource}, like a phase-locked loop:
+ * each observation corrects both the clock phase and its rate, so that jitter is smoothed
+ * out and drift between the audio and system clocks is followed, without resets.
+ *
+ * This class keeps track of gaps between frames, which are only detected when audio
+ * was really lost, not when reads were just late.
  * This can be used, for example, to write zeros instead of nothing.
  */
 class AudioTimestamp {
@@ -24,58 +30,130 @@ class AudioTimestamp {
         return (1000L * bytes) / byteRate;
     }
 
-    private int mByteRate;
-    private long mBaseTimeUs;
-    private long mBytesSinceBaseTime;
+    /**
+     * Tells when audio was captured.
+     */
+    interface TimeSource {
+
+        /**
+         * Returns the time at which the last read byte was captured, in the
+         * {@link System#nanoTime()} reference, in microseconds.
+         *
+         * @param totalBytes the number of bytes read so far
+         * @return the capture time
+         */
+        long getTimeUs(long totalBytes);
+    }
+
+    /**
+     * A {@link TimeSource} that assumes that the last byte was captured right now.
+     * This is late when the reader falls behind, and is not precise because of
+     * thread scheduling, but {@link AudioTimestamp} accounts for both.
+     */
+    final static TimeSource SYSTEM = new TimeSource() {
+        @Override
+        public long getTimeUs(long totalBytes) {
+            return System.nanoTime() / 1000;
+        }
+    };
+
+    // How much of the error is corrected at each observation.
+    final static float PHASE_GAIN = 0.1F;
+    // How much of the error (relative to the buffer duration) changes the rate.
+    final static float RATE_GAIN = 0.0005F;
+    // The max difference between the audio and the system clock rates.
+    final static float MAX_DRIFT = 0.005F;
+    // Errors bigger than this many buffers, if they persist, mean that audio was lost.
+    final static int GAP_BUFFERS = 2;
+    // Number of consecutive reliable observations that must agree on a gap.
+    final static int GAP_OBSERVATIONS = 2;
+
+    private final int mByteRate;
+    private final TimeSource mSource;
+    private long mTotalBytes;
+    private boolean mStarted;
+    private double mEndTimeUs;
+    private double mRate = 1;
+    private long mLastObservedUs;
+    private int mLateObservations;
+    private double mLateErrorUs;
     private long mGapUs;
 
     AudioTimestamp(int byteRate) {
+        this(byteRate, SYSTEM);
+    }
+
+    AudioTimestamp(int byteRate, @NonNull TimeSource source) {
         mByteRate = byteRate;
+        mSource = source;
     }
 
     /**
-     * This method accounts for the current time and proved to be the most reliable among
-     * the ones tested.
+     * Returns the timestamp of the buffer that was just read, which is the end of the
+     * previous buffer, unless a gap was found. Timestamps are strictly increasing.
      *
-     * This creates regular timestamps unless we accumulate a lot of delay (greater than
-     * twice the buffer duration), in which case it creates a gap and starts again trying
-     * to be regular from the new point.
+     * Each read is compared with the time source. An observation is considered reliable
+     * when it comes at about the same pace as the audio: observations after a stall or
+     * while catching up with the recorded audio are ignored, since they are late.
+     * Reliable observations correct the clock. If they are late by more than
+     * {@link #GAP_BUFFERS} buffers several times in a row, some audio was lost,
+     * so we create a gap and go on from there.
      *
      * Returns timestamps in the {@link System#nanoTime()} reference.
      */
-    @SuppressWarnings("SameParameterValue")
     long increaseUs(int readBytes) {
-        long bufferDurationUs = bytesToUs((long) readBytes, mByteRate);
-        long bufferEndTimeUs = System.nanoTime() / 1000; // now
-        long bufferStartTimeUs = bufferEndTimeUs - bufferDurationUs;
-
-        // If this is the first time, the base time is the buffer start time.
-        if (mBytesSinceBaseTime == 0) mBaseTimeUs = bufferStartTimeUs;
-
-        // Recompute time assuming that we are respecting the sampling frequency.
-        // This puts the time at the end of last read buffer, which means, where we
-        // should be if we had no delay / missed buffers.
-        long correctedTimeUs = mBaseTimeUs + bytesToUs(mBytesSinceBaseTime, mByteRate);
-        long correctionUs = bufferStartTimeUs - correctedTimeUs;
-
-        if (correctionUs >= 2L * bufferDurationUs) {
-            // However, if the correction is too big (> 2*bufferDurationUs), reset to this point.
-            // This is triggered if we lose buffers and are recording/encoding at a slower rate.
-            mBaseTimeUs = bufferStartTimeUs;
-            mBytesSinceBaseTime = readBytes;
-            mGapUs = correctionUs;
-            return mBaseTimeUs;
-        } else {
-            //noinspection StatementWithEmptyBody
-            if (correctionUs < 0) {
-                // This means that this method is being called too often, so that the expected start
-                // time for this buffer is BEFORE the last buffer end. So, respect the last buffer
-                // end instead.
+        mTotalBytes += readBytes;
+        // Not rounded, or errors would add up.
+        double bufferDurationUs = 1000000D * readBytes / mByteRate;
+        long observedEndUs = mSource.getTimeUs(mTotalBytes);
+        mGapUs = 0;
+
+        // If this is the first time, trust the source.
+        if (!mStarted) {
+            mStarted = true;
+            mLastObservedUs = observedEndUs;
+            mEndTimeUs = observedEndUs;
+            return (long) (observedEndUs - bufferDurationUs);
+        }
+
+        double startTimeUs = mEndTimeUs;
+        double predictedEndUs = startTimeUs + bufferDurationUs * mRate;
+        double errorUs = observedEndUs - predictedEndUs;
+        long paceUs = observedEndUs - mLastObservedUs;
+        mLastObservedUs = observedEndUs;
+        boolean reliable = paceUs >= bufferDurationUs / 2 && paceUs <= bufferDurationUs * 2;
+
+        if (reliable && errorUs > GAP_BUFFERS * bufferDurationUs) {
+            mLateErrorUs = mLateObservations == 0 ? errorUs : Math.min(mLateErrorUs, errorUs);
+            mLateObservations++;
+            if (mLateObservations >= GAP_OBSERVATIONS) {
+                // Audio was lost. Jump ahead, but not further than the smallest error,
+                // since the other could be late because of jitter.
+                mGapUs = (long) mLateErrorUs;
+                mLateObservations = 0;
+                startTimeUs += mGapUs;
+                predictedEndUs += mGapUs;
+                errorUs -= mGapUs;
+            } else {
+                // Wait for confirmation.
+                reliable = false;
             }
-            mGapUs = 0;
-            mBytesSinceBaseTime += readBytes;
-            return correctedTimeUs;
+        } else if (reliable) {
+            mLateObservations = 0;
+        }
+
+        double correctionUs = 0;
+        if (reliable) {
+            // Clip the error so that a single outlier can't move the clock too much.
+            double clippedErrorUs = Math.max(-bufferDurationUs,
+                    Math.min(bufferDurationUs, errorUs));
+            correctionUs = PHASE_GAIN * clippedErrorUs;
+            mRate += RATE_GAIN * clippedErrorUs / bufferDurationUs;
+            mRate = Math.max(1 - MAX_DRIFT, Math.min(1 + MAX_DRIFT, mRate));
         }
+        // Phase corrections are smaller than the buffer, so this keeps increasing.
+        mEndTimeUs = predictedEndUs + correctionUs;
+        return (long) startTimeUs;
     }
 
     /**
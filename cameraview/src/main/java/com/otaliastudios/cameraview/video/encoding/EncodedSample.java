@@ -0,0 +1,125 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import android.media.MediaCodec;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An encoded sample, as passed to {@link EncodedSampleListener#onSample(EncodedSample)}.
+ * Instances are reused, so they are only valid during the listener call.
+ */
+public final class EncodedSample {
+
+    private int mTrack;
+    private boolean mVideo;
+    private int mFlags;
+    private long mPresentationTimeUs;
+    private int mDroppedCount;
+    private ByteBuffer mData;
+    private ByteBuffer mBuffer;
+
+    EncodedSample() { }
+
+    /**
+     * Wraps the given data, without copying.
+     */
+    void wrap(int track, boolean video, @NonNull ByteBuffer data, int flags,
+              long presentationTimeUs) {
+        set(track, video, flags, presentationTimeUs);
+        mData = data;
+    }
+
+    /**
+     * Copies the given data, from position to limit, into our own buffer,
+     * which grows when needed.
+     */
+    void copy(int track, boolean video, @NonNull ByteBuffer data, int flags,
+              long presentationTimeUs) {
+        set(track, video, flags, presentationTimeUs);
+        int size = data.remaining();
+        if (mBuffer == null || mBuffer.capacity() < size) {
+            int capacity = mBuffer == null ? size : Math.max(size, mBuffer.capacity() * 2);
+            mBuffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        }
+        mBuffer.clear();
+        int position = data.position();
+        mBuffer.put(data);
+        data.position(position);
+        mBuffer.flip();
+        mData = mBuffer;
+    }
+
+    private void set(int track, boolean video, int flags, long presentationTimeUs) {
+        mTrack = track;
+        mVideo = video;
+        mFlags = flags;
+        mPresentationTimeUs = presentationTimeUs;
+    }
+
+    void setDroppedCount(int droppedCount) {
+        mDroppedCount = droppedCount;
+    }
+
+    /**
+     * Returns the track index, as passed to
+     * {@link EncodedSampleListener#onTrackFormat(int, android.media.MediaFormat)}.
+     * @return the track index
+     */
+    public int getTrack() {
+        return mTrack;
+    }
+
+    /**
+     * Whether this sample belongs to a video track.
+     * @return true if video
+     */
+    public boolean isVideo() {
+        return mVideo;
+    }
+
+    /**
+     * Returns the {@link MediaCodec.BufferInfo} flags.
+     * @return the flags
+     */
+    public int getFlags() {
+        return mFlags;
+    }
+
+    /**
+     * Whether this is a key frame, which can be decoded without previous samples.
+     * @return true if key frame
+     */
+    public boolean isKeyFrame() {
+        //noinspection deprecation
+        return (mFlags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0;
+    }
+
+    /**
+     * Returns the presentation time, in the same reference as the video file.
+     * @return the presentation time in microseconds
+     */
+    public long getPresentationTimeUs() {
+        return mPresentationTimeUs;
+    }
+
+    /**
+     * Returns the sample data, from position to limit.
+     * @return the data
+     */
+    @NonNull
+    public ByteBuffer getData() {
+        return mData;
+    }
+
+    /**
+     * Returns the number of samples, of any track, that were dropped
+     * since the previous sample was delivered.
+     * @return the dropped count
+     */
+    public int getDroppedCount() {
+        return mDroppedCount;
+    }
+}
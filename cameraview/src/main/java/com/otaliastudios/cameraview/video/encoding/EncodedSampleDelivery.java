@@ -0,0 +1,111 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Controls how encoded samples are delivered to an {@link EncodedSampleListener}.
+ *
+ * With {@link #ZERO_COPY}, the listener is called synchronously on the encoder threads and
+ * receives the encoder buffers. Otherwise, samples are copied into pooled buffers and handed
+ * to a background thread through a bounded queue, so that a slow listener never blocks the
+ * encoders. When the queue is full, samples are dropped according to the policy.
+ *
+ * After a video sample is dropped, the following video samples of the same track are also
+ * dropped until the next key frame, since they could not be decoded anyway.
+ * The number of samples dropped before each sample is available through
+ * {@link EncodedSample#getDroppedCount()}.
+ */
+public final class EncodedSampleDelivery {
+
+    final static int TYPE_ZERO_COPY = 0;
+    final static int TYPE_DROP_NEWEST = 1;
+    final static int TYPE_DROP_OLDEST = 2;
+
+    /**
+     * The default queue capacity.
+     */
+    public final static int DEFAULT_CAPACITY = 60;
+
+    /**
+     * Calls the listener synchronously on the encoder threads, with the encoder buffers.
+     * There are no copies, but a slow listener slows down the encoders too, which can
+     * lead to dropped frames in the recording. Calls are serialized across tracks.
+     */
+    public final static EncodedSampleDelivery ZERO_COPY
+            = new EncodedSampleDelivery(TYPE_ZERO_COPY, 0);
+
+    /**
+     * Keeps at most the given number of samples waiting. When a new sample arrives
+     * and the queue is full, the new sample is dropped.
+     *
+     * @param capacity the max number of waiting samples
+     * @return a delivery policy
+     */
+    @NonNull
+    public static EncodedSampleDelivery dropNewest(int capacity) {
+        return new EncodedSampleDelivery(TYPE_DROP_NEWEST, checkCapacity(capacity));
+    }
+
+    /**
+     * Keeps at most the given number of samples waiting. When a new sample arrives
+     * and the queue is full, the oldest waiting sample is dropped. This keeps the
+     * latency low, which is usually what streaming needs.
+     *
+     * @param capacity the max number of waiting samples
+     * @return a delivery policy
+     */
+    @NonNull
+    public static EncodedSampleDelivery dropOldest(int capacity) {
+        return new EncodedSampleDelivery(TYPE_DROP_OLDEST, checkCapacity(capacity));
+    }
+
+    private static int checkCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Queue capacity should be at least 1, got "
+                    + capacity);
+        }
+        return capacity;
+    }
+
+    private final int mType;
+    private final int mCapacity;
+
+    private EncodedSampleDelivery(int type, int capacity) {
+        mType = type;
+        mCapacity = capacity;
+    }
+
+    int getType() {
+        return mType;
+    }
+
+    /**
+     * Returns the max number of samples that can be waiting for the listener.
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof EncodedSampleDelivery
+                && ((EncodedSampleDelivery) obj).mType == mType
+                && ((EncodedSampleDelivery) obj).mCapacity == mCapacity;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mType + mCapacity;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        switch (mType) {
+            case TYPE_ZERO_COPY: return "ZERO_COPY";
+            case TYPE_DROP_NEWEST: return "DROP_NEWEST(" + mCapacity + ")";
+            default: return "DROP_OLDEST(" + mCapacity + ")";
+        }
+    }
+}
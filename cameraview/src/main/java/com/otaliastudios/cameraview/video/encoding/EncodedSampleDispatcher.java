@@ -0,0 +1,205 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import androidx.annotation.NonNull;
+
+import com.otaliastudios.cameraview.CameraLogger;
+import com.otaliastudios.cameraview.internal.RingBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Feeds encoded samples from the encoder threads to an {@link EncodedSampleListener},
+ * according to an {@link EncodedSampleDelivery} policy.
+ *
+ * Unless the delivery is zero-copy, samples are copied into a pool of
+ * {@link EncodedSample}s and offered to a lock-free queue, which is drained on the given
+ * executor. The pool holds one sample more than the queue, for the one being delivered,
+ * so once all buffers have grown to the max sample size, dispatching allocates nothing.
+ * Encoder threads never wait for the listener.
+ */
+class EncodedSampleDispatcher implements Runnable {
+
+    private final static String TAG = EncodedSampleDispatcher.class.getSimpleName();
+    private final static CameraLogger LOG = CameraLogger.create(TAG);
+
+    private final static int MAX_TRACKS = 8;
+
+    private final EncodedSampleListener mListener;
+    private final EncodedSampleDelivery mDelivery;
+    private final Executor mExecutor;
+    private final RingBuffer<EncodedSample> mQueue;
+    private final RingBuffer<EncodedSample> mPool;
+    private final EncodedSample mZeroCopySample = new EncodedSample();
+    private final AtomicBoolean mBusy = new AtomicBoolean(false);
+    private final AtomicInteger mDropped = new AtomicInteger(0);
+    private final AtomicInteger mTotalDropped = new AtomicInteger(0);
+    // Tracks that are waiting for a key frame, after a drop.
+    private final AtomicIntegerArray mWaitingKeyFrame = new AtomicIntegerArray(MAX_TRACKS);
+    private final AtomicIntegerArray mVideoTracks = new AtomicIntegerArray(MAX_TRACKS);
+    private volatile boolean mReleased;
+
+    EncodedSampleDispatcher(@NonNull EncodedSampleListener listener,
+                            @NonNull EncodedSampleDelivery delivery,
+                            @NonNull Executor executor) {
+        mListener = listener;
+        mDelivery = delivery;
+        mExecutor = executor;
+        if (delivery.getType() == EncodedSampleDelivery.TYPE_ZERO_COPY) {
+            mQueue = null;
+            mPool = null;
+        } else {
+            mQueue = new RingBuffer<>(delivery.getCapacity());
+            mPool = new RingBuffer<>(delivery.getCapacity() + 1);
+            for (int i = 0; i < delivery.getCapacity() + 1; i++) {
+                mPool.offer(new EncodedSample());
+            }
+        }
+    }
+
+    /**
+     * Passes the track format to the listener.
+     * Should be called before any sample of this track is dispatched.
+     *
+     * @param track the track index
+     * @param format the format
+     * @param video whether this is a video track
+     */
+    void dispatchFormat(final int track, @NonNull final MediaFormat format, boolean video) {
+        if (track < MAX_TRACKS) mVideoTracks.set(track, video ? 1 : 0);
+        if (mQueue == null) {
+            synchronized (mZeroCopySample) {
+                mListener.onTrackFormat(track, format);
+            }
+        } else {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onTrackFormat(track, format);
+                }
+            });
+        }
+    }
+
+    /**
+     * Called by the encoder threads. The data is read from position to limit,
+     * which are left unchanged.
+     *
+     * @param track the track index
+     * @param data the sample data
+     * @param flags the {@link MediaCodec.BufferInfo} flags
+     * @param presentationTimeUs the presentation time
+     */
+    void dispatch(int track, @NonNull ByteBuffer data, int flags, long presentationTimeUs) {
+        if (mReleased) return;
+        boolean video = track < MAX_TRACKS && mVideoTracks.get(track) == 1;
+        if (mQueue == null) {
+            int position = data.position();
+            int limit = data.limit();
+            synchronized (mZeroCopySample) {
+                mZeroCopySample.wrap(track, video, data, flags, presentationTimeUs);
+                mListener.onSample(mZeroCopySample);
+            }
+            data.limit(limit);
+            data.position(position);
+            return;
+        }
+
+        //noinspection deprecation
+        boolean keyFrame = (flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0;
+        if (video && mWaitingKeyFrame.get(track) == 1) {
+            if (!keyFrame) {
+                onDropped(track, video);
+                return;
+            }
+            mWaitingKeyFrame.set(track, 0);
+        }
+        EncodedSample sample = mPool.poll();
+        if (sample == null && mDelivery.getType() == EncodedSampleDelivery.TYPE_DROP_OLDEST) {
+            sample = evict();
+            if (sample != null && video && !keyFrame && mWaitingKeyFrame.get(track) == 1) {
+                // We evicted a sample of this track, so this one can't be decoded.
+                mPool.offer(sample);
+                sample = null;
+            }
+        }
+        if (sample == null) {
+            onDropped(track, video);
+            return;
+        }
+        sample.copy(track, video, data, flags, presentationTimeUs);
+        sample.setDroppedCount(0);
+        while (true) {
+            // Samples evicted below come before this one, so they are counted here.
+            sample.setDroppedCount(sample.getDroppedCount() + mDropped.getAndSet(0));
+            if (mQueue.offer(sample)) break;
+            if (mDelivery.getType() == EncodedSampleDelivery.TYPE_DROP_NEWEST) {
+                mDropped.addAndGet(sample.getDroppedCount());
+                mPool.offer(sample);
+                onDropped(track, video);
+                return;
+            }
+            EncodedSample old = evict();
+            if (old != null) mPool.offer(old);
+        }
+        if (mBusy.compareAndSet(false, true)) {
+            mExecutor.execute(this);
+        }
+    }
+
+    /**
+     * Removes the oldest waiting sample, if any, and counts it as dropped.
+     */
+    private EncodedSample evict() {
+        EncodedSample old = mQueue.poll();
+        if (old != null) {
+            mDropped.addAndGet(old.getDroppedCount());
+            onDropped(old.getTrack(), old.isVideo());
+        }
+        return old;
+    }
+
+    private void onDropped(int track, boolean video) {
+        LOG.v("dispatch: listener is busy, dropping sample. track:", track,
+                "delivery:", mDelivery);
+        mDropped.incrementAndGet();
+        mTotalDropped.incrementAndGet();
+        if (video) mWaitingKeyFrame.set(track, 1);
+    }
+
+    /**
+     * Returns the number of samples that were dropped so far.
+     * @return the dropped count
+     */
+    int getDroppedCount() {
+        return mTotalDropped.get();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            EncodedSample sample;
+            while ((sample = mQueue.poll()) != null) {
+                mListener.onSample(sample);
+                mPool.offer(sample);
+            }
+            mBusy.set(false);
+            // A sample might have been offered after the last poll, but before we
+            // reset the busy flag. In this case nobody scheduled us, so keep going.
+            if (mQueue.isEmpty() || !mBusy.compareAndSet(false, true)) return;
+        }
+    }
+
+    /**
+     * Stops accepting samples. Samples that are still waiting will be delivered.
+     */
+    void release() {
+        mReleased = true;
+    }
+}
@@ -0,0 +1,39 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import android.media.MediaFormat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.otaliastudios.cameraview.CameraView;
+
+/**
+ * Receives the encoded samples of video snapshots as they are produced,
+ * for example to stream them. Can be set with
+ * {@link CameraView#setVideoSnapshotSampleListener(EncodedSampleListener)}.
+ *
+ * Calls happen on a background thread, or on the encoder threads if the delivery
+ * is {@link EncodedSampleDelivery#ZERO_COPY}. They are never concurrent.
+ */
+public interface EncodedSampleListener {
+
+    /**
+     * Called once per track, before its samples, with the output format of the encoder.
+     * This includes the codec specific data (e.g. csd-0 and csd-1 for H.264), which
+     * is not repeated in the samples.
+     *
+     * @param track the track index
+     * @param format the track format
+     */
+    @WorkerThread
+    void onTrackFormat(int track, @NonNull MediaFormat format);
+
+    /**
+     * Called for each encoded sample. The sample and its data are only valid
+     * during this call, and should not be modified.
+     *
+     * @param sample the sample
+     */
+    @WorkerThread
+    void onSample(@NonNull EncodedSample sample);
+}
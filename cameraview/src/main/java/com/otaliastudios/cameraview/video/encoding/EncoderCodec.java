@@ -0,0 +1,116 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The buffer operations of the codec used by {@link MediaEncoder}. Methods mirror those of
+ * {@link MediaCodec}, which is the default implementation, through {@link PlatformEncoderCodec}.
+ *
+ * The codec either works in synchronous mode, where buffers are dequeued by polling,
+ * or in asynchronous mode, where they are passed to a {@link Callback} as soon as
+ * they are available. In asynchronous mode, the dequeue methods must not be called.
+ */
+@RequiresApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+interface EncoderCodec {
+
+    /**
+     * Receives buffers in asynchronous mode. Methods mirror those of
+     * {@link MediaCodec.Callback}, and are called on a single thread.
+     */
+    interface Callback {
+
+        /**
+         * An input buffer is available, and can be filled and queued.
+         * @param index the buffer index
+         */
+        void onInputBufferAvailable(int index);
+
+        /**
+         * An output buffer is available, and should be released when done.
+         * @param index the buffer index
+         * @param info the buffer info
+         */
+        void onOutputBufferAvailable(int index, @NonNull MediaCodec.BufferInfo info);
+
+        /**
+         * The output format has changed, which happens before the first output buffer.
+         * @param format the new format
+         */
+        void onOutputFormatChanged(@NonNull MediaFormat format);
+
+        /**
+         * The codec has failed, and can't be used anymore.
+         * @param error the error
+         */
+        void onError(@NonNull Exception error);
+    }
+
+    /**
+     * Switches to asynchronous mode. Must be called before the codec is configured,
+     * and needs API 21 for the default implementation.
+     * @param callback the callback
+     */
+    void setCallback(@NonNull Callback callback);
+
+    /**
+     * Returns the index of an input buffer, or a negative value if none is available
+     * within the given timeout. Synchronous mode only.
+     * @param timeoutUs the timeout
+     * @return the buffer index
+     */
+    int dequeueInputBuffer(long timeoutUs);
+
+    /**
+     * Returns the input buffer with the given index, cleared.
+     * @param index the buffer index
+     * @return the buffer
+     */
+    @NonNull
+    ByteBuffer getInputBuffer(int index);
+
+    /**
+     * Queues a filled input buffer.
+     * @param index the buffer index
+     * @param size the number of bytes, from position 0
+     * @param presentationTimeUs the presentation time
+     * @param flags the {@link MediaCodec} buffer flags
+     */
+    void queueInputBuffer(int index, int size, long presentationTimeUs, int flags);
+
+    /**
+     * Returns the index of an output buffer, filling the info, or one of the
+     * {@link MediaCodec} INFO constants. Synchronous mode only.
+     * @param info the info to be filled
+     * @param timeoutUs the timeout
+     * @return the buffer index or status
+     */
+    int dequeueOutputBuffer(@NonNull MediaCodec.BufferInfo info, long timeoutUs);
+
+    /**
+     * Returns the output buffer with the given index.
+     * @param index the buffer index
+     * @return the buffer
+     */
+    @NonNull
+    ByteBuffer getOutputBuffer(int index);
+
+    /**
+     * Returns the current output format.
+     * @return the format
+     */
+    @NonNull
+    MediaFormat getOutputFormat();
+
+    /**
+     * Gives the output buffer back to the codec.
+     * @param index the buffer index
+     */
+    void releaseOutputBuffer(int index);
+}
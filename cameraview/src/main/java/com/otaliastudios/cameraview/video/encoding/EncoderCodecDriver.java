@@ -0,0 +1,262 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import com.otaliastudios.cameraview.CameraLogger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves buffers in and out of an {@link EncoderCodec} for a {@link MediaEncoder},
+ * passing format changes, encoded data and the end of stream to a {@link Listener}.
+ *
+ * In synchronous mode, output is polled by {@link #drain(boolean)}, which loops on
+ * {@link EncoderCodec#dequeueOutputBuffer(MediaCodec.BufferInfo, long)}.
+ *
+ * In asynchronous mode, {@link #drain(boolean)} does nothing: output buffers are passed to
+ * the listener as soon as the codec calls us back, on the callback thread. Input buffer indices
+ * are queued as they become available, so that {@link #dequeueInputBuffer(long)} can wait for
+ * them without polling the codec.
+ *
+ * If the codec fails, which can only be reported in asynchronous mode, the error is passed
+ * to the listener and the driver behaves as if the codec reached the end of stream:
+ * input is ignored and the next {@link #drain(boolean)} with drainAll set ends the stream.
+ */
+@RequiresApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class EncoderCodecDriver implements EncoderCodec.Callback {
+
+    private final static String TAG = EncoderCodecDriver.class.getSimpleName();
+    private final static CameraLogger LOG = CameraLogger.create(TAG);
+
+    // 0 also seems to be the best, although it does not change so much.
+    // Can't go too high or this is a bottleneck for the audio encoder.
+    private final static int OUTPUT_TIMEOUT_US = 0;
+
+    // More than the input buffers of any encoder we know of.
+    private final static int MAX_INPUT_BUFFERS = 64;
+
+    /**
+     * Receives the codec output.
+     */
+    interface Listener {
+
+        /**
+         * The output format is available, before the first output buffer.
+         * @param format the format
+         */
+        void onCodecFormat(@NonNull MediaFormat format);
+
+        /**
+         * An output buffer is available. The buffer is given back to the codec
+         * when this returns, so it should not be kept.
+         * @param data the buffer data
+         * @param info the buffer info
+         * @return true if synchronous draining should stop after this buffer
+         */
+        boolean onCodecOutput(@NonNull ByteBuffer data, @NonNull MediaCodec.BufferInfo info);
+
+        /**
+         * The last output buffer was passed to {@link #onCodecOutput(ByteBuffer,
+         * MediaCodec.BufferInfo)}. No other buffer will follow.
+         */
+        void onCodecEndOfStream();
+
+        /**
+         * The codec failed and can't be used anymore. No output buffer will follow,
+         * but {@link #onCodecEndOfStream()} will be called when draining all.
+         * Called on the codec callback thread.
+         * @param error the error
+         */
+        void onCodecError(@NonNull Exception error);
+    }
+
+    private final EncoderCodec mCodec;
+    private final boolean mAsync;
+    private final MediaCodec.BufferInfo mBufferInfo;
+    private final Listener mListener;
+    private final BlockingQueue<Integer> mInputIndices;
+    private EncoderMetricsRecorder.TrackRecorder mMetrics;
+    private volatile boolean mFailed;
+    private boolean mEnded;
+
+    /**
+     * Creates a new driver. In asynchronous mode, this sets the codec callback,
+     * so it must be called before the codec is configured.
+     *
+     * @param codec the codec
+     * @param async whether to use asynchronous mode
+     * @param bufferInfo an info object used for polling
+     * @param listener the listener
+     */
+    EncoderCodecDriver(@NonNull EncoderCodec codec,
+                       boolean async,
+                       @NonNull MediaCodec.BufferInfo bufferInfo,
+                       @NonNull Listener listener) {
+        mCodec = codec;
+        mAsync = async;
+        mBufferInfo = bufferInfo;
+        mListener = listener;
+        mInputIndices = async ? new ArrayBlockingQueue<Integer>(MAX_INPUT_BUFFERS) : null;
+        if (async) codec.setCallback(this);
+    }
+
+    /**
+     * Whether the codec failed. See {@link Listener#onCodecError(Exception)}.
+     * @return true if failed
+     */
+    boolean hasFailed() {
+        return mFailed;
+    }
+
+    /**
+     * Whether this driver works in asynchronous mode.
+     * @return true if asynchronous
+     */
+    boolean isAsync() {
+        return mAsync;
+    }
+
+    /**
+     * Sets the recorder for drain metrics, or null.
+     * @param metrics the recorder
+     */
+    void setMetrics(@Nullable EncoderMetricsRecorder.TrackRecorder metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Returns the index of an input buffer, or a negative value if none is available
+     * within the given timeout. In asynchronous mode, this blocks until a buffer
+     * is available, without polling the codec.
+     *
+     * @param timeoutUs the timeout
+     * @return the buffer index
+     */
+    int dequeueInputBuffer(long timeoutUs) {
+        if (mFailed) return -1;
+        if (!mAsync) return mCodec.dequeueInputBuffer(timeoutUs);
+        Integer index;
+        if (timeoutUs <= 0) {
+            index = mInputIndices.poll();
+        } else {
+            try {
+                index = mInputIndices.poll(timeoutUs, TimeUnit.MICROSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                index = null;
+            }
+        }
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the input buffer with the given index.
+     * @param index the buffer index
+     * @return the buffer
+     */
+    @NonNull
+    ByteBuffer getInputBuffer(int index) {
+        return mCodec.getInputBuffer(index);
+    }
+
+    /**
+     * Queues a filled input buffer.
+     * @param index the buffer index
+     * @param size the number of bytes
+     * @param presentationTimeUs the presentation time
+     * @param flags the buffer flags
+     */
+    void queueInputBuffer(int index, int size, long presentationTimeUs, int flags) {
+        if (mFailed) return;
+        mCodec.queueInputBuffer(index, size, presentationTimeUs, flags);
+    }
+
+    /**
+     * Passes all available output to the listener, in synchronous mode.
+     * If drainAll is set, this waits until the end of stream.
+     * In asynchronous mode, output is passed as soon as it's available,
+     * so this does nothing. If the codec failed, draining all ends the stream.
+     *
+     * @param drainAll whether to drain until the end of stream
+     */
+    void drain(boolean drainAll) {
+        if (mFailed) {
+            if (drainAll && !mEnded) {
+                mEnded = true;
+                mListener.onCodecEndOfStream();
+            }
+            return;
+        }
+        if (mAsync) return;
+        while (true) {
+            if (mMetrics != null) mMetrics.onDrainIteration();
+            int status = mCodec.dequeueOutputBuffer(mBufferInfo, OUTPUT_TIMEOUT_US);
+            LOG.i("DRAINING - Got status:", status);
+            if (status == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                // no output available yet
+                if (!drainAll) break; // out of while
+            } else if (status == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                // not expected for an encoder, and handled by the codec.
+            } else if (status == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                mListener.onCodecFormat(mCodec.getOutputFormat());
+            } else if (status < 0) {
+                LOG.e("Unexpected result from dequeueOutputBuffer: " + status);
+                // let's ignore it
+            } else if (onOutput(status, mBufferInfo, drainAll)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Passes the output buffer to the listener and releases it.
+     * Returns true if draining should stop.
+     */
+    private boolean onOutput(int index, @NonNull MediaCodec.BufferInfo info, boolean drainAll) {
+        ByteBuffer data = mCodec.getOutputBuffer(index);
+        boolean stop = mListener.onCodecOutput(data, info);
+        mCodec.releaseOutputBuffer(index);
+        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            mEnded = true;
+            mListener.onCodecEndOfStream();
+            return true;
+        }
+        // Not needed if drainAll because we already were asked to stop.
+        return stop && !drainAll;
+    }
+
+    @Override
+    public void onInputBufferAvailable(int index) {
+        if (!mInputIndices.offer(index)) {
+            LOG.e("onInputBufferAvailable:", "Too many input buffers. Dropping", index);
+        }
+    }
+
+    @Override
+    public void onOutputBufferAvailable(int index, @NonNull MediaCodec.BufferInfo info) {
+        if (mMetrics != null) mMetrics.onDrainIteration();
+        onOutput(index, info, false);
+    }
+
+    @Override
+    public void onOutputFormatChanged(@NonNull MediaFormat format) {
+        mListener.onCodecFormat(format);
+    }
+
+    @Override
+    public void onError(@NonNull Exception error) {
+        // Throwing here would crash the app on the callback thread.
+        // Let the encoder stop instead.
+        mFailed = true;
+        mListener.onCodecError(error);
+    }
+}
@@ -0,0 +1,97 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.otaliastudios.cameraview.internal.RingBuffer;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Carries events from the engine user (typically, the renderer thread) to the
+ * {@link EncoderThread} of a {@link MediaEncoder}.
+ *
+ * Events are identified by small integers, in the [0, {@link #MAX_EVENTS}) range, and are
+ * posted as pooled {@link Runnable}s, so that posting does not allocate. This matters for
+ * events that are posted for each frame. If more than the pool size are in flight, new events
+ * are created and dropped after they run, so that events are never lost.
+ *
+ * The number of pending events, posted but not executed yet, is counted for each event
+ * in an atomic array, so it can be read from any thread in constant time.
+ */
+class EncoderEventChannel {
+
+    final static int MAX_EVENTS = 8;
+    final static int POOL_SIZE = 16;
+
+    /**
+     * Receives the events, on the thread where they are run.
+     */
+    interface Receiver {
+        void onEvent(int event, @Nullable Object data);
+    }
+
+    private final Receiver mReceiver;
+    private final RingBuffer<Event> mPool;
+    private final AtomicIntegerArray mPendingEvents = new AtomicIntegerArray(MAX_EVENTS);
+
+    EncoderEventChannel(@NonNull Receiver receiver) {
+        this(receiver, POOL_SIZE);
+    }
+
+    EncoderEventChannel(@NonNull Receiver receiver, int poolSize) {
+        mReceiver = receiver;
+        mPool = new RingBuffer<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            mPool.offer(new Event());
+        }
+    }
+
+    /**
+     * Returns a runnable that passes the given event to the receiver, and should be
+     * posted to its thread. The event is pending until the runnable is run.
+     *
+     * @param event the event
+     * @param data the event payload
+     * @return a runnable to be posted
+     */
+    @NonNull
+    Runnable obtain(int event, @Nullable Object data) {
+        if (event < 0 || event >= MAX_EVENTS) {
+            throw new IllegalArgumentException("Invalid event: " + event);
+        }
+        Event item = mPool.poll();
+        if (item == null) item = new Event();
+        item.mEvent = event;
+        item.mData = data;
+        mPendingEvents.incrementAndGet(event);
+        return item;
+    }
+
+    /**
+     * Returns the number of events of the given type that were obtained,
+     * but were not run yet.
+     *
+     * @param event the event
+     * @return the pending events
+     */
+    int getPendingEvents(int event) {
+        return mPendingEvents.get(event);
+    }
+
+    private class Event implements Runnable {
+
+        private int mEvent;
+        private Object mData;
+
+        @Override
+        public void run() {
+            int event = mEvent;
+            Object data = mData;
+            mData = null;
+            mReceiver.onEvent(event, data);
+            mPendingEvents.decrementAndGet(event);
+            mPool.offer(this);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import com.otaliastudios.cameraview.CameraView;
+import com.otaliastudios.cameraview.VideoResult;
+import com.otaliastudios.cameraview.frame.LatencyHistogram;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * An immutable snapshot of the encoder metrics of a video snapshot, as returned by
+ * {@link CameraView#getVideoSnapshotMetrics()} while recording, and by
+ * {@link VideoResult#getEncoderMetrics()} at the end.
+ * Metrics are only collected if enabled with {@link CameraView#setVideoSnapshotMetricsEnabled(boolean)}.
+ *
+ * Counters are updated independently, so values taken while recording
+ * might be slightly inconsistent with each other.
+ */
+public final class EncoderMetrics {
+
+    /**
+     * Metrics about a single encoder and its track.
+     */
+    public final static class TrackMetrics {
+
+        private final int mTrack;
+        private final String mMimeType;
+        private final long mSamples;
+        private final long mBytes;
+        private final long mDurationUs;
+        private final long mDrainIterations;
+        private final LatencyHistogram mWriteLatency;
+        private final long mAudioGaps;
+        private final long mAudioGapFrames;
+        private final long mAudioNoiseFrames;
+
+        TrackMetrics(int track,
+                     @Nullable String mimeType,
+                     long samples,
+                     long bytes,
+                     long durationUs,
+                     long drainIterations,
+                     @NonNull LatencyHistogram writeLatency,
+                     long audioGaps,
+                     long audioGapFrames,
+                     long audioNoiseFrames) {
+            mTrack = track;
+            mMimeType = mimeType;
+            mSamples = samples;
+            mBytes = bytes;
+            mDurationUs = durationUs;
+            mDrainIterations = drainIterations;
+            mWriteLatency = writeLatency;
+            mAudioGaps = audioGaps;
+            mAudioGapFrames = audioGapFrames;
+            mAudioNoiseFrames = audioNoiseFrames;
+        }
+
+        /**
+         * Returns the track index, or -1 if the encoder did not start yet.
+         * @return the track index
+         */
+        public int getTrack() {
+            return mTrack;
+        }
+
+        /**
+         * Returns the mime type of the encoded data, or null if the encoder
+         * did not start yet.
+         * @return the mime type
+         */
+        @Nullable
+        public String getMimeType() {
+            return mMimeType;
+        }
+
+        /**
+         * Returns the number of encoded samples that were written.
+         * @return the sample count
+         */
+        public long getSamples() {
+            return mSamples;
+        }
+
+        /**
+         * Returns the number of encoded bytes that were written.
+         * @return the byte count
+         */
+        public long getBytes() {
+            return mBytes;
+        }
+
+        /**
+         * Returns the time between the first and the last sample that were written.
+         * @return the duration in microseconds
+         */
+        public long getDurationUs() {
+            return mDurationUs;
+        }
+
+        /**
+         * Returns the effective bit rate, computed from the written bytes and duration,
+         * as opposed to the bit rate that was requested to the encoder.
+         * @return the bit rate in bits per second, or 0 if unknown
+         */
+        public long getBitRate() {
+            if (mDurationUs <= 0) return 0;
+            return mBytes * 8L * 1000000L / mDurationUs;
+        }
+
+        /**
+         * Returns the number of times the encoder output was polled,
+         * whether it returned a buffer or not. In asynchronous mode, this is the
+         * number of output buffers that the encoder passed to us.
+         * @return the drain iterations
+         */
+        public long getDrainIterations() {
+            return mDrainIterations;
+        }
+
+        /**
+         * Returns the time spent writing samples into the muxer.
+         * @return the latency histogram
+         */
+        @NonNull
+        public LatencyHistogram getWriteLatency() {
+            return mWriteLatency;
+        }
+
+        /**
+         * Returns the number of times that the audio input had a gap, meaning that
+         * the microphone was read too late and some audio frames were lost.
+         * Always 0 for video tracks.
+         * @return the audio gaps
+         */
+        public long getAudioGaps() {
+            return mAudioGaps;
+        }
+
+        /**
+         * Returns the number of audio frames that were lost in gaps.
+         * Always 0 for video tracks.
+         * @return the lost audio frames
+         */
+        public long getAudioGapFrames() {
+            return mAudioGapFrames;
+        }
+
+        /**
+         * Returns the number of noise frames that were added to fill the gaps,
+         * which is at most {@link #getAudioGapFrames()}.
+         * Always 0 for video tracks.
+         * @return the noise frames
+         */
+        public long getAudioNoiseFrames() {
+            return mAudioNoiseFrames;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "TrackMetrics{track=" + mTrack
+                    + ", mime=" + mMimeType
+                    + ", samples=" + mSamples
+                    + ", bytes=" + mBytes
+                    + ", bitRate=" + getBitRate()
+                    + ", drainIterations=" + mDrainIterations
+                    + ", writeLatency=" + mWriteLatency
+                    + ", audioGaps=" + mAudioGaps
+                    + ", audioGapFrames=" + mAudioGapFrames
+                    + ", audioNoiseFrames=" + mAudioNoiseFrames + "}";
+        }
+    }
+
+    private final long mDurationMillis;
+    private final List<TrackMetrics> mTracks;
+
+    EncoderMetrics(long durationMillis, @NonNull List<TrackMetrics> tracks) {
+        mDurationMillis = durationMillis;
+        mTracks = tracks;
+    }
+
+    /**
+     * Returns the time elapsed since the encoders were started.
+     * @return the duration in milliseconds
+     */
+    public long getDurationMillis() {
+        return mDurationMillis;
+    }
+
+    /**
+     * Returns the metrics of all encoders, video first.
+     * @return the track metrics
+     */
+    @NonNull
+    public List<TrackMetrics> getTracks() {
+        return mTracks;
+    }
+
+    /**
+     * Returns the metrics of the video encoder.
+     * @return the video metrics
+     */
+    @NonNull
+    public TrackMetrics getVideo() {
+        return mTracks.get(0);
+    }
+
+    /**
+     * Returns the metrics of the audio encoder, or null if there is no audio.
+     * @return the audio metrics or null
+     */
+    @Nullable
+    public TrackMetrics getAudio() {
+        return mTracks.size() > 1 ? mTracks.get(1) : null;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "EncoderMetrics{duration=" + mDurationMillis
+                + ", tracks=" + mTracks + "}";
+    }
+}
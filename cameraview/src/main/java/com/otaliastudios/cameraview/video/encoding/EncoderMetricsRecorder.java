@@ -0,0 +1,151 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import com.otaliastudios.cameraview.internal.LatencyRecorder;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects {@link EncoderMetrics} from the {@link MediaEncoder}s and the
+ * {@link MediaEncoderEngine}.
+ *
+ * There is one {@link TrackRecorder} per encoder, created upfront, so that recording
+ * only uses atomic counters: it never takes locks nor allocates.
+ * Values can be read at any time with {@link #snapshot()}.
+ */
+class EncoderMetricsRecorder {
+
+    /**
+     * Counters for a single encoder.
+     */
+    static class TrackRecorder {
+        private volatile int mTrack = -1;
+        private volatile String mMimeType;
+        private volatile long mFirstTimeUs = Long.MIN_VALUE;
+        private volatile long mLastTimeUs = Long.MIN_VALUE;
+        private final AtomicLong mSamples = new AtomicLong(0);
+        private final AtomicLong mBytes = new AtomicLong(0);
+        private final AtomicLong mDrainIterations = new AtomicLong(0);
+        private final LatencyRecorder mWriteLatency = new LatencyRecorder();
+        private final AtomicLong mAudioGaps = new AtomicLong(0);
+        private final AtomicLong mAudioGapFrames = new AtomicLong(0);
+        private final AtomicLong mAudioNoiseFrames = new AtomicLong(0);
+
+        /**
+         * Called by the encoder once the track index is assigned.
+         * @param track the track index
+         * @param mimeType the output mime type
+         */
+        void onStarted(int track, @Nullable String mimeType) {
+            mMimeType = mimeType;
+            mTrack = track;
+        }
+
+        /**
+         * Called by the encoder at each iteration of the drain loop.
+         */
+        void onDrainIteration() {
+            mDrainIterations.incrementAndGet();
+        }
+
+        /**
+         * Called by the engine after a sample was written.
+         * Samples of a single track are written by a single thread.
+         * @param bytes the sample size
+         * @param presentationTimeUs the sample presentation time
+         * @param latencyNanos the time it took to write the sample
+         */
+        void onWrite(int bytes, long presentationTimeUs, long latencyNanos) {
+            if (mFirstTimeUs == Long.MIN_VALUE) mFirstTimeUs = presentationTimeUs;
+            mLastTimeUs = presentationTimeUs;
+            mSamples.incrementAndGet();
+            mBytes.addAndGet(bytes);
+            mWriteLatency.record(latencyNanos / 1000L);
+        }
+
+        /**
+         * Called by the audio encoder when the microphone input had a gap.
+         * @param frames the number of lost frames
+         * @param noiseFrames the number of noise frames added to fill the gap
+         */
+        void onAudioGap(int frames, int noiseFrames) {
+            mAudioGaps.incrementAndGet();
+            mAudioGapFrames.addAndGet(frames);
+            mAudioNoiseFrames.addAndGet(noiseFrames);
+        }
+
+        @NonNull
+        private EncoderMetrics.TrackMetrics snapshot() {
+            long first = mFirstTimeUs;
+            long last = mLastTimeUs;
+            return new EncoderMetrics.TrackMetrics(
+                    mTrack,
+                    mMimeType,
+                    mSamples.get(),
+                    mBytes.get(),
+                    first == Long.MIN_VALUE ? 0 : last - first,
+                    mDrainIterations.get(),
+                    mWriteLatency.snapshot(),
+                    mAudioGaps.get(),
+                    mAudioGapFrames.get(),
+                    mAudioNoiseFrames.get());
+        }
+    }
+
+    private final long mStartTime = System.currentTimeMillis();
+    private final TrackRecorder[] mTracks;
+
+    /**
+     * Creates a new recorder.
+     * @param encoders the number of encoders, video first
+     */
+    EncoderMetricsRecorder(int encoders) {
+        mTracks = new TrackRecorder[encoders];
+        for (int i = 0; i < encoders; i++) {
+            mTracks[i] = new TrackRecorder();
+        }
+    }
+
+    /**
+     * Returns the recorder for the encoder at the given position.
+     * @param encoder the encoder position, video first
+     * @return the recorder
+     */
+    @NonNull
+    TrackRecorder getEncoderTrack(int encoder) {
+        return mTracks[encoder];
+    }
+
+    /**
+     * Returns the recorder for the given track index, or null if no encoder
+     * has started with this index yet.
+     * @param track the track index
+     * @return the recorder or null
+     */
+    @Nullable
+    TrackRecorder getTrack(int track) {
+        for (TrackRecorder recorder : mTracks) {
+            if (recorder.mTrack == track) return recorder;
+        }
+        return null;
+    }
+
+    /**
+     * Returns an immutable snapshot of the current metrics.
+     * @return the metrics
+     */
+    @NonNull
+    EncoderMetrics snapshot() {
+        List<EncoderMetrics.TrackMetrics> tracks = new ArrayList<>(mTracks.length);
+        for (TrackRecorder recorder : mTracks) {
+            tracks.add(recorder.snapshot());
+        }
+        return new EncoderMetrics(System.currentTimeMillis() - mStartTime,
+                Collections.unmodifiableList(tracks));
+    }
+}
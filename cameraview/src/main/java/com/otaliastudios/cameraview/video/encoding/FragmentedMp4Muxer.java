@@ -0,0 +1,124 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import com.otaliastudios.cameraview.CameraLogger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Muxer} that writes a fragmented MP4 file through {@link FragmentedMp4Writer},
+ * so that a recording survives a crash, except for its last fragment.
+ *
+ * Only supports H.264 video and AAC audio. I/O errors do not throw while recording:
+ * samples are dropped, and the error is thrown by {@link #stop()}.
+ */
+@RequiresApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class FragmentedMp4Muxer implements Muxer {
+
+    private final static String TAG = FragmentedMp4Muxer.class.getSimpleName();
+    private final static CameraLogger LOG = CameraLogger.create(TAG);
+
+    /**
+     * Whether the given mime type can be written by this muxer.
+     * @param mimeType a mime type
+     * @return true if supported
+     */
+    static boolean isSupported(@NonNull String mimeType) {
+        return mimeType.equals("video/avc") || mimeType.equals("audio/mp4a-latm");
+    }
+
+    private final FileOutputStream mStream;
+    private final FragmentedMp4Writer mWriter;
+    private volatile IOException mError;
+
+    FragmentedMp4Muxer(@NonNull File file, long fragmentIntervalUs) throws IOException {
+        mStream = new FileOutputStream(file);
+        mWriter = new FragmentedMp4Writer(mStream.getChannel(), fragmentIntervalUs);
+    }
+
+    @Override
+    public int addTrack(@NonNull MediaFormat format) {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        if ("video/avc".equals(mime)) {
+            return mWriter.addVideoTrack(format.getInteger(MediaFormat.KEY_WIDTH),
+                    format.getInteger(MediaFormat.KEY_HEIGHT),
+                    getCodecData(format, "csd-0"),
+                    getCodecData(format, "csd-1"));
+        } else if ("audio/mp4a-latm".equals(mime)) {
+            return mWriter.addAudioTrack(format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                    format.getInteger(MediaFormat.KEY_CHANNEL_COUNT),
+                    getCodecData(format, "csd-0"));
+        } else {
+            throw new IllegalArgumentException("Unsupported mime type: " + mime);
+        }
+    }
+
+    @NonNull
+    private static ByteBuffer getCodecData(@NonNull MediaFormat format, @NonNull String key) {
+        ByteBuffer buffer = format.getByteBuffer(key);
+        if (buffer == null) {
+            throw new IllegalArgumentException("Format has no codec specific data: " + key);
+        }
+        return buffer;
+    }
+
+    @Override
+    public void start() {
+        try {
+            mWriter.start();
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, @NonNull ByteBuffer data,
+                                @NonNull MediaCodec.BufferInfo info) {
+        if (mError != null) return;
+        //noinspection deprecation
+        boolean sync = (info.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0;
+        try {
+            mWriter.writeSample(trackIndex, data, info.presentationTimeUs, sync);
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+
+    private void onError(@NonNull IOException e) {
+        LOG.e("Got an I/O error. Dropping samples from now on.", e);
+        if (mError == null) mError = e;
+    }
+
+    @Override
+    public void stop() {
+        if (mError == null) {
+            try {
+                mWriter.stop();
+            } catch (IOException e) {
+                mError = e;
+            }
+        }
+        IOException error = mError;
+        if (error != null) {
+            throw new IllegalStateException("Could not write the video file.", error);
+        }
+    }
+
+    @Override
+    public void release() {
+        try {
+            mStream.close();
+        } catch (IOException e) {
+            LOG.w("Could not close the video file.", e);
+        }
+    }
+}
@@ -0,0 +1,676 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes fragmented MP4 (ISO BMFF) files, as an alternative to MediaMuxer.
+ *
+ * MediaMuxer writes the sample tables into the moov box when it is stopped, so if the process
+ * dies during a recording, the whole file is lost. Here, the moov box is written upfront with
+ * empty sample tables, and samples are appended in self-contained moof + mdat fragments.
+ * A crash loses at most the last fragment, and sample tables are never held in memory for
+ * longer than a fragment.
+ *
+ * A new fragment starts at the first sync sample of the primary track (the first video track,
+ * or the first track) that comes after the fragment interval. Sample durations are computed
+ * from presentation times, so samples should come in presentation order, with no B-frames.
+ *
+ * Supports H.264 video and AAC audio. H.264 samples in Annex B format, as produced by
+ * MediaCodec, are converted to length prefixed NAL units.
+ *
+ * This class does not depend on Android APIs, so that it can be tested on the JVM.
+ * Methods are synchronized, so samples can be written from multiple threads.
+ */
+class FragmentedMp4Writer {
+
+    private final static int MOVIE_TIMESCALE = 1000;
+    private final static int VIDEO_TIMESCALE = 90000;
+    private final static int VIDEO_DEFAULT_DURATION = VIDEO_TIMESCALE / 30;
+    private final static int AUDIO_DEFAULT_DURATION = 1024; // AAC frame
+    private final static int SAMPLE_FLAGS_SYNC = 0x02000000;
+    private final static int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+    private final static int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+    private final static int TRUN_FLAGS = 0x000701; // data offset, duration, size, flags
+    private final static int[] MATRIX = new int[]{
+            0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000 };
+    private final static int INITIAL_SAMPLES = 64;
+    private final static int INITIAL_DATA_BYTES = 64 * 1024;
+
+    private static class Track {
+        private final int id;
+        private final boolean video;
+        private final int timescale;
+        private final int defaultDuration;
+        private int width;
+        private int height;
+        private byte[] sps;
+        private byte[] pps;
+        private int sampleRate;
+        private int channels;
+        private byte[] config;
+
+        // Pending samples, which were not written to a fragment yet.
+        private ByteBuffer data = ByteBuffer.allocate(INITIAL_DATA_BYTES);
+        private int[] sizes = new int[INITIAL_SAMPLES];
+        private long[] timesUs = new long[INITIAL_SAMPLES];
+        private boolean[] syncs = new boolean[INITIAL_SAMPLES];
+        private int count;
+        private long lastDuration;
+
+        private Track(int id, boolean video, int timescale) {
+            this.id = id;
+            this.video = video;
+            this.timescale = timescale;
+            this.defaultDuration = video ? VIDEO_DEFAULT_DURATION : AUDIO_DEFAULT_DURATION;
+        }
+    }
+
+    private final FileChannel mChannel;
+    private final long mFragmentIntervalUs;
+    private final List<Track> mTracks = new ArrayList<>();
+    private ByteBuffer mHeader = ByteBuffer.allocate(4096);
+    private Track mPrimaryTrack;
+    private boolean mStarted;
+    private boolean mStopped;
+    private long mOriginUs = Long.MIN_VALUE;
+    private long mFragmentStartUs = Long.MIN_VALUE;
+    private int mSequence;
+
+    /**
+     * Creates a new writer.
+     * @param channel the output channel, positioned at the start of the file
+     * @param fragmentIntervalUs the min duration of each fragment
+     */
+    FragmentedMp4Writer(@NonNull FileChannel channel, long fragmentIntervalUs) {
+        if (fragmentIntervalUs <= 0) {
+            throw new IllegalArgumentException("Fragment interval should be > 0.");
+        }
+        mChannel = channel;
+        mFragmentIntervalUs = fragmentIntervalUs;
+    }
+
+    /**
+     * Adds a H.264 video track. Parameter sets can be passed with or without start codes.
+     * @param width the video width
+     * @param height the video height
+     * @param sps the sequence parameter set (csd-0)
+     * @param pps the picture parameter set (csd-1)
+     * @return the track index
+     */
+    synchronized int addVideoTrack(int width, int height,
+                                   @NonNull ByteBuffer sps,
+                                   @NonNull ByteBuffer pps) {
+        checkNotStarted();
+        Track track = new Track(mTracks.size() + 1, true, VIDEO_TIMESCALE);
+        track.width = width;
+        track.height = height;
+        track.sps = firstNal(sps);
+        track.pps = firstNal(pps);
+        if (track.sps.length < 4 || track.pps.length == 0) {
+            throw new IllegalArgumentException("Invalid parameter sets.");
+        }
+        mTracks.add(track);
+        return mTracks.size() - 1;
+    }
+
+    /**
+     * Adds an AAC audio track.
+     * @param sampleRate the sample rate
+     * @param channels the channel count
+     * @param config the audio specific config (csd-0)
+     * @return the track index
+     */
+    synchronized int addAudioTrack(int sampleRate, int channels, @NonNull ByteBuffer config) {
+        checkNotStarted();
+        if (sampleRate <= 0 || config.remaining() == 0 || config.remaining() > 100) {
+            throw new IllegalArgumentException("Invalid audio parameters.");
+        }
+        Track track = new Track(mTracks.size() + 1, false, sampleRate);
+        track.sampleRate = sampleRate;
+        track.channels = channels;
+        track.config = new byte[config.remaining()];
+        config.duplicate().get(track.config);
+        mTracks.add(track);
+        return mTracks.size() - 1;
+    }
+
+    private void checkNotStarted() {
+        if (mStarted) throw new IllegalStateException("Writer was started already.");
+    }
+
+    /**
+     * Writes the file header, which includes the track descriptions.
+     * @throws IOException if writing fails
+     */
+    synchronized void start() throws IOException {
+        checkNotStarted();
+        if (mTracks.isEmpty()) throw new IllegalStateException("No tracks were added.");
+        mStarted = true;
+        mPrimaryTrack = mTracks.get(0);
+        for (Track track : mTracks) {
+            if (track.video) {
+                mPrimaryTrack = track;
+                break;
+            }
+        }
+        int bytes = 1024;
+        for (Track track : mTracks) {
+            bytes += 512 + (track.video ? track.sps.length + track.pps.length
+                    : track.config.length);
+        }
+        ensureHeader(bytes);
+        mHeader.clear();
+        writeFileType();
+        writeMovie();
+        mHeader.flip();
+        write(mHeader);
+    }
+
+    /**
+     * Writes a sample, which is copied and can be reused after this call.
+     * The sample might be written to the file later, when its fragment is complete.
+     *
+     * @param trackIndex the track index
+     * @param data the sample data, from position to limit
+     * @param presentationTimeUs the presentation time
+     * @param sync whether this is a sync sample. Ignored for audio tracks
+     * @throws IOException if writing a fragment fails
+     */
+    synchronized void writeSample(int trackIndex,
+                                  @NonNull ByteBuffer data,
+                                  long presentationTimeUs,
+                                  boolean sync) throws IOException {
+        if (!mStarted || mStopped) {
+            throw new IllegalStateException("Writer is not started or was stopped.");
+        }
+        Track track = mTracks.get(trackIndex);
+        sync = sync || !track.video;
+        if (track == mPrimaryTrack && sync) {
+            if (mFragmentStartUs == Long.MIN_VALUE) {
+                mFragmentStartUs = presentationTimeUs;
+            } else if (presentationTimeUs - mFragmentStartUs >= mFragmentIntervalUs
+                    && track.count > 0) {
+                flush(presentationTimeUs, false);
+                mFragmentStartUs = presentationTimeUs;
+            }
+        }
+        appendSample(track, data, presentationTimeUs, sync);
+    }
+
+    /**
+     * Writes all pending samples into a last fragment.
+     * The channel is not closed.
+     * @throws IOException if writing fails
+     */
+    synchronized void stop() throws IOException {
+        if (!mStarted || mStopped) return;
+        mStopped = true;
+        flush(0, true);
+    }
+
+    private void appendSample(@NonNull Track track, @NonNull ByteBuffer data,
+                              long presentationTimeUs, boolean sync) {
+        if (track.count == track.sizes.length) {
+            int capacity = track.count * 2;
+            int[] sizes = new int[capacity];
+            long[] timesUs = new long[capacity];
+            boolean[] syncs = new boolean[capacity];
+            System.arraycopy(track.sizes, 0, sizes, 0, track.count);
+            System.arraycopy(track.timesUs, 0, timesUs, 0, track.count);
+            System.arraycopy(track.syncs, 0, syncs, 0, track.count);
+            track.sizes = sizes;
+            track.timesUs = timesUs;
+            track.syncs = syncs;
+        }
+        int remaining = data.remaining();
+        // Converting start codes to lengths adds at most one byte every three.
+        ensureData(track, remaining + remaining / 3 + 4);
+        int before = track.data.position();
+        if (track.video) {
+            putNals(data, track.data);
+        } else {
+            track.data.put(data.duplicate());
+        }
+        track.sizes[track.count] = track.data.position() - before;
+        track.timesUs[track.count] = presentationTimeUs;
+        track.syncs[track.count] = sync;
+        track.count++;
+    }
+
+    private static void ensureData(@NonNull Track track, int bytes) {
+        if (track.data.remaining() >= bytes) return;
+        int capacity = Math.max(track.data.capacity() * 2, track.data.position() + bytes);
+        ByteBuffer data = ByteBuffer.allocate(capacity);
+        track.data.flip();
+        data.put(track.data);
+        track.data = data;
+    }
+
+    private void ensureHeader(int bytes) {
+        if (mHeader.capacity() < bytes) {
+            mHeader = ByteBuffer.allocate(Math.max(mHeader.capacity() * 2, bytes));
+        }
+    }
+
+    /**
+     * Writes pending samples into a new fragment.
+     * Unless flushing all, the last sample of secondary tracks is kept, because we don't
+     * know its duration yet. For the primary track, it is known from the next sample time.
+     *
+     * @param nextTimeUs time of the next primary sample, if not flushing all
+     * @param all whether to flush all
+     * @throws IOException if writing fails
+     */
+    private void flush(long nextTimeUs, boolean all) throws IOException {
+        if (mOriginUs == Long.MIN_VALUE) {
+            for (Track track : mTracks) {
+                if (track.count > 0 && (mOriginUs == Long.MIN_VALUE
+                        || track.timesUs[0] < mOriginUs)) {
+                    mOriginUs = track.timesUs[0];
+                }
+            }
+            if (mOriginUs == Long.MIN_VALUE) return;
+        }
+        int bytes = 64;
+        for (Track track : mTracks) {
+            bytes += 128 + 12 * track.count;
+        }
+        ensureHeader(bytes);
+        mHeader.clear();
+        int[] counts = new int[mTracks.size()];
+        int[] dataBytes = new int[mTracks.size()];
+        int[] dataOffsets = new int[mTracks.size()];
+        boolean empty = true;
+
+        int moof = begin("moof");
+        int mfhd = beginFull("mfhd", 0, 0);
+        mHeader.putInt(mSequence + 1);
+        end(mfhd);
+        for (int i = 0; i < mTracks.size(); i++) {
+            Track track = mTracks.get(i);
+            int count = all || track == mPrimaryTrack ? track.count : track.count - 1;
+            if (count <= 0) continue;
+            empty = false;
+            counts[i] = count;
+            int traf = begin("traf");
+            int tfhd = beginFull("tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF);
+            mHeader.putInt(track.id);
+            end(tfhd);
+            int tfdt = beginFull("tfdt", 1, 0);
+            mHeader.putLong(toTimescale(track, track.timesUs[0]));
+            end(tfdt);
+            int trun = beginFull("trun", 0, TRUN_FLAGS);
+            mHeader.putInt(count);
+            dataOffsets[i] = mHeader.position();
+            mHeader.putInt(0); // data offset, set below
+            for (int s = 0; s < count; s++) {
+                long duration;
+                if (s + 1 < track.count) {
+                    duration = toTimescale(track, track.timesUs[s + 1])
+                            - toTimescale(track, track.timesUs[s]);
+                } else if (!all) {
+                    duration = toTimescale(track, nextTimeUs)
+                            - toTimescale(track, track.timesUs[s]);
+                } else {
+                    duration = track.lastDuration > 0 ? track.lastDuration
+                            : track.defaultDuration;
+                }
+                duration = Math.max(0, duration);
+                track.lastDuration = duration;
+                mHeader.putInt((int) duration);
+                mHeader.putInt(track.sizes[s]);
+                mHeader.putInt(track.syncs[s] ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+                dataBytes[i] += track.sizes[s];
+            }
+            end(trun);
+            end(traf);
+        }
+        if (empty) return;
+        mSequence++;
+        end(moof);
+
+        // Data offsets are relative to the moof start, and point inside the mdat.
+        int offset = mHeader.position() - moof + 8;
+        int mdatSize = 8;
+        for (int i = 0; i < mTracks.size(); i++) {
+            if (counts[i] == 0) continue;
+            mHeader.putInt(dataOffsets[i], offset);
+            offset += dataBytes[i];
+            mdatSize += dataBytes[i];
+        }
+        mHeader.putInt(mdatSize);
+        putType("mdat");
+        mHeader.flip();
+        write(mHeader);
+        for (int i = 0; i < mTracks.size(); i++) {
+            if (counts[i] == 0) continue;
+            Track track = mTracks.get(i);
+            ByteBuffer data = track.data;
+            data.flip();
+            int limit = data.limit();
+            data.limit(dataBytes[i]);
+            write(data);
+            data.limit(limit);
+            data.compact();
+            int left = track.count - counts[i];
+            System.arraycopy(track.sizes, counts[i], track.sizes, 0, left);
+            System.arraycopy(track.timesUs, counts[i], track.timesUs, 0, left);
+            System.arraycopy(track.syncs, counts[i], track.syncs, 0, left);
+            track.count = left;
+        }
+    }
+
+    private long toTimescale(@NonNull Track track, long timeUs) {
+        return Math.max(0, timeUs - mOriginUs) * track.timescale / 1000000L;
+    }
+
+    private void write(@NonNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+
+    private void writeFileType() {
+        int ftyp = begin("ftyp");
+        putType("iso5");
+        mHeader.putInt(512);
+        putType("iso5");
+        putType("iso6");
+        putType("mp41");
+        end(ftyp);
+    }
+
+    private void writeMovie() {
+        int moov = begin("moov");
+        int mvhd = beginFull("mvhd", 0, 0);
+        mHeader.putInt(0); // creation time
+        mHeader.putInt(0); // modification time
+        mHeader.putInt(MOVIE_TIMESCALE);
+        mHeader.putInt(0); // duration, unknown
+        mHeader.putInt(0x00010000); // rate
+        mHeader.putShort((short) 0x0100); // volume
+        putZeros(10);
+        putMatrix();
+        putZeros(24);
+        mHeader.putInt(mTracks.size() + 1); // next track id
+        end(mvhd);
+        for (Track track : mTracks) {
+            writeTrack(track);
+        }
+        int mvex = begin("mvex");
+        for (Track track : mTracks) {
+            int trex = beginFull("trex", 0, 0);
+            mHeader.putInt(track.id);
+            mHeader.putInt(1); // sample description index
+            mHeader.putInt(0); // default duration
+            mHeader.putInt(0); // default size
+            mHeader.putInt(0); // default flags
+            end(trex);
+        }
+        end(mvex);
+        end(moov);
+    }
+
+    private void writeTrack(@NonNull Track track) {
+        int trak = begin("trak");
+        int tkhd = beginFull("tkhd", 0, 0x000003); // enabled, in movie
+        mHeader.putInt(0); // creation time
+        mHeader.putInt(0); // modification time
+        mHeader.putInt(track.id);
+        mHeader.putInt(0);
+        mHeader.putInt(0); // duration, unknown
+        putZeros(8);
+        mHeader.putShort((short) 0); // layer
+        mHeader.putShort((short) 0); // alternate group
+        mHeader.putShort((short) (track.video ? 0 : 0x0100)); // volume
+        mHeader.putShort((short) 0);
+        putMatrix();
+        mHeader.putInt(track.width << 16);
+        mHeader.putInt(track.height << 16);
+        end(tkhd);
+
+        int mdia = begin("mdia");
+        int mdhd = beginFull("mdhd", 0, 0);
+        mHeader.putInt(0); // creation time
+        mHeader.putInt(0); // modification time
+        mHeader.putInt(track.timescale);
+        mHeader.putInt(0); // duration, unknown
+        mHeader.putShort((short) 0x55C4); // und
+        mHeader.putShort((short) 0);
+        end(mdhd);
+        int hdlr = beginFull("hdlr", 0, 0);
+        mHeader.putInt(0);
+        putType(track.video ? "vide" : "soun");
+        putZeros(12);
+        putString(track.video ? "VideoHandler" : "SoundHandler");
+        end(hdlr);
+
+        int minf = begin("minf");
+        if (track.video) {
+            int vmhd = beginFull("vmhd", 0, 1);
+            putZeros(8);
+            end(vmhd);
+        } else {
+            int smhd = beginFull("smhd", 0, 0);
+            putZeros(4);
+            end(smhd);
+        }
+        int dinf = begin("dinf");
+        int dref = beginFull("dref", 0, 0);
+        mHeader.putInt(1);
+        int url = beginFull("url ", 0, 1); // self contained
+        end(url);
+        end(dref);
+        end(dinf);
+
+        int stbl = begin("stbl");
+        int stsd = beginFull("stsd", 0, 0);
+        mHeader.putInt(1);
+        if (track.video) {
+            writeVideoSampleEntry(track);
+        } else {
+            writeAudioSampleEntry(track);
+        }
+        end(stsd);
+        // Empty tables, samples are described by the fragments.
+        int stts = beginFull("stts", 0, 0);
+        mHeader.putInt(0);
+        end(stts);
+        int stsc = beginFull("stsc", 0, 0);
+        mHeader.putInt(0);
+        end(stsc);
+        int stsz = beginFull("stsz", 0, 0);
+        mHeader.putInt(0);
+        mHeader.putInt(0);
+        end(stsz);
+        int stco = beginFull("stco", 0, 0);
+        mHeader.putInt(0);
+        end(stco);
+        end(stbl);
+        end(minf);
+        end(mdia);
+        end(trak);
+    }
+
+    private void writeVideoSampleEntry(@NonNull Track track) {
+        int avc1 = begin("avc1");
+        putZeros(6);
+        mHeader.putShort((short) 1); // data reference index
+        putZeros(16);
+        mHeader.putShort((short) track.width);
+        mHeader.putShort((short) track.height);
+        mHeader.putInt(0x00480000); // 72 dpi
+        mHeader.putInt(0x00480000);
+        mHeader.putInt(0);
+        mHeader.putShort((short) 1); // frame count
+        putZeros(32); // compressor name
+        mHeader.putShort((short) 0x0018); // depth
+        mHeader.putShort((short) -1);
+        int avcC = begin("avcC");
+        mHeader.put((byte) 1); // version
+        mHeader.put(track.sps[1]); // profile
+        mHeader.put(track.sps[2]); // profile compatibility
+        mHeader.put(track.sps[3]); // level
+        mHeader.put((byte) 0xFF); // 4 bytes NAL length
+        mHeader.put((byte) 0xE1); // 1 SPS
+        mHeader.putShort((short) track.sps.length);
+        mHeader.put(track.sps);
+        mHeader.put((byte) 1); // 1 PPS
+        mHeader.putShort((short) track.pps.length);
+        mHeader.put(track.pps);
+        end(avcC);
+        end(avc1);
+    }
+
+    private void writeAudioSampleEntry(@NonNull Track track) {
+        int mp4a = begin("mp4a");
+        putZeros(6);
+        mHeader.putShort((short) 1); // data reference index
+        putZeros(8);
+        mHeader.putShort((short) track.channels);
+        mHeader.putShort((short) 16); // sample size
+        putZeros(4);
+        // 16.16 fixed point, so rates that don't fit are left to the timescale.
+        mHeader.putInt(track.sampleRate > 0xFFFF ? 0 : track.sampleRate << 16);
+        int esds = beginFull("esds", 0, 0);
+        int config = track.config.length;
+        mHeader.put((byte) 0x03); // ES descriptor
+        mHeader.put((byte) (3 + (2 + 13 + 2 + config) + (2 + 1)));
+        mHeader.putShort((short) track.id);
+        mHeader.put((byte) 0);
+        mHeader.put((byte) 0x04); // decoder config descriptor
+        mHeader.put((byte) (13 + 2 + config));
+        mHeader.put((byte) 0x40); // MPEG-4 audio
+        mHeader.put((byte) 0x15); // audio stream
+        putZeros(3); // buffer size
+        mHeader.putInt(0); // max bitrate
+        mHeader.putInt(0); // average bitrate
+        mHeader.put((byte) 0x05); // decoder specific info
+        mHeader.put((byte) config);
+        mHeader.put(track.config);
+        mHeader.put((byte) 0x06); // SL config descriptor
+        mHeader.put((byte) 1);
+        mHeader.put((byte) 0x02);
+        end(esds);
+        end(mp4a);
+    }
+
+    private int begin(@NonNull String type) {
+        int start = mHeader.position();
+        mHeader.putInt(0); // size, set by end()
+        putType(type);
+        return start;
+    }
+
+    private int beginFull(@NonNull String type, int version, int flags) {
+        int start = begin(type);
+        mHeader.putInt((version << 24) | flags);
+        return start;
+    }
+
+    private void end(int start) {
+        mHeader.putInt(start, mHeader.position() - start);
+    }
+
+    private void putType(@NonNull String type) {
+        for (int i = 0; i < 4; i++) {
+            mHeader.put((byte) type.charAt(i));
+        }
+    }
+
+    private void putString(@NonNull String string) {
+        for (int i = 0; i < string.length(); i++) {
+            mHeader.put((byte) string.charAt(i));
+        }
+        mHeader.put((byte) 0);
+    }
+
+    private void putZeros(int count) {
+        for (int i = 0; i < count; i++) {
+            mHeader.put((byte) 0);
+        }
+    }
+
+    private void putMatrix() {
+        for (int value : MATRIX) {
+            mHeader.putInt(value);
+        }
+    }
+
+    /**
+     * Returns the index of the next 00 00 01 sequence in the given range, or -1.
+     */
+    private static int findStartCode(@NonNull ByteBuffer buffer, int from, int to) {
+        for (int i = from; i + 2 < to; i++) {
+            if ((buffer.get(i + 2) & 0xFF) > 1) {
+                i += 2; // No start code can include this byte.
+            } else if (buffer.get(i) == 0 && buffer.get(i + 1) == 0 && buffer.get(i + 2) == 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Whether the given buffer starts with a 3 or 4 bytes start code.
+     */
+    private static boolean isAnnexB(@NonNull ByteBuffer buffer) {
+        int position = buffer.position();
+        int start = findStartCode(buffer, position, Math.min(position + 4, buffer.limit()));
+        return start == position || (start == position + 1 && buffer.get(position) == 0);
+    }
+
+    /**
+     * Copies the NAL units of source into target, replacing start codes with 4 bytes lengths.
+     * If source does not start with a start code, it is copied as is.
+     */
+    private static void putNals(@NonNull ByteBuffer source, @NonNull ByteBuffer target) {
+        if (!isAnnexB(source)) {
+            target.put(source.duplicate());
+            return;
+        }
+        int limit = source.limit();
+        ByteBuffer nal = source.duplicate();
+        int nalStart = findStartCode(source, source.position(), limit) + 3;
+        while (true) {
+            int next = findStartCode(source, nalStart, limit);
+            int nalEnd = next < 0 ? limit : next;
+            // Drop trailing zeros, including the first byte of 4 bytes start codes.
+            while (nalEnd > nalStart && source.get(nalEnd - 1) == 0) nalEnd--;
+            if (nalEnd > nalStart) {
+                target.putInt(nalEnd - nalStart);
+                nal.limit(nalEnd);
+                nal.position(nalStart);
+                target.put(nal);
+            }
+            if (next < 0) break;
+            nalStart = next + 3;
+        }
+    }
+
+    /**
+     * Returns the first NAL unit in the given buffer, without start code.
+     * If the buffer has no start code, it is considered a single NAL unit.
+     */
+    @NonNull
+    private static byte[] firstNal(@NonNull ByteBuffer buffer) {
+        if (!isAnnexB(buffer)) {
+            byte[] result = new byte[buffer.remaining()];
+            buffer.duplicate().get(result);
+            return result;
+        }
+        ByteBuffer target = ByteBuffer.allocate(buffer.remaining() * 2 + 4);
+        putNals(buffer, target);
+        target.flip();
+        if (target.remaining() < 4) return new byte[0];
+        byte[] result = new byte[target.getInt()];
+        target.get(result);
+        return result;
+    }
+}
@@ -0,0 +1,107 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+/**
+ * Drops frames so that a {@link VideoMediaEncoder} renders at the configured frame rate,
+ * even if the source (typically, the camera preview) produces frames faster than that.
+ * The rate can also be lower than one frame per second, for time-lapse videos.
+ *
+ * Frames are assigned to slots, one every frame interval, starting from an anchor frame.
+ * The slot times are computed from the anchor, so no rounding error accumulates and the
+ * average rate matches the frame rate, for example 24 fps out of a 60 fps preview.
+ * - A frame is rendered if it comes no earlier than {@link #TOLERANCE} frame intervals
+ *   before the next slot, and no earlier than {@link #MAX_TOLERANCE_US}. This absorbs the
+ *   jitter of the source timestamps, without shifting the long intervals of time-lapses.
+ * - If a frame comes one full interval later than the next slot, the source is slower
+ *   than the frame rate, or it stopped for a while. The frame is rendered and becomes the
+ *   new anchor, so that we do not try to catch up by rendering everything that follows.
+ *
+ * This class does not read any clock: times are passed by the caller, so that the policy
+ * can be replayed on synthetic timelines. It is not thread safe.
+ */
+class FrameRateDecimator {
+
+    final static float TOLERANCE = 0.4F;
+    final static long MAX_TOLERANCE_US = 20000;
+
+    private final long mPeriodUs;
+    private final int mFrames;
+    private final long mFrameIntervalUs;
+    private final long mToleranceUs;
+
+    private long mAnchorUs = Long.MIN_VALUE;
+    private long mSlots;
+    private long mDecimatedFrames;
+
+    /**
+     * Creates a new decimator.
+     * @param frameRate the target frame rate, or 0 to render all frames
+     */
+    FrameRateDecimator(int frameRate) {
+        this(1000000L, frameRate);
+    }
+
+    /**
+     * Creates a new decimator that renders the given number of frames in each period.
+     * For example, pass a period of 5 seconds and 1 frame for a time-lapse video.
+     * @param periodUs the period
+     * @param frames the frames to render in each period, or 0 to render all frames
+     */
+    FrameRateDecimator(long periodUs, int frames) {
+        mPeriodUs = periodUs;
+        mFrames = frames;
+        mFrameIntervalUs = frames > 0 ? periodUs / frames : 0;
+        mToleranceUs = Math.min((long) (mFrameIntervalUs * TOLERANCE), MAX_TOLERANCE_US);
+    }
+
+    /**
+     * Returns true if the frame with the given timestamp can be rendered. This does not
+     * move the pacing forward: if the caller renders the frame, it must also call
+     * {@link #onFrameRendered(long)}, so that frames dropped for other reasons
+     * leave their slot to the next frame. Frames that return false are counted as decimated.
+     * @param timestampUs the frame timestamp
+     * @return true to render
+     */
+    boolean shouldRenderFrame(long timestampUs) {
+        if (mFrames <= 0) return true;
+        // First frame, or the timestamps went back in time.
+        if (mAnchorUs == Long.MIN_VALUE || timestampUs < mAnchorUs) return true;
+        if (timestampUs < getNextSlotUs() - mToleranceUs) {
+            mDecimatedFrames++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Moves the pacing forward after a frame was rendered.
+     * This must be called for every rendered frame, in order.
+     * @param timestampUs the frame timestamp
+     */
+    void onFrameRendered(long timestampUs) {
+        if (mFrames <= 0) return;
+        if (mAnchorUs == Long.MIN_VALUE
+                || timestampUs < mAnchorUs
+                || timestampUs - getNextSlotUs() >= mFrameIntervalUs) {
+            anchor(timestampUs);
+        } else {
+            mSlots++;
+        }
+    }
+
+    private long getNextSlotUs() {
+        return mAnchorUs + mSlots * mPeriodUs / mFrames;
+    }
+
+    private void anchor(long timestampUs) {
+        mAnchorUs = timestampUs;
+        mSlots = 1;
+    }
+
+    /**
+     * Returns the number of frames that were dropped so far.
+     * @return the decimated frames
+     */
+    long getDecimatedFrames() {
+        return mDecimatedFrames;
+    }
+}
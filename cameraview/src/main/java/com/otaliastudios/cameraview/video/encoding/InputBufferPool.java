@@ -1,18 +0,0 @@
-package com.otaliastudios.cameraview.video.encoding;
-
-import com.otaliastudios.cameraview.internal.Pool;
-
-/**
- * A simple {@link Pool(int, Factory)} implementation for input buffers.
- */
-class InputBufferPool extends Pool<InputBuffer> {
-
-    InputBufferPool() {
-        super(Integer.MAX_VALUE, new Factory<InputBuffer>() {
-            @Override
-            public InputBuffer create() {
-                return new InputBuffer();
-            }
-        });
-    }
-}
@@ -9,14 +9,12 @@ import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
 
 import com.otaliastudios.cameraview.CameraLogger;
 import com.otaliastudios.cameraview.internal.WorkerHandler;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Base class for single-track encoders, coordinated by a {@link MediaEncoderEngine}.
@@ -30,7 +28,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  *
  * 2. When {@link #start()} is called, we call {@link #onStart()} on the encoder thread.
  *
- * 3. When {@link #notify(String, Object)} is called, we call {@link #onEvent(String, Object)}
+ * 3. When {@link #notify(int, Object)} is called, we call {@link #onEvent(int, Object)}
  *    on the encoder thread.
  *
  * 4. After starting, encoders are free to acquire an input buffer with
@@ -44,6 +42,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  * 7. After this happens, or at regular intervals, or whenever they want, encoders can then
  *    call {@link #drainOutput(boolean)} with a false parameter to fetch the encoded data
  *    and pass it to the engine (so it can be written to the muxer).
+ *    If the codec was configured in asynchronous mode, draining does nothing, because
+ *    encoded data is passed to the engine as soon as it's available, on the encoder thread.
  *
  * 8. When {@link #stop()} is called - either by the engine user, or as a consequence of having
  *    called {@link MediaEncoderEngine.Controller#requestStop(int)} - we call
@@ -91,9 +91,8 @@ public abstract class MediaEncoder {
     // INPUT_TIMEOUT_US 0: 32 seconds
     private final static int INPUT_TIMEOUT_US = 0;
 
-    // 0 also seems to be the best, although it does not change so much.
-    // Can't go too high or this is a bottleneck for the audio encoder.
-    private final static int OUTPUT_TIMEOUT_US = 0;
+    // In asynchronous mode, waiting does not poll the codec, so we can wait longer.
+    private final static int ASYNC_INPUT_TIMEOUT_US = 10000;
 
     private final static int STATE_NONE = 0;
     private final static int STATE_PREPARING = 1;
@@ -119,8 +118,15 @@ public abstract class MediaEncoder {
     private int mTrackIndex;
     private OutputBufferPool mOutputBufferPool;
     private MediaCodec.BufferInfo mBufferInfo;
-    private MediaCodecBuffers mBuffers;
-    private final Map<String, AtomicInteger> mPendingEvents = new HashMap<>();
+    private EncoderCodecDriver mCodecDriver;
+    private EncoderMetricsRecorder.TrackRecorder mMetrics;
+    private final EncoderEventChannel mEvents = new EncoderEventChannel(
+            new EncoderEventChannel.Receiver() {
+        @Override
+        public void onEvent(int event, @Nullable Object data) {
+            MediaEncoder.this.onEvent(event, data);
+        }
+    });
 
     private long mMaxLengthUs;
     private boolean mMaxLengthReached;
@@ -215,6 +221,8 @@ public abstract class MediaEncoder {
                 }
                 setState(STATE_STARTING);
                 LOG.w(mName, "Start was called. Executing.");
+                mMetrics = mController.getMetrics(MediaEncoder.this);
+                if (mCodecDriver != null) mCodecDriver.setMetrics(mMetrics);
                 onStart();
             }
         });
@@ -222,29 +230,16 @@ public abstract class MediaEncoder {
 
     /**
      * The caller notifying of a certain event occurring.
-     * Should analyze the string and see if the event is important.
+     * This can be called for every frame, so it goes through the {@link EncoderEventChannel}
+     * which does not allocate, and does not log.
      *
      * NOTE: it's important to call {@link WorkerHandler#post(Runnable)} instead of run()!
      *
      * @param event what happened
      * @param data object
      */
-    @SuppressWarnings("ConstantConditions")
-    final void notify(final @NonNull String event, final @Nullable Object data) {
-        if (!mPendingEvents.containsKey(event)) mPendingEvents.put(event,
-                 new AtomicInteger(0));
-        final AtomicInteger pendingEvents = mPendingEvents.get(event);
-        pendingEvents.incrementAndGet();
-        LOG.v(mName, "Notify was called. Posting. pendingEvents:", pendingEvents.intValue());
-        mWorker.post(new Runnable() {
-            @Override
-            public void run() {
-                LOG.v(mName, "Notify was called. Executing. pendingEvents:",
-                        pendingEvents.intValue());
-                onEvent(event, data);
-                pendingEvents.decrementAndGet();
-            }
-        });
+    final void notify(int event, @Nullable Object data) {
+        mWorker.post(mEvents.obtain(event, data));
     }
 
     /**
@@ -277,7 +272,8 @@ public abstract class MediaEncoder {
      * Any initialization should be done here as it does not interfere with the original
      * thread (that, generally, is the rendering thread).
      *
-     * At this point subclasses MUST create the {@link #mMediaCodec} object.
+     * At this point subclasses MUST create the {@link #mMediaCodec} object, and configure it
+     * with {@link #configureCodec(MediaFormat, boolean)}.
      *
      * @param controller the muxer controller
      * @param maxLengthUs the maxLength in microseconds
@@ -296,12 +292,12 @@ public abstract class MediaEncoder {
 
     /**
      * The caller notifying of a certain event occurring.
-     * Should analyze the string and see if the event is important.
+     * Should analyze the event and see if it is important.
      * @param event what happened
      * @param data object
      */
     @EncoderThread
-    protected void onEvent(@NonNull String event, @Nullable Object data) {}
+    protected void onEvent(int event, @Nullable Object data) {}
 
     /**
      * Stop recording. This involves signaling the end of stream and draining
@@ -322,12 +318,19 @@ public abstract class MediaEncoder {
         LOG.w(mName, "is being released. Notifying controller and releasing codecs.");
         // TODO should we call notifyStopped after this method ends?
         mController.notifyStopped(mTrackIndex);
-        mMediaCodec.stop();
+        try {
+            mMediaCodec.stop();
+        } catch (Exception e) {
+            // After a codec error. It was reported already.
+            LOG.w(mName, "Could not stop the codec.", e);
+        }
         mMediaCodec.release();
         mMediaCodec = null;
-        mOutputBufferPool.clear();
-        mOutputBufferPool = null;
-        mBuffers = null;
+        if (mOutputBufferPool != null) {
+            mOutputBufferPool.clear();
+            mOutputBufferPool = null;
+        }
+        mCodecDriver = null;
         setState(STATE_STOPPED);
         mWorker.destroy();
     }
@@ -341,15 +344,16 @@ public abstract class MediaEncoder {
      */
     @SuppressWarnings("WeakerAccess")
     protected boolean tryAcquireInputBuffer(@NonNull InputBuffer holder) {
-        if (mBuffers == null) {
-            mBuffers = new MediaCodecBuffers(mMediaCodec);
-        }
-        int inputBufferIndex = mMediaCodec.dequeueInputBuffer(INPUT_TIMEOUT_US);
+        return acquireInputBuffer(holder, INPUT_TIMEOUT_US);
+    }
+
+    private boolean acquireInputBuffer(@NonNull InputBuffer holder, long timeoutUs) {
+        int inputBufferIndex = mCodecDriver.dequeueInputBuffer(timeoutUs);
         if (inputBufferIndex < 0) {
             return false;
         } else {
             holder.index = inputBufferIndex;
-            holder.data = mBuffers.getInputBuffer(inputBufferIndex);
+            holder.data = mCodecDriver.getInputBuffer(inputBufferIndex);
             return true;
         }
     }
@@ -357,12 +361,19 @@ public abstract class MediaEncoder {
     /**
      * Returns a new input buffer and index, waiting indefinitely if none is available.
      * The buffer should be written into, then be passed to {@link #encodeInputBuffer(InputBuffer)}.
+     * In asynchronous mode, this sleeps until the codec has a free buffer.
+     * Returns false if the codec failed, in which case the encoder is being stopped.
      *
      * @param holder the input buffer holder
+     * @return true if acquired
      */
-    @SuppressWarnings({"StatementWithEmptyBody", "WeakerAccess"})
-    protected void acquireInputBuffer(@NonNull InputBuffer holder) {
-        while (!tryAcquireInputBuffer(holder)) {}
+    @SuppressWarnings("WeakerAccess")
+    protected boolean acquireInputBuffer(@NonNull InputBuffer holder) {
+        long timeoutUs = isCodecAsync() ? ASYNC_INPUT_TIMEOUT_US : INPUT_TIMEOUT_US;
+        while (!acquireInputBuffer(holder, timeoutUs)) {
+            if (hasCodecFailed()) return false;
+        }
+        return true;
     }
 
     /**
@@ -376,22 +387,72 @@ public abstract class MediaEncoder {
                 "Bytes:", buffer.length,
                 "Presentation:", buffer.timestamp);
         if (buffer.isEndOfStream) { // send EOS
-            mMediaCodec.queueInputBuffer(buffer.index, 0, 0,
+            mCodecDriver.queueInputBuffer(buffer.index, 0,
                     buffer.timestamp, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
         } else {
-            mMediaCodec.queueInputBuffer(buffer.index, 0, buffer.length,
+            mCodecDriver.queueInputBuffer(buffer.index, buffer.length,
                     buffer.timestamp, 0);
         }
     }
 
+    /**
+     * Configures the {@link #mMediaCodec} for encoding with the given format.
+     * Subclasses should call this in {@link #onPrepare(MediaEncoderEngine.Controller, long)},
+     * after creating the codec and before starting it.
+     *
+     * In asynchronous mode, the codec calls us back on the encoder thread as soon as
+     * output is available, instead of being polled by {@link #drainOutput(boolean)}.
+     * This needs API 21: on older versions, the codec is polled anyway.
+     *
+     * @param format the input format
+     * @param async whether to use asynchronous mode
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected final void configureCodec(@NonNull MediaFormat format, boolean async) {
+        if (async && Build.VERSION.SDK_INT < 21) {
+            LOG.w(mName, "configureCodec:", "Asynchronous mode needs API 21. Polling instead.");
+            async = false;
+        }
+        EncoderCodec codec = new PlatformEncoderCodec(mMediaCodec, mWorker.getHandler());
+        mCodecDriver = new EncoderCodecDriver(codec, async, mBufferInfo, mCodecListener);
+        mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    }
+
+    /**
+     * Whether the codec failed while encoding. When this happens, the engine is asked
+     * to stop, and no input should be passed to the codec anymore.
+     * @return true if failed
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected final boolean hasCodecFailed() {
+        return mCodecDriver != null && mCodecDriver.hasFailed();
+    }
+
+    @VisibleForTesting
+    @Nullable
+    EncoderCodecDriver getCodecDriver() {
+        return mCodecDriver;
+    }
+
+    /**
+     * Whether the codec was configured in asynchronous mode.
+     * @return true if asynchronous
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected final boolean isCodecAsync() {
+        return mCodecDriver != null && mCodecDriver.isAsync();
+    }
+
     /**
      * Extracts all pending data that was written and encoded into {@link #mMediaCodec},
      * and forwards it to the muxer.
      *
-     * If drainAll is not set, this returns after TIMEOUT_USEC if there is no more data to drain.
+     * If drainAll is not set, this returns as soon as there is no more data to drain.
      * If drainAll is set, we wait until we see EOS on the output.
      * Calling this with drainAll set should be done once, right before stopping the muxer.
      *
+     * In asynchronous mode, data is forwarded as soon as it's available, so this does nothing.
+     *
      * @param drainAll whether to drain all
      */
     @SuppressLint("LogNotTimber")
@@ -402,99 +463,116 @@ public abstract class MediaEncoder {
             LOG.e("drain() was called before prepare() or after releasing.");
             return;
         }
-        if (mBuffers == null) {
-            mBuffers = new MediaCodecBuffers(mMediaCodec);
+        mCodecDriver.drain(drainAll);
+    }
+
+    private final EncoderCodecDriver.Listener mCodecListener = new EncoderCodecDriver.Listener() {
+        @Override
+        public void onCodecFormat(@NonNull MediaFormat format) {
+            onOutputFormat(format);
+        }
+
+        @Override
+        public boolean onCodecOutput(@NonNull ByteBuffer data,
+                                     @NonNull MediaCodec.BufferInfo info) {
+            return onOutput(data, info);
         }
-        while (true) {
-            int encoderStatus = mMediaCodec.dequeueOutputBuffer(mBufferInfo, OUTPUT_TIMEOUT_US);
-            LOG.i(mName, "DRAINING - Got status:", encoderStatus);
-            if (encoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                // no output available yet
-                if (!drainAll) break; // out of while
-
-            } else if (encoderStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                // not expected for an encoder
-                mBuffers.onOutputBuffersChanged();
-
-            } else if (encoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                // should happen before receiving buffers, and should only happen once
-                if (mController.isStarted()) {
-                    // throw new RuntimeException("MediaFormat changed twice.");
-                    // Seen this happen in API31. TODO handle differently?
-                } else {
-                    MediaFormat newFormat = mMediaCodec.getOutputFormat();
-                    mTrackIndex = mController.notifyStarted(newFormat);
-                    setState(STATE_STARTED);
-                    mOutputBufferPool = new OutputBufferPool(mTrackIndex);
-                }
-            } else if (encoderStatus < 0) {
-                LOG.e("Unexpected result from dequeueOutputBuffer: " + encoderStatus);
-                // let's ignore it
-            } else {
-                ByteBuffer encodedData = mBuffers.getOutputBuffer(encoderStatus);
-
-                // Codec config means that config data was pulled out and fed to the muxer
-                // when we got the INFO_OUTPUT_FORMAT_CHANGED status. Ignore it.
-                boolean isCodecConfig = (mBufferInfo.flags
-                        & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
-                if (!isCodecConfig && mController.isStarted() && mBufferInfo.size != 0) {
-
-                    // adjust the ByteBuffer values to match BufferInfo (not needed?)
-                    encodedData.position(mBufferInfo.offset);
-                    encodedData.limit(mBufferInfo.offset + mBufferInfo.size);
-
-                    // Store mStartTimeUs and mLastTimeUs, useful to detect the max length
-                    // reached and stop recording when needed.
-                    if (mFirstTimeUs == Long.MIN_VALUE) {
-                        mFirstTimeUs = mBufferInfo.presentationTimeUs;
-                        LOG.w(mName, "DRAINING - Got the first presentation time:",
-                                mFirstTimeUs);
+
+        @Override
+        public void onCodecEndOfStream() {
+            LOG.w(mName, "DRAINING - Got EOS. Releasing the codec.");
+            if (isCodecAsync()) {
+                // We are inside a codec callback. Release it after this returns.
+                mWorker.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onStopped();
                     }
-                    mLastTimeUs = mBufferInfo.presentationTimeUs;
-
-                    // Adjust the presentation times. Subclasses can pass a presentation time in any
-                    // reference system - possibly some that has no real meaning, and frequently,
-                    // presentation times from different encoders have a different time-base.
-                    // To address this, encoders are required to call notifyFirstFrameMillis
-                    // so we can adjust here - moving to 1970 reference.
-                    // Extra benefit: we never pass a pts equal to 0, which some encoders refuse.
-                    mBufferInfo.presentationTimeUs = (mStartTimeMillis * 1000)
-                            + mLastTimeUs - mFirstTimeUs;
-
-                    // Write.
-                    LOG.v(mName, "DRAINING - About to write(). Adjusted presentation:",
-                            mBufferInfo.presentationTimeUs);
-                    OutputBuffer buffer = mOutputBufferPool.get();
-                    //noinspection ConstantConditions
-                    buffer.info = mBufferInfo;
-                    buffer.trackIndex = mTrackIndex;
-                    buffer.data = encodedData;
-                    onWriteOutput(mOutputBufferPool, buffer);
-                }
-                mMediaCodec.releaseOutputBuffer(encoderStatus, false);
-
-                // Check for the maxLength constraint (with appropriate conditions)
-                // Not needed if drainAll because we already were asked to stop
-                if (!drainAll
-                        && !mMaxLengthReached
-                        && mFirstTimeUs != Long.MIN_VALUE
-                        && mLastTimeUs - mFirstTimeUs > mMaxLengthUs) {
-                    LOG.w(mName, "DRAINING - Reached maxLength! mLastTimeUs:", mLastTimeUs,
-                            "mStartTimeUs:", mFirstTimeUs,
-                            "mDeltaUs:", mLastTimeUs - mFirstTimeUs,
-                            "mMaxLengthUs:", mMaxLengthUs);
-                    onMaxLengthReached();
-                    break;
-                }
+                });
+            } else {
+                onStopped();
+            }
+        }
 
-                // Check for the EOS flag so we can call onStopped.
-                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                    LOG.w(mName, "DRAINING - Got EOS. Releasing the codec.");
-                    onStopped();
-                    break;
-                }
+        @Override
+        public void onCodecError(@NonNull Exception error) {
+            LOG.e(mName, "Codec error. Asking the engine to stop.", error);
+            mController.notifyError(error);
+        }
+    };
+
+    private void onOutputFormat(@NonNull MediaFormat newFormat) {
+        // should happen before receiving buffers, and should only happen once
+        if (mController.isStarted()) {
+            // throw new RuntimeException("MediaFormat changed twice.");
+            // Seen this happen in API31. TODO handle differently?
+        } else {
+            mTrackIndex = mController.notifyStarted(newFormat);
+            if (mMetrics != null) {
+                mMetrics.onStarted(mTrackIndex,
+                        newFormat.getString(MediaFormat.KEY_MIME));
+            }
+            setState(STATE_STARTED);
+            mOutputBufferPool = new OutputBufferPool(mTrackIndex);
+        }
+    }
+
+    /**
+     * Forwards the encoded data to the muxer.
+     * Returns true if the max length was reached, so that we can stop draining.
+     */
+    private boolean onOutput(@NonNull ByteBuffer encodedData,
+                             @NonNull MediaCodec.BufferInfo info) {
+        // Codec config means that config data was pulled out and fed to the muxer
+        // when we got the INFO_OUTPUT_FORMAT_CHANGED status. Ignore it.
+        boolean isCodecConfig = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+        if (!isCodecConfig && mController.isStarted() && info.size != 0) {
+
+            // adjust the ByteBuffer values to match BufferInfo (not needed?)
+            encodedData.position(info.offset);
+            encodedData.limit(info.offset + info.size);
+
+            // Store mStartTimeUs and mLastTimeUs, useful to detect the max length
+            // reached and stop recording when needed.
+            if (mFirstTimeUs == Long.MIN_VALUE) {
+                mFirstTimeUs = info.presentationTimeUs;
+                LOG.w(mName, "DRAINING - Got the first presentation time:",
+                        mFirstTimeUs);
             }
+            mLastTimeUs = info.presentationTimeUs;
+
+            // Adjust the presentation times. Subclasses can pass a presentation time in any
+            // reference system - possibly some that has no real meaning, and frequently,
+            // presentation times from different encoders have a different time-base.
+            // To address this, encoders are required to call notifyFirstFrameMillis
+            // so we can adjust here - moving to 1970 reference.
+            // Extra benefit: we never pass a pts equal to 0, which some encoders refuse.
+            info.presentationTimeUs = (mStartTimeMillis * 1000)
+                    + mLastTimeUs - mFirstTimeUs;
+
+            // Write.
+            LOG.v(mName, "DRAINING - About to write(). Adjusted presentation:",
+                    info.presentationTimeUs);
+            OutputBuffer buffer = mOutputBufferPool.get();
+            //noinspection ConstantConditions
+            buffer.info = info;
+            buffer.trackIndex = mTrackIndex;
+            buffer.data = encodedData;
+            onWriteOutput(mOutputBufferPool, buffer);
         }
+
+        // Check for the maxLength constraint.
+        if (!mMaxLengthReached
+                && mFirstTimeUs != Long.MIN_VALUE
+                && mLastTimeUs - mFirstTimeUs > mMaxLengthUs) {
+            LOG.w(mName, "DRAINING - Reached maxLength! mLastTimeUs:", mLastTimeUs,
+                    "mStartTimeUs:", mFirstTimeUs,
+                    "mDeltaUs:", mLastTimeUs - mFirstTimeUs,
+                    "mMaxLengthUs:", mMaxLengthUs);
+            onMaxLengthReached();
+            return true;
+        }
+        return false;
     }
 
     @CallSuper
@@ -504,6 +582,17 @@ public abstract class MediaEncoder {
 
     protected abstract int getEncodedBitRate();
 
+    /**
+     * Returns the metrics recorder for this encoder, or null if metrics are disabled.
+     * Available after {@link #onStart()} is called.
+     *
+     * @return the recorder or null
+     */
+    @Nullable
+    EncoderMetricsRecorder.TrackRecorder getMetrics() {
+        return mMetrics;
+    }
+
     /**
      * Returns the max length setting, in microseconds, which can be used
      * to compute the current state and eventually call {@link #notifyMaxLengthReached()}.
@@ -565,15 +654,15 @@ public abstract class MediaEncoder {
     }
 
     /**
-     * Returns the number of events (see {@link #onEvent(String, Object)}) that were scheduled
+     * Returns the number of events (see {@link #onEvent(int, Object)}) that were scheduled
      * but still not passed to that function. Could be used to drop some of them if this
      * number is too high.
      *
      * @param event the event type
      * @return the pending events number
      */
-    @SuppressWarnings({"SameParameterValue", "ConstantConditions", "WeakerAccess"})
-    protected final int getPendingEvents(@NonNull String event) {
-        return mPendingEvents.get(event).intValue();
+    @SuppressWarnings({"SameParameterValue", "WeakerAccess"})
+    protected final int getPendingEvents(int event) {
+        return mEvents.getPendingEvents(event);
     }
 }
@@ -1,8 +1,7 @@
 package com.otaliastudios.cameraview.video.encoding;
 
-import android.annotation.SuppressLint;
+import android.media.MediaCodec;
 import android.media.MediaFormat;
-import android.media.MediaMuxer;
 import android.os.Build;
 
 import com.otaliastudios.cameraview.CameraLogger;
@@ -14,11 +13,9 @@ import androidx.annotation.RequiresApi;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * The entry point for encoding video files.
@@ -37,6 +34,8 @@ import java.util.Map;
  *    and we keep track of who has started.
  *
  * 4. When all MediaEncoders have started, we actually start the muxer.
+ *    This is a {@link android.media.MediaMuxer}, or, if a fragment interval was passed,
+ *    a {@link FragmentedMp4Muxer}, which flushes the file at each fragment.
  *
  * 5. Someone calls {@link #stop()} from any thread.
  *    As a consequence, we stop the MediaEncoders: {@link MediaEncoder#stop()}.
@@ -86,11 +85,21 @@ public class MediaEncoderEngine {
          */
         @EncoderThread
         void onEncodingEnd(int reason, @Nullable Exception e);
+
+        /**
+         * Called when a segment was completed, if segments were enabled with
+         * {@link #setSegmentDuration(long)}. The last segment is not passed here,
+         * but completed with {@link #onEncodingEnd(int, Exception)} as usual.
+         *
+         * @param file the segment file
+         * @param nextFile the file of the segment that follows
+         */
+        @EncoderThread
+        void onEncodingSegment(@NonNull File file, @NonNull File nextFile);
     }
 
     private final static String TAG = MediaEncoderEngine.class.getSimpleName();
     private final static CameraLogger LOG = CameraLogger.create(TAG);
-    private static final boolean DEBUG_PERFORMANCE = true;
 
     @SuppressWarnings("WeakerAccess")
     public final static int END_BY_USER = 0;
@@ -98,10 +107,29 @@ public class MediaEncoderEngine {
     public final static int END_BY_MAX_SIZE = 2;
 
     private final List<MediaEncoder> mEncoders = new ArrayList<>();
-    private MediaMuxer mMediaMuxer;
+    private Muxer mMuxer;
     private int mStartedEncodersCount = 0;
     private int mStoppedEncodersCount = 0;
-    private boolean mMediaMuxerStarted = false;
+    private boolean mMuxerStarted = false;
+    private int mTrackCount = 0;
+    private EncodedSampleDispatcher mSampleDispatcher;
+    private final File mFile;
+    private final long mFragmentIntervalUs;
+    // Segments
+    private final Object mSegmentLock = new Object();
+    private final List<MediaFormat> mTrackFormats = new ArrayList<>();
+    private long mSegmentDurationUs = 0;
+    private int mVideoTrack = -1;
+    private SegmentRotator mSegments;
+    // Pre-roll
+    private final Object mPreRollLock = new Object();
+    private final boolean mPreRollEnabled;
+    private PreRollBuffer mPreRoll;
+    private File mCommitFile;
+    private boolean mCommitted;
+    private Exception mCommitError;
+    // Metrics
+    private volatile EncoderMetricsRecorder mMetrics;
     @SuppressWarnings("FieldCanBeLocal")
     private final Controller mController = new Controller();
     private final WorkerHandler mControllerThread = WorkerHandler.get("EncoderEngine");
@@ -109,16 +137,76 @@ public class MediaEncoderEngine {
     private Listener mListener;
     private int mEndReason = END_BY_USER;
     private int mPossibleEndReason;
+    private Exception mEncoderError;
+
+    /**
+     * Creates a new engine for the given file, with the given encoders and max limits,
+     * and listener to receive events.
+     *
+     * @param file output file
+     * @param videoEncoder video encoder to use
+     * @param audioEncoder audio encoder to use
+     * @param maxDuration max duration in millis
+     * @param maxSize max size
+     * @param listener a listener
+     */
+    public MediaEncoderEngine(@NonNull File file,
+                              @NonNull VideoMediaEncoder videoEncoder,
+                              @Nullable AudioMediaEncoder audioEncoder,
+                              final int maxDuration,
+                              final long maxSize,
+                              @Nullable Listener listener) {
+        this(file, videoEncoder, audioEncoder, maxDuration, maxSize, 0, listener);
+    }
+
+    /**
+     * Creates a new engine for the given file, with the given encoders and max limits,
+     * and listener to receive events.
+     *
+     * If the fragment interval is positive, the file is written as a fragmented MP4,
+     * which is flushed to disk at each fragment, so that a crash only loses the last one.
+     * This only supports H.264 video and AAC audio: for other codecs, the interval is ignored.
+     *
+     * @param file output file
+     * @param videoEncoder video encoder to use
+     * @param audioEncoder audio encoder to use
+     * @param maxDuration max duration in millis
+     * @param maxSize max size
+     * @param fragmentInterval fragment interval in millis, or 0 for a standard MP4
+     * @param listener a listener
+     */
+    public MediaEncoderEngine(@NonNull File file,
+                              @NonNull VideoMediaEncoder videoEncoder,
+                              @Nullable AudioMediaEncoder audioEncoder,
+                              final int maxDuration,
+                              final long maxSize,
+                              final long fragmentInterval,
+                              @Nullable Listener listener) {
+        this(file, videoEncoder, audioEncoder, maxDuration, maxSize, fragmentInterval,
+                null, EncodedSampleDelivery.ZERO_COPY, true, 0, listener);
+    }
 
     /**
      * Creates a new engine for the given file, with the given encoders and max limits,
      * and listener to receive events.
      *
+     * If a sample listener is given, each encoded sample is also passed to it
+     * according to the delivery policy, and if writeFile is false, no muxer is created
+     * and the file is left untouched.
+     *
+     * If the pre-roll size is positive, samples are kept in memory, in a circular buffer
+     * of this size, and nothing is written until {@link #commit(File)} is called.
+     *
      * @param file output file
      * @param videoEncoder video encoder to use
      * @param audioEncoder audio encoder to use
      * @param maxDuration max duration in millis
      * @param maxSize max size
+     * @param fragmentInterval fragment interval in millis, or 0 for a standard MP4
+     * @param sampleListener a listener for encoded samples
+     * @param sampleDelivery how samples are delivered to the sample listener
+     * @param writeFile whether the file should be written
+     * @param preRollSize the pre-roll buffer size in bytes, or 0
      * @param listener a listener
      */
     public MediaEncoderEngine(@NonNull File file,
@@ -126,15 +214,41 @@ public class MediaEncoderEngine {
                               @Nullable AudioMediaEncoder audioEncoder,
                               final int maxDuration,
                               final long maxSize,
+                              final long fragmentInterval,
+                              @Nullable EncodedSampleListener sampleListener,
+                              @NonNull EncodedSampleDelivery sampleDelivery,
+                              boolean writeFile,
+                              int preRollSize,
                               @Nullable Listener listener) {
+        if (!writeFile && sampleListener == null) {
+            throw new IllegalArgumentException("Without a sample listener, " +
+                    "the file must be written.");
+        }
         mListener = listener;
+        if (sampleListener != null) {
+            mSampleDispatcher = new EncodedSampleDispatcher(sampleListener, sampleDelivery,
+                    WorkerHandler.get("EncoderSamples").getExecutor());
+        }
         mEncoders.add(videoEncoder);
         if (audioEncoder != null) {
             mEncoders.add(audioEncoder);
         }
+        boolean fragmented = fragmentInterval > 0;
+        if (fragmented && !FragmentedMp4Muxer.isSupported(videoEncoder.mConfig.mimeType)) {
+            LOG.w("Fragmented MP4 does not support", videoEncoder.mConfig.mimeType,
+                    "Writing a standard MP4 file.");
+            fragmented = false;
+        }
+        mFile = file;
+        mFragmentIntervalUs = fragmented ? fragmentInterval * 1000L : 0;
+        mPreRollEnabled = preRollSize > 0 && writeFile;
+        if (mPreRollEnabled) {
+            mPreRoll = new PreRollBuffer(preRollSize);
+        } else if (preRollSize > 0) {
+            LOG.w("Pre-roll needs a file to be committed to. Ignoring.");
+        }
         try {
-            mMediaMuxer = new MediaMuxer(file.toString(),
-                    MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            mMuxer = writeFile && !mPreRollEnabled ? createMuxer(file) : null;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -167,6 +281,185 @@ public class MediaEncoderEngine {
         }
     }
 
+    /**
+     * Creates the muxer for the given file: a fragmented MP4 muxer
+     * if fragments were requested, or the platform muxer otherwise.
+     */
+    @NonNull
+    private Muxer createMuxer(@NonNull File file) throws IOException {
+        if (mFragmentIntervalUs > 0) {
+            return new FragmentedMp4Muxer(file, mFragmentIntervalUs);
+        } else {
+            return new PlatformMuxer(file);
+        }
+    }
+
+    /**
+     * Hands the started muxer to a {@link SegmentRotator}, if segments were requested
+     * with {@link #setSegmentDuration(long)}.
+     */
+    private void maybeStartSegments() {
+        synchronized (mSegmentLock) {
+            if (mSegmentDurationUs <= 0) return;
+            mSegments = new SegmentRotator(mFile, mSegmentDurationUs, mMuxer,
+                    new ArrayList<>(mTrackFormats), mVideoTrack,
+                    mControllerThread.getExecutor(), new SegmentRotator.Callback() {
+                        @NonNull
+                        @Override
+                        public Muxer createMuxer(@NonNull File file) throws IOException {
+                            return MediaEncoderEngine.this.createMuxer(file);
+                        }
+
+                        @Override
+                        public void requestSyncFrame() {
+                            getVideoEncoder().requestSyncFrame();
+                        }
+
+                        @Override
+                        public void onSegment(@NonNull File file, @NonNull File nextFile) {
+                            if (mListener != null) {
+                                mListener.onEncodingSegment(file, nextFile);
+                            }
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Splits the output into segments of the given duration. When a video key frame
+     * arrives after this duration, the current file is closed and the next one, which was
+     * opened in advance, takes over while encoders keep running, so no frame is lost
+     * between segments.
+     * Segments are named after the original file, see {@link #getSegmentFile(File, int)},
+     * and {@link Listener#onEncodingSegment(File, File)} is called for each of them but
+     * the last one.
+     *
+     * Must be called before {@link #start()}.
+     *
+     * @param durationMillis the segment duration, or 0 to disable
+     */
+    public final void setSegmentDuration(long durationMillis) {
+        if (mPreRollEnabled && durationMillis > 0) {
+            LOG.w("setSegmentDuration:", "Segments are not supported with pre-roll. Ignoring.");
+            return;
+        }
+        synchronized (mSegmentLock) {
+            mSegmentDurationUs = durationMillis * 1000L;
+        }
+    }
+
+    /**
+     * Enables the collection of {@link EncoderMetrics}, which can be read with
+     * {@link #getMetrics()}. When disabled, which is the default, nothing is recorded.
+     *
+     * Must be called before {@link #start()}.
+     *
+     * @param enabled whether metrics should be collected
+     */
+    public final void setMetricsEnabled(boolean enabled) {
+        mMetrics = enabled ? new EncoderMetricsRecorder(mEncoders.size()) : null;
+    }
+
+    /**
+     * Returns a snapshot of the current metrics, or null if they were not
+     * enabled with {@link #setMetricsEnabled(boolean)}.
+     * This can be called at any time, also after the engine has ended.
+     *
+     * @return the metrics or null
+     */
+    @Nullable
+    public final EncoderMetrics getMetrics() {
+        EncoderMetricsRecorder metrics = mMetrics;
+        return metrics == null ? null : metrics.snapshot();
+    }
+
+    /**
+     * Returns the file of the segment with the given index. The first segment
+     * uses the original file, next ones add a suffix to its name,
+     * so that video.mp4 is followed by video_1.mp4, video_2.mp4 and so on.
+     *
+     * @param file the original file
+     * @param index the segment index
+     * @return the segment file
+     */
+    @NonNull
+    public static File getSegmentFile(@NonNull File file, int index) {
+        if (index == 0) return file;
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        return new File(file.getParentFile(), base + "_" + index + extension);
+    }
+
+    /**
+     * Writes the pre-roll buffer to the given file, followed by the live samples
+     * until the engine is stopped. Only works if a pre-roll size was passed to the
+     * constructor, and can be called once. If the engine is stopped before this is called,
+     * {@link Listener#onEncodingEnd(int, Exception)} will report an error.
+     *
+     * @param file the output file
+     */
+    public final void commit(@NonNull final File file) {
+        mControllerThread.run(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mPreRollLock) {
+                    if (!mPreRollEnabled || mCommitFile != null) {
+                        LOG.w("commit:", "Not in pre-roll mode, or committed already.");
+                        return;
+                    }
+                    mCommitFile = file;
+                }
+                // Otherwise, we'll commit as soon as the muxer would have started.
+                if (mController.isStarted()) drainPreRoll();
+            }
+        });
+    }
+
+    /**
+     * Moves the pre-roll samples to a new muxer for the commit file, then switches
+     * to live writing. Samples are moved one at a time, so encoder threads are not
+     * blocked and keep adding to the buffer meanwhile.
+     */
+    private void drainPreRoll() {
+        LOG.i("drainPreRoll:", "Committing to", mCommitFile);
+        Muxer muxer = null;
+        try {
+            muxer = createMuxer(mCommitFile);
+            synchronized (mSegmentLock) {
+                for (MediaFormat format : mTrackFormats) {
+                    muxer.addTrack(format);
+                }
+            }
+            muxer.start();
+        } catch (Exception e) {
+            LOG.e("drainPreRoll:", "Could not create the muxer.", e);
+            if (muxer != null) muxer.release();
+            mCommitError = e;
+            return;
+        }
+        int count = 0;
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        while (true) {
+            synchronized (mPreRollLock) {
+                if (!mPreRoll.peek()) {
+                    mMuxer = muxer;
+                    mCommitted = true;
+                    mPreRoll = null; // free memory
+                    break;
+                }
+                ByteBuffer data = mPreRoll.getData();
+                info.set(data.position(), data.remaining(),
+                        mPreRoll.getPresentationTimeUs(), mPreRoll.getFlags());
+                muxer.writeSampleData(mPreRoll.getTrack(), data, info);
+                mPreRoll.remove();
+                count++;
+            }
+        }
+        LOG.i("drainPreRoll:", "Committed", count, "samples. Writing live samples now.");
+    }
+
     /**
      * Asks encoders to start (each one on its own track).
      */
@@ -180,13 +473,15 @@ public class MediaEncoderEngine {
     /**
      * Notifies encoders of some event with the given payload.
      * Can be used for example to notify the video encoder of new frame available.
-     * @param event an event string
+     * This does not allocate, so it can be called for every frame.
+     * @param event an event, like {@link TextureMediaEncoder#FRAME_EVENT}
      * @param data an event payload
      */
     @SuppressWarnings("SameParameterValue")
-    public final void notify(final String event, final Object data) {
-        LOG.v("Passing event to encoders:", event);
-        for (MediaEncoder encoder : mEncoders) {
+    public final void notify(int event, @Nullable Object data) {
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0; i < mEncoders.size(); i++) {
+            MediaEncoder encoder = mEncoders.get(i);
             encoder.notify(event, data);
         }
     }
@@ -214,22 +509,56 @@ public class MediaEncoderEngine {
      */
     private void end() {
         LOG.i("end:", "Releasing muxer after all encoders have been released.");
-        Exception error = null;
-        if (mMediaMuxer != null) {
+        Exception error;
+        synchronized (mControllerLock) {
+            // If an encoder failed, that's the error to report.
+            error = mEncoderError;
+            mEncoderError = null;
+        }
+        if (mPreRollEnabled && !mCommitted) {
+            if (error == null) {
+                error = mCommitError != null ? mCommitError
+                        : new IllegalStateException("Pre-roll was never committed.");
+            }
+            synchronized (mPreRollLock) {
+                mPreRoll = null;
+            }
+        }
+        SegmentRotator segments;
+        synchronized (mSegmentLock) {
+            segments = mSegments;
+            mSegments = null;
+        }
+        if (segments != null) {
+            // The muxer of the last segment.
+            mMuxer = segments.release();
+        }
+        if (mMuxer != null) {
             // stop() throws an exception if you haven't fed it any data.
             // But also in other occasions. So this is a signal that something
             // went wrong, and we propagate that to the listener.
             try {
-                mMediaMuxer.stop();
+                mMuxer.stop();
             } catch (Exception e) {
-                error = e;
+                if (error == null) error = e;
             }
             try {
-                mMediaMuxer.release();
+                mMuxer.release();
             } catch (Exception e) {
                 if (error == null) error = e;
             }
-            mMediaMuxer = null;
+            mMuxer = null;
+        }
+        if (mSampleDispatcher != null) {
+            if (mSampleDispatcher.getDroppedCount() > 0) {
+                LOG.w("end:", "Sample listener dropped", mSampleDispatcher.getDroppedCount(),
+                        "samples.");
+            }
+            mSampleDispatcher.release();
+            mSampleDispatcher = null;
+        }
+        if (mMetrics != null) {
+            LOG.i("end:", "Metrics:", mMetrics.snapshot());
         }
         LOG.w("end:", "Dispatching end to listener - reason:", mEndReason, "error:", error);
         if (mListener != null) {
@@ -239,7 +568,12 @@ public class MediaEncoderEngine {
         mEndReason = END_BY_USER;
         mStartedEncodersCount = 0;
         mStoppedEncodersCount = 0;
-        mMediaMuxerStarted = false;
+        mMuxerStarted = false;
+        mTrackCount = 0;
+        synchronized (mSegmentLock) {
+            mTrackFormats.clear();
+            mVideoTrack = -1;
+        }
         mControllerThread.destroy();
         LOG.i("end:", "Completed.");
     }
@@ -282,12 +616,21 @@ public class MediaEncoderEngine {
          */
         public int notifyStarted(@NonNull MediaFormat format) {
             synchronized (mControllerLock) {
-                if (mMediaMuxerStarted) {
+                if (mMuxerStarted) {
                     throw new IllegalStateException("Trying to start but muxer started already");
                 }
-                int track = mMediaMuxer.addTrack(format);
-                LOG.w("notifyStarted:", "Assigned track", track, "to format",
-                        format.getString(MediaFormat.KEY_MIME));
+                int track = mMuxer != null ? mMuxer.addTrack(format) : mTrackCount;
+                mTrackCount++;
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                LOG.w("notifyStarted:", "Assigned track", track, "to format", mime);
+                synchronized (mSegmentLock) {
+                    mTrackFormats.add(format);
+                    if (mime != null && mime.startsWith("video/")) mVideoTrack = track;
+                }
+                if (mSampleDispatcher != null) {
+                    mSampleDispatcher.dispatchFormat(track, format,
+                            mime != null && mime.startsWith("video/"));
+                }
                 if (++mStartedEncodersCount == mEncoders.size()) {
                     LOG.w("notifyStarted:", "All encoders have started.",
                             "Starting muxer and dispatching onEncodingStart().");
@@ -296,8 +639,12 @@ public class MediaEncoderEngine {
                     mControllerThread.run(new Runnable() {
                         @Override
                         public void run() {
-                            mMediaMuxer.start();
-                            mMediaMuxerStarted = true;
+                            if (mMuxer != null) {
+                                mMuxer.start();
+                                maybeStartSegments();
+                            }
+                            mMuxerStarted = true;
+                            if (mCommitFile != null) drainPreRoll();
                             if (mListener != null) {
                                 mListener.onEncodingStart();
                             }
@@ -316,12 +663,23 @@ public class MediaEncoderEngine {
          */
         public boolean isStarted() {
             synchronized (mControllerLock) {
-                return mMediaMuxerStarted;
+                return mMuxerStarted;
             }
         }
 
-        @SuppressLint("UseSparseArrays")
-        private Map<Integer, Integer> mDebugCount = new HashMap<>();
+        /**
+         * Returns the metrics recorder for the given encoder, or null if metrics
+         * are disabled. Encoders should call this when starting.
+         *
+         * @param encoder the encoder
+         * @return the recorder or null
+         */
+        @Nullable
+        EncoderMetricsRecorder.TrackRecorder getMetrics(@NonNull MediaEncoder encoder) {
+            EncoderMetricsRecorder metrics = mMetrics;
+            int index = mEncoders.indexOf(encoder);
+            return metrics == null || index < 0 ? null : metrics.getEncoderTrack(index);
+        }
 
         /**
          * Writes the given data to the muxer. Should be called after {@link #isStarted()}
@@ -342,24 +700,38 @@ public class MediaEncoderEngine {
          * @param buffer buffer
          */
         public void write(@NonNull OutputBufferPool pool, @NonNull OutputBuffer buffer) {
-            if (DEBUG_PERFORMANCE) {
-                // When AUDIO = mono, this is called about twice the time. (200 vs 100 for 5 sec).
-                Integer count = mDebugCount.get(buffer.trackIndex);
-                mDebugCount.put(buffer.trackIndex, count == null ? 1 : ++count);
-                Calendar calendar = Calendar.getInstance();
-                calendar.setTimeInMillis(buffer.info.presentationTimeUs / 1000);
-                LOG.v("write:", "Writing into muxer -",
-                                "track:", buffer.trackIndex,
-                        "presentation:", buffer.info.presentationTimeUs,
-                        "readable:", calendar.get(Calendar.SECOND) + ":"
-                                + calendar.get(Calendar.MILLISECOND),
-                        "count:", count);
-            } else {
-                LOG.v("write:", "Writing into muxer -",
-                        "track:", buffer.trackIndex,
-                        "presentation:", buffer.info.presentationTimeUs);
+            if (mSampleDispatcher != null) {
+                // Leaves position and limit unchanged, so the muxer can read the same data.
+                mSampleDispatcher.dispatch(buffer.trackIndex, buffer.data,
+                        buffer.info.flags, buffer.info.presentationTimeUs);
+            }
+            EncoderMetricsRecorder metrics = mMetrics;
+            long startNanos = metrics != null ? System.nanoTime() : 0;
+            if (mPreRollEnabled) {
+                synchronized (mPreRollLock) {
+                    if (mCommitted) {
+                        mMuxer.writeSampleData(buffer.trackIndex, buffer.data, buffer.info);
+                    } else if (mPreRoll != null) {
+                        mPreRoll.add(buffer.trackIndex, buffer.trackIndex == mVideoTrack,
+                                buffer.data, buffer.info.flags, buffer.info.presentationTimeUs);
+                    }
+                }
+            } else if (mSegmentDurationUs > 0) {
+                SegmentRotator segments;
+                synchronized (mSegmentLock) {
+                    segments = mSegments;
+                }
+                if (segments != null) segments.write(buffer);
+            } else if (mMuxer != null) {
+                mMuxer.writeSampleData(buffer.trackIndex, buffer.data, buffer.info);
+            }
+            if (metrics != null) {
+                EncoderMetricsRecorder.TrackRecorder track = metrics.getTrack(buffer.trackIndex);
+                if (track != null) {
+                    track.onWrite(buffer.info.size, buffer.info.presentationTimeUs,
+                            System.nanoTime() - startNanos);
+                }
             }
-            mMediaMuxer.writeSampleData(buffer.trackIndex, buffer.data, buffer.info);
             pool.recycle(buffer);
         }
 
@@ -391,6 +763,28 @@ public class MediaEncoderEngine {
             }
         }
 
+        /**
+         * Notifies that an encoder failed. The engine is stopped, like it happens with
+         * {@link #requestStop(int)}, and the error is passed to
+         * {@link Listener#onEncodingEnd(int, Exception)}. Only the first error is kept.
+         * The failed encoder should still call {@link #notifyStopped(int)} when done.
+         *
+         * @param error the error
+         */
+        public void notifyError(@NonNull Exception error) {
+            synchronized (mControllerLock) {
+                LOG.w("notifyError:", "Encoder failed.", error);
+                if (mEncoderError != null) return;
+                mEncoderError = error;
+                mControllerThread.run(new Runnable() {
+                    @Override
+                    public void run() {
+                        stop();
+                    }
+                });
+            }
+        }
+
         /**
          * Notifies that the encoder was stopped. After this is called by all encoders,
          * we will actually stop the muxer.
@@ -0,0 +1,51 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The muxer used by {@link MediaEncoderEngine}. Methods mirror those of
+ * {@link android.media.MediaMuxer}, which is the default implementation,
+ * through {@link PlatformMuxer}.
+ */
+@RequiresApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+interface Muxer {
+
+    /**
+     * Adds a track with the given format.
+     * @param format the format
+     * @return the track index
+     */
+    int addTrack(@NonNull MediaFormat format);
+
+    /**
+     * Starts the muxer, after all tracks were added.
+     */
+    void start();
+
+    /**
+     * Writes an encoded sample.
+     * @param trackIndex the track index
+     * @param data the sample data
+     * @param info the sample info
+     */
+    void writeSampleData(int trackIndex, @NonNull ByteBuffer data,
+                         @NonNull MediaCodec.BufferInfo info);
+
+    /**
+     * Stops the muxer, completing the file.
+     * Throws if something went wrong during the recording.
+     */
+    void stop();
+
+    /**
+     * Releases resources. Called after {@link #stop()}, even if it threw.
+     */
+    void release();
+}
@@ -0,0 +1,124 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link EncoderCodec} that wraps a {@link MediaCodec}.
+ * Asynchronous mode uses {@link MediaCodec.Callback}, which is only available on API 21+.
+ */
+@RequiresApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class PlatformEncoderCodec implements EncoderCodec {
+
+    private final MediaCodec mMediaCodec;
+    private final Handler mHandler;
+    private MediaCodecBuffers mBuffers;
+
+    /**
+     * Creates a new codec.
+     * @param mediaCodec the codec
+     * @param handler the handler for callbacks in asynchronous mode, used on API 23+ only.
+     *                On older versions, callbacks are called on the thread that created
+     *                the codec
+     */
+    PlatformEncoderCodec(@NonNull MediaCodec mediaCodec, @Nullable Handler handler) {
+        mMediaCodec = mediaCodec;
+        mHandler = handler;
+    }
+
+    @Override
+    public void setCallback(@NonNull final Callback callback) {
+        if (Build.VERSION.SDK_INT < 21) {
+            throw new IllegalStateException("Asynchronous mode needs API 21.");
+        }
+        MediaCodec.Callback platformCallback = new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+                callback.onInputBufferAvailable(index);
+            }
+
+            @Override
+            public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index,
+                                                @NonNull MediaCodec.BufferInfo info) {
+                callback.onOutputBufferAvailable(index, info);
+            }
+
+            @Override
+            public void onError(@NonNull MediaCodec codec,
+                                @NonNull MediaCodec.CodecException e) {
+                callback.onError(e);
+            }
+
+            @Override
+            public void onOutputFormatChanged(@NonNull MediaCodec codec,
+                                              @NonNull MediaFormat format) {
+                callback.onOutputFormatChanged(format);
+            }
+        };
+        if (Build.VERSION.SDK_INT >= 23 && mHandler != null) {
+            mMediaCodec.setCallback(platformCallback, mHandler);
+        } else {
+            mMediaCodec.setCallback(platformCallback);
+        }
+    }
+
+    @NonNull
+    private MediaCodecBuffers getBuffers() {
+        // Buffers can only be accessed after the codec was started.
+        if (mBuffers == null) {
+            mBuffers = new MediaCodecBuffers(mMediaCodec);
+        }
+        return mBuffers;
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        return mMediaCodec.dequeueInputBuffer(timeoutUs);
+    }
+
+    @NonNull
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return getBuffers().getInputBuffer(index);
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int size, long presentationTimeUs, int flags) {
+        mMediaCodec.queueInputBuffer(index, 0, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public int dequeueOutputBuffer(@NonNull MediaCodec.BufferInfo info, long timeoutUs) {
+        int status = mMediaCodec.dequeueOutputBuffer(info, timeoutUs);
+        if (status == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+            // not expected for an encoder
+            getBuffers().onOutputBuffersChanged();
+        }
+        return status;
+    }
+
+    @NonNull
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return getBuffers().getOutputBuffer(index);
+    }
+
+    @NonNull
+    @Override
+    public MediaFormat getOutputFormat() {
+        return mMediaCodec.getOutputFormat();
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        mMediaCodec.releaseOutputBuffer(index, false);
+    }
+}
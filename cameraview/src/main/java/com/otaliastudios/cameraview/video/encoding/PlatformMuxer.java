@@ -0,0 +1,54 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Muxer} that writes a standard MP4 file through {@link MediaMuxer}.
+ */
+@RequiresApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class PlatformMuxer implements Muxer {
+
+    private final MediaMuxer mMediaMuxer;
+
+    PlatformMuxer(@NonNull File file) throws IOException {
+        mMediaMuxer = new MediaMuxer(file.toString(),
+                MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    @Override
+    public int addTrack(@NonNull MediaFormat format) {
+        return mMediaMuxer.addTrack(format);
+    }
+
+    @Override
+    public void start() {
+        mMediaMuxer.start();
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, @NonNull ByteBuffer data,
+                                @NonNull MediaCodec.BufferInfo info) {
+        mMediaMuxer.writeSampleData(trackIndex, data, info);
+    }
+
+    @Override
+    public void stop() {
+        // stop() throws an exception if you haven't fed it any data.
+        mMediaMuxer.stop();
+    }
+
+    @Override
+    public void release() {
+        mMediaMuxer.release();
+    }
+}
@@ -0,0 +1,272 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import android.media.MediaCodec;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A circular buffer of encoded samples, capped by bytes, that always starts
+ * with a video key frame. Used by {@link MediaEncoderEngine} to keep the last part
+ * of a recording in memory until it is committed to a file.
+ *
+ * Sample data is stored contiguously in a single direct buffer, and metadata
+ * in parallel arrays. When there is not enough space for a new sample, the oldest
+ * samples are removed, together with the rest of their group of pictures,
+ * so that the head is a key frame again.
+ *
+ * Samples are read by calling {@link #peek()}, reading the head values,
+ * and then calling {@link #remove()}.
+ *
+ * This class is not thread safe.
+ */
+class PreRollBuffer {
+
+    private final static int INITIAL_SAMPLES = 256;
+
+    private final ByteBuffer mBuffer;
+    private final ByteBuffer mReadBuffer;
+    private final ByteBuffer mWriteBuffer;
+    private int mReadOffset;
+    private int mWriteOffset;
+
+    private int[] mTracks = new int[INITIAL_SAMPLES];
+    private boolean[] mVideo = new boolean[INITIAL_SAMPLES];
+    private int[] mOffsets = new int[INITIAL_SAMPLES];
+    private int[] mSizes = new int[INITIAL_SAMPLES];
+    private int[] mFlags = new int[INITIAL_SAMPLES];
+    private long[] mTimes = new long[INITIAL_SAMPLES];
+    private int mHead;
+    private int mCount;
+    private int mBytes;
+
+    /**
+     * Creates a new buffer.
+     * @param maxBytes the max number of bytes of sample data
+     */
+    PreRollBuffer(int maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes should be > 0.");
+        }
+        mBuffer = ByteBuffer.allocateDirect(maxBytes);
+        mReadBuffer = mBuffer.duplicate();
+        mWriteBuffer = mBuffer.duplicate();
+    }
+
+    /**
+     * Adds a sample, removing the oldest ones if needed. The data is read from position
+     * to limit, which are left unchanged. Samples are dropped if they can't be the first
+     * sample, or if they are bigger than the whole buffer.
+     *
+     * @param track the track index
+     * @param video whether this is a video track
+     * @param data the sample data
+     * @param flags the {@link MediaCodec.BufferInfo} flags
+     * @param presentationTimeUs the presentation time
+     * @return true if the sample was added
+     */
+    boolean add(int track, boolean video, @NonNull ByteBuffer data, int flags,
+                long presentationTimeUs) {
+        int size = data.remaining();
+        if (size > mBuffer.capacity()) {
+            // Everything that we have is older than this sample, which is lost anyway.
+            clear();
+            return false;
+        }
+        int offset = findSpace(size);
+        if (offset < 0) {
+            while (offset < 0) {
+                removeHead();
+                offset = findSpace(size);
+            }
+            // Removing more samples can only make more space, but it might move it.
+            trimToKeyFrame();
+            offset = findSpace(size);
+        }
+        if (mCount == 0 && !(video && isKeyFrame(flags))) {
+            return false;
+        }
+
+        // Copy the data.
+        int position = data.position();
+        mWriteBuffer.limit(mBuffer.capacity());
+        mWriteBuffer.position(offset);
+        mWriteBuffer.put(data);
+        data.position(position);
+
+        if (mCount == mTracks.length) grow();
+        int index = (mHead + mCount) % mTracks.length;
+        mTracks[index] = track;
+        mVideo[index] = video;
+        mOffsets[index] = offset;
+        mSizes[index] = size;
+        mFlags[index] = flags;
+        mTimes[index] = presentationTimeUs;
+        if (mCount == 0) mReadOffset = offset;
+        mCount++;
+        mBytes += size;
+        mWriteOffset = offset + size;
+        return true;
+    }
+
+    /**
+     * Returns the offset where a sample of the given size can be written,
+     * or -1 if there is no contiguous space for it.
+     */
+    private int findSpace(int size) {
+        int capacity = mBuffer.capacity();
+        if (mCount == 0) {
+            return size <= capacity ? 0 : -1;
+        } else if (mWriteOffset > mReadOffset) {
+            if (mWriteOffset + size <= capacity) return mWriteOffset;
+            // Skip the tail and wrap around.
+            return size <= mReadOffset ? 0 : -1;
+        } else {
+            return mWriteOffset + size <= mReadOffset ? mWriteOffset : -1;
+        }
+    }
+
+    /**
+     * Removes samples until the head is a video key frame.
+     */
+    private void trimToKeyFrame() {
+        while (mCount > 0 && !(mVideo[mHead] && isKeyFrame(mFlags[mHead]))) {
+            removeHead();
+        }
+    }
+
+    private void removeHead() {
+        mBytes -= mSizes[mHead];
+        mHead = (mHead + 1) % mTracks.length;
+        mCount--;
+        if (mCount > 0) {
+            mReadOffset = mOffsets[mHead];
+        } else {
+            mReadOffset = 0;
+            mWriteOffset = 0;
+        }
+    }
+
+    private void grow() {
+        int length = mTracks.length;
+        int[] tracks = new int[length * 2];
+        boolean[] video = new boolean[length * 2];
+        int[] offsets = new int[length * 2];
+        int[] sizes = new int[length * 2];
+        int[] flags = new int[length * 2];
+        long[] times = new long[length * 2];
+        for (int i = 0; i < mCount; i++) {
+            int index = (mHead + i) % length;
+            tracks[i] = mTracks[index];
+            video[i] = mVideo[index];
+            offsets[i] = mOffsets[index];
+            sizes[i] = mSizes[index];
+            flags[i] = mFlags[index];
+            times[i] = mTimes[index];
+        }
+        mTracks = tracks;
+        mVideo = video;
+        mOffsets = offsets;
+        mSizes = sizes;
+        mFlags = flags;
+        mTimes = times;
+        mHead = 0;
+    }
+
+    private static boolean isKeyFrame(int flags) {
+        //noinspection deprecation
+        return (flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0;
+    }
+
+    /**
+     * Returns true if there is a sample to be read. Its values can then be read
+     * with the getters, until {@link #remove()} is called.
+     * @return true if not empty
+     */
+    boolean peek() {
+        return mCount > 0;
+    }
+
+    /**
+     * Removes the head sample, after it was read.
+     */
+    void remove() {
+        if (mCount == 0) throw new IllegalStateException("Buffer is empty.");
+        removeHead();
+    }
+
+    /**
+     * Returns the track of the head sample.
+     * @return the track
+     */
+    int getTrack() {
+        return mTracks[mHead];
+    }
+
+    /**
+     * Returns the {@link MediaCodec.BufferInfo} flags of the head sample.
+     * @return the flags
+     */
+    int getFlags() {
+        return mFlags[mHead];
+    }
+
+    /**
+     * Returns the presentation time of the head sample.
+     * @return the presentation time
+     */
+    long getPresentationTimeUs() {
+        return mTimes[mHead];
+    }
+
+    /**
+     * Returns the data of the head sample, from position to limit.
+     * The returned buffer is reused, and valid until {@link #remove()} is called.
+     * @return the data
+     */
+    @NonNull
+    ByteBuffer getData() {
+        mReadBuffer.limit(mBuffer.capacity());
+        mReadBuffer.position(mOffsets[mHead]);
+        mReadBuffer.limit(mOffsets[mHead] + mSizes[mHead]);
+        return mReadBuffer;
+    }
+
+    /**
+     * Returns the number of samples.
+     * @return the sample count
+     */
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * Returns the number of bytes of sample data.
+     * @return the byte count
+     */
+    int getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Returns the duration between the first and the last sample.
+     * @return the duration in microseconds
+     */
+    long getDurationUs() {
+        if (mCount == 0) return 0;
+        int last = (mHead + mCount - 1) % mTracks.length;
+        return mTimes[last] - mTimes[mHead];
+    }
+
+    /**
+     * Removes all samples.
+     */
+    void clear() {
+        mHead = 0;
+        mCount = 0;
+        mBytes = 0;
+        mReadOffset = 0;
+        mWriteOffset = 0;
+    }
+}
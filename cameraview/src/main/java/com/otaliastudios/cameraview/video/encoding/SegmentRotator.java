@@ -0,0 +1,276 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import com.otaliastudios.cameraview.CameraLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Splits the samples written by {@link MediaEncoderEngine} into segments of a given
+ * duration, each one with its own {@link Muxer} and file.
+ *
+ * The muxer of the next segment is created and started ahead of time on the given executor,
+ * so that when a video key frame arrives after the segment duration, muxers are swapped
+ * without any file operation on the encoder thread. The old muxer is also stopped
+ * on the executor. If the next muxer is not ready yet, the current segment goes on
+ * until it is.
+ *
+ * {@link #write(OutputBuffer)} can be called from any encoder thread.
+ */
+@RequiresApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class SegmentRotator {
+
+    private final static String TAG = SegmentRotator.class.getSimpleName();
+    private final static CameraLogger LOG = CameraLogger.create(TAG);
+
+    interface Callback {
+
+        /**
+         * Creates a muxer for the given file. Called on the executor.
+         * @param file the segment file
+         * @return a new muxer
+         * @throws IOException if the file can't be opened
+         */
+        @NonNull
+        Muxer createMuxer(@NonNull File file) throws IOException;
+
+        /**
+         * Asks the video encoder for a key frame, so that the next segment can start.
+         * Called on the encoder thread.
+         */
+        void requestSyncFrame();
+
+        /**
+         * Called on the executor when a segment was completed.
+         * @param file the segment file
+         * @param nextFile the file of the segment that follows
+         */
+        void onSegment(@NonNull File file, @NonNull File nextFile);
+    }
+
+    private final Object mLock = new Object();
+    private final File mFile;
+    private final long mDurationUs;
+    private final List<MediaFormat> mFormats;
+    private final int mVideoTrack;
+    private final Executor mExecutor;
+    private final Callback mCallback;
+
+    @GuardedBy("mLock") private Muxer mMuxer;
+    @GuardedBy("mLock") private File mSegmentFile;
+    @GuardedBy("mLock") private int mSegmentIndex = 0;
+    @GuardedBy("mLock") private long mSegmentStartUs = Long.MIN_VALUE;
+    @GuardedBy("mLock") private boolean mSyncRequested;
+    @GuardedBy("mLock") private Muxer mNextMuxer;
+    @GuardedBy("mLock") private File mNextFile;
+    @GuardedBy("mLock") private boolean mPreparing;
+    @GuardedBy("mLock") private boolean mReleased;
+
+    /**
+     * Creates a new rotator. The given muxer, which must be started already, is used for
+     * the first segment, and the muxer of the second segment is prepared right away.
+     *
+     * @param file the original file, see {@link MediaEncoderEngine#getSegmentFile(File, int)}
+     * @param durationUs the segment duration
+     * @param muxer the started muxer of the first segment
+     * @param formats the track formats, in track order
+     * @param videoTrack the video track index
+     * @param executor the executor for muxer operations
+     * @param callback the callback
+     */
+    SegmentRotator(@NonNull File file, long durationUs, @NonNull Muxer muxer,
+                   @NonNull List<MediaFormat> formats, int videoTrack,
+                   @NonNull Executor executor, @NonNull Callback callback) {
+        mFile = file;
+        mDurationUs = durationUs;
+        mFormats = formats;
+        mVideoTrack = videoTrack;
+        mExecutor = executor;
+        mCallback = callback;
+        synchronized (mLock) {
+            mMuxer = muxer;
+            mSegmentFile = file;
+            prepareNextSegment();
+        }
+    }
+
+    /**
+     * Writes the given sample into the current segment, after starting a new segment
+     * if needed.
+     *
+     * @param buffer the buffer
+     */
+    void write(@NonNull OutputBuffer buffer) {
+        synchronized (mLock) {
+            if (mMuxer == null) return;
+            if (buffer.trackIndex == mVideoTrack) maybeStartSegment(buffer.info);
+            mMuxer.writeSampleData(buffer.trackIndex, buffer.data, buffer.info);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void maybeStartSegment(@NonNull MediaCodec.BufferInfo info) {
+        long presentationTimeUs = info.presentationTimeUs;
+        if (mSegmentStartUs == Long.MIN_VALUE) {
+            mSegmentStartUs = presentationTimeUs;
+            return;
+        }
+        if (presentationTimeUs - mSegmentStartUs < mDurationUs) return;
+        if (mNextMuxer == null) {
+            // Keep writing into the current segment until the next one is ready.
+            // If preparing it failed, this tries again.
+            prepareNextSegment();
+            return;
+        }
+        //noinspection deprecation
+        if ((info.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) == 0) {
+            // Segments must start with a key frame. Ask for one instead of waiting for
+            // the next I-frame interval.
+            if (!mSyncRequested) {
+                mSyncRequested = true;
+                mCallback.requestSyncFrame();
+            }
+            return;
+        }
+        mSyncRequested = false;
+        final Muxer oldMuxer = mMuxer;
+        final File oldFile = mSegmentFile;
+        final File file = mNextFile;
+        mMuxer = mNextMuxer;
+        mSegmentFile = file;
+        mNextMuxer = null;
+        mNextFile = null;
+        mSegmentIndex++;
+        mSegmentStartUs = presentationTimeUs;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                finishSegment(oldMuxer, oldFile, file);
+            }
+        });
+        prepareNextSegment();
+    }
+
+    /**
+     * Schedules the creation of the next segment muxer, unless it exists already
+     * or is being created.
+     */
+    @GuardedBy("mLock")
+    private void prepareNextSegment() {
+        if (mReleased || mPreparing || mNextMuxer != null) return;
+        mPreparing = true;
+        final int index = mSegmentIndex + 1;
+        final File file = MediaEncoderEngine.getSegmentFile(mFile, index);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                prepareSegment(file, index);
+            }
+        });
+    }
+
+    private void prepareSegment(@NonNull File file, int index) {
+        Muxer muxer = null;
+        try {
+            muxer = mCallback.createMuxer(file);
+            for (int i = 0; i < mFormats.size(); i++) {
+                int track = muxer.addTrack(mFormats.get(i));
+                if (track != i) {
+                    throw new IllegalStateException("Unexpected track index: " + track);
+                }
+            }
+            muxer.start();
+        } catch (Exception e) {
+            LOG.w("prepareSegment:", "Could not prepare segment", file, e);
+            if (muxer != null) discard(muxer, file);
+            muxer = null;
+        }
+        synchronized (mLock) {
+            mPreparing = false;
+            if (muxer != null && !mReleased && index == mSegmentIndex + 1) {
+                LOG.i("prepareSegment:", "Prepared segment", file);
+                mNextMuxer = muxer;
+                mNextFile = file;
+                return;
+            }
+        }
+        if (muxer != null) discard(muxer, file);
+    }
+
+    /**
+     * Stops the muxer of a segment and notifies the callback.
+     *
+     * @param muxer the segment muxer
+     * @param file the segment file
+     * @param nextFile the file of the next segment
+     */
+    private void finishSegment(@NonNull Muxer muxer, @NonNull File file,
+                               @NonNull File nextFile) {
+        Exception error = null;
+        try {
+            muxer.stop();
+        } catch (Exception e) {
+            error = e;
+        }
+        try {
+            muxer.release();
+        } catch (Exception e) {
+            if (error == null) error = e;
+        }
+        if (error != null) {
+            LOG.e("finishSegment:", "Segment", file, "failed.", error);
+        } else {
+            mCallback.onSegment(file, nextFile);
+        }
+    }
+
+    /**
+     * Releases a prepared muxer that received no samples, and deletes its file.
+     */
+    private static void discard(@NonNull Muxer muxer, @NonNull File file) {
+        // stop() throws if no samples were written, but we only care about the cleanup.
+        try {
+            muxer.stop();
+        } catch (Exception ignore) {}
+        try {
+            muxer.release();
+        } catch (Exception ignore) {}
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    /**
+     * Stops the rotation. The prepared muxer, if any, is released and its file deleted.
+     * Further calls to {@link #write(OutputBuffer)} will be ignored.
+     *
+     * @return the muxer of the last segment, that should be stopped by the caller
+     */
+    @Nullable
+    Muxer release() {
+        Muxer muxer;
+        Muxer nextMuxer;
+        File nextFile;
+        synchronized (mLock) {
+            mReleased = true;
+            muxer = mMuxer;
+            nextMuxer = mNextMuxer;
+            nextFile = mNextFile;
+            mMuxer = null;
+            mNextMuxer = null;
+            mNextFile = null;
+        }
+        if (nextMuxer != null) discard(nextMuxer, nextFile);
+        return muxer;
+    }
+}
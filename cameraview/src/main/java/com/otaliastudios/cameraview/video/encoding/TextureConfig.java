@@ -21,6 +21,7 @@ public class TextureConfig extends VideoConfig {
     public float scaleX;
     public float scaleY;
     public EGLContext eglContext;
+    public long timeLapseIntervalUs;
 
     @NonNull
     TextureConfig copy() {
@@ -33,10 +34,15 @@ public class TextureConfig extends VideoConfig {
         copy.scaleX = this.scaleX;
         copy.scaleY = this.scaleY;
         copy.eglContext = this.eglContext;
+        copy.timeLapseIntervalUs = this.timeLapseIntervalUs;
         return copy;
     }
 
     boolean hasOverlay() {
         return overlayDrawer != null;
     }
+
+    boolean isTimeLapse() {
+        return timeLapseIntervalUs > 0;
+    }
 }
@@ -11,7 +11,7 @@ import androidx.annotation.RequiresApi;
 import com.otaliastudios.cameraview.CameraLogger;
 import com.otaliastudios.cameraview.filter.Filter;
 import com.otaliastudios.cameraview.internal.GlTextureDrawer;
-import com.otaliastudios.cameraview.internal.Pool;
+import com.otaliastudios.cameraview.internal.RingBuffer;
 import com.otaliastudios.opengl.core.EglCore;
 import com.otaliastudios.opengl.surface.EglWindowSurface;
 
@@ -24,29 +24,33 @@ public class TextureMediaEncoder extends VideoMediaEncoder<TextureConfig> {
     private static final String TAG = TextureMediaEncoder.class.getSimpleName();
     private static final CameraLogger LOG = CameraLogger.create(TAG);
 
-    public final static String FRAME_EVENT = "frame";
-    public final static String FILTER_EVENT = "filter";
+    public final static int FRAME_EVENT = 0;
+    public final static int FILTER_EVENT = 1;
+
+    private final static int FRAME_POOL_SIZE = 8;
 
     private int mTransformRotation;
     private EglCore mEglCore;
     private EglWindowSurface mWindow;
     private GlTextureDrawer mDrawer;
-    private Pool<Frame> mFramePool = new Pool<>(Integer.MAX_VALUE, new Pool.Factory<Frame>() {
-        @Override
-        public Frame create() {
-            return new Frame();
-        }
-    });
+    private final RingBuffer<Frame> mFramePool = new RingBuffer<>(FRAME_POOL_SIZE);
 
     private long mFirstTimeUs = Long.MIN_VALUE;
+    private final FrameRateDecimator mFrameRateDecimator;
+    private long mTimeLapseFrames;
 
     public TextureMediaEncoder(@NonNull TextureConfig config) {
         super(config.copy());
+        if (mConfig.isTimeLapse()) {
+            mFrameRateDecimator = new FrameRateDecimator(mConfig.timeLapseIntervalUs, 1);
+        } else {
+            mFrameRateDecimator = new FrameRateDecimator(mConfig.frameRate);
+        }
     }
 
     /**
      * Should be acquired with {@link #acquireFrame()}, filled and then passed
-     * to {@link MediaEncoderEngine#notify(String, Object)} with {@link #FRAME_EVENT}.
+     * to {@link MediaEncoderEngine#notify(int, Object)} with {@link #FRAME_EVENT}.
      */
     public static class Frame {
         private Frame() {}
@@ -68,6 +72,11 @@ public class TextureMediaEncoder extends VideoMediaEncoder<TextureConfig> {
          */
         public float[] transform = new float[16];
 
+        /**
+         * When this frame was acquired, in the {@link System#nanoTime()} reference.
+         */
+        private long acquiredNanos;
+
         private long timestampUs() {
             return timestampNanos / 1000L;
         }
@@ -75,17 +84,15 @@ public class TextureMediaEncoder extends VideoMediaEncoder<TextureConfig> {
 
     /**
      * Returns a new frame to be filled. See {@link Frame} for details.
+     * Frames are recycled after being rendered, so in the steady state this does not allocate.
      * @return a new frame
      */
     @NonNull
     public Frame acquireFrame() {
-        if (mFramePool.isEmpty()) {
-            throw new RuntimeException("Need more frames than this! " +
-                    "Please increase the pool size.");
-        } else {
-            //noinspection ConstantConditions
-            return mFramePool.get();
-        }
+        Frame frame = mFramePool.poll();
+        if (frame == null) frame = new Frame();
+        frame.acquiredNanos = System.nanoTime();
+        return frame;
     }
 
     @EncoderThread
@@ -103,6 +110,13 @@ public class TextureMediaEncoder extends VideoMediaEncoder<TextureConfig> {
     }
 
     /**
+     * The source might produce frames faster than {@link VideoConfig#frameRate}, for example
+     * a 60 fps preview for a 24 fps video. The {@link FrameRateDecimator} skips the extra
+     * frames based on their timestamps, before they are counted in {@link #mFrameNumber}.
+     * It only moves forward when a frame is actually rendered, so a frame dropped below
+     * leaves its slot to the next one.
+     * In time-lapse mode, it keeps one frame every {@link TextureConfig#timeLapseIntervalUs}.
+     *
      * Any number of pending events greater than 1 means that we should skip this frame.
      * To avoid skipping too many frames, we'll use 2 for now, but this just means
      * that we'll be drawing the same frame twice.
@@ -118,24 +132,27 @@ public class TextureMediaEncoder extends VideoMediaEncoder<TextureConfig> {
      */
     @Override
     protected boolean shouldRenderFrame(long timestampUs) {
-        if (!super.shouldRenderFrame(timestampUs)) {
+        if (timestampUs != 0 && !mFrameRateDecimator.shouldRenderFrame(timestampUs)) {
+            LOG.v("shouldRenderFrame - Dropping frame to match the frame rate.");
+            return false;
+        } else if (!super.shouldRenderFrame(timestampUs)) {
             LOG.i("shouldRenderFrame - Dropping frame because of super()");
             return false;
-        } else if (mFrameNumber <= 10) {
+        } else if (mFrameNumber > 10 && getPendingEvents(FRAME_EVENT) > 2) {
             // Always render the first few frames, or muxer fails.
-            return true;
-        } else if (getPendingEvents(FRAME_EVENT) > 2) {
             LOG.i("shouldRenderFrame - Dropping, we already have too many pending events:",
                     getPendingEvents(FRAME_EVENT));
+            onFrameDropped();
             return false;
         } else {
+            mFrameRateDecimator.onFrameRendered(timestampUs);
             return true;
         }
     }
 
     @EncoderThread
     @Override
-    protected void onEvent(@NonNull String event, @Nullable Object data) {
+    protected void onEvent(int event, @Nullable Object data) {
         switch (event) {
             case FILTER_EVENT:
                 //noinspection ConstantConditions
@@ -154,7 +171,7 @@ public class TextureMediaEncoder extends VideoMediaEncoder<TextureConfig> {
 
     private void onFrame(@NonNull Frame frame) {
         if (!shouldRenderFrame(frame.timestampUs())) {
-            mFramePool.recycle(frame);
+            mFramePool.offer(frame);
             return;
         }
 
@@ -234,9 +251,10 @@ public class TextureMediaEncoder extends VideoMediaEncoder<TextureConfig> {
         if (mConfig.hasOverlay()) {
             mConfig.overlayDrawer.render(frame.timestampUs());
         }
-        mWindow.setPresentationTime(frame.timestampNanos);
+        mWindow.setPresentationTime(getPresentationTimeNanos(frame));
         mWindow.swapBuffers();
-        mFramePool.recycle(frame);
+        onFrameRendered((System.nanoTime() - frame.acquiredNanos) / 1000L);
+        mFramePool.offer(frame);
         LOG.i("onEvent -",
                 "frameNumber:", mFrameNumber,
                 "timestampUs:", frame.timestampUs(),
@@ -245,9 +263,46 @@ public class TextureMediaEncoder extends VideoMediaEncoder<TextureConfig> {
                 "- gl rendered.");
     }
 
+    /**
+     * Returns the presentation time of a frame that is being rendered.
+     * In time-lapse mode, frames are captured every {@link TextureConfig#timeLapseIntervalUs},
+     * but should be played back at {@link VideoConfig#frameRate}, so we rewrite their
+     * timestamps as if they had been captured at that rate.
+     *
+     * @param frame the frame
+     * @return the presentation time
+     */
+    private long getPresentationTimeNanos(@NonNull Frame frame) {
+        if (!mConfig.isTimeLapse()) return frame.timestampNanos;
+        long frameRate = Math.max(mConfig.frameRate, 1);
+        long presentationNanos = mFirstTimeUs * 1000L
+                + mTimeLapseFrames * 1000000000L / frameRate;
+        mTimeLapseFrames++;
+        return presentationNanos;
+    }
+
+    /**
+     * The engine uses this to turn the max size into a max recording time.
+     * In time-lapse mode, one second of video is written every
+     * {@link VideoConfig#frameRate} captures, so the file grows slower than the bit rate
+     * by the ratio between the capture interval and the playback frame interval.
+     *
+     * @return the bits written per second of recording
+     */
+    @Override
+    protected int getEncodedBitRate() {
+        int bitRate = super.getEncodedBitRate();
+        if (!mConfig.isTimeLapse()) return bitRate;
+        long frameRate = Math.max(mConfig.frameRate, 1);
+        long recordingBitRate = bitRate * 1000000L / (mConfig.timeLapseIntervalUs * frameRate);
+        // At least one byte per second, or the engine estimate would divide by zero.
+        return (int) Math.max(recordingBitRate, 8);
+    }
+
     @Override
     protected void onStopped() {
         super.onStopped();
+        LOG.i("onStopped -", "decimated frames:", mFrameRateDecimator.getDecimatedFrames());
         mFramePool.clear();
         if (mWindow != null) {
             mWindow.release();
@@ -10,18 +10,24 @@ public class VideoConfig {
     public int width;
     public int height;
     public int bitRate;
+    public int minBitRate;
+    public int maxBitRate;
     public int frameRate;
     public int rotation;
     public String mimeType;
     public String encoder;
+    public boolean asyncCodec;
 
     protected <C extends VideoConfig> void copy(@NonNull C output) {
         output.width = this.width;
         output.height = this.height;
         output.bitRate = this.bitRate;
+        output.minBitRate = this.minBitRate;
+        output.maxBitRate = this.maxBitRate;
         output.frameRate = this.frameRate;
         output.rotation = this.rotation;
         output.mimeType = this.mimeType;
         output.encoder = this.encoder;
+        output.asyncCodec = this.asyncCodec;
     }
 }
@@ -46,6 +46,8 @@ abstract class VideoMediaEncoder<C extends VideoConfig> extends MediaEncoder {
 
     private boolean mSyncFrameFound = false;
 
+    private AdaptiveBitRateController mBitRateController;
+
     VideoMediaEncoder(@NonNull C config) {
         super("VideoEncoder");
         mConfig = config;
@@ -79,9 +81,20 @@ abstract class VideoMediaEncoder<C extends VideoConfig> extends MediaEncoder {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        configureCodec(format, mConfig.asyncCodec);
         mSurface = mMediaCodec.createInputSurface();
         mMediaCodec.start();
+
+        // Changing the bit rate while recording needs API 19, see setBitRate().
+        if (Build.VERSION.SDK_INT >= 19
+                && mConfig.minBitRate > 0
+                && mConfig.minBitRate < mConfig.maxBitRate) {
+            mBitRateController = new AdaptiveBitRateController(mConfig.bitRate,
+                    mConfig.minBitRate, mConfig.maxBitRate, mConfig.frameRate);
+            if (mBitRateController.getBitRate() != mConfig.bitRate) {
+                setBitRate(mBitRateController.getBitRate());
+            }
+        }
     }
 
     @EncoderThread
@@ -98,8 +111,8 @@ abstract class VideoMediaEncoder<C extends VideoConfig> extends MediaEncoder {
         mFrameNumber = -1;
         // Signals the end of input stream. This is a Video only API, as in the normal case,
         // we use input buffers to signal the end. In the video case, we don't have input buffers
-        // because we use an input surface instead.
-        mMediaCodec.signalEndOfInputStream();
+        // because we use an input surface instead. If the codec failed, draining ends the stream.
+        if (!hasCodecFailed()) mMediaCodec.signalEndOfInputStream();
         drainOutput(true);
     }
 
@@ -116,6 +129,9 @@ abstract class VideoMediaEncoder<C extends VideoConfig> extends MediaEncoder {
      */
     @Override
     protected void onWriteOutput(@NonNull OutputBufferPool pool, @NonNull OutputBuffer buffer) {
+        if (mBitRateController != null) {
+            mBitRateController.onOutput(nowUs(), buffer.info.size);
+        }
         if (!mSyncFrameFound) {
             LOG.w("onWriteOutput:", "sync frame not found yet. Checking.");
             int flag = MediaCodec.BUFFER_FLAG_SYNC_FRAME;
@@ -126,11 +142,7 @@ abstract class VideoMediaEncoder<C extends VideoConfig> extends MediaEncoder {
                 super.onWriteOutput(pool, buffer);
             } else {
                 LOG.w("onWriteOutput:", "DROPPING FRAME and requesting a sync frame soon.");
-                if (Build.VERSION.SDK_INT >= 19) {
-                    Bundle params = new Bundle();
-                    params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
-                    mMediaCodec.setParameters(params);
-                }
+                requestSyncFrame();
                 pool.recycle(buffer);
             }
         } else {
@@ -138,8 +150,72 @@ abstract class VideoMediaEncoder<C extends VideoConfig> extends MediaEncoder {
         }
     }
 
+    /**
+     * Asks the codec to produce a sync frame soon, instead of waiting for the
+     * next I-frame interval. This is not supported before API 19.
+     */
+    void requestSyncFrame() {
+        if (Build.VERSION.SDK_INT >= 19 && mMediaCodec != null) {
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            mMediaCodec.setParameters(params);
+        }
+    }
+
+    /**
+     * Should be called by subclasses after a frame was rendered into the input surface,
+     * so that the bit rate can be adapted to the encoder speed, if enabled.
+     *
+     * @param latencyUs the time since the frame was available
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected void onFrameRendered(long latencyUs) {
+        if (mBitRateController != null) {
+            long nowUs = nowUs();
+            mBitRateController.onFrameRendered(nowUs, latencyUs);
+            updateBitRate(nowUs);
+        }
+    }
+
+    /**
+     * Should be called by subclasses when a frame was dropped because the encoder
+     * was busy, so that the bit rate can be adapted to the encoder speed, if enabled.
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected void onFrameDropped() {
+        if (mBitRateController != null) {
+            long nowUs = nowUs();
+            mBitRateController.onFrameDropped(nowUs);
+            updateBitRate(nowUs);
+        }
+    }
+
+    private void updateBitRate(long nowUs) {
+        if (mBitRateController.update(nowUs)) {
+            int bitRate = mBitRateController.getBitRate();
+            LOG.i("updateBitRate:", "changing bit rate to", bitRate);
+            setBitRate(bitRate);
+        }
+    }
+
+    private void setBitRate(int bitRate) {
+        if (Build.VERSION.SDK_INT >= 19 && mMediaCodec != null) {
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);
+            mMediaCodec.setParameters(params);
+        }
+    }
+
+    private static long nowUs() {
+        return System.nanoTime() / 1000L;
+    }
+
     @Override
     protected int getEncodedBitRate() {
+        // With an adaptive bit rate, the file can grow as fast as the max bit rate.
+        if (mConfig.minBitRate > 0 && mConfig.maxBitRate > mConfig.bitRate) {
+            return mConfig.maxBitRate;
+        }
         return mConfig.bitRate;
     }
 
@@ -148,6 +224,7 @@ abstract class VideoMediaEncoder<C extends VideoConfig> extends MediaEncoder {
         if (timestampUs == 0) return false; // grafika said so
         if (mFrameNumber < 0) return false; // We were asked to stop.
         if (hasReachedMaxLength()) return false; // We were not asked yet, but we'll be soon.
+        if (hasCodecFailed()) return false; // We'll be asked to stop soon.
         mFrameNumber++;
         return true;
     }
@@ -0,0 +1,89 @@
+package com.otaliastudios.cameraview;
+
+
+import com.otaliastudios.cameraview.controls.Flash;
+import com.otaliastudios.cameraview.controls.Hdr;
+import com.otaliastudios.cameraview.controls.WhiteBalance;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class SettingsEditorTest {
+
+    private CameraView cameraView;
+
+    @Before
+    public void setUp() {
+        cameraView = mock(CameraView.class);
+    }
+
+    private SettingsEditor.Stub apply(SettingsEditor editor) {
+        editor.apply();
+        ArgumentCaptor<SettingsEditor.Stub> captor = ArgumentCaptor.forClass(SettingsEditor.Stub.class);
+        verify(cameraView, times(1)).applySettings(captor.capture());
+        return captor.getValue();
+    }
+
+    @Test
+    public void testEmpty() {
+        SettingsEditor.Stub stub = apply(new SettingsEditor(cameraView));
+        assertNull(stub.flash);
+        assertNull(stub.whiteBalance);
+        assertNull(stub.hdr);
+        assertNull(stub.zoom);
+        assertNull(stub.exposureCorrection);
+        assertNull(stub.previewFrameRate);
+        assertFalse(stub.hasLocation);
+    }
+
+    @Test
+    public void testAll() {
+        SettingsEditor.Stub stub = apply(new SettingsEditor(cameraView)
+                .flash(Flash.TORCH)
+                .whiteBalance(WhiteBalance.DAYLIGHT)
+                .hdr(Hdr.ON)
+                .zoom(0.5F)
+                .exposureCorrection(-1F)
+                .previewFrameRate(24F)
+                .location(null));
+        assertSame(Flash.TORCH, stub.flash);
+        assertSame(WhiteBalance.DAYLIGHT, stub.whiteBalance);
+        assertSame(Hdr.ON, stub.hdr);
+        assertEquals(0.5F, stub.zoom, 0F);
+        assertEquals(-1F, stub.exposureCorrection, 0F);
+        assertEquals(24F, stub.previewFrameRate, 0F);
+        assertTrue(stub.hasLocation);
+        assertNull(stub.location);
+    }
+
+    @Test
+    public void testLatestValue() {
+        SettingsEditor.Stub stub = apply(new SettingsEditor(cameraView)
+                .flash(Flash.ON)
+                .flash(Flash.OFF));
+        assertSame(Flash.OFF, stub.flash);
+    }
+
+    @Test
+    public void testZoomCapped() {
+        SettingsEditor.Stub stub = apply(new SettingsEditor(cameraView).zoom(2F));
+        assertEquals(1F, stub.zoom, 0F);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testApplyTwice() {
+        SettingsEditor editor = new SettingsEditor(cameraView).zoom(0.5F);
+        editor.apply();
+        editor.apply();
+    }
+}
@@ -0,0 +1,39 @@
+package com.otaliastudios.cameraview.audio;
+
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class DownmixAudioProcessorTest {
+
+    @Test
+    public void testStereo() {
+        DownmixAudioProcessor processor = new DownmixAudioProcessor();
+        assertEquals(1, processor.configure(44100, 2));
+        ShortBuffer samples = ShortBuffer.wrap(new short[]{
+                100, 300,
+                -100, 100,
+                Short.MAX_VALUE, Short.MAX_VALUE,
+                Short.MIN_VALUE, Short.MAX_VALUE });
+        processor.process(samples);
+        assertEquals(0, samples.position());
+        assertEquals(4, samples.limit());
+        assertEquals(200, samples.get(0));
+        assertEquals(0, samples.get(1));
+        assertEquals(Short.MAX_VALUE, samples.get(2));
+        assertEquals(0, samples.get(3));
+    }
+
+    @Test
+    public void testMono() {
+        DownmixAudioProcessor processor = new DownmixAudioProcessor();
+        assertEquals(1, processor.configure(44100, 1));
+        ShortBuffer samples = ShortBuffer.wrap(new short[]{ 1, 2, 3 });
+        processor.process(samples);
+        assertEquals(3, samples.limit());
+        assertEquals(2, samples.get(1));
+    }
+}
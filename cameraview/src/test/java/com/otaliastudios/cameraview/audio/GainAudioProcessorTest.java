@@ -0,0 +1,62 @@
+package com.otaliastudios.cameraview.audio;
+
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class GainAudioProcessorTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGain_invalid() {
+        new GainAudioProcessor(-1F);
+    }
+
+    @Test
+    public void testProcess() {
+        GainAudioProcessor processor = new GainAudioProcessor(2F);
+        assertEquals(1, processor.configure(44100, 1));
+        ShortBuffer samples = ShortBuffer.wrap(new short[]{ 0, 100, -100, 1000 });
+        processor.process(samples);
+        assertEquals(0, samples.get(0));
+        assertEquals(200, samples.get(1));
+        assertEquals(-200, samples.get(2));
+        assertEquals(2000, samples.get(3));
+        assertEquals(0, samples.position());
+        assertEquals(4, samples.limit());
+    }
+
+    @Test
+    public void testProcess_saturates() {
+        GainAudioProcessor processor = new GainAudioProcessor(4F);
+        processor.configure(44100, 1);
+        ShortBuffer samples = ShortBuffer.wrap(new short[]{ 20000, -20000 });
+        processor.process(samples);
+        assertEquals(Short.MAX_VALUE, samples.get(0));
+        assertEquals(Short.MIN_VALUE, samples.get(1));
+    }
+
+    @Test
+    public void testProcess_respectsLimit() {
+        GainAudioProcessor processor = new GainAudioProcessor(2F);
+        processor.configure(44100, 1);
+        ShortBuffer samples = ShortBuffer.wrap(new short[]{ 10, 10 });
+        samples.limit(1);
+        processor.process(samples);
+        assertEquals(20, samples.get(0));
+        assertEquals(10, samples.array()[1]);
+    }
+
+    @Test
+    public void testSetGain() {
+        GainAudioProcessor processor = new GainAudioProcessor(1F);
+        processor.configure(44100, 1);
+        processor.setGain(0.5F);
+        assertEquals(0.5F, processor.getGain(), 0F);
+        ShortBuffer samples = ShortBuffer.wrap(new short[]{ 100 });
+        processor.process(samples);
+        assertEquals(50, samples.get(0));
+    }
+}
@@ -0,0 +1,81 @@
+package com.otaliastudios.cameraview.audio;
+
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HighPassAudioProcessorTest {
+
+    private final static int SAMPLE_RATE = 44100;
+    private final static int BUFFER_SIZE = 1024;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCutoff_invalid() {
+        new HighPassAudioProcessor(0F);
+    }
+
+    /**
+     * Feeds a sine wave with the given DC offset, buffer after buffer, and returns
+     * the peak amplitude and the mean of the last buffer.
+     */
+    private static float[] run(HighPassAudioProcessor processor, int channels,
+                               float frequency, float amplitude, float offset) {
+        short[] array = new short[BUFFER_SIZE * channels];
+        ShortBuffer samples = ShortBuffer.wrap(array);
+        long frame = 0;
+        for (int buffer = 0; buffer < 50; buffer++) {
+            for (int i = 0; i < BUFFER_SIZE; i++, frame++) {
+                double t = frame / (double) SAMPLE_RATE;
+                short sample = (short) (offset + amplitude * Math.sin(2 * Math.PI * frequency * t));
+                for (int c = 0; c < channels; c++) array[i * channels + c] = sample;
+            }
+            samples.clear();
+            processor.process(samples);
+        }
+        float peak = 0;
+        float sum = 0;
+        for (short sample : array) {
+            peak = Math.max(peak, Math.abs(sample));
+            sum += sample;
+        }
+        return new float[]{ peak, sum / array.length };
+    }
+
+    @Test
+    public void testRemovesOffset() {
+        HighPassAudioProcessor processor = new HighPassAudioProcessor(20F);
+        assertEquals(1, processor.configure(SAMPLE_RATE, 1));
+        float[] result = run(processor, 1, 1000F, 0F, 5000F);
+        assertTrue(result[0] < 10F);
+    }
+
+    @Test
+    public void testPassesHighFrequencies() {
+        HighPassAudioProcessor processor = new HighPassAudioProcessor(80F);
+        processor.configure(SAMPLE_RATE, 1);
+        float[] result = run(processor, 1, 1000F, 10000F, 3000F);
+        assertTrue(result[0] > 9500F);
+        assertTrue(Math.abs(result[1]) < 100F);
+    }
+
+    @Test
+    public void testAttenuatesLowFrequencies() {
+        HighPassAudioProcessor processor = new HighPassAudioProcessor(200F);
+        processor.configure(SAMPLE_RATE, 1);
+        float[] result = run(processor, 1, 20F, 10000F, 0F);
+        assertTrue(result[0] < 1500F);
+    }
+
+    @Test
+    public void testChannelsAreIndependent() {
+        HighPassAudioProcessor processor = new HighPassAudioProcessor(80F);
+        assertEquals(2, processor.configure(SAMPLE_RATE, 2));
+        float[] result = run(processor, 2, 1000F, 10000F, 0F);
+        assertTrue(result[0] > 9500F);
+        assertTrue(result[0] <= 10000F);
+    }
+}
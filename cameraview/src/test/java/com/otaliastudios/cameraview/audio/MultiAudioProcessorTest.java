@@ -0,0 +1,51 @@
+package com.otaliastudios.cameraview.audio;
+
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class MultiAudioProcessorTest {
+
+    @Test
+    public void testChannels() {
+        PeakMeterAudioProcessor meter = new PeakMeterAudioProcessor();
+        MultiAudioProcessor processor = new MultiAudioProcessor(
+                new DownmixAudioProcessor(),
+                new GainAudioProcessor(2F),
+                meter);
+        assertEquals(1, processor.configure(44100, 2));
+        ShortBuffer samples = ShortBuffer.wrap(new short[]{ 100, 300, 1000, 3000 });
+        processor.process(samples);
+        assertEquals(0, samples.position());
+        assertEquals(2, samples.limit());
+        assertEquals(400, samples.get(0));
+        assertEquals(4000, samples.get(1));
+        assertEquals(4000F / Short.MAX_VALUE, meter.getLevel(), 0.001F);
+    }
+
+    @Test
+    public void testOrder() {
+        // The first gain saturates, so the order matters.
+        MultiAudioProcessor processor = new MultiAudioProcessor(Arrays.<AudioProcessor>asList(
+                new GainAudioProcessor(4F),
+                new GainAudioProcessor(0.5F)));
+        assertEquals(1, processor.configure(44100, 1));
+        ShortBuffer samples = ShortBuffer.wrap(new short[]{ 10000 });
+        processor.process(samples);
+        assertEquals(Short.MAX_VALUE / 2, samples.get(0));
+    }
+
+    @Test
+    public void testEmpty() {
+        MultiAudioProcessor processor = new MultiAudioProcessor();
+        assertEquals(2, processor.configure(44100, 2));
+        ShortBuffer samples = ShortBuffer.wrap(new short[]{ 1, 2 });
+        processor.process(samples);
+        assertEquals(2, samples.limit());
+        assertEquals(1, samples.get(0));
+    }
+}
@@ -0,0 +1,51 @@
+package com.otaliastudios.cameraview.audio;
+
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class PeakMeterAudioProcessorTest {
+
+    @Test
+    public void testLevels() {
+        PeakMeterAudioProcessor processor = new PeakMeterAudioProcessor();
+        assertEquals(2, processor.configure(44100, 2));
+        short half = (short) (Short.MAX_VALUE / 2);
+        short[] array = new short[]{ 0, 100, (short) -half, 5 };
+        processor.process(ShortBuffer.wrap(array));
+        assertEquals(0.5F, processor.getLevel(), 0.001F);
+        assertEquals(0.5F, processor.getPeak(), 0.001F);
+        assertEquals(0, processor.getClippedSamples());
+        // Samples are not modified
+        assertEquals(-half, array[2]);
+
+        processor.process(ShortBuffer.wrap(new short[]{ 100, -100 }));
+        assertEquals(100F / Short.MAX_VALUE, processor.getLevel(), 0.001F);
+        assertEquals(0.5F, processor.getPeak(), 0.001F);
+        processor.resetPeak();
+        assertEquals(0F, processor.getPeak(), 0F);
+    }
+
+    @Test
+    public void testClipping() {
+        PeakMeterAudioProcessor processor = new PeakMeterAudioProcessor();
+        processor.configure(44100, 1);
+        processor.process(ShortBuffer.wrap(new short[]{ Short.MAX_VALUE, Short.MIN_VALUE, 0 }));
+        assertEquals(1F, processor.getLevel(), 0F);
+        assertEquals(2, processor.getClippedSamples());
+        processor.process(ShortBuffer.wrap(new short[]{ Short.MAX_VALUE }));
+        assertEquals(3, processor.getClippedSamples());
+        processor.configure(44100, 1);
+        assertEquals(0, processor.getClippedSamples());
+    }
+
+    @Test
+    public void testDecibels() {
+        assertEquals(0F, PeakMeterAudioProcessor.toDecibels(1F), 0.001F);
+        assertEquals(-6.02F, PeakMeterAudioProcessor.toDecibels(0.5F), 0.01F);
+        assertEquals(Float.NEGATIVE_INFINITY, PeakMeterAudioProcessor.toDecibels(0F), 0F);
+    }
+}
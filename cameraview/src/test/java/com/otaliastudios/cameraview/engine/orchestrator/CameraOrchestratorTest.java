@@ -0,0 +1,305 @@
+package com.otaliastudios.cameraview.engine.orchestrator;
+
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Task;
+import com.otaliastudios.cameraview.internal.WorkerHandler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CameraOrchestratorTest {
+
+    private final static String ZOOM = "zoom";
+
+    private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+    private boolean running;
+    private CameraOrchestrator orchestrator;
+
+    @Before
+    public void setUp() {
+        final WorkerHandler worker = newWorker();
+        orchestrator = new CameraOrchestrator(new CameraOrchestrator.Callback() {
+            @NonNull
+            @Override
+            public WorkerHandler getJobWorker(@NonNull String job) {
+                return worker;
+            }
+
+            @Override
+            public void handleJobException(@NonNull String job, @NonNull Exception exception) {
+                throw new RuntimeException(exception);
+            }
+        });
+    }
+
+    /**
+     * A worker whose messages are run by the test with {@link #runQueue()}, with the same
+     * semantics of {@link WorkerHandler#run(Runnable)}: runnables are executed right away
+     * when we are already on the worker, and posted otherwise.
+     */
+    @NonNull
+    private WorkerHandler newWorker() {
+        WorkerHandler worker = mock(WorkerHandler.class);
+        when(worker.getExecutor()).thenReturn(new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                queue.addLast(command);
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                Runnable runnable = invocation.getArgument(0);
+                if (running) {
+                    runnable.run();
+                } else {
+                    queue.addLast(runnable);
+                }
+                return null;
+            }
+        }).when(worker).run(any(Runnable.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                // Delays are not used by these tests.
+                Runnable runnable = invocation.getArgument(1);
+                queue.addLast(runnable);
+                return null;
+            }
+        }).when(worker).post(anyLong(), any(Runnable.class));
+        return worker;
+    }
+
+    private void runQueue() {
+        running = true;
+        try {
+            while (!queue.isEmpty()) queue.pollFirst().run();
+        } finally {
+            running = false;
+        }
+    }
+
+    private int countJobs(@NonNull String name) {
+        synchronized (orchestrator.mJobsLock) {
+            int count = 0;
+            for (CameraOrchestrator.Job<?> job : orchestrator.mJobs) {
+                if (job.name.equals(name)) count++;
+            }
+            return count;
+        }
+    }
+
+    @NonNull
+    private Task<Void> zoom(@NonNull final List<Integer> applied, final int value) {
+        return orchestrator.scheduleLatest(ZOOM, true, new Runnable() {
+            @Override
+            public void run() {
+                applied.add(value);
+            }
+        });
+    }
+
+    @Test
+    public void testScheduleLatest_replaces() {
+        List<Integer> applied = new ArrayList<>();
+        Task<Void> first = zoom(applied, 0);
+        assertSame(first, zoom(applied, 1));
+        assertSame(first, zoom(applied, 2));
+        assertEquals(1, countJobs(ZOOM));
+        runQueue();
+        assertTrue(first.isComplete());
+        assertEquals(Collections.singletonList(2), applied);
+        assertEquals(0, countJobs(ZOOM));
+    }
+
+    @Test
+    public void testScheduleLatest_afterStart() {
+        // Once the lane job started, new values should go to a new job.
+        final List<Integer> applied = new ArrayList<>();
+        final List<Task<Void>> second = new ArrayList<>();
+        Task<Void> first = orchestrator.scheduleLatest(ZOOM, true, new Runnable() {
+            @Override
+            public void run() {
+                applied.add(0);
+                second.add(zoom(applied, 1));
+            }
+        });
+        runQueue();
+        assertEquals(1, second.size());
+        assertNotSame(first, second.get(0));
+        assertTrue(first.isComplete());
+        assertTrue(second.get(0).isComplete());
+        assertEquals(2, applied.size());
+    }
+
+    @Test
+    public void testScheduleLatest_remove() {
+        List<Integer> applied = new ArrayList<>();
+        Task<Void> removed = zoom(applied, 0);
+        orchestrator.remove(ZOOM);
+        assertEquals(0, countJobs(ZOOM));
+        // The lane should not point to the removed job anymore.
+        Task<Void> task = zoom(applied, 1);
+        assertNotSame(removed, task);
+        runQueue();
+        assertTrue(task.isComplete());
+        assertFalse(removed.isComplete());
+        assertEquals(Collections.singletonList(1), applied);
+    }
+
+    @Test
+    public void testScheduleLatest_busyEngine() {
+        // 1000 updates while the engine thread only gets to run once every 16 updates:
+        // the others are merged into the queued job.
+        List<Integer> applied = new ArrayList<>();
+        Set<Task<Void>> tasks = identitySet();
+        int values = 1000;
+        int maxQueued = 0;
+        for (int i = 0; i < values; i++) {
+            tasks.add(zoom(applied, i));
+            maxQueued = Math.max(maxQueued, countJobs(ZOOM));
+            if (i % 16 == 15) runQueue();
+        }
+        runQueue();
+        for (Task<Void> task : tasks) assertTrue(task.isComplete());
+        assertEquals(values - 1, (int) applied.get(applied.size() - 1));
+        // One job, and one apply, for every batch.
+        assertEquals((values + 15) / 16, tasks.size());
+        assertEquals(tasks.size(), applied.size());
+        assertEquals(1, maxQueued);
+    }
+
+    @Test
+    public void testFramePacing_stress() {
+        // ~1000 updates per second for one second at 60 fps. The engine thread is idle,
+        // so without pacing, every value would be applied.
+        orchestrator.setFramePacing(true);
+        List<Integer> applied = new ArrayList<>();
+        Set<Task<Void>> tasks = identitySet();
+        int frames = 60;
+        int values = 0;
+        int maxQueued = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            for (int i = 0; i < 16; i++) {
+                tasks.add(zoom(applied, values++));
+                maxQueued = Math.max(maxQueued, countJobs(ZOOM));
+                runQueue();
+            }
+            orchestrator.onFrame();
+            runQueue();
+        }
+        for (Task<Void> task : tasks) assertTrue(task.isComplete());
+        // The latest value is always applied.
+        assertEquals(values - 1, (int) applied.get(applied.size() - 1));
+        // No more than one apply per frame, plus the first one.
+        assertTrue("Applied " + applied.size() + " values", applied.size() <= frames + 1);
+        assertEquals(tasks.size(), applied.size());
+        assertTrue(maxQueued <= 1);
+    }
+
+    @Test
+    public void testFramePacing_waitsForFrame() {
+        orchestrator.setFramePacing(true);
+        List<Integer> applied = new ArrayList<>();
+        zoom(applied, 0);
+        runQueue();
+        Task<Void> task = zoom(applied, 1);
+        assertSame(task, zoom(applied, 2));
+        // The job waits out of the queue until the next frame.
+        assertEquals(0, countJobs(ZOOM));
+        runQueue();
+        assertEquals(Collections.singletonList(0), applied);
+        orchestrator.onFrame();
+        assertEquals(1, countJobs(ZOOM));
+        runQueue();
+        assertTrue(task.isComplete());
+        assertEquals(2, (int) applied.get(1));
+        // Frames with nothing to apply do not queue anything.
+        orchestrator.onFrame();
+        assertEquals(0, countJobs(ZOOM));
+    }
+
+    @Test
+    public void testFramePacing_disable() {
+        orchestrator.setFramePacing(true);
+        List<Integer> applied = new ArrayList<>();
+        zoom(applied, 0);
+        runQueue();
+        Task<Void> task = zoom(applied, 1);
+        // No frames will come: the waiting job is released.
+        orchestrator.setFramePacing(false);
+        runQueue();
+        assertTrue(task.isComplete());
+        assertEquals(2, applied.size());
+        // Now values are applied without waiting.
+        task = zoom(applied, 2);
+        runQueue();
+        assertTrue(task.isComplete());
+        assertEquals(3, applied.size());
+    }
+
+    @Test
+    public void testFramePacing_remove() {
+        orchestrator.setFramePacing(true);
+        List<Integer> applied = new ArrayList<>();
+        zoom(applied, 0);
+        runQueue();
+        Task<Void> removed = zoom(applied, 1);
+        orchestrator.remove(ZOOM);
+        orchestrator.onFrame();
+        runQueue();
+        assertFalse(removed.isComplete());
+        assertEquals(1, applied.size());
+        // The lane does not wait for a frame anymore.
+        Task<Void> task = zoom(applied, 2);
+        assertNotSame(removed, task);
+        runQueue();
+        assertTrue(task.isComplete());
+        assertEquals(2, (int) applied.get(1));
+    }
+
+    @Test
+    public void testFramePacing_reset() {
+        orchestrator.setFramePacing(true);
+        List<Integer> applied = new ArrayList<>();
+        zoom(applied, 0);
+        runQueue();
+        Task<Void> removed = zoom(applied, 1);
+        orchestrator.reset();
+        orchestrator.onFrame();
+        runQueue();
+        assertFalse(removed.isComplete());
+        Task<Void> task = zoom(applied, 2);
+        runQueue();
+        assertTrue(task.isComplete());
+        assertEquals(2, applied.size());
+    }
+
+    @NonNull
+    private static Set<Task<Void>> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<Task<Void>, Boolean>());
+    }
+}
@@ -0,0 +1,180 @@
+package com.otaliastudios.cameraview.frame;
+
+
+import android.graphics.ImageFormat;
+
+import androidx.annotation.NonNull;
+
+import com.otaliastudios.cameraview.size.Size;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * JVM benchmark for {@link FrameConverter}, compared with the typical hand-written NV21 to
+ * ARGB loop that allocates a new array for each frame, and with the striped conversion
+ * of {@link FrameConverter#setParallelism(java.util.concurrent.Executor, int, int)}.
+ * Uses 640x480 and 1920x1080 frames.
+ *
+ * This is skipped unless the CAMERAVIEW_BENCHMARK environment variable is set, e.g.
+ * CAMERAVIEW_BENCHMARK=1 ./gradlew :cameraview:testDebugUnitTest --tests '*FrameConverterBenchmark'
+ * For each case it prints the average time per frame and the bytes allocated per frame,
+ * when the JVM supports allocation counting. Striped results only make sense on a machine
+ * with more than one core.
+ */
+public class FrameConverterBenchmark {
+
+    private final static int FRAMES = 200;
+    private final static int STRIPES = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private interface Case {
+        void run(@NonNull Frame frame);
+    }
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Set CAMERAVIEW_BENCHMARK to run.",
+                System.getenv("CAMERAVIEW_BENCHMARK") != null);
+        executor = Executors.newFixedThreadPool(STRIPES - 1);
+    }
+
+    @After
+    public void tearDown() {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    @Test
+    public void benchmark_640x480() {
+        run(640, 480);
+    }
+
+    @Test
+    public void benchmark_1920x1080() {
+        run(1920, 1080);
+    }
+
+    private void run(final int width, final int height) {
+        FrameManager<byte[]> manager = new FrameManager<byte[]>(1, byte[].class) {
+            @Override
+            protected void onFrameDataReleased(@NonNull byte[] data, boolean recycled) { }
+
+            @NonNull
+            @Override
+            protected byte[] onCloneFrameData(@NonNull byte[] data) {
+                return data;
+            }
+        };
+        byte[] data = new byte[width * height * 3 / 2];
+        new Random(0).nextBytes(data);
+        Frame frame = new Frame(manager);
+        frame.setContent(data, 0, 0, 0, new Size(width, height), ImageFormat.NV21);
+
+        final FrameConverter converter = new FrameConverter();
+        final int[] argb = new int[width * height];
+        final byte[] gray = new byte[width * height];
+        final FrameConverter parallel = new FrameConverter();
+        parallel.setParallelism(executor, STRIPES, 64);
+        final int[] parallelArgb = new int[width * height];
+        final FrameConverter model = new FrameConverter();
+        model.setRotation(90);
+        model.setCrop((width - height) / 2, 0, height, height);
+        model.setOutputSize(224, 224);
+        final byte[] rgb = new byte[224 * 224 * 3];
+
+        String size = width + "x" + height;
+        measure(size + " naive ARGB", frame, new Case() {
+            @Override
+            public void run(@NonNull Frame frame) {
+                naiveArgb(frame.<byte[]>getData(), width, height);
+            }
+        });
+        measure(size + " FrameConverter ARGB", frame, new Case() {
+            @Override
+            public void run(@NonNull Frame frame) {
+                converter.toArgb(frame, argb);
+            }
+        });
+        measure(size + " FrameConverter ARGB, " + STRIPES + " stripes", frame, new Case() {
+            @Override
+            public void run(@NonNull Frame frame) {
+                parallel.toArgb(frame, parallelArgb);
+            }
+        });
+        measure(size + " FrameConverter gray", frame, new Case() {
+            @Override
+            public void run(@NonNull Frame frame) {
+                converter.toGray(frame, gray);
+            }
+        });
+        measure(size + " FrameConverter 224x224 RGB, rotated", frame, new Case() {
+            @Override
+            public void run(@NonNull Frame frame) {
+                model.toRgb(frame, rgb);
+            }
+        });
+        assertArrayEquals(argb, parallelArgb);
+    }
+
+    private static void measure(@NonNull String name, @NonNull Frame frame,
+                                @NonNull Case benchmark) {
+        // Warm up
+        for (int i = 0; i < FRAMES; i++) benchmark.run(frame);
+        long startBytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) benchmark.run(frame);
+        long nanos = (System.nanoTime() - start) / FRAMES;
+        long bytes = (allocatedBytes() - startBytes) / FRAMES;
+        System.out.println(String.format("%-48s %8.3f ms/frame %10d bytes/frame",
+                name, nanos / 1000000D, bytes));
+    }
+
+    /**
+     * The usual hand-written conversion, allocating the output.
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    private static int[] naiveArgb(@NonNull byte[] yuv, int width, int height) {
+        int[] argb = new int[width * height];
+        int frameSize = width * height;
+        for (int j = 0, yp = 0; j < height; j++) {
+            int uvp = frameSize + (j >> 1) * width, u = 0, v = 0;
+            for (int i = 0; i < width; i++, yp++) {
+                int y = (0xff & ((int) yuv[yp])) - 16;
+                if (y < 0) y = 0;
+                if ((i & 1) == 0) {
+                    v = (0xff & yuv[uvp++]) - 128;
+                    u = (0xff & yuv[uvp++]) - 128;
+                }
+                int y1192 = 1192 * y;
+                int r = (y1192 + 1634 * v);
+                int g = (y1192 - 833 * v - 400 * u);
+                int b = (y1192 + 2066 * u);
+                r = Math.max(0, Math.min(262143, r));
+                g = Math.max(0, Math.min(262143, g));
+                b = Math.max(0, Math.min(262143, b));
+                argb[yp] = 0xff000000 | ((r << 6) & 0xff0000)
+                        | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+            }
+        }
+        return argb;
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
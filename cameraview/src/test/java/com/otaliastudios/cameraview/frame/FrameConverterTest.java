@@ -0,0 +1,410 @@
+package com.otaliastudios.cameraview.frame;
+
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+
+import androidx.annotation.NonNull;
+
+import com.otaliastudios.cameraview.size.Size;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FrameConverterTest {
+
+    private final static int WIDTH = 64;
+    private final static int HEIGHT = 48;
+
+    private FrameManager<Object> manager;
+    private FrameConverter converter;
+    private byte[] nv21;
+
+    @Before
+    public void setUp() {
+        manager = new FrameManager<Object>(1, Object.class) {
+            @Override
+            protected void onFrameDataReleased(@NonNull Object data, boolean recycled) { }
+
+            @NonNull
+            @Override
+            protected Object onCloneFrameData(@NonNull Object data) {
+                return data;
+            }
+        };
+        converter = new FrameConverter();
+        nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        new Random(0).nextBytes(nv21);
+    }
+
+    @NonNull
+    private Frame newFrame(@NonNull Object data, int format) {
+        Frame frame = new Frame(manager);
+        frame.setContent(data, 0, 0, 0, new Size(WIDTH, HEIGHT), format);
+        return frame;
+    }
+
+    /**
+     * A straightforward implementation to compare against.
+     */
+    private int[] expected(int cropLeft, int cropTop, int cropWidth, int cropHeight,
+                           int outputWidth, int outputHeight, int rotation, boolean gray) {
+        boolean swap = rotation % 180 != 0;
+        int scaledWidth = swap ? outputHeight : outputWidth;
+        int scaledHeight = swap ? outputWidth : outputHeight;
+        int[] result = new int[outputWidth * outputHeight];
+        for (int oy = 0; oy < outputHeight; oy++) {
+            for (int ox = 0; ox < outputWidth; ox++) {
+                int px, py;
+                switch (rotation) {
+                    case 90: px = oy; py = scaledHeight - 1 - ox; break;
+                    case 180: px = scaledWidth - 1 - ox; py = scaledHeight - 1 - oy; break;
+                    case 270: px = scaledWidth - 1 - oy; py = ox; break;
+                    default: px = ox; py = oy; break;
+                }
+                int sx = cropLeft + px * cropWidth / scaledWidth;
+                int sy = cropTop + py * cropHeight / scaledHeight;
+                int y = nv21[sy * WIDTH + sx] & 0xFF;
+                int uv = WIDTH * HEIGHT + (sy / 2) * WIDTH + (sx / 2) * 2;
+                int v = nv21[uv] & 0xFF;
+                int u = nv21[uv + 1] & 0xFF;
+                result[oy * outputWidth + ox] = gray ? y : FrameConverter.yuvToArgb(y, u, v);
+            }
+        }
+        return result;
+    }
+
+    private void checkArgb(int cropLeft, int cropTop, int cropWidth, int cropHeight,
+                           int outputWidth, int outputHeight, int rotation) {
+        Frame frame = newFrame(nv21, ImageFormat.NV21);
+        converter.setCrop(cropLeft, cropTop, cropWidth, cropHeight);
+        converter.setOutputSize(outputWidth, outputHeight);
+        converter.setRotation(rotation);
+        assertEquals(outputWidth, converter.getOutputWidth(frame));
+        assertEquals(outputHeight, converter.getOutputHeight(frame));
+        int[] argb = new int[outputWidth * outputHeight];
+        converter.toArgb(frame, argb);
+        assertArrayEquals(expected(cropLeft, cropTop, cropWidth, cropHeight,
+                outputWidth, outputHeight, rotation, false), argb);
+
+        byte[] gray = new byte[outputWidth * outputHeight];
+        converter.toGray(frame, gray);
+        int[] expectedGray = expected(cropLeft, cropTop, cropWidth, cropHeight,
+                outputWidth, outputHeight, rotation, true);
+        for (int i = 0; i < gray.length; i++) {
+            assertEquals(expectedGray[i], gray[i] & 0xFF);
+        }
+    }
+
+    @Test
+    public void testYuvToArgb() {
+        // Compare with the floating point BT.601 formula.
+        for (int y = 0; y < 256; y += 5) {
+            for (int u = 0; u < 256; u += 15) {
+                for (int v = 0; v < 256; v += 15) {
+                    int argb = FrameConverter.yuvToArgb(y, u, v);
+                    double luma = 1.164 * Math.max(0, y - 16);
+                    double r = luma + 1.596 * (v - 128);
+                    double g = luma - 0.813 * (v - 128) - 0.391 * (u - 128);
+                    double b = luma + 2.018 * (u - 128);
+                    assertEquals(0xFF, argb >>> 24);
+                    assertEquals(clamp(r), (argb >> 16) & 0xFF, 2);
+                    assertEquals(clamp(g), (argb >> 8) & 0xFF, 2);
+                    assertEquals(clamp(b), argb & 0xFF, 2);
+                }
+            }
+        }
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    @Test
+    public void testDefault() {
+        Frame frame = newFrame(nv21, ImageFormat.NV21);
+        assertEquals(WIDTH, converter.getOutputWidth(frame));
+        assertEquals(HEIGHT, converter.getOutputHeight(frame));
+        byte[] gray = new byte[WIDTH * HEIGHT];
+        converter.toGray(frame, gray);
+        // This is the Y plane.
+        for (int i = 0; i < gray.length; i++) {
+            assertEquals(nv21[i], gray[i]);
+        }
+        int[] argb = new int[WIDTH * HEIGHT];
+        converter.toArgb(frame, argb);
+        assertArrayEquals(expected(0, 0, WIDTH, HEIGHT, WIDTH, HEIGHT, 0, false), argb);
+    }
+
+    @Test
+    public void testRotation() {
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            boolean swap = rotation % 180 != 0;
+            checkArgb(0, 0, WIDTH, HEIGHT, swap ? HEIGHT : WIDTH, swap ? WIDTH : HEIGHT,
+                    rotation);
+        }
+    }
+
+    @Test
+    public void testCropAndScale() {
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            checkArgb(5, 7, 33, 21, 16, 16, rotation);
+            checkArgb(1, 1, 20, 10, 40, 30, rotation);
+            checkArgb(0, 0, WIDTH, HEIGHT, 7, 3, rotation);
+        }
+    }
+
+    @Test
+    public void testRgb() {
+        Frame frame = newFrame(nv21, ImageFormat.NV21);
+        converter.setRotation(90);
+        converter.setOutputSize(20, 30);
+        int[] argb = new int[20 * 30];
+        byte[] rgb = new byte[20 * 30 * 3];
+        ByteBuffer direct = ByteBuffer.allocateDirect(20 * 30 * 3);
+        converter.toArgb(frame, argb);
+        converter.toRgb(frame, rgb);
+        converter.toRgb(frame, direct);
+        assertEquals(0, direct.position());
+        for (int i = 0; i < argb.length; i++) {
+            for (int c = 0; c < 3; c++) {
+                byte expected = (byte) (argb[i] >> (16 - 8 * c));
+                assertEquals(expected, rgb[i * 3 + c]);
+                assertEquals(expected, direct.get(i * 3 + c));
+            }
+        }
+    }
+
+    @Test
+    public void testGray_buffer() {
+        Frame frame = newFrame(nv21, ImageFormat.NV21);
+        converter.setCrop(3, 3, 30, 30);
+        converter.setRotation(270);
+        byte[] array = new byte[30 * 30];
+        ByteBuffer direct = ByteBuffer.allocateDirect(30 * 30);
+        converter.toGray(frame, array);
+        converter.toGray(frame, direct);
+        for (int i = 0; i < array.length; i++) {
+            assertEquals(array[i], direct.get(i));
+        }
+    }
+
+    @Test
+    public void testUnscaledRows() {
+        // Unscaled rows read each VU pair once for two pixels.
+        // Check odd crop edges, where a pixel does not share the pair with its neighbor.
+        checkArgb(0, 0, 33, 20, 33, 20, 0);
+        checkArgb(1, 1, 32, 20, 32, 20, 0);
+        checkArgb(3, 2, 31, 21, 31, 21, 0);
+        checkArgb(5, 0, 1, 10, 1, 10, 0);
+    }
+
+    @Test
+    public void testParallel() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Frame frame = newFrame(nv21, ImageFormat.NV21);
+            converter.setRotation(90);
+            converter.setCrop(2, 4, 50, 40);
+            int[] argb = new int[40 * 50];
+            byte[] rgb = new byte[40 * 50 * 3];
+            ByteBuffer gray = ByteBuffer.allocateDirect(40 * 50);
+            converter.toArgb(frame, argb);
+            converter.toRgb(frame, rgb);
+            converter.toGray(frame, gray);
+            for (int stripes = 2; stripes < 8; stripes++) {
+                converter.setParallelism(executor, stripes, 1);
+                int[] parallelArgb = new int[argb.length];
+                byte[] parallelRgb = new byte[rgb.length];
+                ByteBuffer parallelGray = ByteBuffer.allocateDirect(gray.capacity());
+                converter.toArgb(frame, parallelArgb);
+                converter.toRgb(frame, parallelRgb);
+                converter.toGray(frame, parallelGray);
+                assertArrayEquals(argb, parallelArgb);
+                assertArrayEquals(rgb, parallelRgb);
+                assertEquals(gray, parallelGray);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParallel_minRows() {
+        final AtomicInteger executed = new AtomicInteger(0);
+        Executor executor = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                executed.incrementAndGet();
+                command.run();
+            }
+        };
+        Frame frame = newFrame(nv21, ImageFormat.NV21);
+        int[] argb = new int[WIDTH * HEIGHT];
+        // Too small to be split.
+        converter.setParallelism(executor, 4, HEIGHT);
+        converter.toArgb(frame, argb);
+        assertEquals(0, executed.get());
+        // Split in 3 stripes of 16 rows. One runs on this thread.
+        converter.setParallelism(executor, 4, 16);
+        converter.toArgb(frame, argb);
+        assertEquals(2, executed.get());
+        assertArrayEquals(expected(0, 0, WIDTH, HEIGHT, WIDTH, HEIGHT, 0, false), argb);
+    }
+
+    @Test
+    public void testParallel_interrupted() {
+        // Stripes that finish after this thread: we should wait for them anyway.
+        Executor executor = new Executor() {
+            @Override
+            public void execute(@NonNull final Runnable command) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(50);
+                        } catch (InterruptedException ignore) {}
+                        command.run();
+                    }
+                }).start();
+            }
+        };
+        Frame frame = newFrame(nv21, ImageFormat.NV21);
+        converter.setParallelism(executor, 4, 1);
+        int[] argb = new int[WIDTH * HEIGHT];
+        Thread.currentThread().interrupt();
+        converter.toArgb(frame, argb);
+        // The interrupt is not lost.
+        assertTrue(Thread.interrupted());
+        assertArrayEquals(expected(0, 0, WIDTH, HEIGHT, WIDTH, HEIGHT, 0, false), argb);
+    }
+
+    @Test
+    public void testParallel_rejected() {
+        // Rejected stripes run on the calling thread.
+        Executor executor = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        };
+        Frame frame = newFrame(nv21, ImageFormat.NV21);
+        converter.setParallelism(executor, 4, 1);
+        int[] argb = new int[WIDTH * HEIGHT];
+        converter.toArgb(frame, argb);
+        assertArrayEquals(expected(0, 0, WIDTH, HEIGHT, WIDTH, HEIGHT, 0, false), argb);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testParallel_executorFails() {
+        // Should throw instead of waiting for stripes that were never submitted.
+        Executor executor = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                throw new IllegalStateException();
+            }
+        };
+        Frame frame = newFrame(nv21, ImageFormat.NV21);
+        converter.setParallelism(executor, 4, 1);
+        converter.toArgb(frame, new int[WIDTH * HEIGHT]);
+    }
+
+    @Test
+    public void testDirectBuffer() {
+        ByteBuffer direct = ByteBuffer.allocateDirect(nv21.length);
+        direct.put(nv21);
+        direct.clear();
+        Frame bufferFrame = newFrame(direct, ImageFormat.NV21);
+        Frame arrayFrame = newFrame(nv21, ImageFormat.NV21);
+        converter.setRotation(90);
+        converter.setCrop(4, 2, 40, 30);
+        int[] fromBuffer = new int[30 * 40];
+        int[] fromArray = new int[30 * 40];
+        converter.toArgb(bufferFrame, fromBuffer);
+        converter.toArgb(arrayFrame, fromArray);
+        assertArrayEquals(fromArray, fromBuffer);
+        assertEquals(0, direct.position());
+    }
+
+    @Test
+    public void testImage() {
+        // Same contents as the NV21 array, in planar YUV_420_888 with padded rows.
+        int rowStride = WIDTH + 16;
+        ByteBuffer y = ByteBuffer.allocateDirect(rowStride * HEIGHT);
+        ByteBuffer u = ByteBuffer.allocateDirect(rowStride * HEIGHT / 2);
+        ByteBuffer v = ByteBuffer.allocateDirect(rowStride * HEIGHT / 2);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                y.put(row * rowStride + col, nv21[row * WIDTH + col]);
+            }
+        }
+        for (int row = 0; row < HEIGHT / 2; row++) {
+            for (int col = 0; col < WIDTH / 2; col++) {
+                int uv = WIDTH * HEIGHT + row * WIDTH + col * 2;
+                v.put(row * rowStride + col, nv21[uv]);
+                u.put(row * rowStride + col, nv21[uv + 1]);
+            }
+        }
+        Image image = mock(Image.class);
+        Image.Plane[] planes = new Image.Plane[] {
+                mockPlane(y, rowStride, 1),
+                mockPlane(u, rowStride, 1),
+                mockPlane(v, rowStride, 1)
+        };
+        when(image.getPlanes()).thenReturn(planes);
+
+        Frame imageFrame = newFrame(image, ImageFormat.YUV_420_888);
+        Frame nv21Frame = newFrame(nv21, ImageFormat.NV21);
+        converter.setRotation(180);
+        converter.setOutputSize(30, 20);
+        int[] fromImage = new int[30 * 20];
+        int[] fromNv21 = new int[30 * 20];
+        converter.toArgb(imageFrame, fromImage);
+        converter.toArgb(nv21Frame, fromNv21);
+        assertArrayEquals(fromNv21, fromImage);
+    }
+
+    @NonNull
+    private Image.Plane mockPlane(@NonNull ByteBuffer buffer, int rowStride, int pixelStride) {
+        Image.Plane plane = mock(Image.Plane.class);
+        when(plane.getBuffer()).thenReturn(buffer);
+        when(plane.getRowStride()).thenReturn(rowStride);
+        when(plane.getPixelStride()).thenReturn(pixelStride);
+        return plane;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTargetTooSmall() {
+        converter.toArgb(newFrame(nv21, ImageFormat.NV21), new int[10]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCropOutside() {
+        converter.setCrop(WIDTH / 2, 0, WIDTH, HEIGHT);
+        converter.toGray(newFrame(nv21, ImageFormat.NV21), new byte[WIDTH * HEIGHT]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedFormat() {
+        converter.toGray(newFrame(nv21, ImageFormat.YV12), new byte[WIDTH * HEIGHT]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRotation() {
+        converter.setRotation(45);
+    }
+}
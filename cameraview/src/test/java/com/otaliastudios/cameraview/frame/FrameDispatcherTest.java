@@ -0,0 +1,570 @@
+package com.otaliastudios.cameraview.frame;
+
+
+import android.graphics.ImageFormat;
+
+import androidx.annotation.NonNull;
+
+import com.otaliastudios.cameraview.size.Size;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrameDispatcherTest {
+
+    private final static long TIMEOUT = 2000;
+
+    private final Map<Frame, AtomicInteger> releases = new ConcurrentHashMap<>();
+    private final Map<Frame, AtomicInteger> active = new ConcurrentHashMap<>();
+    private FrameManager<String> manager;
+    private List<FrameProcessor> processors;
+    private ExecutorService executor;
+    private FrameDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        manager = new FrameManager<String>(1, String.class) {
+            @Override
+            void onFrameReleased(@NonNull Frame frame, @NonNull String data) {
+                // Processors must be done with this frame.
+                assertEquals(0, active.get(frame).get());
+                releases.get(frame).incrementAndGet();
+            }
+
+            @Override
+            protected void onFrameDataReleased(@NonNull String data, boolean recycled) { }
+
+            @NonNull
+            @Override
+            protected String onCloneFrameData(@NonNull String data) {
+                return data;
+            }
+        };
+        processors = new CopyOnWriteArrayList<>();
+        executor = Executors.newFixedThreadPool(3);
+        dispatcher = new FrameDispatcher(processors);
+        dispatcher.setExecutor(executor);
+        dispatcher.setParallel(true);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        releases.clear();
+        active.clear();
+    }
+
+    @NonNull
+    private Frame newFrame(long time) {
+        Frame frame = new Frame(manager);
+        frame.setContent("data", time, 0, 0, new Size(10, 10), ImageFormat.NV21);
+        releases.put(frame, new AtomicInteger(0));
+        active.put(frame, new AtomicInteger(0));
+        return frame;
+    }
+
+    private void awaitRelease(@NonNull Frame frame) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (releases.get(frame).get() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        // Wait a bit more to catch double releases.
+        Thread.sleep(50);
+    }
+
+    private FrameProcessor newProcessor(final long sleep, @NonNull final AtomicInteger count) {
+        return new FrameProcessor() {
+            @Override
+            public void process(@NonNull Frame frame) {
+                active.get(frame).incrementAndGet();
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException ignore) {}
+                count.incrementAndGet();
+                active.get(frame).decrementAndGet();
+            }
+        };
+    }
+
+    @Test
+    public void testParallel_releasedOnce() throws Exception {
+        AtomicInteger fast = new AtomicInteger(0);
+        AtomicInteger slow = new AtomicInteger(0);
+        AtomicInteger medium = new AtomicInteger(0);
+        processors.add(newProcessor(0, fast));
+        processors.add(newProcessor(200, slow));
+        processors.add(newProcessor(50, medium));
+        Frame frame = newFrame(1000);
+        dispatcher.dispatch(frame);
+        awaitRelease(frame);
+        assertEquals(1, releases.get(frame).get());
+        assertEquals(1, fast.get());
+        assertEquals(1, slow.get());
+        assertEquals(1, medium.get());
+    }
+
+    @Test
+    public void testParallel_releasedOnce_crashingProcessor() throws Exception {
+        processors.add(new FrameProcessor() {
+            @Override
+            public void process(@NonNull Frame frame) {
+                throw new RuntimeException("Crash!");
+            }
+        });
+        processors.add(newProcessor(20, new AtomicInteger(0)));
+        Frame frame = newFrame(1000);
+        dispatcher.dispatch(frame);
+        awaitRelease(frame);
+        assertEquals(1, releases.get(frame).get());
+    }
+
+    @Test
+    public void testParallel_slowProcessorDoesNotStarveOthers() throws Exception {
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final AtomicInteger slow = new AtomicInteger(0);
+        final AtomicInteger fast = new AtomicInteger(0);
+        processors.add(new FrameProcessor() {
+            @Override
+            public void process(@NonNull Frame frame) {
+                try {
+                    unblock.await(TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ignore) {}
+                slow.incrementAndGet();
+            }
+        });
+        processors.add(newProcessor(0, fast));
+
+        // While the slow processor is stuck on the first frame, the fast one
+        // should keep receiving frames, and those frames should be released.
+        Frame first = newFrame(0);
+        dispatcher.dispatch(first);
+        while (fast.get() == 0) Thread.sleep(5);
+        Thread.sleep(50);
+        for (int i = 1; i <= 10; i++) {
+            Frame frame = newFrame(i);
+            dispatcher.dispatch(frame);
+            awaitRelease(frame);
+            assertEquals(1, releases.get(frame).get());
+        }
+        assertEquals(11, fast.get());
+        assertEquals(0, slow.get());
+        assertEquals(0, releases.get(first).get());
+
+        // Unblock. The first frame is released and the slow processor accepts frames again.
+        unblock.countDown();
+        awaitRelease(first);
+        assertEquals(1, releases.get(first).get());
+        Frame last = newFrame(11);
+        dispatcher.dispatch(last);
+        awaitRelease(last);
+        assertEquals(2, slow.get());
+        assertEquals(1, releases.get(last).get());
+    }
+
+    @Test
+    public void testSequential_releasedOnce() throws Exception {
+        dispatcher.setParallel(false);
+        assertFalse(dispatcher.isParallel());
+        AtomicInteger count = new AtomicInteger(0);
+        processors.add(newProcessor(10, count));
+        processors.add(newProcessor(10, count));
+        Frame frame = newFrame(1000);
+        dispatcher.dispatch(frame);
+        awaitRelease(frame);
+        assertEquals(1, releases.get(frame).get());
+        assertEquals(2, count.get());
+    }
+
+    @Test
+    public void testNoProcessors_releasedImmediately() {
+        Frame frame = newFrame(1000);
+        dispatcher.dispatch(frame);
+        assertEquals(1, releases.get(frame).get());
+        assertTrue(processors.isEmpty());
+    }
+
+    /**
+     * A processor that records frame times, and blocks
+     * on the first frame until {@link #unblock} is released.
+     */
+    private class BlockingProcessor implements FrameProcessor {
+        private final List<Long> times = new CopyOnWriteArrayList<>();
+        private final CountDownLatch unblock = new CountDownLatch(1);
+        private final CountDownLatch blocked = new CountDownLatch(1);
+
+        @Override
+        public void process(@NonNull Frame frame) {
+            times.add(frame.getTime());
+            blocked.countDown();
+            try {
+                unblock.await(TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ignore) {}
+        }
+
+        private void awaitBlocked() throws InterruptedException {
+            assertTrue(blocked.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+
+        private void awaitTimes(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + TIMEOUT;
+            while (times.size() < count && System.currentTimeMillis() < end) {
+                Thread.sleep(5);
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void testBackpressure_latestOnly() throws Exception {
+        dispatcher.setParallel(false);
+        BlockingProcessor processor = new BlockingProcessor();
+        processors.add(processor);
+        dispatcher.onProcessorAdded(processor, FrameBackpressure.LATEST_ONLY);
+        assertEquals(FrameBackpressure.LATEST_ONLY, dispatcher.getBackpressure(processor));
+
+        Frame first = newFrame(1);
+        dispatcher.dispatch(first);
+        processor.awaitBlocked();
+        Frame second = newFrame(2);
+        Frame third = newFrame(3);
+        Frame fourth = newFrame(4);
+        dispatcher.dispatch(second);
+        dispatcher.dispatch(third);
+        // Replaced frames are released right away.
+        assertEquals(1, releases.get(second).get());
+        dispatcher.dispatch(fourth);
+        assertEquals(1, releases.get(third).get());
+        assertEquals(0, releases.get(fourth).get());
+
+        processor.unblock.countDown();
+        processor.awaitTimes(2);
+        assertEquals(Arrays.asList(1L, 4L), processor.times);
+        for (Frame frame : Arrays.asList(first, second, third, fourth)) {
+            assertEquals(1, releases.get(frame).get());
+        }
+    }
+
+    @Test
+    public void testBackpressure_dropNewest() throws Exception {
+        dispatcher.setParallel(false);
+        BlockingProcessor processor = new BlockingProcessor();
+        processors.add(processor);
+        dispatcher.onProcessorAdded(processor, FrameBackpressure.DROP_NEWEST);
+
+        Frame first = newFrame(1);
+        dispatcher.dispatch(first);
+        processor.awaitBlocked();
+        Frame second = newFrame(2);
+        dispatcher.dispatch(second);
+        assertEquals(1, releases.get(second).get());
+
+        processor.unblock.countDown();
+        processor.awaitTimes(1);
+        awaitRelease(first);
+        assertEquals(Arrays.asList(1L), processor.times);
+        assertEquals(1, releases.get(first).get());
+    }
+
+    @Test
+    public void testBackpressure_boundedQueue() throws Exception {
+        dispatcher.setParallel(false);
+        BlockingProcessor processor = new BlockingProcessor();
+        processors.add(processor);
+        dispatcher.onProcessorAdded(processor, FrameBackpressure.boundedQueue(2));
+
+        dispatcher.dispatch(newFrame(1));
+        processor.awaitBlocked();
+        Frame second = newFrame(2);
+        Frame third = newFrame(3);
+        Frame fourth = newFrame(4);
+        dispatcher.dispatch(second);
+        dispatcher.dispatch(third);
+        dispatcher.dispatch(fourth);
+        assertEquals(0, releases.get(second).get());
+        assertEquals(0, releases.get(third).get());
+        assertEquals(1, releases.get(fourth).get());
+
+        processor.unblock.countDown();
+        processor.awaitTimes(3);
+        assertEquals(Arrays.asList(1L, 2L, 3L), processor.times);
+        assertEquals(1, releases.get(second).get());
+        assertEquals(1, releases.get(third).get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBackpressure_boundedQueue_invalid() {
+        FrameBackpressure.boundedQueue(0);
+    }
+
+    @Test
+    public void testBackpressure_blockCamera() throws Exception {
+        dispatcher.setParallel(false);
+        final BlockingProcessor processor = new BlockingProcessor();
+        processors.add(processor);
+        dispatcher.onProcessorAdded(processor, FrameBackpressure.BLOCK_CAMERA);
+
+        dispatcher.dispatch(newFrame(1));
+        processor.awaitBlocked();
+        dispatcher.dispatch(newFrame(2)); // Waits in the queue.
+        final Frame third = newFrame(3);
+        Thread camera = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.dispatch(third);
+            }
+        });
+        camera.start();
+        camera.join(100);
+        assertTrue(camera.isAlive());
+
+        processor.unblock.countDown();
+        camera.join(TIMEOUT);
+        assertFalse(camera.isAlive());
+        processor.awaitTimes(3);
+        assertEquals(Arrays.asList(1L, 2L, 3L), processor.times);
+        assertEquals(1, releases.get(third).get());
+    }
+
+    @Test
+    public void testBackpressure_blockCamera_interrupted() throws Exception {
+        dispatcher.setParallel(false);
+        final BlockingProcessor processor = new BlockingProcessor();
+        processors.add(processor);
+        dispatcher.onProcessorAdded(processor, FrameBackpressure.BLOCK_CAMERA);
+
+        dispatcher.dispatch(newFrame(1));
+        processor.awaitBlocked();
+        dispatcher.dispatch(newFrame(2)); // Waits in the queue.
+        final Frame third = newFrame(3);
+        final AtomicInteger interrupted = new AtomicInteger(0);
+        Thread camera = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Thread.currentThread().interrupt();
+                dispatcher.dispatch(third);
+                if (Thread.currentThread().isInterrupted()) interrupted.incrementAndGet();
+            }
+        });
+        camera.start();
+        camera.join(TIMEOUT);
+        assertFalse(camera.isAlive());
+        // The frame is dropped and the interrupt flag is kept.
+        assertEquals(1, interrupted.get());
+        assertEquals(1, releases.get(third).get());
+
+        processor.unblock.countDown();
+        processor.awaitTimes(2);
+        assertEquals(Arrays.asList(1L, 2L), processor.times);
+    }
+
+    @Test
+    public void testBackpressure_withSequentialProcessors() throws Exception {
+        dispatcher.setParallel(false);
+        BlockingProcessor blocking = new BlockingProcessor();
+        AtomicInteger count = new AtomicInteger(0);
+        processors.add(blocking);
+        processors.add(newProcessor(0, count));
+        dispatcher.onProcessorAdded(blocking, FrameBackpressure.DROP_NEWEST);
+        assertEquals(null, dispatcher.getBackpressure(processors.get(1)));
+
+        // The blocking processor runs in its own lane, so others are not affected.
+        dispatcher.dispatch(newFrame(0));
+        blocking.awaitBlocked();
+        for (int i = 1; i <= 5; i++) {
+            Frame frame = newFrame(i);
+            dispatcher.dispatch(frame);
+            awaitRelease(frame);
+            assertEquals(1, releases.get(frame).get());
+        }
+        assertEquals(6, count.get());
+        assertEquals(1, blocking.times.size());
+        blocking.unblock.countDown();
+    }
+
+    /**
+     * An executor that runs tasks synchronously, counting them.
+     */
+    private static class CountingExecutor implements Executor {
+        private int count = 0;
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            count++;
+            command.run();
+        }
+    }
+
+    /**
+     * A processor that records frame times.
+     */
+    private static class RecordingProcessor implements FrameProcessor {
+        private final List<Long> times = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void process(@NonNull Frame frame) {
+            times.add(frame.getTime());
+        }
+    }
+
+    @Test
+    public void testSampling_everyNth() {
+        CountingExecutor executor = new CountingExecutor();
+        dispatcher.setExecutor(executor);
+        RecordingProcessor processor = new RecordingProcessor();
+        processors.add(processor);
+        dispatcher.onProcessorAdded(processor, FrameSampling.everyNth(3),
+                FrameBackpressure.DROP_NEWEST);
+        for (int i = 0; i < 9; i++) {
+            Frame frame = newFrame(i);
+            dispatcher.dispatch(frame);
+            // Sampled or not, frames are released synchronously.
+            assertEquals(1, releases.get(frame).get());
+        }
+        assertEquals(Arrays.asList(0L, 3L, 6L), processor.times);
+        // No executor task for frames that were not sampled.
+        assertEquals(3, executor.count);
+    }
+
+    @Test
+    public void testSampling_maxRate() {
+        CountingExecutor executor = new CountingExecutor();
+        dispatcher.setExecutor(executor);
+        RecordingProcessor processor = new RecordingProcessor();
+        processors.add(processor);
+        dispatcher.onProcessorAdded(processor, FrameSampling.maxRate(5),
+                FrameBackpressure.DROP_NEWEST);
+        // One second at 30 fps.
+        for (int i = 0; i < 30; i++) {
+            dispatcher.dispatch(newFrame(i * 33));
+        }
+        assertEquals(Arrays.asList(0L, 231L, 429L, 627L, 825L), processor.times);
+        assertEquals(5, executor.count);
+    }
+
+    @Test
+    public void testSampling_maxRate_afterPause() {
+        CountingExecutor executor = new CountingExecutor();
+        dispatcher.setExecutor(executor);
+        RecordingProcessor processor = new RecordingProcessor();
+        processors.add(processor);
+        dispatcher.onProcessorAdded(processor, FrameSampling.maxRate(10),
+                FrameBackpressure.DROP_NEWEST);
+        // After a pause, we should not receive a burst of frames to catch up.
+        dispatcher.dispatch(newFrame(0));
+        dispatcher.dispatch(newFrame(1000));
+        dispatcher.dispatch(newFrame(1033));
+        dispatcher.dispatch(newFrame(1066));
+        dispatcher.dispatch(newFrame(1100));
+        assertEquals(Arrays.asList(0L, 1000L, 1100L), processor.times);
+    }
+
+    @Test
+    public void testSampling_busyProcessor() throws Exception {
+        BlockingProcessor processor = new BlockingProcessor();
+        processors.add(processor);
+        dispatcher.onProcessorAdded(processor, FrameSampling.maxRate(10),
+                FrameBackpressure.DROP_NEWEST);
+        dispatcher.dispatch(newFrame(0));
+        processor.awaitBlocked();
+        // Dropped because busy. The sampling grid should not move forward,
+        // so that the next frame is sampled as soon as the processor is free.
+        dispatcher.dispatch(newFrame(100));
+        processor.unblock.countDown();
+        Thread.sleep(50);
+        dispatcher.dispatch(newFrame(133));
+        processor.awaitTimes(2);
+        assertEquals(Arrays.asList(0L, 133L), processor.times);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSampling_invalidRate() {
+        FrameSampling.maxRate(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSampling_invalidInterval() {
+        FrameSampling.everyNth(0);
+    }
+
+    @Test
+    public void testMetrics() {
+        CountingExecutor executor = new CountingExecutor();
+        dispatcher.setExecutor(executor);
+        dispatcher.setParallel(false);
+        RecordingProcessor sequential = new RecordingProcessor();
+        RecordingProcessor sampled = new RecordingProcessor();
+        FrameProcessor failing = new FrameProcessor() {
+            @Override
+            public void process(@NonNull Frame frame) {
+                throw new RuntimeException("Failing processor");
+            }
+        };
+        processors.add(sequential);
+        processors.add(sampled);
+        processors.add(failing);
+        dispatcher.onProcessorAdded(sampled, FrameSampling.everyNth(2),
+                FrameBackpressure.DROP_NEWEST);
+        for (int i = 0; i < 10; i++) {
+            dispatcher.dispatch(newFrame(i));
+        }
+        FrameMetrics metrics = dispatcher.getMetrics().snapshot();
+        assertEquals(10, metrics.getDispatchedFrames());
+        assertEquals(5, metrics.getSampledOutFrames());
+        assertEquals(0, metrics.getBackpressureDrops());
+        FrameMetrics.ProcessorMetrics sequentialMetrics
+                = metrics.getProcessorMetrics(sequential);
+        assertEquals(10, sequentialMetrics.getProcessedFrames());
+        assertEquals(0, sequentialMetrics.getFailedFrames());
+        assertEquals(10, sequentialMetrics.getLatency().getCount());
+        FrameMetrics.ProcessorMetrics sampledMetrics = metrics.getProcessorMetrics(sampled);
+        assertEquals(5, sampledMetrics.getProcessedFrames());
+        assertEquals(5, sampledMetrics.getSkippedFrames());
+        FrameMetrics.ProcessorMetrics failingMetrics = metrics.getProcessorMetrics(failing);
+        assertEquals(10, failingMetrics.getProcessedFrames());
+        assertEquals(10, failingMetrics.getFailedFrames());
+
+        dispatcher.getMetrics().reset();
+        metrics = dispatcher.getMetrics().snapshot();
+        assertEquals(0, metrics.getDispatchedFrames());
+        assertEquals(0, metrics.getProcessorMetrics(sequential).getProcessedFrames());
+        assertEquals(0, metrics.getProcessorMetrics(sequential).getLatency().getCount());
+
+        dispatcher.onProcessorRemoved(sampled);
+        assertNull(dispatcher.getMetrics().snapshot().getProcessorMetrics(sampled));
+    }
+
+    @Test
+    public void testMetrics_backpressureDrops() throws Exception {
+        BlockingProcessor processor = new BlockingProcessor();
+        processors.add(processor);
+        dispatcher.onProcessorAdded(processor, FrameBackpressure.DROP_NEWEST);
+        dispatcher.dispatch(newFrame(0));
+        processor.awaitBlocked();
+        dispatcher.dispatch(newFrame(1));
+        dispatcher.dispatch(newFrame(2));
+        processor.unblock.countDown();
+        processor.awaitTimes(1);
+        FrameMetrics metrics = dispatcher.getMetrics().snapshot();
+        assertEquals(3, metrics.getDispatchedFrames());
+        assertEquals(2, metrics.getBackpressureDrops());
+        assertEquals(2, metrics.getProcessorMetrics(processor).getDroppedFrames());
+    }
+}
@@ -0,0 +1,189 @@
+package com.otaliastudios.cameraview.frame;
+
+
+import com.otaliastudios.cameraview.internal.RingBuffer;
+import com.otaliastudios.cameraview.tools.Allocations;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the frame recycling structure used by {@link FrameManager} and
+ * {@link ByteBufferFrameManager}: a pair of {@link RingBuffer}s, one for frames and one
+ * for buffers, compared with the pair of {@link LinkedBlockingQueue}s that was used before.
+ */
+public class FramePoolTest {
+
+    private final static int POOL_SIZE = 2;
+
+    private interface Queue {
+        Object poll();
+        boolean offer(Object item);
+    }
+
+    private static class BlockingQueue implements Queue {
+        private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>(POOL_SIZE);
+        @Override public Object poll() { return queue.poll(); }
+        @Override public boolean offer(Object item) { return queue.offer(item); }
+    }
+
+    private static class RingQueue implements Queue {
+        private final RingBuffer<Object> queue = new RingBuffer<>(POOL_SIZE);
+        @Override public Object poll() { return queue.poll(); }
+        @Override public boolean offer(Object item) { return queue.offer(item); }
+    }
+
+    private static void fill(Queue frames, Queue buffers) {
+        for (int i = 0; i < POOL_SIZE; i++) {
+            assertTrue(frames.offer(new Object()));
+            assertTrue(buffers.offer(new byte[1]));
+        }
+    }
+
+    /**
+     * Takes a frame and its buffer, like the camera thread does,
+     * then releases them, like the processor thread does.
+     */
+    private static void cycle(Queue frames, Queue buffers) {
+        Object buffer = buffers.poll();
+        Object frame = frames.poll();
+        frames.offer(frame);
+        buffers.offer(buffer);
+    }
+
+    private static Runnable cycles(final Queue frames, final Queue buffers) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                cycle(frames, buffers);
+            }
+        };
+    }
+
+    @Test
+    public void testRingBuffer_noAllocation() {
+        Queue frames = new RingQueue();
+        Queue buffers = new RingQueue();
+        fill(frames, buffers);
+        Allocations.assertNoAllocation(cycles(frames, buffers));
+    }
+
+    @Test
+    public void testLinkedBlockingQueue_allocates() {
+        // The queues we used before allocate one node for each offer.
+        Queue frames = new BlockingQueue();
+        Queue buffers = new BlockingQueue();
+        fill(frames, buffers);
+        long bytes = Allocations.measure(cycles(frames, buffers));
+        assertTrue("Allocated " + bytes + " bytes", bytes >= Allocations.CYCLES * 2 * 16);
+    }
+
+    @Test
+    public void testCrossThread_30fps() throws Exception {
+        testCrossThread(30);
+    }
+
+    @Test
+    public void testCrossThread_60fps() throws Exception {
+        testCrossThread(60);
+    }
+
+    @Test
+    public void testCrossThread_240fps() throws Exception {
+        testCrossThread(240);
+    }
+
+    /**
+     * Takes frames on this thread, at the given rate, and releases them on another thread.
+     * Frames can be dropped when the pool is exhausted, but they should never be lost
+     * or duplicated.
+     */
+    private void testCrossThread(int fps) throws Exception {
+        final int count = 30;
+        final Queue frames = new RingQueue();
+        final Queue buffers = new RingQueue();
+        fill(frames, buffers);
+        final Set<Object> allFrames = identitySet();
+        final Set<Object> allBuffers = identitySet();
+        for (int i = 0; i < POOL_SIZE; i++) {
+            Object frame = frames.poll();
+            Object buffer = buffers.poll();
+            allFrames.add(frame);
+            allBuffers.add(buffer);
+            frames.offer(frame);
+            buffers.offer(buffer);
+        }
+        // The handoff stands in for the executor.
+        final RingBuffer<Object[]> handoff = new RingBuffer<>(POOL_SIZE);
+        final long[] released = new long[1];
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final boolean[] stop = new boolean[]{false};
+        Thread processor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Object[] item = handoff.poll();
+                        if (item == null) {
+                            synchronized (stop) { if (stop[0] && handoff.isEmpty()) break; }
+                            Thread.yield();
+                            continue;
+                        }
+                        assertTrue(frames.offer(item[0]));
+                        assertTrue(buffers.offer(item[1]));
+                        released[0]++;
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        }, "FramePoolTest");
+        processor.start();
+
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / fps;
+        long next = System.nanoTime();
+        long taken = 0;
+        for (int i = 0; i < count; i++) {
+            Object buffer = buffers.poll();
+            Object frame = buffer == null ? null : frames.poll();
+            if (frame == null) {
+                if (buffer != null) assertTrue(buffers.offer(buffer));
+            } else {
+                taken++;
+                Object[] holder = new Object[]{frame, buffer};
+                while (!handoff.offer(holder)) Thread.yield();
+            }
+            next += periodNanos;
+            long sleep = next - System.nanoTime();
+            if (sleep > 0) LockSupport.parkNanos(sleep);
+        }
+        synchronized (stop) { stop[0] = true; }
+        processor.join(5000);
+        assertFalse(processor.isAlive());
+        if (error.get() != null) throw new AssertionError(error.get());
+
+        assertEquals(taken, released[0]);
+        for (int i = 0; i < POOL_SIZE; i++) {
+            assertTrue(allFrames.contains(frames.poll()));
+            assertTrue(allBuffers.contains(buffers.poll()));
+        }
+        assertNull(frames.poll());
+        assertNull(buffers.poll());
+    }
+
+    private static Set<Object> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    }
+}
@@ -13,7 +13,9 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -106,4 +108,31 @@ public class FrameTest {
         assertEquals(format, frozen.getFormat());
     }
 
+    @Test
+    public void testRetain() {
+        Frame frame = new Frame(manager);
+        frame.setContent("foo", 1000, 90, 90, new Size(10, 10), ImageFormat.NV21);
+        assertSame(frame, frame.retain());
+        frame.retain();
+
+        // Two references are still held.
+        frame.release();
+        frame.release();
+        verify(manager, never()).onFrameReleased(frame, "foo");
+        assertEquals("foo", frame.getData());
+
+        // Last reference goes back to the manager, only once.
+        frame.release();
+        verify(manager, times(1)).onFrameReleased(frame, "foo");
+        frame.release();
+        verify(manager, times(1)).onFrameReleased(frame, "foo");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testRetain_afterRelease() {
+        Frame frame = new Frame(manager);
+        frame.setContent("foo", 1000, 90, 90, new Size(10, 10), ImageFormat.NV21);
+        frame.release();
+        frame.retain();
+    }
 }
@@ -0,0 +1,121 @@
+package com.otaliastudios.cameraview.internal;
+
+
+import com.otaliastudios.cameraview.frame.LatencyHistogram;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyRecorderTest {
+
+    private LatencyRecorder recorder;
+
+    @Before
+    public void setUp() {
+        recorder = new LatencyRecorder();
+    }
+
+    @Test
+    public void testBuckets() {
+        // Buckets are contiguous and in range.
+        long expected = 0;
+        for (int i = 0; i < LatencyRecorder.BUCKETS; i++) {
+            assertEquals(expected, LatencyRecorder.getBucketLowerBound(i));
+            expected = LatencyRecorder.getBucketUpperBound(i) + 1;
+        }
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            long value = (long) Math.pow(2, random.nextDouble() * 32);
+            int bucket = LatencyRecorder.getBucket(value);
+            assertTrue(bucket >= 0 && bucket < LatencyRecorder.BUCKETS);
+            long lower = LatencyRecorder.getBucketLowerBound(bucket);
+            long upper = LatencyRecorder.getBucketUpperBound(bucket);
+            assertTrue(value >= lower && value <= upper);
+            // Relative error is small at any scale.
+            assertTrue(upper - lower <= lower / LatencyRecorder.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = recorder.snapshot();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean(), 0);
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void testRecord() {
+        for (int i = 1; i <= 1000; i++) {
+            recorder.record(i);
+        }
+        LatencyHistogram histogram = recorder.snapshot();
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(1000, histogram.getPercentile(100));
+        assertEquals(500, histogram.getPercentile(50), 500 * 0.04);
+        assertEquals(990, histogram.getPercentile(99), 990 * 0.04);
+    }
+
+    @Test
+    public void testRecord_outOfRange() {
+        recorder.record(-5);
+        recorder.record(Long.MAX_VALUE);
+        LatencyHistogram histogram = recorder.snapshot();
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertTrue(histogram.getMax() > 0);
+    }
+
+    @Test
+    public void testReset() {
+        recorder.record(10);
+        recorder.record(20);
+        recorder.reset();
+        LatencyHistogram histogram = recorder.snapshot();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        recorder.record(5);
+        histogram = recorder.snapshot();
+        assertEquals(5, histogram.getMin());
+        assertEquals(5, histogram.getMax());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final int threads = 4;
+        final int values = 10000;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < values; i++) {
+                        recorder.record(i);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) worker.join();
+        LatencyHistogram histogram = recorder.snapshot();
+        assertEquals(threads * values, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(values - 1, histogram.getMax());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPercentile_invalid() {
+        recorder.snapshot().getPercentile(101);
+    }
+}
@@ -0,0 +1,132 @@
+package com.otaliastudios.cameraview.internal;
+
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RingBufferTest {
+
+    private final static int CAPACITY = 5;
+
+    private RingBuffer<Integer> buffer;
+
+    @Before
+    public void setUp() {
+        buffer = new RingBuffer<>(CAPACITY);
+    }
+
+    @After
+    public void tearDown() {
+        buffer = null;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacity_invalid() {
+        new RingBuffer<Integer>(0);
+    }
+
+    @Test
+    public void testOffer_whenFull() {
+        // Capacity is exact, even if not a power of two.
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(CAPACITY));
+        assertEquals(CAPACITY, buffer.size());
+    }
+
+    @Test
+    public void testOffer_whenFull_singleSlot() {
+        RingBuffer<Integer> single = new RingBuffer<>(1);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(single.offer(i));
+            assertFalse(single.offer(i + 1));
+            assertEquals(1, single.size());
+            assertEquals(i, (int) single.poll());
+            assertNull(single.poll());
+        }
+    }
+
+    @Test
+    public void testPoll_whenEmpty() {
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void testFifo() {
+        // Go around the ring a few times.
+        for (int lap = 0; lap < 4; lap++) {
+            for (int i = 0; i < CAPACITY; i++) {
+                buffer.offer(lap * CAPACITY + i);
+            }
+            for (int i = 0; i < CAPACITY; i++) {
+                assertEquals(lap * CAPACITY + i, (int) buffer.poll());
+            }
+            assertNull(buffer.poll());
+        }
+    }
+
+    @Test
+    public void testClear() {
+        buffer.offer(1);
+        buffer.offer(2);
+        assertEquals(2, buffer.size());
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertNull(buffer.poll());
+        // Still usable after clear.
+        assertTrue(buffer.offer(3));
+        assertEquals(3, (int) buffer.poll());
+    }
+
+    @Test
+    public void testConcurrent_noLossNoDuplicates() throws Exception {
+        // Simulate a frame pool: items are taken by one thread and given back by many.
+        final int items = CAPACITY;
+        final int cycles = 20000;
+        final int threads = 3;
+        for (int i = 0; i < items; i++) buffer.offer(i);
+        final RingBuffer<Integer> handoff = new RingBuffer<>(items);
+        final AtomicInteger taken = new AtomicInteger(0);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (taken.get() < cycles || !handoff.isEmpty()) {
+                        Integer item = handoff.poll();
+                        if (item != null) assertTrue(buffer.offer(item));
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        while (taken.get() < cycles) {
+            Integer item = buffer.poll();
+            if (item != null) {
+                assertTrue(handoff.offer(item));
+                taken.incrementAndGet();
+            }
+        }
+        done.await();
+        assertEquals(items, buffer.size());
+        Set<Integer> seen = new HashSet<>();
+        Integer item;
+        while ((item = buffer.poll()) != null) {
+            assertTrue(seen.add(item));
+        }
+        assertEquals(items, seen.size());
+    }
+}
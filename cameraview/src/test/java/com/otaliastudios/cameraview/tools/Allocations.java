@@ -0,0 +1,55 @@
+package com.otaliastudios.cameraview.tools;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Assume;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the bytes allocated by the current thread while running some code many times,
+ * to check that hot paths do not allocate.
+ *
+ * This needs the allocation counters of the HotSpot {@link ThreadMXBean}.
+ * When they are not available, the calling test is skipped.
+ */
+public class Allocations {
+
+    public final static int CYCLES = 10000;
+
+    // Leave some room for the measurement itself.
+    private final static long MAX_BYTES = 1024;
+
+    private Allocations() {}
+
+    /**
+     * Runs the cycle {@link #CYCLES} times to warm up, then returns the bytes
+     * allocated while running it {@link #CYCLES} more times.
+     * @param cycle the code to measure
+     * @return the allocated bytes
+     */
+    public static long measure(@NonNull Runnable cycle) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("Allocation counters are not available.",
+                bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < CYCLES; i++) cycle.run();
+        long before = sunBean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < CYCLES; i++) cycle.run();
+        long after = sunBean.getThreadAllocatedBytes(thread);
+        return after - before;
+    }
+
+    /**
+     * Checks that the cycle does not allocate, after a warm up.
+     * @param cycle the code to measure
+     */
+    public static void assertNoAllocation(@NonNull Runnable cycle) {
+        long bytes = measure(cycle);
+        assertTrue("Allocated " + bytes + " bytes", bytes < MAX_BYTES);
+    }
+}
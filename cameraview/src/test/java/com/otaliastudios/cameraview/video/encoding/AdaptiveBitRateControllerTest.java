@@ -0,0 +1,157 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveBitRateControllerTest {
+
+    private final static int FPS = 25;
+    private final static long FRAME_US = 1000000L / FPS;
+    private final static int MIN = 1000000;
+    private final static int MAX = 4000000;
+
+    /**
+     * Replays a recorded timeline, one second per entry, at {@link #FPS}.
+     * Each entry is {latencyUs, droppedFrames, outputBitRate}.
+     * Returns the bit rate at the end of each second, which accounts for
+     * the windows that were closed so far, so not for the last second.
+     */
+    private static List<Integer> replay(AdaptiveBitRateController controller,
+                                        long[][] timeline) {
+        List<Integer> bitRates = new ArrayList<>();
+        long timeUs = 0;
+        for (long[] second : timeline) {
+            long latencyUs = second[0];
+            long drops = second[1];
+            int bytesPerFrame = (int) (second[2] / 8 / FPS);
+            for (int frame = 0; frame < FPS; frame++) {
+                controller.update(timeUs);
+                if (frame < drops) {
+                    controller.onFrameDropped(timeUs);
+                } else {
+                    controller.onFrameRendered(timeUs, latencyUs);
+                }
+                controller.onOutput(timeUs, bytesPerFrame);
+                timeUs += FRAME_US;
+            }
+            bitRates.add(controller.getBitRate());
+        }
+        return bitRates;
+    }
+
+    private static long[][] repeat(int seconds, long latencyUs, long drops, long bitRate) {
+        long[][] timeline = new long[seconds][];
+        for (int i = 0; i < seconds; i++) {
+            timeline[i] = new long[]{latencyUs, drops, bitRate};
+        }
+        return timeline;
+    }
+
+    @Test
+    public void testInitialBitRate_clamped() {
+        assertEquals(MIN, new AdaptiveBitRateController(10, MIN, MAX, FPS).getBitRate());
+        assertEquals(MAX, new AdaptiveBitRateController(MAX * 2, MIN, MAX, FPS).getBitRate());
+        assertEquals(2000000, new AdaptiveBitRateController(2000000, MIN, MAX, FPS).getBitRate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBounds() {
+        new AdaptiveBitRateController(2000000, MAX, MIN, FPS);
+    }
+
+    @Test
+    public void testNoWindow() {
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(MAX, MIN, MAX, FPS);
+        assertFalse(controller.update(0));
+        controller.onFrameDropped(0);
+        assertFalse(controller.update(AdaptiveBitRateController.WINDOW_US - 1));
+        assertTrue(controller.update(AdaptiveBitRateController.WINDOW_US));
+        assertEquals((int) (MAX * AdaptiveBitRateController.DECREASE_FACTOR),
+                controller.getBitRate());
+    }
+
+    @Test
+    public void testHighLatency_lowersToMin() {
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(MAX, MIN, MAX, FPS);
+        List<Integer> bitRates = replay(controller, repeat(8, FRAME_US * 3, 0, MAX));
+        // The first window closes at the start of the second second.
+        assertEquals(Arrays.asList(4000000, 3000000, 2250000, 1687500, 1265625,
+                1000000, 1000000, 1000000), bitRates);
+    }
+
+    @Test
+    public void testDrops_lower() {
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(MAX, MIN, MAX, FPS);
+        List<Integer> bitRates = replay(controller, repeat(3, 0, 2, MAX));
+        assertEquals(Arrays.asList(4000000, 3000000, 2250000), bitRates);
+    }
+
+    @Test
+    public void testMediumLatency_holds() {
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(2000000, MIN, MAX, FPS);
+        List<Integer> bitRates = replay(controller, repeat(10, FRAME_US, 0, 2000000));
+        for (int bitRate : bitRates) assertEquals(2000000, bitRate);
+    }
+
+    @Test
+    public void testLowLatency_raisesToMax() {
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(2000000, MIN, MAX, FPS);
+        List<Integer> bitRates = replay(controller, repeat(20, FRAME_US / 4, 0, MAX));
+        // Raised every INCREASE_WINDOWS windows.
+        assertEquals(2000000, (int) bitRates.get(2));
+        assertEquals(2300000, (int) bitRates.get(3));
+        assertEquals(2300000, (int) bitRates.get(5));
+        assertEquals(2645000, (int) bitRates.get(6));
+        assertEquals(MAX, (int) bitRates.get(19));
+    }
+
+    @Test
+    public void testLowLatency_underused_holds() {
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(2000000, MIN, MAX, FPS);
+        // The encoder only produces 500 kbps, raising would make no difference.
+        List<Integer> bitRates = replay(controller, repeat(10, FRAME_US / 4, 0, 500000));
+        for (int bitRate : bitRates) assertEquals(2000000, bitRate);
+    }
+
+    @Test
+    public void testRecordedTimeline() {
+        // Two seconds of load (e.g. another app in foreground), then recovery.
+        long[][] timeline = new long[][]{
+                {FRAME_US / 4, 0, 4000000},
+                {FRAME_US * 4, 3, 4000000},
+                {FRAME_US * 3, 1, 3000000},
+                {FRAME_US / 4, 0, 2250000},
+                {FRAME_US / 4, 0, 2250000},
+                {FRAME_US / 4, 0, 2250000},
+                {FRAME_US / 4, 0, 2250000},
+                {FRAME_US, 0, 2250000}, // A single slower second resets the count.
+                {FRAME_US / 4, 0, 2250000},
+                {FRAME_US / 4, 0, 2250000},
+                {FRAME_US / 4, 0, 2250000},
+                {FRAME_US / 4, 0, 2250000},
+        };
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(MAX, MIN, MAX, FPS);
+        List<Integer> bitRates = replay(controller, timeline);
+        assertEquals(Arrays.asList(
+                4000000,
+                4000000, // Idle window, at max already.
+                3000000,
+                2250000,
+                2250000,
+                2250000,
+                2587500,
+                2587500,
+                2587500,
+                2587500,
+                2587500,
+                2975625), bitRates);
+    }
+}
@@ -0,0 +1,215 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+
+import com.otaliastudios.cameraview.tools.Allocations;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AudioRingBufferTest {
+
+    private final static int FRAME_SIZE = 2048;
+    private final static int CAPACITY = 8;
+
+    private AudioRingBuffer ring;
+
+    @Before
+    public void setUp() {
+        ring = new AudioRingBuffer(FRAME_SIZE, CAPACITY);
+    }
+
+    /**
+     * Writes a frame of 16-bit PCM, where each sample is the frame index plus the sample index.
+     */
+    private static void writePcm(ByteBuffer buffer, int frame, int length) {
+        for (int i = 0; i < length / 2; i++) {
+            buffer.putShort((short) (frame + i));
+        }
+    }
+
+    private static void checkPcm(ByteBuffer buffer, int frame, int length) {
+        assertEquals(0, buffer.position());
+        assertEquals(length, buffer.remaining());
+        for (int i = 0; i < length / 2; i++) {
+            assertEquals((short) (frame + i), buffer.getShort(i * 2));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacity_invalid() {
+        new AudioRingBuffer(FRAME_SIZE, 0);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, ring.size());
+        assertNull(ring.beginRead());
+    }
+
+    @Test
+    public void testFull() {
+        for (int i = 0; i < CAPACITY; i++) {
+            ByteBuffer buffer = ring.beginWrite();
+            assertNotNull(buffer);
+            assertEquals(FRAME_SIZE, buffer.remaining());
+            ring.endWrite(FRAME_SIZE, i, false);
+        }
+        assertEquals(CAPACITY, ring.size());
+        assertNull(ring.beginWrite());
+        assertNotNull(ring.beginRead());
+        ring.endRead();
+        assertNotNull(ring.beginWrite());
+    }
+
+    @Test
+    public void testBeginWrite_sameFrame() {
+        ByteBuffer first = ring.beginWrite();
+        assertSame(first, ring.beginWrite());
+        ring.endWrite(FRAME_SIZE, 0, false);
+        assertFalse(first == ring.beginWrite());
+    }
+
+    @Test
+    public void testMetadata() {
+        ByteBuffer buffer = ring.beginWrite();
+        assertNotNull(buffer);
+        writePcm(buffer, 7, 100);
+        ring.endWrite(100, 1234, false);
+        buffer = ring.beginWrite();
+        assertNotNull(buffer);
+        ring.endWrite(0, 5678, true);
+
+        ByteBuffer read = ring.beginRead();
+        assertNotNull(read);
+        checkPcm(read, 7, 100);
+        assertEquals(100, ring.getLength());
+        assertEquals(1234, ring.getTimestampUs());
+        assertFalse(ring.isEndOfStream());
+        ring.endRead();
+
+        read = ring.beginRead();
+        assertNotNull(read);
+        assertEquals(0, read.remaining());
+        assertEquals(5678, ring.getTimestampUs());
+        assertTrue(ring.isEndOfStream());
+        ring.endRead();
+        assertNull(ring.beginRead());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEndRead_empty() {
+        ring.endRead();
+    }
+
+    @Test
+    public void testWriteSamples() {
+        ByteBuffer write = ring.beginWrite();
+        assertNotNull(write);
+        writePcm(write, 0, FRAME_SIZE);
+        ShortBuffer samples = ring.getWriteSamples();
+        assertEquals(0, samples.position());
+        assertEquals(FRAME_SIZE / 2, samples.limit());
+        for (int i = 0; i < FRAME_SIZE / 2; i++) {
+            assertEquals((short) i, samples.get(i));
+            samples.put(i, (short) (2 * i));
+        }
+        ring.endWrite(FRAME_SIZE / 2, 0, false);
+        ByteBuffer read = ring.beginRead();
+        assertNotNull(read);
+        assertEquals(FRAME_SIZE / 2, read.remaining());
+        for (int i = 0; i < FRAME_SIZE / 4; i++) {
+            assertEquals((short) (2 * i), read.getShort(i * 2));
+        }
+        ring.endRead();
+    }
+
+    @Test
+    public void testSyntheticPcm() throws Exception {
+        // A producer and a consumer thread, like AudioRecordingThread and AudioEncodingThread.
+        // The ring is much smaller than the stream, so it wraps around many times.
+        final int frames = 5000;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int frame = 0; frame < frames; frame++) {
+                    ByteBuffer buffer;
+                    while ((buffer = ring.beginWrite()) == null) {
+                        Thread.yield();
+                    }
+                    int length = frame % 3 == 0 ? FRAME_SIZE : FRAME_SIZE / 2;
+                    writePcm(buffer, frame, length);
+                    ring.endWrite(length, frame * 1000L, frame == frames - 1);
+                }
+            }
+        });
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int frame = 0;
+                    while (true) {
+                        ByteBuffer buffer = ring.beginRead();
+                        if (buffer == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                        int length = frame % 3 == 0 ? FRAME_SIZE : FRAME_SIZE / 2;
+                        checkPcm(buffer, frame, length);
+                        assertEquals(frame * 1000L, ring.getTimestampUs());
+                        boolean endOfStream = ring.isEndOfStream();
+                        assertEquals(frame == frames - 1, endOfStream);
+                        ring.endRead();
+                        frame++;
+                        if (endOfStream) break;
+                    }
+                    assertEquals(frames, frame);
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        });
+        producer.start();
+        consumer.start();
+        producer.join(10000);
+        consumer.join(10000);
+        if (error.get() != null) throw new AssertionError(error.get());
+        assertFalse(consumer.isAlive());
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void testNoAllocation() {
+        // A steady state of writes and reads.
+        Allocations.assertNoAllocation(new Runnable() {
+            private int frame;
+
+            @Override
+            public void run() {
+                cycle(frame++);
+            }
+        });
+    }
+
+    private void cycle(int frame) {
+        ByteBuffer buffer = ring.beginWrite();
+        //noinspection ConstantConditions
+        buffer.putShort((short) frame);
+        ring.endWrite(2, frame, false);
+        ByteBuffer read = ring.beginRead();
+        //noinspection ConstantConditions
+        if (read.getShort(0) != (short) frame) throw new AssertionError();
+        ring.endRead();
+    }
+}
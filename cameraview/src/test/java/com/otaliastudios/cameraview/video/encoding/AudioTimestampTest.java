@@ -0,0 +1,170 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AudioTimestampTest {
+
+    private final static int BYTE_RATE = 88200; // 44.1 kHz, mono, 16 bit
+    private final static int FRAME_BYTES = 1024;
+    private final static long FRAME_US = AudioTimestamp.bytesToUs(FRAME_BYTES, BYTE_RATE);
+    private final static int RECORD_BUFFER_FRAMES = 50;
+
+    /**
+     * Simulates an audio record and a thread reading from it, and feeds the
+     * read completion times to {@link AudioTimestamp} through a {@link AudioTimestamp.TimeSource}.
+     * Reads complete when the frame is captured, plus some scheduling jitter, or later
+     * if the thread was stalled. If the thread falls behind by more than the record
+     * buffer, the oldest frames are lost, like {@link android.media.AudioRecord} does.
+     */
+    private static class Simulation implements AudioTimestamp.TimeSource {
+        private final double mFrameUs;
+        private final long mJitterUs;
+        private final Random mRandom = new Random(42);
+        private long mNextFrame;
+        private long mReaderTimeUs;
+        private long mObservedUs;
+
+        int gaps;
+        long gapUs;
+        long maxErrorUs;
+        long lastErrorUs;
+
+        /**
+         * @param drift how much faster the audio clock is, compared to the system clock
+         * @param jitterUs the max scheduling jitter
+         */
+        Simulation(double drift, long jitterUs) {
+            mFrameUs = 1000000D * FRAME_BYTES / BYTE_RATE * (1 + drift);
+            mJitterUs = jitterUs;
+        }
+
+        private long captureEndUs(long frame) {
+            return 1000000L + (long) ((frame + 1) * mFrameUs);
+        }
+
+        @Override
+        public long getTimeUs(long totalBytes) {
+            return mObservedUs;
+        }
+
+        /**
+         * Runs the given number of reads, stalling the reader before the first one.
+         * After the first frames, checks the difference between the timestamps and the
+         * actual capture times.
+         */
+        void run(AudioTimestamp timestamp, int reads, long stallUs, boolean checkErrors) {
+            long lastTimeUs = Long.MIN_VALUE;
+            mReaderTimeUs += stallUs;
+            for (int i = 0; i < reads; i++) {
+                long capturedFrames = (long) ((mReaderTimeUs - 1000000L) / mFrameUs);
+                if (capturedFrames - mNextFrame > RECORD_BUFFER_FRAMES) {
+                    mNextFrame = capturedFrames - RECORD_BUFFER_FRAMES;
+                }
+                long jitterUs = mJitterUs == 0 ? 0 : (long) (mRandom.nextDouble() * mJitterUs);
+                mObservedUs = Math.max(mReaderTimeUs, captureEndUs(mNextFrame)) + jitterUs;
+                mReaderTimeUs = mObservedUs + 100;
+
+                long timeUs = timestamp.increaseUs(FRAME_BYTES);
+                if (timestamp.getGapCount(FRAME_BYTES) > 0) {
+                    gaps++;
+                    gapUs += timeUs - timestamp.getGapStartUs(timeUs);
+                }
+                assertTrue(timeUs > lastTimeUs);
+                lastTimeUs = timeUs;
+                long actualUs = captureEndUs(mNextFrame) - (long) mFrameUs;
+                lastErrorUs = timeUs - actualUs;
+                if (checkErrors) {
+                    maxErrorUs = Math.max(maxErrorUs, Math.abs(lastErrorUs));
+                }
+                mNextFrame++;
+            }
+        }
+    }
+
+    @Test
+    public void testBytesToUs() {
+        assertEquals(1000000L, AudioTimestamp.bytesToUs(BYTE_RATE, BYTE_RATE));
+        assertEquals(500L, AudioTimestamp.bytesToMillis(BYTE_RATE / 2, BYTE_RATE));
+    }
+
+    @Test
+    public void testRegular() {
+        Simulation simulation = new Simulation(0, 0);
+        AudioTimestamp timestamp = new AudioTimestamp(BYTE_RATE, simulation);
+        simulation.run(timestamp, 1000, 0, true);
+        assertEquals(0, simulation.gaps);
+        assertTrue(simulation.maxErrorUs <= 2);
+    }
+
+    @Test
+    public void testJitter() {
+        Simulation simulation = new Simulation(0, 4000);
+        AudioTimestamp timestamp = new AudioTimestamp(BYTE_RATE, simulation);
+        simulation.run(timestamp, 100, 0, false);
+        simulation.run(timestamp, 2000, 0, true);
+        assertEquals(0, simulation.gaps);
+        // Timestamps follow the average jitter, but not each read.
+        assertTrue(simulation.maxErrorUs < 4000);
+    }
+
+    @Test
+    public void testDrift() {
+        // A 0.2% difference is 2 ms per second, or more than a frame every 10 seconds.
+        Simulation simulation = new Simulation(0.002, 2000);
+        AudioTimestamp timestamp = new AudioTimestamp(BYTE_RATE, simulation);
+        simulation.run(timestamp, 1000, 0, false);
+        simulation.run(timestamp, 5000, 0, true); // About a minute
+        assertEquals(0, simulation.gaps);
+        assertTrue(simulation.maxErrorUs < 3000);
+    }
+
+    @Test
+    public void testStall() {
+        Simulation simulation = new Simulation(0, 2000);
+        AudioTimestamp timestamp = new AudioTimestamp(BYTE_RATE, simulation);
+        simulation.run(timestamp, 200, 0, false);
+        // Stall for less than the record buffer. No audio is lost, reads catch up.
+        for (int i = 0; i < 10; i++) {
+            simulation.run(timestamp, 100, FRAME_US * RECORD_BUFFER_FRAMES * 3 / 4, true);
+        }
+        assertEquals(0, simulation.gaps);
+        assertTrue(simulation.maxErrorUs < 3000);
+    }
+
+    @Test
+    public void testLoss() {
+        Simulation simulation = new Simulation(0, 2000);
+        AudioTimestamp timestamp = new AudioTimestamp(BYTE_RATE, simulation);
+        simulation.run(timestamp, 200, 0, false);
+        // Stall for one second. Part of it is lost.
+        long lostUs = 1000000L - FRAME_US * RECORD_BUFFER_FRAMES;
+        simulation.run(timestamp, 200, 1000000L, false);
+        assertEquals(1, simulation.gaps);
+        assertTrue(Math.abs(simulation.gapUs - lostUs) < FRAME_US);
+        // After that, we're back on track.
+        simulation.run(timestamp, 1000, 0, true);
+        assertEquals(1, simulation.gaps);
+        assertTrue(simulation.maxErrorUs < 3000);
+    }
+
+    @Test
+    public void testPreciseSource() {
+        // A source that knows the capture time, like AudioRecordTimeSource.
+        AudioTimestamp timestamp = new AudioTimestamp(BYTE_RATE, new AudioTimestamp.TimeSource() {
+            @Override
+            public long getTimeUs(long totalBytes) {
+                return 5000000L + AudioTimestamp.bytesToUs(totalBytes, BYTE_RATE);
+            }
+        });
+        for (int i = 0; i < 100; i++) {
+            long expected = 5000000L + AudioTimestamp.bytesToUs((long) i * FRAME_BYTES, BYTE_RATE);
+            assertTrue(Math.abs(timestamp.increaseUs(FRAME_BYTES) - expected) <= 2);
+        }
+    }
+}
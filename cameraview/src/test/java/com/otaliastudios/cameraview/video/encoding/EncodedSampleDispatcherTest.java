@@ -0,0 +1,267 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class EncodedSampleDispatcherTest {
+
+    private final static int VIDEO = 0;
+    private final static int AUDIO = 1;
+    //noinspection deprecation
+    private final static int KEY = MediaCodec.BUFFER_FLAG_SYNC_FRAME;
+
+    /**
+     * Runs tasks only when asked to, so that we can control when the listener is busy.
+     */
+    private static class ManualExecutor implements Executor {
+        private final Queue<Runnable> tasks = new LinkedList<>();
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            tasks.add(command);
+        }
+
+        private void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) task.run();
+        }
+    }
+
+    /**
+     * Records a summary of each sample, since samples are recycled after the callback.
+     */
+    private static class RecordingListener implements EncodedSampleListener {
+        private final List<Integer> formats = new ArrayList<>();
+        private final List<long[]> samples = new ArrayList<>();
+        private final List<ByteBuffer> data = new ArrayList<>();
+
+        @Override
+        public void onTrackFormat(int track, @NonNull MediaFormat format) {
+            formats.add(track);
+        }
+
+        @Override
+        public void onSample(@NonNull EncodedSample sample) {
+            ByteBuffer buffer = sample.getData();
+            samples.add(new long[]{
+                    sample.getTrack(),
+                    sample.getPresentationTimeUs(),
+                    sample.getDroppedCount(),
+                    sample.isKeyFrame() ? 1 : 0,
+                    buffer.remaining() > 0 ? buffer.get(buffer.position()) : -1
+            });
+            data.add(buffer);
+        }
+
+        private long[] times() {
+            long[] times = new long[samples.size()];
+            for (int i = 0; i < times.length; i++) times[i] = samples.get(i)[1];
+            return times;
+        }
+    }
+
+    private ManualExecutor executor;
+    private RecordingListener listener;
+
+    @Before
+    public void setUp() {
+        executor = new ManualExecutor();
+        listener = new RecordingListener();
+    }
+
+    private EncodedSampleDispatcher newDispatcher(@NonNull EncodedSampleDelivery delivery) {
+        EncodedSampleDispatcher dispatcher
+                = new EncodedSampleDispatcher(listener, delivery, executor);
+        dispatcher.dispatchFormat(VIDEO, mock(MediaFormat.class), true);
+        dispatcher.dispatchFormat(AUDIO, mock(MediaFormat.class), false);
+        return dispatcher;
+    }
+
+    private static ByteBuffer sample(int value) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+        buffer.put(2, (byte) value);
+        buffer.position(2);
+        buffer.limit(10);
+        return buffer;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDelivery_invalidCapacity() {
+        EncodedSampleDelivery.dropOldest(0);
+    }
+
+    @Test
+    public void testDelivery_equals() {
+        assertEquals(EncodedSampleDelivery.dropOldest(5), EncodedSampleDelivery.dropOldest(5));
+        assertFalse(EncodedSampleDelivery.dropOldest(5).equals(
+                EncodedSampleDelivery.dropNewest(5)));
+        assertFalse(EncodedSampleDelivery.dropOldest(5).equals(
+                EncodedSampleDelivery.dropOldest(6)));
+    }
+
+    @Test
+    public void testFormats() {
+        newDispatcher(EncodedSampleDelivery.dropOldest(4));
+        assertEquals(0, listener.formats.size());
+        executor.runAll();
+        assertEquals(2, listener.formats.size());
+        assertEquals(VIDEO, (int) listener.formats.get(0));
+        assertEquals(AUDIO, (int) listener.formats.get(1));
+    }
+
+    @Test
+    public void testCopy() {
+        EncodedSampleDispatcher dispatcher = newDispatcher(EncodedSampleDelivery.dropOldest(4));
+        ByteBuffer buffer = sample(7);
+        dispatcher.dispatch(VIDEO, buffer, KEY, 1000);
+        // The encoder buffer is left untouched, so the muxer can read it.
+        assertEquals(2, buffer.position());
+        assertEquals(10, buffer.limit());
+        buffer.put(2, (byte) 99);
+        executor.runAll();
+        assertEquals(1, listener.samples.size());
+        long[] sample = listener.samples.get(0);
+        assertEquals(VIDEO, sample[0]);
+        assertEquals(1000, sample[1]);
+        assertEquals(0, sample[2]);
+        assertEquals(1, sample[3]);
+        assertEquals(7, sample[4]);
+        assertEquals(8, listener.data.get(0).remaining());
+        assertNotSame(buffer, listener.data.get(0));
+    }
+
+    @Test
+    public void testZeroCopy() {
+        EncodedSampleDispatcher dispatcher = newDispatcher(EncodedSampleDelivery.ZERO_COPY);
+        // Zero copy delivers on the caller thread.
+        assertEquals(2, listener.formats.size());
+        EncodedSampleListener consuming = new EncodedSampleListener() {
+            @Override
+            public void onTrackFormat(int track, @NonNull MediaFormat format) { }
+
+            @Override
+            public void onSample(@NonNull EncodedSample sample) {
+                listener.onSample(sample);
+                // Consume the buffer, like a network write would.
+                sample.getData().position(sample.getData().limit());
+            }
+        };
+        dispatcher = new EncodedSampleDispatcher(consuming,
+                EncodedSampleDelivery.ZERO_COPY, executor);
+        ByteBuffer buffer = sample(7);
+        dispatcher.dispatch(AUDIO, buffer, 0, 1000);
+        assertEquals(1, listener.samples.size());
+        assertSame(buffer, listener.data.get(0));
+        assertEquals(2, buffer.position());
+        assertEquals(10, buffer.limit());
+        assertTrue(executor.tasks.isEmpty());
+    }
+
+    @Test
+    public void testDropNewest() {
+        EncodedSampleDispatcher dispatcher = newDispatcher(EncodedSampleDelivery.dropNewest(3));
+        executor.runAll();
+        for (int i = 0; i < 5; i++) {
+            dispatcher.dispatch(AUDIO, sample(i), 0, i);
+        }
+        executor.runAll();
+        assertEquals(3, listener.samples.size());
+        assertEquals(0, listener.times()[0]);
+        assertEquals(2, listener.times()[2]);
+        assertEquals(2, dispatcher.getDroppedCount());
+
+        // The next sample reports the drops.
+        dispatcher.dispatch(AUDIO, sample(5), 0, 5);
+        executor.runAll();
+        assertEquals(4, listener.samples.size());
+        assertEquals(5, listener.samples.get(3)[1]);
+        assertEquals(2, listener.samples.get(3)[2]);
+    }
+
+    @Test
+    public void testDropOldest() {
+        EncodedSampleDispatcher dispatcher = newDispatcher(EncodedSampleDelivery.dropOldest(3));
+        executor.runAll();
+        for (int i = 0; i < 5; i++) {
+            dispatcher.dispatch(AUDIO, sample(i), 0, i);
+        }
+        executor.runAll();
+        long[] times = listener.times();
+        assertEquals(3, times.length);
+        assertEquals(2, times[0]);
+        assertEquals(4, times[2]);
+        // Drops are reported by the samples that replaced them.
+        int dropped = 0;
+        for (long[] sample : listener.samples) dropped += sample[2];
+        assertEquals(2, dropped);
+        assertEquals(2, dispatcher.getDroppedCount());
+    }
+
+    @Test
+    public void testKeyFrameResync() {
+        EncodedSampleDispatcher dispatcher = newDispatcher(EncodedSampleDelivery.dropNewest(2));
+        executor.runAll();
+        dispatcher.dispatch(VIDEO, sample(0), KEY, 0);
+        dispatcher.dispatch(VIDEO, sample(1), 0, 1);
+        dispatcher.dispatch(VIDEO, sample(2), 0, 2); // Dropped: queue is full.
+        executor.runAll();
+        dispatcher.dispatch(VIDEO, sample(3), 0, 3); // Dropped: waiting for key frame.
+        dispatcher.dispatch(AUDIO, sample(4), 0, 4); // Audio is not affected.
+        dispatcher.dispatch(VIDEO, sample(5), KEY, 5);
+        dispatcher.dispatch(VIDEO, sample(6), 0, 6); // Dropped: queue is full.
+        executor.runAll();
+        long[] times = listener.times();
+        assertEquals(4, times.length);
+        assertEquals(0, times[0]);
+        assertEquals(1, times[1]);
+        assertEquals(4, times[2]);
+        assertEquals(5, times[3]);
+        assertEquals(2, listener.samples.get(2)[2]);
+        assertEquals(3, dispatcher.getDroppedCount());
+    }
+
+    @Test
+    public void testRelease() {
+        EncodedSampleDispatcher dispatcher = newDispatcher(EncodedSampleDelivery.dropOldest(4));
+        dispatcher.dispatch(AUDIO, sample(0), 0, 0);
+        dispatcher.release();
+        dispatcher.dispatch(AUDIO, sample(1), 0, 1);
+        executor.runAll();
+        // Queued samples are still delivered.
+        assertEquals(1, listener.samples.size());
+        assertEquals(0, listener.samples.get(0)[1]);
+    }
+
+    @Test
+    public void testReuse() {
+        EncodedSampleDispatcher dispatcher = newDispatcher(EncodedSampleDelivery.dropOldest(1));
+        dispatcher.dispatch(AUDIO, sample(0), 0, 0);
+        executor.runAll();
+        dispatcher.dispatch(AUDIO, sample(1), 0, 1);
+        executor.runAll();
+        dispatcher.dispatch(AUDIO, sample(2), 0, 2);
+        executor.runAll();
+        // The pool holds two samples, so buffers are reused.
+        assertSame(listener.data.get(0), listener.data.get(2));
+    }
+}
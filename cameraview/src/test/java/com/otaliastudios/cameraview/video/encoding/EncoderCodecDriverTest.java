@@ -0,0 +1,338 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class EncoderCodecDriverTest {
+
+    //noinspection deprecation
+    private final static int EOS = MediaCodec.BUFFER_FLAG_END_OF_STREAM;
+
+    /**
+     * A codec that returns scripted output in synchronous mode, and records
+     * what the driver does with it. In asynchronous mode, polling fails.
+     */
+    private static class FakeCodec implements EncoderCodec {
+        private final Queue<long[]> outputs = new LinkedList<>(); // status, size, time, flags
+        private final ByteBuffer[] buffers = new ByteBuffer[8];
+        private final List<Integer> released = new ArrayList<>();
+        private final List<long[]> queued = new ArrayList<>();
+        private final MediaFormat format = mock(MediaFormat.class);
+        private Callback callback;
+        private int dequeues;
+
+        private FakeCodec() {
+            for (int i = 0; i < buffers.length; i++) buffers[i] = ByteBuffer.allocate(16);
+        }
+
+        private void output(int status, int size, long time, int flags) {
+            outputs.add(new long[]{status, size, time, flags});
+        }
+
+        @Override
+        public void setCallback(@NonNull Callback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public int dequeueInputBuffer(long timeoutUs) {
+            if (callback != null) throw new IllegalStateException("Async mode.");
+            return 3;
+        }
+
+        @NonNull
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            return buffers[index];
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int size, long presentationTimeUs, int flags) {
+            queued.add(new long[]{index, size, presentationTimeUs, flags});
+        }
+
+        @Override
+        public int dequeueOutputBuffer(@NonNull MediaCodec.BufferInfo info, long timeoutUs) {
+            if (callback != null) throw new IllegalStateException("Async mode.");
+            dequeues++;
+            long[] output = outputs.poll();
+            if (output == null) return MediaCodec.INFO_TRY_AGAIN_LATER;
+            info.offset = 0;
+            info.size = (int) output[1];
+            info.presentationTimeUs = output[2];
+            info.flags = (int) output[3];
+            return (int) output[0];
+        }
+
+        @NonNull
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+            return buffers[index];
+        }
+
+        @NonNull
+        @Override
+        public MediaFormat getOutputFormat() {
+            return format;
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index) {
+            released.add(index);
+        }
+    }
+
+    private static class RecordingListener implements EncoderCodecDriver.Listener {
+        private final List<MediaFormat> formats = new ArrayList<>();
+        private final List<long[]> outputs = new ArrayList<>(); // size, time
+        private final List<ByteBuffer> data = new ArrayList<>();
+        private final List<Exception> errors = new ArrayList<>();
+        private int endOfStreams;
+        private long stopAtTime = Long.MAX_VALUE;
+
+        @Override
+        public void onCodecFormat(@NonNull MediaFormat format) {
+            formats.add(format);
+        }
+
+        @Override
+        public boolean onCodecOutput(@NonNull ByteBuffer data,
+                                     @NonNull MediaCodec.BufferInfo info) {
+            outputs.add(new long[]{info.size, info.presentationTimeUs});
+            this.data.add(data);
+            return info.presentationTimeUs >= stopAtTime;
+        }
+
+        @Override
+        public void onCodecEndOfStream() {
+            endOfStreams++;
+        }
+
+        @Override
+        public void onCodecError(@NonNull Exception error) {
+            errors.add(error);
+        }
+    }
+
+    private FakeCodec codec;
+    private RecordingListener listener;
+
+    @Before
+    public void setUp() {
+        codec = new FakeCodec();
+        listener = new RecordingListener();
+    }
+
+    private EncoderCodecDriver newDriver(boolean async) {
+        return new EncoderCodecDriver(codec, async,
+                mock(MediaCodec.BufferInfo.class), listener);
+    }
+
+    private static MediaCodec.BufferInfo info(int size, long time, int flags) {
+        MediaCodec.BufferInfo info = mock(MediaCodec.BufferInfo.class);
+        info.size = size;
+        info.presentationTimeUs = time;
+        info.flags = flags;
+        return info;
+    }
+
+    @Test
+    public void testSync_drain() {
+        EncoderCodecDriver driver = newDriver(false);
+        assertFalse(driver.isAsync());
+        assertNull(codec.callback);
+        codec.output(MediaCodec.INFO_OUTPUT_FORMAT_CHANGED, 0, 0, 0);
+        codec.output(0, 10, 100, 0);
+        codec.output(MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED, 0, 0, 0);
+        codec.output(1, 20, 200, 0);
+        driver.drain(false);
+        assertEquals(1, listener.formats.size());
+        assertSame(codec.format, listener.formats.get(0));
+        assertEquals(2, listener.outputs.size());
+        assertEquals(200, listener.outputs.get(1)[1]);
+        assertSame(codec.buffers[1], listener.data.get(1));
+        assertEquals(2, codec.released.size());
+        assertEquals(0, listener.endOfStreams);
+        // Stops at the first INFO_TRY_AGAIN_LATER.
+        assertEquals(5, codec.dequeues);
+    }
+
+    @Test
+    public void testSync_drainAll() {
+        EncoderCodecDriver driver = newDriver(false);
+        codec.output(0, 10, 100, 0);
+        codec.output(MediaCodec.INFO_TRY_AGAIN_LATER, 0, 0, 0);
+        codec.output(MediaCodec.INFO_TRY_AGAIN_LATER, 0, 0, 0);
+        codec.output(1, 0, 200, EOS);
+        codec.output(2, 10, 300, 0); // Never read.
+        driver.drain(true);
+        assertEquals(2, listener.outputs.size());
+        assertEquals(1, listener.endOfStreams);
+        assertEquals(2, codec.released.size());
+        assertEquals(1, codec.outputs.size());
+    }
+
+    @Test
+    public void testSync_stop() {
+        EncoderCodecDriver driver = newDriver(false);
+        listener.stopAtTime = 200;
+        codec.output(0, 10, 100, 0);
+        codec.output(1, 10, 200, 0);
+        codec.output(2, 10, 300, 0);
+        driver.drain(false);
+        assertEquals(2, listener.outputs.size());
+        // The last buffer is released anyway.
+        assertEquals(2, codec.released.size());
+        // When draining all, the listener can't stop us.
+        codec.output(3, 0, 400, EOS);
+        driver.drain(true);
+        assertEquals(4, listener.outputs.size());
+        assertEquals(1, listener.endOfStreams);
+    }
+
+    @Test
+    public void testSync_input() {
+        EncoderCodecDriver driver = newDriver(false);
+        assertEquals(3, driver.dequeueInputBuffer(0));
+        assertSame(codec.buffers[3], driver.getInputBuffer(3));
+        driver.queueInputBuffer(3, 12, 1000, 0);
+        assertEquals(1, codec.queued.size());
+        assertEquals(12, codec.queued.get(0)[1]);
+    }
+
+    @Test
+    public void testSync_metrics() {
+        EncoderCodecDriver driver = newDriver(false);
+        EncoderMetricsRecorder metrics = new EncoderMetricsRecorder(1);
+        driver.setMetrics(metrics.getEncoderTrack(0));
+        codec.output(0, 10, 100, 0);
+        driver.drain(false);
+        assertEquals(2, metrics.snapshot().getVideo().getDrainIterations());
+    }
+
+    @Test
+    public void testAsync_callbacks() {
+        EncoderCodecDriver driver = newDriver(true);
+        assertTrue(driver.isAsync());
+        assertNotNull(codec.callback);
+        // Draining does not poll.
+        driver.drain(false);
+        driver.drain(true);
+        assertEquals(0, codec.dequeues);
+
+        codec.callback.onOutputFormatChanged(codec.format);
+        codec.callback.onOutputBufferAvailable(2, info(10, 100, 0));
+        codec.callback.onOutputBufferAvailable(4, info(0, 200, EOS));
+        assertEquals(1, listener.formats.size());
+        assertEquals(2, listener.outputs.size());
+        assertSame(codec.buffers[2], listener.data.get(0));
+        assertEquals(2, (int) codec.released.get(0));
+        assertEquals(4, (int) codec.released.get(1));
+        assertEquals(1, listener.endOfStreams);
+    }
+
+    @Test
+    public void testAsync_input() {
+        EncoderCodecDriver driver = newDriver(true);
+        assertEquals(-1, driver.dequeueInputBuffer(0));
+        codec.callback.onInputBufferAvailable(5);
+        codec.callback.onInputBufferAvailable(1);
+        assertEquals(5, driver.dequeueInputBuffer(0));
+        assertEquals(1, driver.dequeueInputBuffer(1000));
+        assertEquals(-1, driver.dequeueInputBuffer(1000));
+    }
+
+    @Test(timeout = 5000)
+    public void testAsync_inputWait() throws Exception {
+        final EncoderCodecDriver driver = newDriver(true);
+        final int[] result = new int[]{-2};
+        Thread waiting = new Thread() {
+            @Override
+            public void run() {
+                // Much longer than the test timeout.
+                result[0] = driver.dequeueInputBuffer(60L * 1000 * 1000);
+            }
+        };
+        waiting.start();
+        Thread.sleep(50);
+        codec.callback.onInputBufferAvailable(6);
+        waiting.join();
+        assertEquals(6, result[0]);
+    }
+
+    @Test
+    public void testAsync_metrics() {
+        EncoderCodecDriver driver = newDriver(true);
+        EncoderMetricsRecorder metrics = new EncoderMetricsRecorder(1);
+        driver.setMetrics(metrics.getEncoderTrack(0));
+        codec.callback.onOutputBufferAvailable(0, info(10, 100, 0));
+        codec.callback.onOutputBufferAvailable(1, info(10, 200, 0));
+        assertEquals(2, metrics.snapshot().getVideo().getDrainIterations());
+    }
+
+    @Test
+    public void testAsync_error() {
+        // Errors are passed to the listener instead of being thrown on the callback thread.
+        EncoderCodecDriver driver = newDriver(true);
+        codec.callback.onInputBufferAvailable(2);
+        Exception error = new IllegalStateException();
+        codec.callback.onError(error);
+        assertTrue(driver.hasFailed());
+        assertEquals(1, listener.errors.size());
+        assertSame(error, listener.errors.get(0));
+
+        // The codec can't be used anymore.
+        assertEquals(-1, driver.dequeueInputBuffer(1000));
+        driver.queueInputBuffer(2, 10, 100, 0);
+        assertTrue(codec.queued.isEmpty());
+
+        // Draining all ends the stream once, so that the encoder can stop.
+        driver.drain(false);
+        assertEquals(0, listener.endOfStreams);
+        driver.drain(true);
+        assertEquals(1, listener.endOfStreams);
+        driver.drain(true);
+        assertEquals(1, listener.endOfStreams);
+    }
+
+    @Test(timeout = 5000)
+    public void testAsync_errorWhileWaiting() throws Exception {
+        // An input wait ends soon after an error.
+        final EncoderCodecDriver driver = newDriver(true);
+        final int[] result = new int[]{-2};
+        Thread waiting = new Thread() {
+            @Override
+            public void run() {
+                while (!driver.hasFailed()) {
+                    result[0] = driver.dequeueInputBuffer(10000);
+                }
+                result[0] = driver.dequeueInputBuffer(60L * 1000 * 1000);
+            }
+        };
+        waiting.start();
+        Thread.sleep(50);
+        codec.callback.onError(new IllegalStateException());
+        waiting.join();
+        assertEquals(-1, result[0]);
+    }
+}
@@ -0,0 +1,184 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+
+import androidx.annotation.Nullable;
+
+import com.otaliastudios.cameraview.tools.Allocations;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EncoderEventChannelTest {
+
+    private final static int FRAME = 0;
+    private final static int FILTER = 1;
+
+    private final List<Integer> events = new ArrayList<>();
+    private final List<Object> payloads = new ArrayList<>();
+    private long received;
+    private EncoderEventChannel channel;
+
+    @Before
+    public void setUp() {
+        channel = new EncoderEventChannel(new EncoderEventChannel.Receiver() {
+            @Override
+            public void onEvent(int event, @Nullable Object data) {
+                events.add(event);
+                payloads.add(data);
+            }
+        }, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testObtain_invalid() {
+        channel.obtain(EncoderEventChannel.MAX_EVENTS, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testObtain_negative() {
+        channel.obtain(-1, null);
+    }
+
+    @Test
+    public void testEvent() {
+        Object data = new Object();
+        Runnable runnable = channel.obtain(FILTER, data);
+        assertTrue(events.isEmpty());
+        runnable.run();
+        assertEquals(1, events.size());
+        assertEquals(FILTER, (int) events.get(0));
+        assertSame(data, payloads.get(0));
+    }
+
+    @Test
+    public void testPendingEvents() {
+        Runnable frame1 = channel.obtain(FRAME, null);
+        Runnable frame2 = channel.obtain(FRAME, null);
+        Runnable filter = channel.obtain(FILTER, null);
+        assertEquals(2, channel.getPendingEvents(FRAME));
+        assertEquals(1, channel.getPendingEvents(FILTER));
+        frame1.run();
+        assertEquals(1, channel.getPendingEvents(FRAME));
+        filter.run();
+        assertEquals(0, channel.getPendingEvents(FILTER));
+        frame2.run();
+        assertEquals(0, channel.getPendingEvents(FRAME));
+    }
+
+    @Test
+    public void testRecycling() {
+        // With no more than the pool size in flight, events are always reused.
+        Set<Runnable> seen = Collections.newSetFromMap(new IdentityHashMap<Runnable, Boolean>());
+        for (int i = 0; i < 100; i++) {
+            Runnable first = channel.obtain(FRAME, null);
+            Runnable second = channel.obtain(FILTER, null);
+            assertNotSame(first, second);
+            seen.add(first);
+            seen.add(second);
+            first.run();
+            second.run();
+        }
+        assertEquals(4, seen.size());
+    }
+
+    @Test
+    public void testOverflow() {
+        // More events than the pool size are still delivered, in order.
+        List<Runnable> runnables = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            runnables.add(channel.obtain(FRAME, i));
+        }
+        assertEquals(10, channel.getPendingEvents(FRAME));
+        for (Runnable runnable : runnables) runnable.run();
+        assertEquals(0, channel.getPendingEvents(FRAME));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, payloads.get(i));
+        }
+    }
+
+    @Test
+    public void testConcurrency() throws Exception {
+        final EncoderEventChannel channel = new EncoderEventChannel(
+                new EncoderEventChannel.Receiver() {
+            @Override
+            public void onEvent(int event, @Nullable Object data) {
+                received++;
+            }
+        });
+        final int count = 100000;
+        final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(64);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        Runnable runnable = queue.poll(10, TimeUnit.SECONDS);
+                        if (runnable == null) throw new AssertionError("Timed out.");
+                        runnable.run();
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        });
+        consumer.start();
+        for (int i = 0; i < count; i++) {
+            queue.put(channel.obtain(i % 2 == 0 ? FRAME : FILTER, null));
+            assertTrue(channel.getPendingEvents(FRAME) >= 0);
+        }
+        consumer.join(10000);
+        if (error.get() != null) throw new AssertionError(error.get());
+        assertFalse(consumer.isAlive());
+        assertEquals(count, received);
+        assertEquals(0, channel.getPendingEvents(FRAME));
+        assertEquals(0, channel.getPendingEvents(FILTER));
+    }
+
+    @Test
+    public void testNoAllocation() {
+        final Object frame = new Object();
+        final EncoderEventChannel channel = new EncoderEventChannel(
+                new EncoderEventChannel.Receiver() {
+            @Override
+            public void onEvent(int event, @Nullable Object data) {
+                if (data != frame) throw new AssertionError();
+                received++;
+            }
+        });
+        // A steady state of frames, with up to 3 pending events.
+        final Runnable[] pending = new Runnable[3];
+        Allocations.assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                cycle(channel, pending, frame);
+            }
+        });
+    }
+
+    private static void cycle(EncoderEventChannel channel, Runnable[] pending, Object frame) {
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = channel.obtain(FRAME, frame);
+        }
+        for (int i = 0; i < pending.length; i++) {
+            pending[i].run();
+            pending[i] = null;
+        }
+    }
+}
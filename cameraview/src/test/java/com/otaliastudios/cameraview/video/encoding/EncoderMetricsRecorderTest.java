@@ -0,0 +1,97 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class EncoderMetricsRecorderTest {
+
+    private EncoderMetricsRecorder recorder;
+
+    @Before
+    public void setUp() {
+        recorder = new EncoderMetricsRecorder(2);
+    }
+
+    @Test
+    public void testEmpty() {
+        EncoderMetrics metrics = recorder.snapshot();
+        assertEquals(2, metrics.getTracks().size());
+        EncoderMetrics.TrackMetrics video = metrics.getVideo();
+        assertEquals(-1, video.getTrack());
+        assertNull(video.getMimeType());
+        assertEquals(0, video.getSamples());
+        assertEquals(0, video.getBytes());
+        assertEquals(0, video.getDurationUs());
+        assertEquals(0, video.getBitRate());
+        assertEquals(0, video.getWriteLatency().getCount());
+    }
+
+    @Test
+    public void testNoAudio() {
+        recorder = new EncoderMetricsRecorder(1);
+        assertNull(recorder.snapshot().getAudio());
+    }
+
+    @Test
+    public void testGetTrack() {
+        EncoderMetricsRecorder.TrackRecorder video = recorder.getEncoderTrack(0);
+        EncoderMetricsRecorder.TrackRecorder audio = recorder.getEncoderTrack(1);
+        assertNull(recorder.getTrack(0));
+        // Track indices do not necessarily follow the encoder order.
+        audio.onStarted(0, "audio/mp4a-latm");
+        video.onStarted(1, "video/avc");
+        assertSame(audio, recorder.getTrack(0));
+        assertSame(video, recorder.getTrack(1));
+        assertNull(recorder.getTrack(2));
+        EncoderMetrics metrics = recorder.snapshot();
+        assertEquals(1, metrics.getVideo().getTrack());
+        assertEquals("video/avc", metrics.getVideo().getMimeType());
+        assertNotNull(metrics.getAudio());
+        assertEquals("audio/mp4a-latm", metrics.getAudio().getMimeType());
+    }
+
+    @Test
+    public void testWrite() {
+        EncoderMetricsRecorder.TrackRecorder video = recorder.getEncoderTrack(0);
+        video.onStarted(0, "video/avc");
+        // 100 samples of 5000 bytes at 100 fps, each taking 200us to write.
+        for (int i = 0; i < 100; i++) {
+            video.onWrite(5000, 1000000L + i * 10000L, 200000L);
+        }
+        EncoderMetrics.TrackMetrics metrics = recorder.snapshot().getVideo();
+        assertEquals(100, metrics.getSamples());
+        assertEquals(500000, metrics.getBytes());
+        assertEquals(990000, metrics.getDurationUs());
+        assertEquals(500000L * 8L * 1000000L / 990000L, metrics.getBitRate());
+        assertEquals(100, metrics.getWriteLatency().getCount());
+        assertEquals(200, metrics.getWriteLatency().getMin());
+        assertEquals(200, metrics.getWriteLatency().getMax());
+    }
+
+    @Test
+    public void testDrainIterations() {
+        EncoderMetricsRecorder.TrackRecorder video = recorder.getEncoderTrack(0);
+        for (int i = 0; i < 7; i++) video.onDrainIteration();
+        assertEquals(7, recorder.snapshot().getVideo().getDrainIterations());
+        assertEquals(0, recorder.snapshot().getTracks().get(1).getDrainIterations());
+    }
+
+    @Test
+    public void testAudioGaps() {
+        EncoderMetricsRecorder.TrackRecorder audio = recorder.getEncoderTrack(1);
+        audio.onAudioGap(3, 3);
+        audio.onAudioGap(20, 8);
+        EncoderMetrics.TrackMetrics metrics = recorder.snapshot().getAudio();
+        assertNotNull(metrics);
+        assertEquals(2, metrics.getAudioGaps());
+        assertEquals(23, metrics.getAudioGapFrames());
+        assertEquals(11, metrics.getAudioNoiseFrames());
+        assertEquals(0, recorder.snapshot().getVideo().getAudioGaps());
+    }
+}
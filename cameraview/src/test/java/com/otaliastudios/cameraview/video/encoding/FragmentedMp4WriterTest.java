@@ -0,0 +1,413 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class FragmentedMp4WriterTest {
+
+    private final static byte[] SPS = new byte[]{ 0x67, 0x42, (byte) 0xC0, 0x1E, 0x11, 0x22 };
+    private final static byte[] PPS = new byte[]{ 0x68, (byte) 0xCE, 0x3C, (byte) 0x80 };
+    private final static byte[] AUDIO_CONFIG = new byte[]{ 0x12, 0x10 };
+    private final static int SAMPLE_RATE = 44100;
+    private final static long START_US = 1500000000000000L; // MediaEncoder uses epoch times
+    private final static long VIDEO_FRAME_US = 33333;
+    private final static long AUDIO_FRAME_US = 1024L * 1000000L / SAMPLE_RATE;
+
+    private File file;
+    private FileOutputStream stream;
+    private FragmentedMp4Writer writer;
+    private int videoTrack;
+    private int audioTrack;
+    private final List<Sample> videoSamples = new ArrayList<>();
+    private final List<Sample> audioSamples = new ArrayList<>();
+
+    private static class Sample {
+        private long timeUs;
+        private boolean sync;
+        private byte[] input;
+        private byte[] expected;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("video", ".mp4");
+        stream = new FileOutputStream(file);
+        // Key frames come every second, so each of them starts a fragment.
+        writer = new FragmentedMp4Writer(stream.getChannel(), 500000L);
+        videoTrack = writer.addVideoTrack(320, 240,
+                ByteBuffer.wrap(annexB(true, SPS)), ByteBuffer.wrap(annexB(false, PPS)));
+        audioTrack = writer.addAudioTrack(SAMPLE_RATE, 2, ByteBuffer.wrap(AUDIO_CONFIG));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        stream.close();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @NonNull
+    private static byte[] annexB(boolean longStartCode, @NonNull byte[]... nals) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (byte[] nal : nals) {
+            if (longStartCode) output.write(0);
+            output.write(0);
+            output.write(0);
+            output.write(1);
+            output.write(nal, 0, nal.length);
+            longStartCode = !longStartCode;
+        }
+        return output.toByteArray();
+    }
+
+    @NonNull
+    private static byte[] lengthPrefixed(@NonNull byte[]... nals) {
+        ByteBuffer output = ByteBuffer.allocate(1024);
+        for (byte[] nal : nals) {
+            output.putInt(nal.length);
+            output.put(nal);
+        }
+        return Arrays.copyOf(output.array(), output.position());
+    }
+
+    /**
+     * Writes video and audio samples in presentation order, until the given duration.
+     */
+    private void writeSamples(long durationUs) throws IOException {
+        Random random = new Random(0);
+        int videoIndex = 0;
+        int audioIndex = 0;
+        while (true) {
+            long videoUs = videoIndex * VIDEO_FRAME_US;
+            long audioUs = audioIndex * AUDIO_FRAME_US;
+            if (videoUs >= durationUs && audioUs >= durationUs) break;
+            Sample sample = new Sample();
+            if (videoUs <= audioUs) {
+                sample.timeUs = START_US + videoUs;
+                sample.sync = videoIndex % 30 == 0;
+                byte[] nal = new byte[10 + videoIndex % 7];
+                random.nextBytes(nal);
+                nal[0] = (byte) (sample.sync ? 0x65 : 0x41);
+                nal[nal.length - 1] = (byte) 0x80; // stop bit, so it can't end with zeros
+                if (videoIndex % 2 == 0) {
+                    byte[] sei = new byte[]{ 0x06, 0x05, 0x01, (byte) 0x80 };
+                    sample.input = annexB(videoIndex % 4 == 0, sei, nal);
+                    sample.expected = lengthPrefixed(sei, nal);
+                } else {
+                    sample.input = annexB(true, nal);
+                    sample.expected = lengthPrefixed(nal);
+                }
+                videoSamples.add(sample);
+                writer.writeSample(videoTrack, ByteBuffer.wrap(sample.input),
+                        sample.timeUs, sample.sync);
+                videoIndex++;
+            } else {
+                sample.timeUs = START_US + audioUs;
+                sample.sync = true;
+                sample.input = new byte[100 + audioIndex % 50];
+                random.nextBytes(sample.input);
+                sample.expected = sample.input;
+                audioSamples.add(sample);
+                // The sync flag should be ignored for audio.
+                writer.writeSample(audioTrack, ByteBuffer.wrap(sample.input),
+                        sample.timeUs, false);
+                audioIndex++;
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidInterval() {
+        new FragmentedMp4Writer(stream.getChannel(), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWriteBeforeStart() throws IOException {
+        writer.writeSample(videoTrack, ByteBuffer.allocate(10), START_US, true);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAddTrackAfterStart() throws IOException {
+        writer.start();
+        writer.addAudioTrack(SAMPLE_RATE, 1, ByteBuffer.wrap(AUDIO_CONFIG));
+    }
+
+    @Test
+    public void testHeader() throws IOException {
+        writer.start();
+        writer.stop();
+        List<Box> boxes = Box.parseFile(file);
+        assertEquals(2, boxes.size());
+        Box ftyp = boxes.get(0);
+        assertEquals("ftyp", ftyp.type);
+        assertEquals("iso5", ftyp.fourCC(0));
+
+        Box moov = boxes.get(1);
+        assertEquals("moov", moov.type);
+        List<Box> traks = moov.children("trak");
+        assertEquals(2, traks.size());
+        assertEquals(2, moov.child("mvex").children("trex").size());
+
+        Box video = traks.get(0).find("mdia", "minf", "stbl", "stsd", "avc1");
+        assertNotNull(video);
+        assertEquals(320, video.data.getShort(24) & 0xFFFF);
+        assertEquals(240, video.data.getShort(26) & 0xFFFF);
+        Box avcC = video.child("avcC");
+        assertEquals(1, avcC.data.get(0));
+        assertEquals(SPS[1], avcC.data.get(1));
+        assertEquals(SPS[3], avcC.data.get(3));
+        assertEquals(3, avcC.data.get(4) & 0x03); // 4 bytes lengths
+        assertEquals(SPS.length, avcC.data.getShort(6));
+        assertArrayEquals(SPS, avcC.bytes(8, SPS.length));
+        assertEquals(PPS.length, avcC.data.getShort(8 + SPS.length + 1));
+        assertArrayEquals(PPS, avcC.bytes(8 + SPS.length + 3, PPS.length));
+        assertEquals(90000, traks.get(0).find("mdia", "mdhd").data.getInt(12));
+        assertEquals("vide", traks.get(0).find("mdia", "hdlr").fourCC(8));
+
+        Box audio = traks.get(1).find("mdia", "minf", "stbl", "stsd", "mp4a");
+        assertNotNull(audio);
+        assertEquals(2, audio.data.getShort(16));
+        assertEquals(SAMPLE_RATE, audio.data.getInt(24) >>> 16);
+        Box esds = audio.child("esds");
+        byte[] descriptors = esds.bytes(4, esds.data.limit() - 4);
+        int config = indexOf(descriptors, new byte[]{ 0x05, (byte) AUDIO_CONFIG.length });
+        assertTrue(config > 0);
+        assertArrayEquals(AUDIO_CONFIG, Arrays.copyOfRange(descriptors,
+                config + 2, config + 2 + AUDIO_CONFIG.length));
+        assertEquals(SAMPLE_RATE, traks.get(1).find("mdia", "mdhd").data.getInt(12));
+        assertEquals("soun", traks.get(1).find("mdia", "hdlr").fourCC(8));
+    }
+
+    @Test
+    public void testFragments() throws IOException {
+        writer.start();
+        writeSamples(3500000L);
+        writer.stop();
+        List<Box> boxes = Box.parseFile(file);
+        // ftyp, moov, then one fragment per key frame.
+        assertEquals(2 + 4 * 2, boxes.size());
+        checkFragments(boxes, true);
+    }
+
+    @Test
+    public void testCrash() throws IOException {
+        writer.start();
+        writeSamples(2500000L);
+        // No stop(): fragments that were written must be complete.
+        stream.close();
+        List<Box> boxes = Box.parseFile(file);
+        assertEquals(2 + 2 * 2, boxes.size());
+        checkFragments(boxes, false);
+    }
+
+    private void checkFragments(@NonNull List<Box> boxes, boolean complete) {
+        int[] next = new int[2]; // next sample index, per track
+        long[] decodeTimes = new long[2]; // next decode time, per track
+        long originUs = Math.min(videoSamples.get(0).timeUs, audioSamples.get(0).timeUs);
+        for (int i = 2; i < boxes.size(); i += 2) {
+            Box moof = boxes.get(i);
+            Box mdat = boxes.get(i + 1);
+            assertEquals("moof", moof.type);
+            assertEquals("mdat", mdat.type);
+            assertEquals(i / 2, moof.child("mfhd").data.getInt(4));
+            int dataEnd = 0;
+            for (Box traf : moof.children("traf")) {
+                Box tfhd = traf.child("tfhd");
+                assertEquals(0x020000, tfhd.data.getInt(0) & 0xFFFFFF);
+                int track = tfhd.data.getInt(4) - 1;
+                List<Sample> samples = track == videoTrack ? videoSamples : audioSamples;
+                int timescale = track == videoTrack ? 90000 : SAMPLE_RATE;
+
+                Box tfdt = traf.child("tfdt");
+                assertEquals(1, tfdt.data.get(0));
+                long decodeTime = tfdt.data.getLong(4);
+                assertEquals(decodeTimes[track], decodeTime);
+                long expectedTime = (samples.get(next[track]).timeUs - originUs)
+                        * timescale / 1000000L;
+                assertEquals(expectedTime, decodeTime);
+
+                ByteBuffer trun = traf.child("trun").data;
+                int count = trun.getInt(4);
+                int offset = trun.getInt(8);
+                assertTrue(count > 0);
+                // The data offset is relative to moof, and points inside mdat.
+                int dataStart = moof.offset + offset - (mdat.offset + 8);
+                assertTrue(dataStart >= 0);
+                for (int s = 0; s < count; s++) {
+                    Sample sample = samples.get(next[track]);
+                    int duration = trun.getInt(12 + s * 12);
+                    int size = trun.getInt(16 + s * 12);
+                    int flags = trun.getInt(20 + s * 12);
+                    if (track == videoTrack && s == 0) {
+                        assertTrue("Fragments start with a sync sample", sample.sync);
+                    }
+                    assertEquals(sample.sync ? 0x02000000 : 0x01010000, flags);
+                    assertEquals(sample.expected.length, size);
+                    assertArrayEquals(sample.expected, mdat.bytes(dataStart, size));
+                    decodeTime += duration;
+                    dataStart += size;
+                    next[track]++;
+                    if (next[track] < samples.size()) {
+                        long nextTime = (samples.get(next[track]).timeUs - originUs)
+                                * timescale / 1000000L;
+                        assertEquals(nextTime, decodeTime);
+                    } else {
+                        assertTrue(duration > 0);
+                    }
+                }
+                decodeTimes[track] = decodeTime;
+                dataEnd = Math.max(dataEnd, dataStart);
+            }
+            assertEquals(mdat.data.limit(), dataEnd);
+        }
+        if (complete) {
+            assertEquals(videoSamples.size(), next[videoTrack]);
+            assertEquals(audioSamples.size(), next[audioTrack]);
+        } else {
+            assertTrue(next[videoTrack] > 0);
+            assertTrue(next[audioTrack] > 0);
+        }
+    }
+
+    private static int indexOf(@NonNull byte[] array, @NonNull byte[] target) {
+        outer: for (int i = 0; i + target.length <= array.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (array[i + j] != target[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * A minimal ISO BMFF box parser, which understands the boxes written by
+     * {@link FragmentedMp4Writer}.
+     */
+    private static class Box {
+
+        private final String type;
+        private final int offset; // box start in file
+        private final ByteBuffer data; // payload, after the box header
+        private final List<Box> children = new ArrayList<>();
+
+        private Box(@NonNull String type, int offset, @NonNull ByteBuffer data) {
+            this.type = type;
+            this.offset = offset;
+            this.data = data;
+        }
+
+        @NonNull
+        private static List<Box> parseFile(@NonNull File file) throws IOException {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            byte[] bytes = new byte[(int) input.length()];
+            input.readFully(bytes);
+            input.close();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            List<Box> boxes = parse(buffer, 0);
+            // The whole file must be made of complete boxes.
+            assertEquals(bytes.length, buffer.position());
+            return boxes;
+        }
+
+        @NonNull
+        private static List<Box> parse(@NonNull ByteBuffer buffer, int fileOffset) {
+            List<Box> boxes = new ArrayList<>();
+            int start = buffer.position();
+            while (buffer.remaining() >= 8) {
+                int position = buffer.position();
+                int size = buffer.getInt();
+                byte[] type = new byte[4];
+                buffer.get(type);
+                assertTrue("Invalid box size " + size, size >= 8);
+                assertTrue("Truncated box", size - 8 <= buffer.remaining());
+                ByteBuffer data = buffer.slice();
+                data.limit(size - 8);
+                buffer.position(position + size);
+                Box box = new Box(new String(type), fileOffset + position - start, data);
+                int header = box.childrenOffset();
+                if (header >= 0) {
+                    ByteBuffer children = data.duplicate();
+                    children.position(header);
+                    box.children.addAll(parse(children.slice(),
+                            box.offset + 8 + header));
+                }
+                boxes.add(box);
+            }
+            return boxes;
+        }
+
+        /**
+         * Returns where children start in the payload, or -1 if this box has no children.
+         */
+        private int childrenOffset() {
+            switch (type) {
+                case "moov": case "trak": case "mdia": case "minf": case "dinf":
+                case "stbl": case "mvex": case "moof": case "traf": return 0;
+                case "stsd": case "dref": return 8; // version, flags and entry count
+                case "avc1": return 78;
+                case "mp4a": return 28;
+                default: return -1;
+            }
+        }
+
+        @NonNull
+        private List<Box> children(@NonNull String type) {
+            List<Box> result = new ArrayList<>();
+            for (Box child : children) {
+                if (child.type.equals(type)) result.add(child);
+            }
+            return result;
+        }
+
+        @NonNull
+        private Box child(@NonNull String type) {
+            List<Box> result = children(type);
+            assertEquals("Box " + type + " in " + this.type, 1, result.size());
+            return result.get(0);
+        }
+
+        @Nullable
+        private Box find(@NonNull String... path) {
+            Box box = this;
+            for (String type : path) {
+                box = box.child(type);
+            }
+            return box;
+        }
+
+        @NonNull
+        private String fourCC(int position) {
+            return new String(bytes(position, 4));
+        }
+
+        @NonNull
+        private byte[] bytes(int position, int length) {
+            byte[] result = new byte[length];
+            ByteBuffer duplicate = data.duplicate();
+            duplicate.position(position);
+            duplicate.get(result);
+            return result;
+        }
+    }
+}
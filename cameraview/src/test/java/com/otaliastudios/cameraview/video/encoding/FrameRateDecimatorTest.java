@@ -0,0 +1,183 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameRateDecimatorTest {
+
+    private final static long START_US = 123456789L;
+    private final static long DURATION_US = 10000000L;
+
+    /**
+     * Creates a synthetic timeline of the given frame rate, with random jitter
+     * in the [-jitterUs, +jitterUs] range around the ideal timestamps.
+     */
+    private static List<Long> timeline(float frameRate, long jitterUs, long seed) {
+        Random random = new Random(seed);
+        List<Long> timestamps = new ArrayList<>();
+        double intervalUs = 1000000D / frameRate;
+        for (int i = 0; i * intervalUs < DURATION_US; i++) {
+            long jitter = jitterUs == 0 ? 0 : (long) ((random.nextDouble() * 2 - 1) * jitterUs);
+            timestamps.add(START_US + (long) (i * intervalUs) + jitter);
+        }
+        return timestamps;
+    }
+
+    private static List<Long> decimate(FrameRateDecimator decimator, List<Long> timestamps) {
+        List<Long> rendered = new ArrayList<>();
+        for (long timestamp : timestamps) {
+            if (render(decimator, timestamp)) rendered.add(timestamp);
+        }
+        return rendered;
+    }
+
+    private static boolean render(FrameRateDecimator decimator, long timestampUs) {
+        if (!decimator.shouldRenderFrame(timestampUs)) return false;
+        decimator.onFrameRendered(timestampUs);
+        return true;
+    }
+
+    private static long maxGap(List<Long> timestamps) {
+        long max = 0;
+        for (int i = 1; i < timestamps.size(); i++) {
+            max = Math.max(max, timestamps.get(i) - timestamps.get(i - 1));
+        }
+        return max;
+    }
+
+    private static void assertFrameCount(int frameRate, List<Long> rendered) {
+        int expected = (int) (frameRate * DURATION_US / 1000000L);
+        assertTrue("Expected ~" + expected + " frames, got " + rendered.size(),
+                Math.abs(rendered.size() - expected) <= 1);
+    }
+
+    @Test
+    public void testDisabled() {
+        FrameRateDecimator decimator = new FrameRateDecimator(0);
+        List<Long> timestamps = timeline(60, 0, 0);
+        assertEquals(timestamps, decimate(decimator, timestamps));
+        assertEquals(0, decimator.getDecimatedFrames());
+    }
+
+    @Test
+    public void testFirstFrame() {
+        FrameRateDecimator decimator = new FrameRateDecimator(30);
+        assertTrue(render(decimator, START_US));
+        assertFalse(render(decimator, START_US + 1000));
+    }
+
+    @Test
+    public void testHalfRate() {
+        FrameRateDecimator decimator = new FrameRateDecimator(30);
+        List<Long> timestamps = timeline(60, 0, 0);
+        List<Long> rendered = decimate(decimator, timestamps);
+        assertFrameCount(30, rendered);
+        for (int i = 0; i < rendered.size(); i++) {
+            assertEquals(timestamps.get(i * 2), rendered.get(i));
+        }
+        assertEquals(timestamps.size() - rendered.size(), decimator.getDecimatedFrames());
+    }
+
+    @Test
+    public void testFractionalRatio() {
+        // 60 to 24 fps: we should alternate gaps of 2 and 3 source frames.
+        FrameRateDecimator decimator = new FrameRateDecimator(24);
+        List<Long> rendered = decimate(decimator, timeline(60, 0, 0));
+        assertFrameCount(24, rendered);
+        assertTrue(maxGap(rendered) <= 3 * 1000000L / 60 + 1);
+    }
+
+    @Test
+    public void testJitter_sameRate() {
+        // With the same rate, no frame should be dropped, even with jitter.
+        FrameRateDecimator decimator = new FrameRateDecimator(30);
+        List<Long> timestamps = timeline(30, 8000, 1);
+        assertEquals(timestamps, decimate(decimator, timestamps));
+    }
+
+    @Test
+    public void testJitter_higherRate() {
+        FrameRateDecimator decimator = new FrameRateDecimator(30);
+        List<Long> rendered = decimate(decimator, timeline(120, 2000, 2));
+        assertFrameCount(30, rendered);
+        // Jitter can make a frame late, but never more than one source frame.
+        assertTrue(maxGap(rendered) <= 1000000L / 30 + 1000000L / 120 + 4000);
+    }
+
+    @Test
+    public void testSlightlyFasterSource() {
+        // NTSC-like rates should not produce periodic drops.
+        FrameRateDecimator decimator = new FrameRateDecimator(30);
+        List<Long> timestamps = timeline(29.97F, 0, 0);
+        assertEquals(timestamps, decimate(decimator, timestamps));
+        decimator = new FrameRateDecimator(30);
+        decimate(decimator, timeline(30.03F, 0, 0));
+        assertTrue(decimator.getDecimatedFrames() <= 1);
+    }
+
+    @Test
+    public void testSlowerSource() {
+        FrameRateDecimator decimator = new FrameRateDecimator(30);
+        List<Long> timestamps = timeline(15, 3000, 3);
+        assertEquals(timestamps, decimate(decimator, timestamps));
+    }
+
+    @Test
+    public void testPause() {
+        // After a pause, we should not render a burst of frames to catch up.
+        FrameRateDecimator decimator = new FrameRateDecimator(30);
+        List<Long> timestamps = new ArrayList<>();
+        for (long t = 0; t < 990000L; t += 1000000L / 60) timestamps.add(START_US + t);
+        for (long t = 3000000L; t < 3990000L; t += 1000000L / 60) timestamps.add(START_US + t);
+        List<Long> rendered = decimate(decimator, timestamps);
+        assertEquals(60, rendered.size());
+        for (int i = 1; i < rendered.size(); i++) {
+            long gap = rendered.get(i) - rendered.get(i - 1);
+            assertTrue(gap >= 1000000L / 60 * 2);
+        }
+    }
+
+    @Test
+    public void testTimeLapse() {
+        // One frame every 2 seconds out of a 30 fps source, with jitter.
+        FrameRateDecimator decimator = new FrameRateDecimator(2000000L, 1);
+        List<Long> rendered = decimate(decimator, timeline(30, 5000, 4));
+        assertEquals(DURATION_US / 2000000L, rendered.size());
+        for (int i = 1; i < rendered.size(); i++) {
+            long gap = rendered.get(i) - rendered.get(i - 1);
+            assertTrue(Math.abs(gap - 2000000L) <= 1000000L / 30 + 10000);
+        }
+    }
+
+    @Test
+    public void testBackwardsTimestamps() {
+        FrameRateDecimator decimator = new FrameRateDecimator(30);
+        assertTrue(render(decimator, START_US));
+        assertTrue(render(decimator, START_US + 40000));
+        // Timestamps going back should not block rendering until they catch up.
+        assertTrue(render(decimator, START_US - 1000000));
+        assertFalse(render(decimator, START_US - 1000000 + 1000));
+        assertTrue(render(decimator, START_US - 1000000 + 34000));
+    }
+
+    @Test
+    public void testDroppedByCaller() {
+        FrameRateDecimator decimator = new FrameRateDecimator(30);
+        assertTrue(render(decimator, START_US));
+        // The frame could be rendered, but the caller drops it for another reason.
+        assertTrue(decimator.shouldRenderFrame(START_US + 33333));
+        // So its slot is still free for the next frame.
+        assertTrue(render(decimator, START_US + 50000));
+        assertFalse(render(decimator, START_US + 52000));
+        assertTrue(render(decimator, START_US + 66666));
+        assertEquals(1, decimator.getDecimatedFrames());
+    }
+}
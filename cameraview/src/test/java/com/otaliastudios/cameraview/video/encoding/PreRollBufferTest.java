@@ -0,0 +1,184 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+
+import android.media.MediaCodec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PreRollBufferTest {
+
+    private final static int VIDEO = 0;
+    private final static int AUDIO = 1;
+    //noinspection deprecation
+    private final static int KEY = MediaCodec.BUFFER_FLAG_SYNC_FRAME;
+    private final static int MAX_BYTES = 1000;
+
+    private PreRollBuffer buffer;
+
+    @Before
+    public void setUp() {
+        buffer = new PreRollBuffer(MAX_BYTES);
+    }
+
+    /**
+     * Creates a sample of the given size, filled with the given value,
+     * with some padding around it.
+     */
+    private static ByteBuffer sample(int size, int value) {
+        ByteBuffer data = ByteBuffer.allocate(size + 20);
+        for (int i = 0; i < size; i++) {
+            data.put(10 + i, (byte) value);
+        }
+        data.position(10);
+        data.limit(10 + size);
+        return data;
+    }
+
+    private boolean addVideo(int size, long time, boolean key) {
+        return buffer.add(VIDEO, true, sample(size, (int) time), key ? KEY : 0, time);
+    }
+
+    private boolean addAudio(int size, long time) {
+        return buffer.add(AUDIO, false, sample(size, (int) time), KEY, time);
+    }
+
+    /**
+     * Checks that the head sample has the expected data, and removes it.
+     */
+    private void checkHead(int track, int size, long time) {
+        assertTrue(buffer.peek());
+        assertEquals(track, buffer.getTrack());
+        assertEquals(time, buffer.getPresentationTimeUs());
+        ByteBuffer data = buffer.getData();
+        assertEquals(size, data.remaining());
+        for (int i = 0; i < size; i++) {
+            assertEquals((byte) time, data.get(data.position() + i));
+        }
+        buffer.remove();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new PreRollBuffer(0);
+    }
+
+    @Test
+    public void testStartsWithKeyFrame() {
+        assertFalse(addAudio(10, 0));
+        assertFalse(addVideo(10, 1, false));
+        assertEquals(0, buffer.size());
+        assertTrue(addVideo(10, 2, true));
+        assertTrue(addAudio(10, 3));
+        assertTrue(addVideo(10, 4, false));
+        assertEquals(3, buffer.size());
+        assertEquals(30, buffer.getBytes());
+        assertEquals(2, buffer.getDurationUs());
+    }
+
+    @Test
+    public void testSourceUnchanged() {
+        ByteBuffer data = sample(10, 5);
+        buffer.add(VIDEO, true, data, KEY, 5);
+        assertEquals(10, data.position());
+        assertEquals(20, data.limit());
+    }
+
+    @Test
+    public void testRead() {
+        addVideo(100, 0, true);
+        addAudio(50, 1);
+        addVideo(30, 2, false);
+        assertEquals(KEY, buffer.getFlags());
+        checkHead(VIDEO, 100, 0);
+        checkHead(AUDIO, 50, 1);
+        assertEquals(0, buffer.getFlags());
+        checkHead(VIDEO, 30, 2);
+        assertFalse(buffer.peek());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRemove_empty() {
+        buffer.remove();
+    }
+
+    @Test
+    public void testEvictsGroupOfPictures() {
+        // Two groups of 400 bytes each.
+        long time = 0;
+        for (int gop = 0; gop < 2; gop++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(addVideo(100, time++, i == 0));
+            }
+        }
+        assertEquals(800, buffer.getBytes());
+        // This does not fit, so the whole first group is removed, not just one sample.
+        assertTrue(addVideo(300, time, false));
+        assertEquals(5, buffer.size());
+        assertEquals(700, buffer.getBytes());
+        assertTrue(buffer.peek());
+        assertEquals(4, buffer.getPresentationTimeUs());
+        assertEquals(KEY, buffer.getFlags());
+    }
+
+    @Test
+    public void testWrapAround() {
+        // Keep adding groups of different sizes, so that samples wrap around at
+        // different offsets. The buffer must always start at a key frame and never
+        // exceed the max size, and data must never be corrupted.
+        long time = 0;
+        for (int gop = 0; gop < 200; gop++) {
+            for (int i = 0; i < 5; i++) {
+                int size = 20 + (int) ((time * 37) % 90);
+                addVideo(size, time, i == 0);
+                addAudio(15, time + 1);
+                time += 2;
+                assertTrue(buffer.getBytes() <= MAX_BYTES);
+                assertTrue(buffer.peek());
+                assertEquals(VIDEO, buffer.getTrack());
+                assertEquals(KEY, buffer.getFlags());
+            }
+        }
+        // Read everything and check data and order.
+        long last = -1;
+        int count = buffer.size();
+        for (int i = 0; i < count; i++) {
+            assertTrue(buffer.peek());
+            long sampleTime = buffer.getPresentationTimeUs();
+            assertTrue(sampleTime > last);
+            int size = buffer.getTrack() == VIDEO ? 20 + (int) ((sampleTime * 37) % 90) : 15;
+            checkHead(buffer.getTrack(), size, sampleTime);
+            last = sampleTime;
+        }
+        assertFalse(buffer.peek());
+        assertEquals(0, buffer.getBytes());
+    }
+
+    @Test
+    public void testTooBig() {
+        addVideo(100, 0, true);
+        assertFalse(addVideo(MAX_BYTES + 1, 1, true));
+        assertEquals(0, buffer.size());
+        assertTrue(addVideo(MAX_BYTES, 2, true));
+        assertEquals(MAX_BYTES, buffer.getBytes());
+    }
+
+    @Test
+    public void testGrow() {
+        // Many small samples, more than the initial metadata capacity.
+        assertTrue(addVideo(1, 0, true));
+        for (int i = 1; i < 900; i++) {
+            assertTrue(addAudio(1, i));
+        }
+        assertEquals(900, buffer.size());
+        for (int i = 0; i < 900; i++) {
+            checkHead(i == 0 ? VIDEO : AUDIO, 1, i);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class SegmentRotatorTest {
+
+    private final static int VIDEO = 0;
+    private final static int AUDIO = 1;
+    //noinspection deprecation
+    private final static int KEY = MediaCodec.BUFFER_FLAG_SYNC_FRAME;
+    private final static long DURATION = 1000000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private TestMuxer firstMuxer;
+    private final List<TestMuxer> muxers = new ArrayList<>();
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<File> segments = new ArrayList<>();
+    private int syncRequests;
+    private boolean failNextMuxer;
+    private SegmentRotator rotator;
+
+    private static class TestMuxer implements Muxer {
+        private final File file;
+        private final List<Long> samples = new ArrayList<>();
+        private int tracks;
+        private boolean started;
+        private boolean stopped;
+        private boolean released;
+
+        private TestMuxer(@NonNull File file) {
+            this.file = file;
+        }
+
+        @Override
+        public int addTrack(@NonNull MediaFormat format) {
+            return tracks++;
+        }
+
+        @Override
+        public void start() {
+            started = true;
+        }
+
+        @Override
+        public void writeSampleData(int trackIndex, @NonNull ByteBuffer data,
+                                    @NonNull MediaCodec.BufferInfo info) {
+            assertTrue(started);
+            samples.add(info.presentationTimeUs);
+        }
+
+        @Override
+        public void stop() {
+            if (samples.isEmpty()) throw new IllegalStateException("No samples.");
+            stopped = true;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "video.mp4");
+        firstMuxer = new TestMuxer(file);
+        firstMuxer.start();
+        List<MediaFormat> formats = Arrays.asList(mock(MediaFormat.class),
+                mock(MediaFormat.class));
+        // Tasks are run manually, to check what happens on the encoder thread.
+        Executor executor = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                tasks.add(command);
+            }
+        };
+        rotator = new SegmentRotator(file, DURATION, firstMuxer, formats, VIDEO, executor,
+                new SegmentRotator.Callback() {
+                    @NonNull
+                    @Override
+                    public Muxer createMuxer(@NonNull File file) throws IOException {
+                        if (failNextMuxer) {
+                            failNextMuxer = false;
+                            throw new IOException("Failed.");
+                        }
+                        assertTrue(file.createNewFile());
+                        TestMuxer muxer = new TestMuxer(file);
+                        muxers.add(muxer);
+                        return muxer;
+                    }
+
+                    @Override
+                    public void requestSyncFrame() {
+                        syncRequests++;
+                    }
+
+                    @Override
+                    public void onSegment(@NonNull File file, @NonNull File nextFile) {
+                        segments.add(file);
+                        segments.add(nextFile);
+                    }
+                });
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    private void write(int track, long time, int flags) {
+        OutputBuffer buffer = new OutputBuffer();
+        buffer.trackIndex = track;
+        buffer.data = ByteBuffer.allocate(1);
+        buffer.info = mock(MediaCodec.BufferInfo.class);
+        buffer.info.presentationTimeUs = time;
+        buffer.info.flags = flags;
+        rotator.write(buffer);
+    }
+
+    @Test
+    public void testSegmentFile() {
+        File dir = new File("dir");
+        assertEquals(new File(dir, "video.mp4"),
+                MediaEncoderEngine.getSegmentFile(new File(dir, "video.mp4"), 0));
+        assertEquals(new File(dir, "video_1.mp4"),
+                MediaEncoderEngine.getSegmentFile(new File(dir, "video.mp4"), 1));
+        assertEquals(new File(dir, "video_12.mp4"),
+                MediaEncoderEngine.getSegmentFile(new File(dir, "video.mp4"), 12));
+        assertEquals(new File(dir, "my.video_2.mp4"),
+                MediaEncoderEngine.getSegmentFile(new File(dir, "my.video.mp4"), 2));
+        assertEquals(new File(dir, "video_1"),
+                MediaEncoderEngine.getSegmentFile(new File(dir, "video"), 1));
+        assertEquals(new File(dir, ".video_1"),
+                MediaEncoderEngine.getSegmentFile(new File(dir, ".video"), 1));
+    }
+
+    @Test
+    public void testPreparedAhead() {
+        // The next muxer is created on the executor, never on the encoder thread.
+        assertEquals(1, tasks.size());
+        assertTrue(muxers.isEmpty());
+        runTasks();
+        assertEquals(1, muxers.size());
+        TestMuxer next = muxers.get(0);
+        assertEquals(MediaEncoderEngine.getSegmentFile(file, 1), next.file);
+        assertEquals(2, next.tracks);
+        assertTrue(next.started);
+        assertTrue(next.samples.isEmpty());
+    }
+
+    @Test
+    public void testRotation() {
+        runTasks();
+        write(VIDEO, 0, KEY);
+        write(AUDIO, 10, KEY);
+        write(VIDEO, DURATION / 2, 0);
+        write(VIDEO, DURATION, KEY);
+        write(AUDIO, DURATION + 10, KEY);
+        assertEquals(Arrays.asList(0L, 10L, DURATION / 2), firstMuxer.samples);
+        TestMuxer second = muxers.get(0);
+        assertEquals(Arrays.asList(DURATION, DURATION + 10), second.samples);
+
+        // The old muxer is stopped on the executor, then the third one is prepared.
+        assertFalse(firstMuxer.stopped);
+        assertEquals(1, muxers.size());
+        runTasks();
+        assertTrue(firstMuxer.stopped);
+        assertTrue(firstMuxer.released);
+        assertEquals(Arrays.asList(file, MediaEncoderEngine.getSegmentFile(file, 1)), segments);
+        assertEquals(2, muxers.size());
+        assertEquals(MediaEncoderEngine.getSegmentFile(file, 2), muxers.get(1).file);
+
+        // The next segment starts from the new start time.
+        write(VIDEO, 2 * DURATION - 1, KEY);
+        write(VIDEO, 2 * DURATION, KEY);
+        assertEquals(Arrays.asList(DURATION, DURATION + 10, 2 * DURATION - 1), second.samples);
+        assertEquals(Arrays.asList(2 * DURATION), muxers.get(1).samples);
+        assertEquals(0, syncRequests);
+    }
+
+    @Test
+    public void testKeyFrameAlignment() {
+        runTasks();
+        write(VIDEO, 0, KEY);
+        write(VIDEO, DURATION, 0);
+        write(VIDEO, DURATION + 1, 0);
+        // Audio samples do not start segments, even if they are sync samples.
+        write(AUDIO, DURATION + 2, KEY);
+        // One key frame is requested, and the current segment goes on until it arrives.
+        assertEquals(1, syncRequests);
+        TestMuxer second = muxers.get(0);
+        assertTrue(second.samples.isEmpty());
+        write(VIDEO, DURATION + 3, KEY);
+        assertEquals(Arrays.asList(0L, DURATION, DURATION + 1, DURATION + 2),
+                firstMuxer.samples);
+        assertEquals(Arrays.asList(DURATION + 3), second.samples);
+    }
+
+    @Test
+    public void testNextSegmentNotReady() {
+        // The executor did not run yet, so the next muxer is not ready.
+        write(VIDEO, 0, KEY);
+        write(VIDEO, DURATION, KEY);
+        write(VIDEO, DURATION + 1, 0);
+        assertEquals(Arrays.asList(0L, DURATION, DURATION + 1), firstMuxer.samples);
+        assertEquals(0, syncRequests);
+        assertEquals(1, tasks.size());
+        runTasks();
+        // Now it is ready: ask for a key frame and switch.
+        write(VIDEO, DURATION + 2, 0);
+        assertEquals(1, syncRequests);
+        write(VIDEO, DURATION + 3, KEY);
+        assertEquals(Arrays.asList(DURATION + 3), muxers.get(0).samples);
+    }
+
+    @Test
+    public void testPrepareFailure() {
+        failNextMuxer = true;
+        runTasks();
+        assertTrue(muxers.isEmpty());
+        write(VIDEO, 0, KEY);
+        write(VIDEO, DURATION, KEY);
+        // Still writing the first segment, but trying again.
+        assertEquals(Arrays.asList(0L, DURATION), firstMuxer.samples);
+        assertEquals(1, tasks.size());
+        runTasks();
+        write(VIDEO, DURATION + 1, KEY);
+        assertEquals(Arrays.asList(DURATION + 1), muxers.get(0).samples);
+    }
+
+    @Test
+    public void testRelease() {
+        runTasks();
+        write(VIDEO, 0, KEY);
+        TestMuxer next = muxers.get(0);
+        assertTrue(next.file.exists());
+        assertSame(firstMuxer, rotator.release());
+        // The prepared muxer is released, and its empty file deleted.
+        assertTrue(next.released);
+        assertFalse(next.file.exists());
+        // Later writes are ignored.
+        write(VIDEO, 1, KEY);
+        assertEquals(Arrays.asList(0L), firstMuxer.samples);
+        assertNull(rotator.release());
+    }
+
+    @Test
+    public void testRelease_whilePreparing() {
+        assertSame(firstMuxer, rotator.release());
+        // The muxer created after the release is discarded.
+        runTasks();
+        assertEquals(1, muxers.size());
+        assertTrue(muxers.get(0).released);
+        assertFalse(muxers.get(0).file.exists());
+    }
+}
@@ -0,0 +1,66 @@
+package com.otaliastudios.cameraview.video.encoding;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TextureMediaEncoderTest {
+
+    private final static long START_US = 123456789L;
+
+    @Test
+    public void testShouldRenderFrame_droppedBySuper() {
+        TextureConfig config = new TextureConfig();
+        config.frameRate = 30;
+        TextureMediaEncoder encoder = new TextureMediaEncoder(config);
+        encoder.mFrameNumber = 0;
+        assertTrue(encoder.shouldRenderFrame(START_US));
+        // Stopping: the frame is dropped after the decimator accepted it.
+        encoder.mFrameNumber = -1;
+        assertFalse(encoder.shouldRenderFrame(START_US + 33333));
+        // The decimator did not move forward, so the next frame takes that slot.
+        encoder.mFrameNumber = 1;
+        assertTrue(encoder.shouldRenderFrame(START_US + 50000));
+        assertFalse(encoder.shouldRenderFrame(START_US + 52000));
+    }
+
+    @Test
+    public void testShouldRenderFrame_timeLapse() {
+        TextureConfig config = new TextureConfig();
+        config.frameRate = 30;
+        config.timeLapseIntervalUs = 2000000L;
+        TextureMediaEncoder encoder = new TextureMediaEncoder(config);
+        encoder.mFrameNumber = 0;
+        assertTrue(encoder.shouldRenderFrame(START_US));
+        assertFalse(encoder.shouldRenderFrame(START_US + 1000000L));
+        encoder.mFrameNumber = -1;
+        assertFalse(encoder.shouldRenderFrame(START_US + 2000000L));
+        // The capture that was dropped is taken by the next frame, not two seconds later.
+        encoder.mFrameNumber = 1;
+        assertTrue(encoder.shouldRenderFrame(START_US + 2033333L));
+    }
+
+    @Test
+    public void testEncodedBitRate() {
+        TextureConfig config = new TextureConfig();
+        config.frameRate = 30;
+        config.bitRate = 3000000;
+        assertEquals(3000000, new TextureMediaEncoder(config).getEncodedBitRate());
+    }
+
+    @Test
+    public void testEncodedBitRate_timeLapse() {
+        // One capture every 2 seconds, played at 30 fps: 60 seconds of recording
+        // make one second of video.
+        TextureConfig config = new TextureConfig();
+        config.frameRate = 30;
+        config.bitRate = 3000000;
+        config.timeLapseIntervalUs = 2000000L;
+        assertEquals(50000, new TextureMediaEncoder(config).getEncodedBitRate());
+        config.bitRate = 100;
+        assertEquals(8, new TextureMediaEncoder(config).getEncodedBitRate());
+    }
+}